@@ -0,0 +1,131 @@
+package net.ttddyy.dsproxy.benchmark;
+
+import net.ttddyy.dsproxy.ProxyConfigurations;
+import net.ttddyy.dsproxy.StubDataSource;
+import net.ttddyy.dsproxy.TestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure overhead of the proxy for main JDBC operations.
+ *
+ * Each benchmark runs against the actual datasource({@code RAW}) and proxies with different configurations, so
+ * that the difference shows the cost of the proxy. Run with:
+ * <pre>
+ * ./mvnw -P jmh verify
+ * </pre>
+ *
+ * Results are written to {@code target/jmh-result.json}.
+ *
+ * @author Tadaya Tsuyukubo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyBenchmark {
+
+    private static final String SELECT = "SELECT id, name FROM emp";
+    private static final String SELECT_BY_ID = "SELECT id, name FROM emp WHERE id = ?";
+    private static final String UPDATE = "UPDATE emp SET name = ? WHERE id = ?";
+
+    @Param({"RAW", "NO_LISTENER", "COUNT_ONLY", "LOGGING", "TRACING", "REPEATABLE_READ"})
+    public ProxyConfigurations configuration;
+
+    @Param({"stub", "hsqldb"})
+    public String driver;
+
+    private DataSource actualDataSource;
+    private DataSource dataSource;
+    private Connection connection;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        if ("hsqldb".equals(this.driver)) {
+            this.actualDataSource = TestUtils.getDataSourceWithData();
+        } else {
+            this.actualDataSource = new StubDataSource();
+        }
+        this.dataSource = this.configuration.create(this.actualDataSource);
+        this.connection = this.dataSource.getConnection();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.connection.close();
+        if ("hsqldb".equals(this.driver)) {
+            TestUtils.shutdown(this.actualDataSource);
+        }
+    }
+
+    @Benchmark
+    public void getConnection() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.close();
+    }
+
+    @Benchmark
+    public boolean statementExecute() throws Exception {
+        Statement stmt = this.connection.createStatement();
+        boolean result = stmt.execute(SELECT);
+        stmt.close();
+        return result;
+    }
+
+    @Benchmark
+    public void preparedStatementSetAndExecute(Blackhole blackhole) throws Exception {
+        PreparedStatement ps = this.connection.prepareStatement(SELECT_BY_ID);
+        ps.setLong(1, 1L);
+        ResultSet rs = ps.executeQuery();
+        blackhole.consume(rs.next());
+        rs.close();
+        ps.close();
+    }
+
+    @Benchmark
+    public int[] batch() throws Exception {
+        PreparedStatement ps = this.connection.prepareStatement(UPDATE);
+        for (int i = 0; i < 10; i++) {
+            ps.setString(1, "foo");
+            ps.setLong(2, i);
+            ps.addBatch();
+        }
+        int[] result = ps.executeBatch();
+        ps.close();
+        return result;
+    }
+
+    @Benchmark
+    public void resultSetIteration(Blackhole blackhole) throws Exception {
+        Statement stmt = this.connection.createStatement();
+        ResultSet rs = stmt.executeQuery(SELECT);
+        while (rs.next()) {
+            blackhole.consume(rs.getLong(1));
+            blackhole.consume(rs.getString(2));
+        }
+        rs.close();
+        stmt.close();
+    }
+
+}
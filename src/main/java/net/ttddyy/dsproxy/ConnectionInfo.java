@@ -13,6 +13,8 @@ public class ConnectionInfo {
     private boolean isClosed;
     private int commitCount;
     private int rollbackCount;
+    private Boolean autoCommit;
+    private TransactionInfo currentTransaction;
 
     public String getDataSourceName() {
         return dataSourceName;
@@ -98,4 +100,38 @@ public class ConnectionInfo {
         isClosed = closed;
     }
 
+    /**
+     * Returns auto-commit mode of the connection known by the proxy.
+     *
+     * @return auto-commit mode. {@code null} if not yet known.
+     * @since 1.4.5
+     */
+    public Boolean getAutoCommit() {
+        return autoCommit;
+    }
+
+    /**
+     * @since 1.4.5
+     */
+    public void setAutoCommit(Boolean autoCommit) {
+        this.autoCommit = autoCommit;
+    }
+
+    /**
+     * Returns the transaction in progress when transaction tracking is enabled.
+     *
+     * @return current transaction. {@code null} if there is no transaction in progress.
+     * @since 1.4.5
+     */
+    public TransactionInfo getCurrentTransaction() {
+        return currentTransaction;
+    }
+
+    /**
+     * @since 1.4.5
+     */
+    public void setCurrentTransaction(TransactionInfo currentTransaction) {
+        this.currentTransaction = currentTransaction;
+    }
+
 }
@@ -2,6 +2,8 @@ package net.ttddyy.dsproxy;
 
 import java.lang.reflect.Method;
 import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Contains query execution information.
@@ -15,12 +17,18 @@ public class ExecutionInfo {
     private Object[] methodArgs;
     private Object result;
     private long elapsedTime;
+    private long queueWaitTime;
     private Throwable throwable;
     private StatementType statementType;
     private boolean isSuccess;
+    private boolean timedOut;
+    private boolean cancelled;
     private boolean isBatch;
     private int batchSize;
     private Statement statement;
+    private ConnectionInfo connectionInfo;
+    // lazily created
+    private Map<String, Object> customValues;
 
     public ExecutionInfo() {
     }
@@ -28,6 +36,7 @@ public class ExecutionInfo {
     public ExecutionInfo(ConnectionInfo connectionInfo, Statement statement, boolean isBatch, int batchSize, Method method, Object[] methodArgs) {
         this.dataSourceName = connectionInfo.getDataSourceName();
         this.connectionId = connectionInfo.getConnectionId();
+        this.connectionInfo = connectionInfo;
         this.statement = statement;
         this.isBatch = isBatch;
         this.batchSize = batchSize;
@@ -103,6 +112,23 @@ public class ExecutionInfo {
         this.elapsedTime = elapsedTime;
     }
 
+    /**
+     * Time waited for a permit of {@link net.ttddyy.dsproxy.proxy.ConcurrencyLimiter} before the execution.
+     *
+     * @return wait time in milliseconds. {@code 0} if not waited.
+     * @since 1.4.5
+     */
+    public long getQueueWaitTime() {
+        return queueWaitTime;
+    }
+
+    /**
+     * @since 1.4.5
+     */
+    public void setQueueWaitTime(long queueWaitTime) {
+        this.queueWaitTime = queueWaitTime;
+    }
+
     public Throwable getThrowable() {
         return throwable;
     }
@@ -139,6 +165,42 @@ public class ExecutionInfo {
         this.isSuccess = isSuccess;
     }
 
+    /**
+     * Indicate whether the execution has failed because its query timeout expired.
+     *
+     * @return true when the execution timed out
+     * @see net.ttddyy.dsproxy.proxy.QueryTimeoutPolicy#isTimeout(Throwable)
+     * @since 1.4.5
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @since 1.4.5
+     */
+    public void setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * Indicate whether the execution has failed after {@link Statement#cancel()} was called while it was running,
+     * by the application or by the watchdog of {@link net.ttddyy.dsproxy.proxy.QueryTimeoutPolicy}.
+     *
+     * @return true when the execution was cancelled
+     * @since 1.4.5
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @since 1.4.5
+     */
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
     public boolean isBatch() {
         return isBatch;
     }
@@ -169,4 +231,51 @@ public class ExecutionInfo {
     public void setStatement(Statement statement) {
         this.statement = statement;
     }
+
+    /**
+     * Returns {@link ConnectionInfo} of the connection that executed the query.
+     *
+     * @return connection info. can be {@code null} when this object is not created by the proxy.
+     * @since 1.4.5
+     */
+    public ConnectionInfo getConnectionInfo() {
+        return connectionInfo;
+    }
+
+    /**
+     * @since 1.4.5
+     */
+    public void setConnectionInfo(ConnectionInfo connectionInfo) {
+        this.connectionInfo = connectionInfo;
+    }
+
+    /**
+     * Store a value to pass between before and after callbacks of listeners.
+     *
+     * @param key   key
+     * @param value value
+     * @since 1.4.5
+     */
+    public void addCustomValue(String key, Object value) {
+        if (this.customValues == null) {
+            this.customValues = new HashMap<String, Object>();
+        }
+        this.customValues.put(key, value);
+    }
+
+    /**
+     * Retrieve a value stored by {@link #addCustomValue(String, Object)}.
+     *
+     * @param key  key
+     * @param type value type
+     * @param <T>  value type
+     * @return value or {@code null} if not stored
+     * @since 1.4.5
+     */
+    public <T> T getCustomValue(String key, Class<T> type) {
+        if (this.customValues == null) {
+            return null;
+        }
+        return type.cast(this.customValues.get(key));
+    }
 }
@@ -0,0 +1,170 @@
+package net.ttddyy.dsproxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram with power-of-two buckets.
+ *
+ * Bucket {@code 0} holds value {@code 0}, and bucket {@code i} holds values in {@code [2^(i-1), 2^i - 1]}.
+ * Recording a value is a couple of atomic increments, so it is cheap enough to call on every JDBC operation.
+ * Percentiles are approximated by the upper bound of the bucket.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class Histogram {
+
+    /**
+     * Number of buckets.
+     */
+    public static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Returns bucket index for the value.
+     *
+     * @param value value. negative value is treated as {@code 0}.
+     * @return bucket index
+     */
+    public static int getBucketIndex(long value) {
+        if (value <= 0) {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(value), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Returns inclusive upper bound of the bucket.
+     *
+     * @param bucketIndex bucket index
+     * @return largest value the bucket holds
+     */
+    public static long getBucketUpperBound(int bucketIndex) {
+        if (bucketIndex >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return (1L << bucketIndex) - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        this.buckets.incrementAndGet(getBucketIndex(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+
+        long currentMax = this.max.get();
+        while (value > currentMax) {
+            if (this.max.compareAndSet(currentMax, value)) {
+                break;
+            }
+            currentMax = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : (double) this.sum.get() / count;
+    }
+
+    /**
+     * Returns approximated percentile value.
+     *
+     * @param percentile percentile in range of {@code 0.0} to {@code 1.0}. (e.g. 0.99 for p99)
+     * @return upper bound of the bucket that contains the percentile, capped by max recorded value
+     */
+    public long getPercentile(double percentile) {
+        int bucketIndex = getPercentileBucketIndex(percentile);
+        return bucketIndex < 0 ? 0 : Math.min(getBucketUpperBound(bucketIndex), getMax());
+    }
+
+    /**
+     * Returns index of the bucket that contains the percentile.
+     *
+     * @param percentile percentile in range of {@code 0.0} to {@code 1.0}. (e.g. 0.99 for p99)
+     * @return bucket index. {@code -1} when nothing is recorded.
+     */
+    public int getPercentileBucketIndex(double percentile) {
+        // read buckets twice instead of copying them, so that frequent callers do not allocate.
+        // concurrent records may be partially seen, which is fine for an approximation.
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += this.buckets.get(i);
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long threshold = (long) Math.ceil(total * percentile);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            accumulated += this.buckets.get(i);
+            if (accumulated >= threshold && accumulated > 0) {
+                return i;
+            }
+        }
+        return BUCKET_COUNT - 1;
+    }
+
+    /**
+     * Returns snapshot of bucket counts.
+     *
+     * @return counts per bucket
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = this.buckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns count of a bucket without copying all buckets.
+     *
+     * @param bucketIndex bucket index
+     * @return count of the bucket
+     */
+    public long getBucketCount(int bucketIndex) {
+        return this.buckets.get(bucketIndex);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.buckets.set(i, 0);
+        }
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("count=").append(getCount());
+        sb.append(", mean=").append(String.format("%.1f", getMean()));
+        sb.append(", p50=").append(getPercentile(0.5));
+        sb.append(", p90=").append(getPercentile(0.9));
+        sb.append(", p99=").append(getPercentile(0.99));
+        sb.append(", max=").append(getMax());
+        return sb.toString();
+    }
+
+}
@@ -25,6 +25,9 @@ public class QueryCount {
     private AtomicLong total = new AtomicLong();
     private AtomicLong failure = new AtomicLong();
     private AtomicLong success = new AtomicLong();
+    // subset of failure
+    private AtomicLong timeout = new AtomicLong();
+    private AtomicLong cancel = new AtomicLong();
 
     private AtomicLong time = new AtomicLong();
 
@@ -105,6 +108,20 @@ public class QueryCount {
         failure.incrementAndGet();
     }
 
+    /**
+     * @since 1.4.5
+     */
+    public void incrementTimeout() {
+        timeout.incrementAndGet();
+    }
+
+    /**
+     * @since 1.4.5
+     */
+    public void incrementCancel() {
+        cancel.incrementAndGet();
+    }
+
     public void incrementTime(long delta) {
         time.addAndGet(delta);
     }
@@ -197,6 +214,40 @@ public class QueryCount {
         this.failure.set(failure);
     }
 
+    /**
+     * Number of failed executions whose query timeout expired. Included in {@link #getFailure()}.
+     *
+     * @return number of timed out executions
+     * @since 1.4.5
+     */
+    public long getTimeout() {
+        return timeout.longValue();
+    }
+
+    /**
+     * @since 1.4.5
+     */
+    public void setTimeout(long timeout) {
+        this.timeout.set(timeout);
+    }
+
+    /**
+     * Number of failed executions that were cancelled. Included in {@link #getFailure()}.
+     *
+     * @return number of cancelled executions
+     * @since 1.4.5
+     */
+    public long getCancel() {
+        return cancel.longValue();
+    }
+
+    /**
+     * @since 1.4.5
+     */
+    public void setCancel(long cancel) {
+        this.cancel.set(cancel);
+    }
+
     public long getTime() {
         return time.longValue();
     }
@@ -10,8 +10,12 @@ import java.util.concurrent.ConcurrentMap;
 /**
  * Hold QueryCount object by datasource name.
  *
+ * When a {@link QueryCountScope} is active on the current thread, values are read from and written to the scope.
+ * Otherwise, a map held by thread local is used.
+ *
  * @author Tadaya Tsuyukubo
  * @see net.ttddyy.dsproxy.listener.QueryCountStrategy
+ * @see QueryCountScope
  */
 public class QueryCountHolder {
 
@@ -22,14 +26,43 @@ public class QueryCountHolder {
         }
     };
 
+    private static ConcurrentMap<String, QueryCount> getQueryCountMap() {
+        QueryCountScope scope = QueryCountScope.current();
+        if (scope != null) {
+            return scope.getQueryCountMap();
+        }
+        return queryCountMapHolder.get();
+    }
+
     public static QueryCount get(String dataSourceName) {
-        final Map<String, QueryCount> map = queryCountMapHolder.get();
+        final Map<String, QueryCount> map = getQueryCountMap();
         return map.get(dataSourceName);
     }
 
+    /**
+     * Get {@link QueryCount} for the datasource, or create one if it does not exist.
+     *
+     * @param dataSourceName datasource name
+     * @return query count
+     * @since 1.4.5
+     */
+    public static QueryCount getOrCreate(String dataSourceName) {
+        final ConcurrentMap<String, QueryCount> map = getQueryCountMap();
+        QueryCount queryCount = map.get(dataSourceName);
+        if (queryCount == null) {
+            // scope may be shared by multiple threads
+            map.putIfAbsent(dataSourceName, new QueryCount());
+            queryCount = map.get(dataSourceName);
+        }
+        return queryCount;
+    }
+
     public static QueryCount getGrandTotal() {
+        return sum(getQueryCountMap());
+    }
+
+    static QueryCount sum(Map<String, QueryCount> map) {
         final QueryCount totalCount = new QueryCount();
-        final Map<String, QueryCount> map = queryCountMapHolder.get();
         for (QueryCount queryCount : map.values()) {
             totalCount.setSelect(totalCount.getSelect() + queryCount.getSelect());
             totalCount.setInsert(totalCount.getInsert() + queryCount.getInsert());
@@ -39,13 +72,15 @@ public class QueryCountHolder {
             totalCount.setTotal(totalCount.getTotal() + queryCount.getTotal());
             totalCount.setSuccess(totalCount.getSuccess() + queryCount.getSuccess());
             totalCount.setFailure(totalCount.getFailure() + queryCount.getFailure());
+            totalCount.setTimeout(totalCount.getTimeout() + queryCount.getTimeout());
+            totalCount.setCancel(totalCount.getCancel() + queryCount.getCancel());
             totalCount.setTime(totalCount.getTime() + queryCount.getTime());
         }
         return totalCount;
     }
 
     public static void put(String dataSourceName, QueryCount count) {
-        queryCountMapHolder.get().put(dataSourceName, count);
+        getQueryCountMap().put(dataSourceName, count);
     }
 
     public static List<String> getDataSourceNamesAsList() {
@@ -53,10 +88,10 @@ public class QueryCountHolder {
     }
 
     public static Set<String> getDataSourceNames() {
-        return queryCountMapHolder.get().keySet();
+        return getQueryCountMap().keySet();
     }
 
     public static void clear() {
-        queryCountMapHolder.get().clear();
+        getQueryCountMap().clear();
     }
 }
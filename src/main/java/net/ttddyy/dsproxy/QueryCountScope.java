@@ -0,0 +1,202 @@
+package net.ttddyy.dsproxy;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Explicit scope to count queries, such as an http request or a batch job step.
+ *
+ * While a scope is active on a thread, {@link QueryCountHolder} reads and writes {@link QueryCount} of the scope
+ * instead of the thread local map. A scope can be activated on other threads by wrapping tasks with
+ * {@link #wrap(Runnable)}, {@link #wrap(Callable)} or {@link #wrap(Executor)}, so that queries executed by
+ * asynchronous tasks are counted to the same scope. Threads only hold a reference to the scope while the work is
+ * running; short-lived threads (e.g. virtual threads) do not create their own maps.
+ *
+ * <pre>
+ * {@code
+ *   QueryCountScope scope = QueryCountScope.open();
+ *   try {
+ *       // execute queries, or submit tasks to scope.wrap(executor)
+ *   } finally {
+ *       scope.close();
+ *   }
+ *   QueryCount count = scope.getGrandTotal();
+ * }
+ * </pre>
+ *
+ * When scopes are nested, queries are counted to the innermost active scope.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see QueryCountHolder
+ * @since 1.4.5
+ */
+public class QueryCountScope {
+
+    private static final ThreadLocal<QueryCountScope> current = new ThreadLocal<QueryCountScope>();
+
+    private final ConcurrentMap<String, QueryCount> queryCountMap = new ConcurrentHashMap<String, QueryCount>();
+    private final ConcurrentMap<String, Object> customValues = new ConcurrentHashMap<String, Object>();
+    private final QueryCountScope previous;
+
+    private QueryCountScope(QueryCountScope previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Create a new scope and activate it on the current thread.
+     *
+     * @return new scope
+     */
+    public static QueryCountScope open() {
+        QueryCountScope scope = new QueryCountScope(current.get());
+        current.set(scope);
+        return scope;
+    }
+
+    /**
+     * @return active scope on the current thread, or {@code null}
+     */
+    public static QueryCountScope current() {
+        return current.get();
+    }
+
+    /**
+     * Deactivate this scope on the current thread and re-activate the one that was active when this scope was opened.
+     * Inner scopes that were left open are deactivated as well, so that they do not stay on pooled threads.
+     * Counted values are still available after close.
+     */
+    public void close() {
+        for (QueryCountScope scope = current.get(); scope != null; scope = scope.previous) {
+            if (scope == this) {
+                restore(this.previous);
+                return;
+            }
+        }
+        // not active on this thread. already closed.
+    }
+
+    private static void restore(QueryCountScope scope) {
+        if (scope == null) {
+            current.remove();
+        } else {
+            current.set(scope);
+        }
+    }
+
+    public QueryCount get(String dataSourceName) {
+        return this.queryCountMap.get(dataSourceName);
+    }
+
+    public QueryCount getOrCreate(String dataSourceName) {
+        QueryCount queryCount = this.queryCountMap.get(dataSourceName);
+        if (queryCount == null) {
+            this.queryCountMap.putIfAbsent(dataSourceName, new QueryCount());
+            queryCount = this.queryCountMap.get(dataSourceName);
+        }
+        return queryCount;
+    }
+
+    public void put(String dataSourceName, QueryCount queryCount) {
+        this.queryCountMap.put(dataSourceName, queryCount);
+    }
+
+    public Set<String> getDataSourceNames() {
+        return this.queryCountMap.keySet();
+    }
+
+    public QueryCount getGrandTotal() {
+        return QueryCountHolder.sum(this.queryCountMap);
+    }
+
+    public ConcurrentMap<String, QueryCount> getQueryCountMap() {
+        return queryCountMap;
+    }
+
+    public void clear() {
+        this.queryCountMap.clear();
+        this.customValues.clear();
+    }
+
+    /**
+     * Store a value associated with this scope, such as per request state of listeners.
+     *
+     * @param key   key
+     * @param value value
+     * @return existing value if present, otherwise {@code null}
+     */
+    public Object putCustomValueIfAbsent(String key, Object value) {
+        return this.customValues.putIfAbsent(key, value);
+    }
+
+    /**
+     * @param key  key
+     * @param type value type
+     * @param <T>  value type
+     * @return value or {@code null} if not stored
+     */
+    public <T> T getCustomValue(String key, Class<T> type) {
+        return type.cast(this.customValues.get(key));
+    }
+
+    /**
+     * Wrap the task to run within this scope on whichever thread it is executed.
+     *
+     * @param task task
+     * @return wrapped task
+     */
+    public Runnable wrap(final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                QueryCountScope saved = current.get();
+                current.set(QueryCountScope.this);
+                try {
+                    task.run();
+                } finally {
+                    restore(saved);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap the task to run within this scope on whichever thread it is executed.
+     *
+     * @param task task
+     * @param <T>  result type
+     * @return wrapped task
+     */
+    public <T> Callable<T> wrap(final Callable<T> task) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                QueryCountScope saved = current.get();
+                current.set(QueryCountScope.this);
+                try {
+                    return task.call();
+                } finally {
+                    restore(saved);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap the executor to run submitted tasks within this scope.
+     *
+     * @param executor executor
+     * @return executor that wraps tasks
+     */
+    public Executor wrap(final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(wrap(command));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,196 @@
+package net.ttddyy.dsproxy;
+
+/**
+ * Contains information about a transaction performed on a connection.
+ *
+ * A transaction starts with {@link java.sql.Connection#setAutoCommit(boolean) setAutoCommit(false)} or with the first
+ * statement after previous commit/rollback, and ends with commit, rollback, {@code setAutoCommit(true)} or close of
+ * the connection. In auto-commit mode, each statement execution is reported as a single transaction.
+ *
+ * All times are in milliseconds.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see net.ttddyy.dsproxy.listener.TransactionListener
+ * @since 1.4.5
+ */
+public class TransactionInfo {
+
+    /**
+     * How the transaction has ended.
+     */
+    public enum Outcome {
+        COMMIT, ROLLBACK, AUTO_COMMIT, CLOSE
+    }
+
+    private String dataSourceName;
+    private long connectionId;
+    private Outcome outcome;
+    private long startTime;
+    private long endTime;
+    private int statementCount;
+    private long rowsAffected;
+    private long databaseTime;
+    private long maxIdleTime;
+    private String slowestQuery;
+    private long slowestQueryTime;
+    private long lastActivityTime;
+
+    public TransactionInfo() {
+    }
+
+    public TransactionInfo(ConnectionInfo connectionInfo, long startTime) {
+        this.dataSourceName = connectionInfo.getDataSourceName();
+        this.connectionId = connectionInfo.getConnectionId();
+        this.startTime = startTime;
+        this.lastActivityTime = startTime;
+    }
+
+    /**
+     * Record a statement execution that belongs to this transaction.
+     *
+     * @param query        executed query. for batch execution, first query in the batch
+     * @param endTime      time in millis when the execution finished
+     * @param elapsedTime  time spent in the database
+     * @param rowsAffected number of rows affected. {@code 0} if unknown.
+     */
+    public void addStatement(String query, long endTime, long elapsedTime, long rowsAffected) {
+        long idleTime = (endTime - elapsedTime) - this.lastActivityTime;
+        if (idleTime > this.maxIdleTime) {
+            this.maxIdleTime = idleTime;
+        }
+        if (this.slowestQuery == null || elapsedTime > this.slowestQueryTime) {
+            this.slowestQuery = query;
+            this.slowestQueryTime = elapsedTime;
+        }
+        this.statementCount++;
+        this.rowsAffected += rowsAffected;
+        this.databaseTime += elapsedTime;
+        this.lastActivityTime = endTime;
+    }
+
+    /**
+     * Mark this transaction finished.
+     *
+     * @param outcome how the transaction has ended
+     * @param endTime time in millis when the transaction ended
+     */
+    public void finish(Outcome outcome, long endTime) {
+        this.outcome = outcome;
+        this.endTime = endTime;
+        long idleTime = endTime - this.lastActivityTime;
+        if (idleTime > this.maxIdleTime) {
+            this.maxIdleTime = idleTime;
+        }
+    }
+
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    public void setDataSourceName(String dataSourceName) {
+        this.dataSourceName = dataSourceName;
+    }
+
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    public void setConnectionId(long connectionId) {
+        this.connectionId = connectionId;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public void setOutcome(Outcome outcome) {
+        this.outcome = outcome;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    /**
+     * @return duration of the transaction
+     */
+    public long getElapsedTime() {
+        return this.endTime - this.startTime;
+    }
+
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    public void setStatementCount(int statementCount) {
+        this.statementCount = statementCount;
+    }
+
+    public long getRowsAffected() {
+        return rowsAffected;
+    }
+
+    public void setRowsAffected(long rowsAffected) {
+        this.rowsAffected = rowsAffected;
+    }
+
+    /**
+     * @return total time spent in the database by statements
+     */
+    public long getDatabaseTime() {
+        return databaseTime;
+    }
+
+    public void setDatabaseTime(long databaseTime) {
+        this.databaseTime = databaseTime;
+    }
+
+    /**
+     * Time the transaction was open but no statement was running, i.e. idle-in-transaction.
+     *
+     * @return idle time
+     */
+    public long getIdleTime() {
+        return Math.max(getElapsedTime() - this.databaseTime, 0);
+    }
+
+    /**
+     * @return the longest gap between activities in the transaction
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    public String getSlowestQuery() {
+        return slowestQuery;
+    }
+
+    public void setSlowestQuery(String slowestQuery) {
+        this.slowestQuery = slowestQuery;
+    }
+
+    public long getSlowestQueryTime() {
+        return slowestQueryTime;
+    }
+
+    public void setSlowestQueryTime(long slowestQueryTime) {
+        this.slowestQueryTime = slowestQueryTime;
+    }
+
+}
@@ -4,39 +4,91 @@ import net.ttddyy.dsproxy.ExecutionInfo;
 import net.ttddyy.dsproxy.QueryInfo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Execute chain of listeners.
  *
+ * Listeners are called inline in order. When {@link ListenerExecutionPolicy} is set, the policy calls each
+ * listener instead.
+ *
+ * Listeners are kept in an array that is replaced as a whole when modified(copy-on-write), so that calling listeners
+ * does not require locking nor iterator. {@link net.ttddyy.dsproxy.proxy.ProxyConfig.Builder#build()} creates a new
+ * chain, therefore modifying a chain held by the builder does not affect built configs.
+ *
  * @author Tadaya Tsuyukubo
  */
 public class ChainListener implements QueryExecutionListener {
-    private List<QueryExecutionListener> listeners = new ArrayList<QueryExecutionListener>();
+
+    private static final QueryExecutionListener[] EMPTY = new QueryExecutionListener[0];
+
+    private volatile QueryExecutionListener[] listeners = EMPTY;
+    private volatile ListenerExecutionPolicy executionPolicy;  // can be null
 
     @Override
     public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
-        for (QueryExecutionListener listener : listeners) {
-            listener.beforeQuery(execInfo, queryInfoList);
+        QueryExecutionListener[] listeners = this.listeners;
+        ListenerExecutionPolicy policy = this.executionPolicy;
+        if (policy == null) {
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i].beforeQuery(execInfo, queryInfoList);
+            }
+        } else {
+            for (int i = 0; i < listeners.length; i++) {
+                policy.beforeQuery(listeners[i], execInfo, queryInfoList);
+            }
         }
     }
 
     @Override
     public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
-        for (QueryExecutionListener listener : listeners) {
-            listener.afterQuery(execInfo, queryInfoList);
+        QueryExecutionListener[] listeners = this.listeners;
+        ListenerExecutionPolicy policy = this.executionPolicy;
+        if (policy == null) {
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i].afterQuery(execInfo, queryInfoList);
+            }
+        } else {
+            for (int i = 0; i < listeners.length; i++) {
+                policy.afterQuery(listeners[i], execInfo, queryInfoList);
+            }
         }
     }
 
-    public void addListener(QueryExecutionListener listener) {
-        this.listeners.add(listener);
+    public synchronized void addListener(QueryExecutionListener listener) {
+        QueryExecutionListener[] newListeners = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+        newListeners[this.listeners.length] = listener;
+        this.listeners = newListeners;
     }
 
+    /**
+     * Returns a copy of the listeners. Modifying the returned list does not affect this chain; use
+     * {@link #addListener(QueryExecutionListener)} or {@link #setListeners(List)} instead.
+     *
+     * @return list of listeners
+     */
     public List<QueryExecutionListener> getListeners() {
-        return listeners;
+        return new ArrayList<QueryExecutionListener>(Arrays.asList(this.listeners));
     }
 
     public void setListeners(List<QueryExecutionListener> listeners) {
-        this.listeners = listeners;
+        this.listeners = listeners.toArray(new QueryExecutionListener[listeners.size()]);
     }
+
+    /**
+     * @since 1.4.5
+     */
+    public ListenerExecutionPolicy getExecutionPolicy() {
+        return executionPolicy;
+    }
+
+    /**
+     * @param executionPolicy policy to call listeners. {@code null} to call them inline.
+     * @since 1.4.5
+     */
+    public void setExecutionPolicy(ListenerExecutionPolicy executionPolicy) {
+        this.executionPolicy = executionPolicy;
+    }
+
 }
@@ -1,40 +1,65 @@
 package net.ttddyy.dsproxy.listener;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Execute chain of {@link MethodExecutionListener}.
  *
+ * Same as {@link ChainListener}, listeners are kept in a copy-on-write array.
+ *
  * @author Tadaya Tsuyukubo
  * @since 1.4.3
  */
 public class CompositeMethodListener implements MethodExecutionListener {
-    private List<MethodExecutionListener> listeners = new ArrayList<MethodExecutionListener>();
+
+    private static final MethodExecutionListener[] EMPTY = new MethodExecutionListener[0];
+
+    private volatile MethodExecutionListener[] listeners = EMPTY;
 
     @Override
     public void beforeMethod(MethodExecutionContext executionContext) {
-        for (MethodExecutionListener listener : this.listeners) {
-            listener.beforeMethod(executionContext);
+        MethodExecutionListener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].beforeMethod(executionContext);
         }
     }
 
     @Override
     public void afterMethod(MethodExecutionContext executionContext) {
-        for (MethodExecutionListener listener : this.listeners) {
-            listener.afterMethod(executionContext);
+        MethodExecutionListener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].afterMethod(executionContext);
         }
     }
 
-    public boolean addListener(MethodExecutionListener listener) {
-        return this.listeners.add(listener);
+    public synchronized boolean addListener(MethodExecutionListener listener) {
+        MethodExecutionListener[] newListeners = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+        newListeners[this.listeners.length] = listener;
+        this.listeners = newListeners;
+        return true;
     }
 
+    /**
+     * Returns a copy of the listeners. Modifying the returned list does not affect this listener; use
+     * {@link #addListener(MethodExecutionListener)} or {@link #setListeners(List)} instead.
+     *
+     * @return list of listeners
+     */
     public List<MethodExecutionListener> getListeners() {
-        return listeners;
+        return new ArrayList<MethodExecutionListener>(Arrays.asList(this.listeners));
     }
 
     public void setListeners(List<MethodExecutionListener> listeners) {
-        this.listeners = listeners;
+        this.listeners = listeners.toArray(new MethodExecutionListener[listeners.size()]);
+    }
+
+    /**
+     * @return {@code true} if no listener is registered
+     * @since 1.4.5
+     */
+    public boolean isEmpty() {
+        return this.listeners.length == 0;
     }
 }
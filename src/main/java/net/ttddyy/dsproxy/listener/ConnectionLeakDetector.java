@@ -0,0 +1,341 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.ConnectionInfo;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.Histogram;
+import net.ttddyy.dsproxy.QueryInfo;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detect connections held longer than the threshold.
+ *
+ * This class works as both {@link MethodExecutionListener} and {@link QueryExecutionListener}.
+ * As a method listener, it tracks acquisition({@link DataSource#getConnection()}) and release({@link Connection#close()})
+ * of connections. As a query listener, it remembers the last query executed on each connection, so that leak reports
+ * show what the leaked connection was used for.
+ *
+ * <pre>
+ * ConnectionLeakDetector detector = new SLF4JConnectionLeakDetector(30, TimeUnit.SECONDS);
+ * detector.setStackTraceSamplingRate(1);  // capture acquisition stack for every connection
+ * DataSource ds = ProxyDataSourceBuilder.create(actualDataSource)
+ *     .listener(detector)
+ *     .methodListener(detector)
+ *     .build();
+ * </pre>
+ *
+ * Acquisition only puts an entry to a concurrent map; checking held connections is performed periodically by a
+ * background thread. {@link #onLeakDetected(TrackedConnection)} is called once per connection that exceeds the
+ * threshold. Hold times of closed connections are recorded to {@link #getHoldTimeHistogram()} in milliseconds.
+ * {@link #close()} stops the background thread. A {@link net.ttddyy.dsproxy.support.ProxyDataSource} built by
+ * {@link net.ttddyy.dsproxy.support.ProxyDataSourceBuilder} closes the detector when it is closed.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see net.ttddyy.dsproxy.listener.logging.SLF4JConnectionLeakDetector
+ * @see net.ttddyy.dsproxy.listener.logging.JULConnectionLeakDetector
+ * @since 1.4.5
+ */
+public class ConnectionLeakDetector implements MethodExecutionListener, QueryExecutionListener, Closeable {
+
+    /**
+     * Information about a connection currently held by application.
+     */
+    public static class TrackedConnection {
+        private final ConnectionInfo connectionInfo;
+        private final long acquiredAt;
+        private final String threadName;
+        private final StackTraceElement[] acquisitionStackTrace;
+        private volatile String lastQuery;
+        private volatile boolean reported;
+
+        TrackedConnection(ConnectionInfo connectionInfo, long acquiredAt, String threadName, StackTraceElement[] acquisitionStackTrace) {
+            this.connectionInfo = connectionInfo;
+            this.acquiredAt = acquiredAt;
+            this.threadName = threadName;
+            this.acquisitionStackTrace = acquisitionStackTrace;
+        }
+
+        public ConnectionInfo getConnectionInfo() {
+            return connectionInfo;
+        }
+
+        /**
+         * @return time in millis when the connection is acquired
+         */
+        public long getAcquiredAt() {
+            return acquiredAt;
+        }
+
+        /**
+         * @return name of the thread that acquired the connection
+         */
+        public String getThreadName() {
+            return threadName;
+        }
+
+        /**
+         * @return stack trace of acquisition. {@code null} when the acquisition is not sampled.
+         */
+        public StackTraceElement[] getAcquisitionStackTrace() {
+            return acquisitionStackTrace;
+        }
+
+        /**
+         * @return last query executed on the connection. {@code null} if no query is executed.
+         */
+        public String getLastQuery() {
+            return lastQuery;
+        }
+
+        public boolean isReported() {
+            return reported;
+        }
+
+        public long getHeldTime(long now) {
+            return now - this.acquiredAt;
+        }
+    }
+
+    protected boolean useDaemonThread = true;
+
+    protected ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setDaemon(ConnectionLeakDetector.this.useDaemonThread);
+            return thread;
+        }
+    });
+
+    protected long threshold;
+    protected TimeUnit thresholdTimeUnit = TimeUnit.MILLISECONDS;
+    protected int stackTraceSamplingRate;
+    protected Map<ConnectionInfo, TrackedConnection> openConnections = new ConcurrentHashMap<ConnectionInfo, TrackedConnection>();
+    protected Histogram holdTimeHistogram = new Histogram();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicLong acquisitionCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+
+    public ConnectionLeakDetector() {
+    }
+
+    public ConnectionLeakDetector(long threshold, TimeUnit thresholdTimeUnit) {
+        this.threshold = threshold;
+        this.thresholdTimeUnit = thresholdTimeUnit;
+    }
+
+    @Override
+    public void beforeMethod(MethodExecutionContext executionContext) {
+    }
+
+    @Override
+    public void afterMethod(MethodExecutionContext executionContext) {
+        ConnectionInfo connectionInfo = executionContext.getConnectionInfo();
+        if (connectionInfo == null) {
+            return;
+        }
+        String methodName = executionContext.getMethod().getName();
+        Object target = executionContext.getTarget();
+        if ("getConnection".equals(methodName) && target instanceof DataSource) {
+            if (executionContext.getThrown() == null) {
+                onAcquire(connectionInfo);
+            }
+        } else if ("close".equals(methodName) && target instanceof Connection) {
+            // the connection cannot be used after a close attempt even when it failed
+            onRelease(connectionInfo);
+        }
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        ConnectionInfo connectionInfo = execInfo.getConnectionInfo();
+        if (connectionInfo == null || queryInfoList.isEmpty()) {
+            return;
+        }
+        TrackedConnection tracked = this.openConnections.get(connectionInfo);
+        if (tracked != null) {
+            tracked.lastQuery = queryInfoList.get(queryInfoList.size() - 1).getQuery();
+        }
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+    }
+
+    protected void onAcquire(ConnectionInfo connectionInfo) {
+        long count = this.acquisitionCount.incrementAndGet();
+        StackTraceElement[] stackTrace = null;
+        if (this.stackTraceSamplingRate > 0 && count % this.stackTraceSamplingRate == 0) {
+            stackTrace = new Throwable().getStackTrace();
+        }
+        String threadName = Thread.currentThread().getName();
+        TrackedConnection tracked = new TrackedConnection(connectionInfo, System.currentTimeMillis(), threadName, stackTrace);
+        this.openConnections.put(connectionInfo, tracked);
+
+        if (this.started.compareAndSet(false, true)) {
+            startChecking();
+        }
+    }
+
+    protected void onRelease(ConnectionInfo connectionInfo) {
+        TrackedConnection tracked = this.openConnections.remove(connectionInfo);
+        if (tracked != null) {
+            this.holdTimeHistogram.record(tracked.getHeldTime(System.currentTimeMillis()));
+        }
+    }
+
+    protected void startChecking() {
+        long thresholdInMillis = this.thresholdTimeUnit.toMillis(this.threshold);
+        long interval = Math.max(thresholdInMillis / 2, 10);  // check twice per threshold
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkLeaks();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check held connections and call {@link #onLeakDetected(TrackedConnection)} for the ones exceeding threshold.
+     */
+    public void checkLeaks() {
+        long now = System.currentTimeMillis();
+        long thresholdInMillis = this.thresholdTimeUnit.toMillis(this.threshold);
+        for (TrackedConnection tracked : this.openConnections.values()) {
+            if (!tracked.reported && tracked.getHeldTime(now) >= thresholdInMillis) {
+                tracked.reported = true;
+                this.leakCount.incrementAndGet();
+                try {
+                    onLeakDetected(tracked);
+                } catch (RuntimeException ex) {
+                    // keep checking other connections
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop checking held connections and shut down the executor. Connections are still tracked, and
+     * {@link #checkLeaks()} can be called explicitly.
+     */
+    @Override
+    public void close() {
+        this.started.set(true);  // not to start checking afterwards
+        this.executor.shutdown();
+    }
+
+    /**
+     * Callback when a connection is held longer than the threshold.
+     *
+     * This callback is called only once per connection.
+     *
+     * @param trackedConnection leaked connection
+     */
+    protected void onLeakDetected(TrackedConnection trackedConnection) {
+    }
+
+    /**
+     * Create a human readable description of the leaked connection.
+     *
+     * @param trackedConnection leaked connection
+     * @return description
+     */
+    protected String getLeakDescription(TrackedConnection trackedConnection) {
+        ConnectionInfo connectionInfo = trackedConnection.getConnectionInfo();
+        StringBuilder sb = new StringBuilder();
+        sb.append("Connection leak detected. ");
+        sb.append("Name:").append(connectionInfo.getDataSourceName());
+        sb.append(", Connection:").append(connectionInfo.getConnectionId());
+        sb.append(", HeldTime:").append(trackedConnection.getHeldTime(System.currentTimeMillis())).append("ms");
+        sb.append(", Thread:").append(trackedConnection.getThreadName());
+        sb.append(", LastQuery:").append(trackedConnection.getLastQuery());
+        StackTraceElement[] stackTrace = trackedConnection.getAcquisitionStackTrace();
+        if (stackTrace != null) {
+            sb.append(", AcquiredAt:");
+            for (StackTraceElement element : stackTrace) {
+                sb.append("\n\tat ").append(element);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns currently held connections.
+     *
+     * @return snapshot of held connections
+     */
+    public List<TrackedConnection> getOpenConnections() {
+        return new ArrayList<TrackedConnection>(this.openConnections.values());
+    }
+
+    /**
+     * Returns histogram of connection hold time in milliseconds.
+     *
+     * @return hold time histogram
+     */
+    public Histogram getHoldTimeHistogram() {
+        return holdTimeHistogram;
+    }
+
+    public long getLeakCount() {
+        return this.leakCount.get();
+    }
+
+    public ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+
+    public TimeUnit getThresholdTimeUnit() {
+        return thresholdTimeUnit;
+    }
+
+    public void setThresholdTimeUnit(TimeUnit thresholdTimeUnit) {
+        this.thresholdTimeUnit = thresholdTimeUnit;
+    }
+
+    public int getStackTraceSamplingRate() {
+        return stackTraceSamplingRate;
+    }
+
+    /**
+     * Capture acquisition stack trace for every N-th connection.
+     *
+     * Capturing stack trace is relatively expensive. {@code 1} captures all, {@code 0}(default) disables capturing.
+     *
+     * @param stackTraceSamplingRate sampling rate
+     */
+    public void setStackTraceSamplingRate(int stackTraceSamplingRate) {
+        this.stackTraceSamplingRate = stackTraceSamplingRate;
+    }
+
+    /**
+     * When set to {@code true}(default), the executor creates daemon threads to check leaked connections.
+     *
+     * @param useDaemonThread use daemon thread or not. (default is true)
+     */
+    public void setUseDaemonThread(boolean useDaemonThread) {
+        this.useDaemonThread = useDaemonThread;
+    }
+
+}
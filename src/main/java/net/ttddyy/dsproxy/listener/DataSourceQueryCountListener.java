@@ -25,7 +25,7 @@ import java.util.List;
  * <p>{@link net.ttddyy.dsproxy.QueryCount} holds following data:
  * <ul>
  * <li> datasource name
- * <li> number of database call
+ * <li> number of database call, and failed ones that timed out or were cancelled
  * <li> total query execution time
  * <li> number of queries by type
  * </ul>
@@ -59,6 +59,11 @@ public class DataSourceQueryCountListener implements QueryExecutionListener {
             count.incrementSuccess();
         } else {
             count.incrementFailure();
+            if (execInfo.isTimedOut()) {
+                count.incrementTimeout();
+            } else if (execInfo.isCancelled()) {
+                count.incrementCancel();
+            }
         }
 
         // increment elapsed time
@@ -0,0 +1,343 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryCountScope;
+import net.ttddyy.dsproxy.QueryInfo;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Define how {@link ChainListener} executes each {@link QueryExecutionListener}.
+ *
+ * By default, {@link ChainListener} calls listeners inline in order and an exception or a blocking listener affects
+ * the JDBC call. When this policy is set to the {@link ChainListener}:
+ * <ul>
+ * <li>Exceptions thrown by listeners are caught and counted per listener when {@link #setIsolateFailures(boolean)}
+ * is enabled(default). Exceptions decided by {@link #isPropagated(RuntimeException)}, such as
+ * {@link QueryBudgetExceededException}, are still thrown.
+ * <li>Listeners registered by {@link #addAsyncListener(QueryExecutionListener)} are called on a bounded executor.
+ * When the queue is full, invocations are discarded and counted, or run on the caller thread depending on
+ * {@link OverflowAction}. Active {@link QueryCountScope} is propagated to the executor thread.
+ * <li>Time spent by each listener is recorded when {@link #setRecordTiming(boolean)} is enabled(default).
+ * </ul>
+ *
+ * Async listeners receive {@link ExecutionInfo} after the JDBC call has returned. They should not access the
+ * statement or the result in it.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see ChainListener#setExecutionPolicy(ListenerExecutionPolicy)
+ * @since 1.4.5
+ */
+public class ListenerExecutionPolicy {
+
+    /**
+     * Action when the queue of async listener invocations is full.
+     */
+    public enum OverflowAction {
+        /**
+         * Discard the invocation.
+         */
+        DISCARD,
+        /**
+         * Call the listener on the caller thread, which slows down the caller.
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * Invocation statistics of a listener.
+     */
+    public static class ListenerStats {
+
+        private final AtomicLong invocationCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+        private final AtomicLong discardCount = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+        private volatile Throwable lastFailure;
+
+        void recordTime(long nanos) {
+            this.totalTime.addAndGet(nanos);
+            long max;
+            do {
+                max = this.maxTime.get();
+            } while (nanos > max && !this.maxTime.compareAndSet(max, nanos));
+        }
+
+        void recordFailure(Throwable failure) {
+            this.failureCount.incrementAndGet();
+            this.lastFailure = failure;
+        }
+
+        public long getInvocationCount() {
+            return this.invocationCount.get();
+        }
+
+        public long getFailureCount() {
+            return this.failureCount.get();
+        }
+
+        public long getDiscardCount() {
+            return this.discardCount.get();
+        }
+
+        /**
+         * @return total time spent by the listener in nanoseconds
+         */
+        public long getTotalTime() {
+            return this.totalTime.get();
+        }
+
+        /**
+         * @return maximum time spent by a single invocation in nanoseconds
+         */
+        public long getMaxTime() {
+            return this.maxTime.get();
+        }
+
+        /**
+         * @return average time spent by an invocation in nanoseconds
+         */
+        public long getAverageTime() {
+            long count = this.invocationCount.get();
+            return count == 0 ? 0 : this.totalTime.get() / count;
+        }
+
+        public Throwable getLastFailure() {
+            return this.lastFailure;
+        }
+
+    }
+
+    protected boolean isolateFailures = true;
+    protected boolean recordTiming = true;
+    protected int asyncThreads = 1;
+    protected int asyncQueueCapacity = 1000;
+    protected OverflowAction overflowAction = OverflowAction.DISCARD;
+    protected boolean useDaemonThread = true;
+
+    protected Set<QueryExecutionListener> asyncListeners =
+            Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<QueryExecutionListener, Boolean>()));
+    protected ConcurrentMap<QueryExecutionListener, ListenerStats> statsMap = new ConcurrentHashMap<QueryExecutionListener, ListenerStats>();
+    protected volatile ThreadPoolExecutor executor;
+
+    public void beforeQuery(QueryExecutionListener listener, ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        invoke(listener, true, execInfo, queryInfoList);
+    }
+
+    public void afterQuery(QueryExecutionListener listener, ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        invoke(listener, false, execInfo, queryInfoList);
+    }
+
+    protected void invoke(final QueryExecutionListener listener, final boolean before,
+                          final ExecutionInfo execInfo, final List<QueryInfo> queryInfoList) {
+        final ListenerStats stats = getOrCreateStats(listener);
+        if (!isAsync(listener)) {
+            invokeListener(listener, stats, before, execInfo, queryInfoList);
+            return;
+        }
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                invokeListener(listener, stats, before, execInfo, queryInfoList);
+            }
+        };
+        QueryCountScope scope = QueryCountScope.current();
+        if (scope != null) {
+            task = scope.wrap(task);
+        }
+        try {
+            getExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            if (this.overflowAction == OverflowAction.CALLER_RUNS) {
+                task.run();
+            } else {
+                stats.discardCount.incrementAndGet();
+            }
+        }
+    }
+
+    protected void invokeListener(QueryExecutionListener listener, ListenerStats stats, boolean before,
+                                  ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        long start = this.recordTiming ? System.nanoTime() : 0;
+        try {
+            if (before) {
+                listener.beforeQuery(execInfo, queryInfoList);
+            } else {
+                listener.afterQuery(execInfo, queryInfoList);
+            }
+        } catch (RuntimeException e) {
+            if (!this.isolateFailures || isPropagated(e)) {
+                throw e;
+            }
+            stats.recordFailure(e);
+            onListenerFailure(listener, e);
+        } finally {
+            stats.invocationCount.incrementAndGet();
+            if (this.recordTiming) {
+                stats.recordTime(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Decide whether to propagate the exception thrown by a listener even if failures are isolated.
+     *
+     * @param e exception thrown by a listener
+     * @return {@code true} to propagate
+     */
+    protected boolean isPropagated(RuntimeException e) {
+        return e instanceof QueryBudgetExceededException;
+    }
+
+    /**
+     * Callback when a listener has thrown an exception and the exception is isolated.
+     *
+     * @param listener listener
+     * @param failure  thrown exception
+     */
+    protected void onListenerFailure(QueryExecutionListener listener, Throwable failure) {
+    }
+
+    protected ThreadPoolExecutor getExecutor() {
+        ThreadPoolExecutor executor = this.executor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.executor;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(this.asyncThreads, this.asyncThreads, 0, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<Runnable>(this.asyncQueueCapacity), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = Executors.defaultThreadFactory().newThread(r);
+                            thread.setDaemon(ListenerExecutionPolicy.this.useDaemonThread);
+                            return thread;
+                        }
+                    });
+                    this.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    protected ListenerStats getOrCreateStats(QueryExecutionListener listener) {
+        ListenerStats stats = this.statsMap.get(listener);
+        if (stats == null) {
+            ListenerStats newStats = new ListenerStats();
+            stats = this.statsMap.putIfAbsent(listener, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Call the listener on the async executor.
+     *
+     * @param listener listener
+     */
+    public void addAsyncListener(QueryExecutionListener listener) {
+        this.asyncListeners.add(listener);
+    }
+
+    public boolean isAsync(QueryExecutionListener listener) {
+        return !this.asyncListeners.isEmpty() && this.asyncListeners.contains(listener);
+    }
+
+    /**
+     * @param listener listener
+     * @return statistics of the listener or {@code null} if the listener has not been called
+     */
+    public ListenerStats getStats(QueryExecutionListener listener) {
+        return this.statsMap.get(listener);
+    }
+
+    public Map<QueryExecutionListener, ListenerStats> getStatsMap() {
+        return Collections.unmodifiableMap(this.statsMap);
+    }
+
+    /**
+     * @return number of async invocations waiting in the queue
+     */
+    public int getQueueSize() {
+        ThreadPoolExecutor executor = this.executor;
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * Stop the async executor. Queued invocations are still performed.
+     */
+    public void shutdown() {
+        ThreadPoolExecutor executor = this.executor;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public boolean isIsolateFailures() {
+        return isolateFailures;
+    }
+
+    public void setIsolateFailures(boolean isolateFailures) {
+        this.isolateFailures = isolateFailures;
+    }
+
+    public boolean isRecordTiming() {
+        return recordTiming;
+    }
+
+    public void setRecordTiming(boolean recordTiming) {
+        this.recordTiming = recordTiming;
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    /**
+     * Number of threads for async listeners. With more than one thread, before and after callbacks of an execution
+     * may be called out of order.
+     *
+     * @param asyncThreads number of threads. default is {@code 1}.
+     */
+    public void setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    public int getAsyncQueueCapacity() {
+        return asyncQueueCapacity;
+    }
+
+    public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+        this.asyncQueueCapacity = asyncQueueCapacity;
+    }
+
+    public OverflowAction getOverflowAction() {
+        return overflowAction;
+    }
+
+    public void setOverflowAction(OverflowAction overflowAction) {
+        this.overflowAction = overflowAction;
+    }
+
+    public void setUseDaemonThread(boolean useDaemonThread) {
+        this.useDaemonThread = useDaemonThread;
+    }
+
+}
@@ -4,6 +4,8 @@ import net.ttddyy.dsproxy.ConnectionInfo;
 import net.ttddyy.dsproxy.proxy.ProxyConfig;
 
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * POJO to hold values for JDBC API invocations.
@@ -91,6 +93,8 @@ public class MethodExecutionContext {
     private long elapsedTime;
     private ConnectionInfo connectionInfo;
     private ProxyConfig proxyConfig;
+    // lazily created
+    private Map<String, Object> customValues;
 
     public Object getTarget() {
         return target;
@@ -161,4 +165,34 @@ public class MethodExecutionContext {
     public void setProxyConfig(ProxyConfig proxyConfig) {
         this.proxyConfig = proxyConfig;
     }
+
+    /**
+     * Store a value to pass between before and after callbacks of listeners.
+     *
+     * @param key   key
+     * @param value value
+     * @since 1.4.5
+     */
+    public void addCustomValue(String key, Object value) {
+        if (this.customValues == null) {
+            this.customValues = new HashMap<String, Object>();
+        }
+        this.customValues.put(key, value);
+    }
+
+    /**
+     * Retrieve a value stored by {@link #addCustomValue(String, Object)}.
+     *
+     * @param key  key
+     * @param type value type
+     * @param <T>  value type
+     * @return value or {@code null} if not stored
+     * @since 1.4.5
+     */
+    public <T> T getCustomValue(String key, Class<T> type) {
+        if (this.customValues == null) {
+            return null;
+        }
+        return type.cast(this.customValues.get(key));
+    }
 }
@@ -19,6 +19,12 @@ public class MethodExecutionListenerUtils {
                                 Object proxyTarget, ConnectionInfo connectionInfo, Method method,
                                 Object[] args) throws Throwable {
 
+        CompositeMethodListener methodExecutionListener = proxyConfig.getMethodListener();
+        if (methodExecutionListener.isEmpty()) {
+            // no need to create the context
+            return callback.execute(proxyTarget, method, args);
+        }
+
         MethodExecutionContext methodContext = MethodExecutionContext.Builder.create()
                 .target(proxyTarget)
                 .method(method)
@@ -27,7 +33,6 @@ public class MethodExecutionListenerUtils {
                 .proxyConfig(proxyConfig)
                 .build();
 
-        MethodExecutionListener methodExecutionListener = proxyConfig.getMethodListener();
         methodExecutionListener.beforeMethod(methodContext);
 
         final long beforeTime = System.currentTimeMillis();
@@ -0,0 +1,26 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.DataSourceProxyException;
+
+/**
+ * Thrown by {@link QueryBudgetListener} when a query budget is exceeded and throwing is enabled.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class QueryBudgetExceededException extends DataSourceProxyException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final QueryBudgetViolation violation;
+
+    public QueryBudgetExceededException(QueryBudgetViolation violation) {
+        super(violation.getDescription());
+        this.violation = violation;
+    }
+
+    public QueryBudgetViolation getViolation() {
+        return violation;
+    }
+
+}
@@ -0,0 +1,282 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryCountScope;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.proxy.ParameterSetOperation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enforce query budget per {@link QueryCountScope}, such as an http request.
+ *
+ * Following budgets can be configured, and {@code 0} disables the check:
+ * <ul>
+ * <li>{@link #setMaxQueries(int) max queries} - number of query executions
+ * <li>{@link #setMaxDatabaseTime(long, TimeUnit) max database time} - total time spent by query executions
+ * <li>{@link #setMaxRepeatedQueries(int) max repeated queries} - number of times the same query fingerprint is
+ * executed with different parameters or literals. Exceeding it usually indicates N+1 query problem.
+ * </ul>
+ *
+ * Checks are performed incrementally in constant time per query. Only a few counters and a bounded table of query
+ * fingerprints(see {@link #setMaxTrackedFingerprints(int)}) are kept per scope. Batch executions are not counted as
+ * repeated queries. Queries executed outside of a {@link QueryCountScope} are not checked.
+ *
+ * When a budget is exceeded, {@link #onBudgetExceeded(QueryBudgetViolation)} is called once per violation type (and
+ * per fingerprint for repeated queries) in the scope. When {@link #setThrowOnViolation(boolean)} is enabled,
+ * {@link QueryBudgetExceededException} is thrown for every query that exceeds count or repetition budget before it
+ * is executed, and for the query that exceeded database time after its execution.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see net.ttddyy.dsproxy.listener.logging.SLF4JQueryBudgetListener
+ * @see net.ttddyy.dsproxy.listener.logging.JULQueryBudgetListener
+ * @since 1.4.5
+ */
+public class QueryBudgetListener implements QueryExecutionListener {
+
+    private static final String USAGE_KEY = QueryBudgetListener.class.getName();
+
+    /**
+     * Query budget usage of a scope.
+     */
+    public static class Usage {
+
+        private final AtomicInteger queryCount = new AtomicInteger();
+        private final AtomicLong databaseTime = new AtomicLong();
+        private final AtomicBoolean queryCountReported = new AtomicBoolean();
+        private final AtomicBoolean databaseTimeReported = new AtomicBoolean();
+
+        // open addressing table of fingerprints
+        private final int maxTrackedFingerprints;
+        private final String[] fingerprints;
+        private final int[] repeatCounts;
+        private final int[] lastVariants;
+        private int trackedFingerprints;
+
+        public Usage(int maxTrackedFingerprints) {
+            int capacity = Integer.highestOneBit(Math.max(maxTrackedFingerprints, 1)) << 2;
+            this.maxTrackedFingerprints = maxTrackedFingerprints;
+            this.fingerprints = new String[capacity];
+            this.repeatCounts = new int[capacity];
+            this.lastVariants = new int[capacity];
+        }
+
+        /**
+         * Record an execution of the fingerprint.
+         *
+         * @param fingerprint query fingerprint
+         * @param variant     hash of the query and parameters
+         * @return number of times the fingerprint is executed with different variant, or {@code 0} when the
+         * fingerprint is not tracked since the table is full
+         */
+        synchronized int recordFingerprint(String fingerprint, int variant) {
+            int mask = this.fingerprints.length - 1;
+            int index = fingerprint.hashCode() & mask;
+            while (true) {
+                String existing = this.fingerprints[index];
+                if (existing == null) {
+                    if (this.trackedFingerprints >= this.maxTrackedFingerprints) {
+                        return 0;
+                    }
+                    this.fingerprints[index] = fingerprint;
+                    this.repeatCounts[index] = 1;
+                    this.lastVariants[index] = variant;
+                    this.trackedFingerprints++;
+                    return 1;
+                }
+                if (existing.equals(fingerprint)) {
+                    if (this.lastVariants[index] != variant) {
+                        this.lastVariants[index] = variant;
+                        this.repeatCounts[index]++;
+                    }
+                    return this.repeatCounts[index];
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        public int getQueryCount() {
+            return this.queryCount.get();
+        }
+
+        public long getDatabaseTime() {
+            return this.databaseTime.get();
+        }
+
+        public synchronized int getTrackedFingerprints() {
+            return this.trackedFingerprints;
+        }
+
+    }
+
+    protected int maxQueries;
+    protected long maxDatabaseTime;  // in millis
+    protected int maxRepeatedQueries;
+    protected int maxTrackedFingerprints = 128;
+    protected boolean throwOnViolation;
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        QueryCountScope scope = QueryCountScope.current();
+        if (scope == null) {
+            return;
+        }
+        Usage usage = getOrCreateUsage(scope);
+
+        int queryCount = usage.queryCount.incrementAndGet();
+        if (this.maxQueries > 0 && queryCount > this.maxQueries) {
+            boolean first = usage.queryCountReported.compareAndSet(false, true);
+            violated(first, QueryBudgetViolation.Type.QUERY_COUNT, execInfo, getFirstQuery(queryInfoList), queryCount, this.maxQueries);
+        }
+
+        if (this.maxRepeatedQueries > 0 && !execInfo.isBatch() && queryInfoList.size() == 1) {
+            QueryInfo queryInfo = queryInfoList.get(0);
+            String fingerprint = QueryUtils.getQueryFingerprint(queryInfo.getQuery());
+            if (fingerprint != null) {
+                int repeated = usage.recordFingerprint(fingerprint, getVariant(queryInfo));
+                if (repeated > this.maxRepeatedQueries) {
+                    // report once per fingerprint
+                    boolean first = repeated == this.maxRepeatedQueries + 1;
+                    violated(first, QueryBudgetViolation.Type.REPEATED_QUERY, execInfo, queryInfo.getQuery(), repeated, this.maxRepeatedQueries);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        QueryCountScope scope = QueryCountScope.current();
+        if (scope == null || this.maxDatabaseTime <= 0) {
+            return;
+        }
+        Usage usage = getOrCreateUsage(scope);
+        long databaseTime = usage.databaseTime.addAndGet(execInfo.getElapsedTime());
+        if (databaseTime > this.maxDatabaseTime && usage.databaseTimeReported.compareAndSet(false, true)) {
+            violated(true, QueryBudgetViolation.Type.DATABASE_TIME, execInfo, getFirstQuery(queryInfoList), databaseTime, this.maxDatabaseTime);
+        }
+    }
+
+    private void violated(boolean report, QueryBudgetViolation.Type type, ExecutionInfo execInfo, String query, long actual, long limit) {
+        if (!report && !this.throwOnViolation) {
+            return;
+        }
+        QueryBudgetViolation violation = new QueryBudgetViolation(type, execInfo.getDataSourceName(), query, actual, limit, getCallSite());
+        if (report) {
+            onBudgetExceeded(violation);
+        }
+        if (this.throwOnViolation) {
+            throw new QueryBudgetExceededException(violation);
+        }
+    }
+
+    /**
+     * Callback when a budget is exceeded.
+     *
+     * @param violation violation
+     */
+    protected void onBudgetExceeded(QueryBudgetViolation violation) {
+    }
+
+    /**
+     * Returns budget usage of the scope.
+     *
+     * @param scope scope
+     * @return usage or {@code null} if no query has been executed in the scope
+     */
+    public Usage getUsage(QueryCountScope scope) {
+        return scope.getCustomValue(USAGE_KEY, Usage.class);
+    }
+
+    private Usage getOrCreateUsage(QueryCountScope scope) {
+        Usage usage = scope.getCustomValue(USAGE_KEY, Usage.class);
+        if (usage == null) {
+            Usage newUsage = new Usage(this.maxTrackedFingerprints);
+            Usage existing = (Usage) scope.putCustomValueIfAbsent(USAGE_KEY, newUsage);
+            usage = existing != null ? existing : newUsage;
+        }
+        return usage;
+    }
+
+    private String getFirstQuery(List<QueryInfo> queryInfoList) {
+        return queryInfoList.isEmpty() ? null : queryInfoList.get(0).getQuery();
+    }
+
+    private int getVariant(QueryInfo queryInfo) {
+        int hash = queryInfo.getQuery().hashCode();
+        for (List<ParameterSetOperation> operations : queryInfo.getParametersList()) {
+            for (ParameterSetOperation operation : operations) {
+                hash = 31 * hash + Arrays.hashCode(operation.getArgs());
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns stack trace of the application code, by removing frames of the proxy and listeners.
+     *
+     * @return stack trace elements of the caller
+     */
+    protected StackTraceElement[] getCallSite() {
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        int lastProxyFrame = -1;
+        for (int i = 0; i < stackTrace.length; i++) {
+            String className = stackTrace[i].getClassName();
+            // listener frames are above the proxy frames
+            if (className.contains("$Proxy") || className.startsWith("net.ttddyy.dsproxy.proxy.")) {
+                lastProxyFrame = i;
+            }
+        }
+        List<StackTraceElement> callSite = new ArrayList<StackTraceElement>();
+        for (int i = lastProxyFrame + 1; i < stackTrace.length; i++) {
+            callSite.add(stackTrace[i]);
+        }
+        return callSite.toArray(new StackTraceElement[callSite.size()]);
+    }
+
+    public int getMaxQueries() {
+        return maxQueries;
+    }
+
+    public void setMaxQueries(int maxQueries) {
+        this.maxQueries = maxQueries;
+    }
+
+    public long getMaxDatabaseTime() {
+        return maxDatabaseTime;
+    }
+
+    public void setMaxDatabaseTime(long maxDatabaseTime, TimeUnit timeUnit) {
+        this.maxDatabaseTime = timeUnit.toMillis(maxDatabaseTime);
+    }
+
+    public int getMaxRepeatedQueries() {
+        return maxRepeatedQueries;
+    }
+
+    public void setMaxRepeatedQueries(int maxRepeatedQueries) {
+        this.maxRepeatedQueries = maxRepeatedQueries;
+    }
+
+    public int getMaxTrackedFingerprints() {
+        return maxTrackedFingerprints;
+    }
+
+    public void setMaxTrackedFingerprints(int maxTrackedFingerprints) {
+        this.maxTrackedFingerprints = maxTrackedFingerprints;
+    }
+
+    public boolean isThrowOnViolation() {
+        return throwOnViolation;
+    }
+
+    public void setThrowOnViolation(boolean throwOnViolation) {
+        this.throwOnViolation = throwOnViolation;
+    }
+
+}
@@ -0,0 +1,102 @@
+package net.ttddyy.dsproxy.listener;
+
+/**
+ * Describes a query budget violation detected by {@link QueryBudgetListener}.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class QueryBudgetViolation {
+
+    public enum Type {
+        /**
+         * Number of queries exceeded the limit.
+         */
+        QUERY_COUNT,
+        /**
+         * Total time spent in the database exceeded the limit.
+         */
+        DATABASE_TIME,
+        /**
+         * Same query fingerprint repeated with different parameters more than the limit (N+1 pattern).
+         */
+        REPEATED_QUERY
+    }
+
+    private final Type type;
+    private final String dataSourceName;
+    private final String query;
+    private final long actual;
+    private final long limit;
+    private final StackTraceElement[] callSite;
+
+    public QueryBudgetViolation(Type type, String dataSourceName, String query, long actual, long limit, StackTraceElement[] callSite) {
+        this.type = type;
+        this.dataSourceName = dataSourceName;
+        this.query = query;
+        this.actual = actual;
+        this.limit = limit;
+        this.callSite = callSite;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    /**
+     * @return the query that caused the violation
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return number of queries, database time in millis, or number of repetitions depending on {@link #getType()}
+     */
+    public long getActual() {
+        return actual;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return stack trace of application code that executed the query
+     */
+    public StackTraceElement[] getCallSite() {
+        return callSite;
+    }
+
+    public String getDescription() {
+        StringBuilder sb = new StringBuilder();
+        if (this.type == Type.QUERY_COUNT) {
+            sb.append("Query count exceeded the budget. ");
+        } else if (this.type == Type.DATABASE_TIME) {
+            sb.append("Database time exceeded the budget. ");
+        } else {
+            sb.append("Possible N+1 query detected. ");
+        }
+        sb.append("Name:").append(this.dataSourceName);
+        sb.append(", Actual:").append(this.actual);
+        sb.append(", Limit:").append(this.limit);
+        sb.append(", Query:").append(this.query);
+        if (this.callSite != null && this.callSite.length > 0) {
+            sb.append(", CallSite:");
+            for (StackTraceElement element : this.callSite) {
+                sb.append("\n\tat ").append(element);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getDescription();
+    }
+
+}
@@ -0,0 +1,57 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.Histogram;
+import net.ttddyy.dsproxy.QueryCount;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Query metrics of a datasource collected by {@link QueryMetricsListener}.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class QueryMetrics {
+
+    private final String dataSourceName;
+    private volatile QueryCount queryCount = new QueryCount();
+    private final Histogram latencyHistogram = new Histogram();
+    private final AtomicLong slowQueryCount = new AtomicLong();
+
+    public QueryMetrics(String dataSourceName) {
+        this.dataSourceName = dataSourceName;
+    }
+
+    public void reset() {
+        this.queryCount = new QueryCount();
+        this.latencyHistogram.reset();
+        this.slowQueryCount.set(0);
+    }
+
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    public QueryCount getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * @return histogram of query execution time in milliseconds
+     */
+    public Histogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    /**
+     * @return number of queries took longer than slow query threshold
+     */
+    public long getSlowQueryCount() {
+        return slowQueryCount.get();
+    }
+
+    void incrementSlowQueryCount() {
+        this.slowQueryCount.incrementAndGet();
+    }
+
+}
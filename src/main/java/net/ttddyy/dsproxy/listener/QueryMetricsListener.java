@@ -0,0 +1,97 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryCount;
+import net.ttddyy.dsproxy.QueryInfo;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collect {@link QueryMetrics} per datasource name.
+ *
+ * Same as {@link SingleQueryCountHolder}, counts are accumulated values from all threads. In addition, it records
+ * query execution time to a histogram and counts queries that exceeded the slow query threshold.
+ * Unlike {@link SingleQueryCountHolder}, it does not populate {@link net.ttddyy.dsproxy.QueryCountHolder}.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see net.ttddyy.dsproxy.support.jmx.DataSourceMetricsRegistrar
+ * @since 1.4.5
+ */
+public class QueryMetricsListener implements QueryExecutionListener {
+
+    private final ConcurrentMap<String, QueryMetrics> metricsMap = new ConcurrentHashMap<String, QueryMetrics>();
+    private final DataSourceQueryCountListener countListener = new DataSourceQueryCountListener();
+
+    // in millis. 0 or negative disables slow query count
+    protected long slowQueryThreshold;
+
+    public QueryMetricsListener() {
+        this.countListener.setQueryCountStrategy(new QueryCountStrategy() {
+            @Override
+            public QueryCount getOrCreateQueryCount(String dataSourceName) {
+                return getOrCreateMetrics(dataSourceName).getQueryCount();
+            }
+        });
+    }
+
+    public QueryMetricsListener(long slowQueryThreshold, TimeUnit timeUnit) {
+        this();
+        this.slowQueryThreshold = timeUnit.toMillis(slowQueryThreshold);
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        this.countListener.afterQuery(execInfo, queryInfoList);
+
+        QueryMetrics metrics = getOrCreateMetrics(execInfo.getDataSourceName());
+        long elapsedTime = execInfo.getElapsedTime();
+        metrics.getLatencyHistogram().record(elapsedTime);
+        if (this.slowQueryThreshold > 0 && elapsedTime >= this.slowQueryThreshold) {
+            metrics.incrementSlowQueryCount();
+        }
+    }
+
+    public QueryMetrics getOrCreateMetrics(String dataSourceName) {
+        String key = dataSourceName == null ? "" : dataSourceName;
+        QueryMetrics metrics = this.metricsMap.get(key);
+        if (metrics == null) {
+            this.metricsMap.putIfAbsent(key, new QueryMetrics(key));
+            metrics = this.metricsMap.get(key);
+        }
+        return metrics;
+    }
+
+    /**
+     * @param dataSourceName datasource name
+     * @return metrics for the datasource or {@code null} if no query has been executed on it
+     */
+    public QueryMetrics getMetrics(String dataSourceName) {
+        return this.metricsMap.get(dataSourceName == null ? "" : dataSourceName);
+    }
+
+    public ConcurrentMap<String, QueryMetrics> getMetricsMap() {
+        return metricsMap;
+    }
+
+    public void reset() {
+        for (QueryMetrics metrics : this.metricsMap.values()) {
+            metrics.reset();
+        }
+    }
+
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    public void setSlowQueryThreshold(long slowQueryThreshold, TimeUnit timeUnit) {
+        this.slowQueryThreshold = timeUnit.toMillis(slowQueryThreshold);
+    }
+
+}
@@ -2,10 +2,20 @@ package net.ttddyy.dsproxy.listener;
 
 import net.ttddyy.dsproxy.QueryType;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
  * @author Tadaya Tsuyukubo
  */
 public class QueryUtils {
+
+    private static final Set<String> TABLE_LIST_TERMINATORS = new HashSet<String>(Arrays.asList(
+            "where", "on", "set", "values", "select", "group", "order", "having", "union", "limit", "(", ")"
+    ));
+
     public static String removeCommentAndWhiteSpace(String query) {
         if (query == null) {
             return null;
@@ -52,4 +62,177 @@ public class QueryUtils {
         return type;
     }
 
+
+    /**
+     * Returns a fingerprint of the given query.
+     *
+     * <p>Queries that only differ by literal values, comments, letter case or white spaces have the same fingerprint.
+     * String and numeric literals are replaced with {@code ?} and consecutive placeholders in a list (e.g.
+     * {@code IN (1, 2, 3)}) are collapsed into one.
+     *
+     * @param query a query string
+     * @return fingerprint of the query
+     * @since 1.4.5
+     */
+    public static String getQueryFingerprint(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        final int length = query.length();
+        final StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+
+            if (c == '-' && i + 1 < length && query.charAt(i + 1) == '-') {
+                // line comment
+                while (i < length && query.charAt(i) != '\n') {
+                    i++;
+                }
+                continue;
+            } else if (c == '/' && i + 1 < length && query.charAt(i + 1) == '*') {
+                // block comment
+                int end = query.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+                continue;
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(query.charAt(i))) {
+                    i++;
+                }
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                continue;
+            } else if (c == '\'') {
+                // string literal. '' is an escaped quote
+                i++;
+                while (i < length) {
+                    if (query.charAt(i) == '\'') {
+                        if (i + 1 < length && query.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+                appendPlaceholder(sb);
+                continue;
+            } else if (c == '"') {
+                // quoted identifier is kept as is
+                int end = query.indexOf('"', i + 1);
+                end = end < 0 ? length : end + 1;
+                sb.append(query, i, end);
+                i = end;
+                continue;
+            } else if (Character.isDigit(c) && !isIdentifierPart(sb)) {
+                while (i < length && (Character.isLetterOrDigit(query.charAt(i)) || query.charAt(i) == '.')) {
+                    i++;
+                }
+                appendPlaceholder(sb);
+                continue;
+            } else if (c == '?') {
+                i++;
+                appendPlaceholder(sb);
+                continue;
+            }
+
+            sb.append(Character.toLowerCase(c));
+            i++;
+        }
+
+        // trim trailing space
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) == ' ') {
+            end--;
+        }
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    /**
+     * Returns table names referenced by the given query.
+     *
+     * <p>This is a lightweight keyword based extraction, not a SQL parser. Tables following {@code FROM},
+     * {@code JOIN}, {@code INTO}, {@code UPDATE}, {@code TABLE} and {@code USING} keywords are returned.
+     * Schema/catalog prefixes and quotes are removed and names are returned in lower case.
+     *
+     * @param query a query string
+     * @return table names in the order they appear
+     * @since 1.4.5
+     */
+    public static Set<String> getTableNames(String query) {
+        Set<String> tableNames = new LinkedHashSet<String>();
+        String fingerprint = getQueryFingerprint(query);
+        if (fingerprint == null) {
+            return tableNames;
+        }
+
+        String[] tokens = fingerprint.replace("(", " ( ").replace(")", " ) ").replace(",", " , ").trim().split(" +");
+        boolean expectTable = false;
+        boolean inFromList = false;  // "from a, b x, c"
+        for (String token : tokens) {
+            if (expectTable) {
+                expectTable = false;
+                if (!"(".equals(token) && !"?".equals(token)) {  // skip sub query or placeholder
+                    tableNames.add(toTableName(token));
+                }
+            } else if ("from".equals(token)) {
+                expectTable = true;
+                inFromList = true;
+            } else if ("join".equals(token) || "into".equals(token) || "update".equals(token)
+                    || "table".equals(token) || "using".equals(token)) {
+                expectTable = true;
+                inFromList = false;
+            } else if (inFromList && ",".equals(token)) {
+                expectTable = true;
+            } else if (TABLE_LIST_TERMINATORS.contains(token)) {
+                inFromList = false;
+            }
+        }
+        return tableNames;
+    }
+
+    private static String toTableName(String token) {
+        String name = token;
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0) {
+            name = name.substring(dot + 1);
+        }
+        if (name.length() > 1 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
+            name = name.substring(1, name.length() - 1);
+        }
+        return name.toLowerCase();
+    }
+
+    private static boolean isIdentifierPart(StringBuilder sb) {
+        if (sb.length() == 0) {
+            return false;
+        }
+        char last = sb.charAt(sb.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_' || last == '$';
+    }
+
+    private static void appendPlaceholder(StringBuilder sb) {
+        // collapse "?, ?" into "?"
+        int length = sb.length();
+        int pos = length;
+        if (pos > 0 && sb.charAt(pos - 1) == ' ') {
+            pos--;
+        }
+        if (pos > 0 && sb.charAt(pos - 1) == ',') {
+            pos--;
+            if (pos > 0 && sb.charAt(pos - 1) == ' ') {
+                pos--;
+            }
+            if (pos > 0 && sb.charAt(pos - 1) == '?') {
+                sb.setLength(pos);
+                return;
+            }
+        }
+        sb.append('?');
+    }
+
 }
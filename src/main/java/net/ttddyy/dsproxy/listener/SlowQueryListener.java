@@ -80,10 +80,11 @@ public class SlowQueryListener implements QueryExecutionListener {
                 }
             }
         };
-        this.executor.schedule(check, this.threshold, this.thresholdTimeUnit);
-
+        // record start time before scheduling, so that elapsed time is not shorter than the threshold
         long now = System.currentTimeMillis();
         this.inExecution.put(execInfo, now);
+
+        this.executor.schedule(check, this.threshold, this.thresholdTimeUnit);
     }
 
     @Override
@@ -6,6 +6,8 @@ import net.ttddyy.dsproxy.QueryCountHolder;
 /**
  * Uses {@link QueryCountHolder} which uses thread local to hold {@link QueryCount}.
  *
+ * When {@link net.ttddyy.dsproxy.QueryCountScope} is active, counts are stored to the scope.
+ *
  * @author Tadaya Tsuyukubo
  * @since 1.4.2
  */
@@ -13,12 +15,7 @@ public class ThreadQueryCountHolder implements QueryCountStrategy {
 
     @Override
     public QueryCount getOrCreateQueryCount(String dataSourceName) {
-        QueryCount queryCount = QueryCountHolder.get(dataSourceName);
-        if (queryCount == null) {
-            queryCount = new QueryCount();
-            QueryCountHolder.put(dataSourceName, queryCount);
-        }
-        return queryCount;
+        return QueryCountHolder.getOrCreate(dataSourceName);
     }
 
 }
@@ -0,0 +1,22 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.TransactionInfo;
+
+/**
+ * Callback listener for transactions performed on proxied connections.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see TransactionInfo
+ * @see TransactionMetricsListener
+ * @since 1.4.5
+ */
+public interface TransactionListener {
+
+    /**
+     * Called when a transaction has ended.
+     *
+     * @param transactionInfo transaction info
+     */
+    void afterTransaction(TransactionInfo transactionInfo);
+
+}
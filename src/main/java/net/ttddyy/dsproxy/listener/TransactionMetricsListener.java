@@ -0,0 +1,128 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.Histogram;
+import net.ttddyy.dsproxy.TransactionInfo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link TransactionListener} that aggregates transactions into histograms.
+ *
+ * All histograms are in milliseconds except {@link #getStatementCountHistogram()}.
+ * Auto-commit statements are counted but not recorded to histograms by default, since they would dominate the
+ * distribution; use {@link #setIncludeAutoCommit(boolean)} to include them.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class TransactionMetricsListener implements TransactionListener {
+
+    protected boolean includeAutoCommit;
+
+    private final Histogram durationHistogram = new Histogram();
+    private final Histogram databaseTimeHistogram = new Histogram();
+    private final Histogram idleTimeHistogram = new Histogram();
+    private final Histogram maxIdleTimeHistogram = new Histogram();
+    private final Histogram statementCountHistogram = new Histogram();
+
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong rollbackCount = new AtomicLong();
+    private final AtomicLong autoCommitCount = new AtomicLong();
+    private final AtomicLong closeCount = new AtomicLong();
+    private final AtomicLong rowsAffected = new AtomicLong();
+
+    @Override
+    public void afterTransaction(TransactionInfo transactionInfo) {
+        TransactionInfo.Outcome outcome = transactionInfo.getOutcome();
+        if (outcome == TransactionInfo.Outcome.COMMIT) {
+            this.commitCount.incrementAndGet();
+        } else if (outcome == TransactionInfo.Outcome.ROLLBACK) {
+            this.rollbackCount.incrementAndGet();
+        } else if (outcome == TransactionInfo.Outcome.AUTO_COMMIT) {
+            this.autoCommitCount.incrementAndGet();
+        } else if (outcome == TransactionInfo.Outcome.CLOSE) {
+            this.closeCount.incrementAndGet();
+        }
+        this.rowsAffected.addAndGet(transactionInfo.getRowsAffected());
+
+        if (outcome == TransactionInfo.Outcome.AUTO_COMMIT && !this.includeAutoCommit) {
+            return;
+        }
+        this.durationHistogram.record(transactionInfo.getElapsedTime());
+        this.databaseTimeHistogram.record(transactionInfo.getDatabaseTime());
+        this.idleTimeHistogram.record(transactionInfo.getIdleTime());
+        this.maxIdleTimeHistogram.record(transactionInfo.getMaxIdleTime());
+        this.statementCountHistogram.record(transactionInfo.getStatementCount());
+    }
+
+    public void reset() {
+        this.durationHistogram.reset();
+        this.databaseTimeHistogram.reset();
+        this.idleTimeHistogram.reset();
+        this.maxIdleTimeHistogram.reset();
+        this.statementCountHistogram.reset();
+        this.commitCount.set(0);
+        this.rollbackCount.set(0);
+        this.autoCommitCount.set(0);
+        this.closeCount.set(0);
+        this.rowsAffected.set(0);
+    }
+
+    public Histogram getDurationHistogram() {
+        return durationHistogram;
+    }
+
+    public Histogram getDatabaseTimeHistogram() {
+        return databaseTimeHistogram;
+    }
+
+    /**
+     * @return histogram of total idle-in-transaction time per transaction
+     */
+    public Histogram getIdleTimeHistogram() {
+        return idleTimeHistogram;
+    }
+
+    /**
+     * @return histogram of the longest idle gap per transaction
+     */
+    public Histogram getMaxIdleTimeHistogram() {
+        return maxIdleTimeHistogram;
+    }
+
+    public Histogram getStatementCountHistogram() {
+        return statementCountHistogram;
+    }
+
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    public long getRollbackCount() {
+        return rollbackCount.get();
+    }
+
+    public long getAutoCommitCount() {
+        return autoCommitCount.get();
+    }
+
+    /**
+     * @return number of transactions ended by closing the connection
+     */
+    public long getCloseCount() {
+        return closeCount.get();
+    }
+
+    public long getRowsAffected() {
+        return rowsAffected.get();
+    }
+
+    public boolean isIncludeAutoCommit() {
+        return includeAutoCommit;
+    }
+
+    public void setIncludeAutoCommit(boolean includeAutoCommit) {
+        this.includeAutoCommit = includeAutoCommit;
+    }
+
+}
@@ -0,0 +1,59 @@
+package net.ttddyy.dsproxy.listener.jfr;
+
+import jdk.jfr.EventType;
+import net.ttddyy.dsproxy.ConnectionInfo;
+import net.ttddyy.dsproxy.listener.MethodExecutionContext;
+import net.ttddyy.dsproxy.listener.MethodExecutionListener;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+/**
+ * Emit {@link MethodExecutionEvent} for each JDBC method invocation.
+ *
+ * When no recording enables the event, {@link #beforeMethod} only checks {@link EventType#isEnabled()}. However, a
+ * {@link MethodExecutionContext} is still created for each invocation, so this listener is registered only by
+ * {@code ProxyDataSourceBuilder#recordJfrEvents(true)}.
+ *
+ * This class references {@code jdk.jfr} API. Use {@link JfrSupport#createMethodExecutionListener()} to create an
+ * instance only when JFR is available.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+@IgnoreJRERequirement
+public class JfrMethodExecutionListener implements MethodExecutionListener {
+
+    private static final String EVENT_KEY = MethodExecutionEvent.NAME;
+    private static final EventType EVENT_TYPE = EventType.getEventType(MethodExecutionEvent.class);
+
+    @Override
+    public void beforeMethod(MethodExecutionContext executionContext) {
+        if (!EVENT_TYPE.isEnabled()) {
+            return;
+        }
+        MethodExecutionEvent event = new MethodExecutionEvent();
+        event.begin();
+        executionContext.addCustomValue(EVENT_KEY, event);
+    }
+
+    @Override
+    public void afterMethod(MethodExecutionContext executionContext) {
+        MethodExecutionEvent event = executionContext.getCustomValue(EVENT_KEY, MethodExecutionEvent.class);
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        ConnectionInfo connectionInfo = executionContext.getConnectionInfo();
+        if (connectionInfo != null) {
+            event.dataSourceName = connectionInfo.getDataSourceName();
+            event.connectionId = connectionInfo.getConnectionId();
+        }
+        event.interfaceName = executionContext.getMethod().getDeclaringClass().getSimpleName();
+        event.methodName = executionContext.getMethod().getName();
+        event.success = executionContext.getThrown() == null;
+        event.commit();
+    }
+
+}
@@ -0,0 +1,87 @@
+package net.ttddyy.dsproxy.listener.jfr;
+
+import jdk.jfr.EventType;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+import java.util.List;
+
+/**
+ * Emit {@link QueryExecutionEvent} for each query execution.
+ *
+ * When no recording enables the event, {@link #beforeQuery} only checks {@link EventType#isEnabled()}.
+ * Event fields are populated only when the event passes the threshold.
+ *
+ * This class references {@code jdk.jfr} API. Use {@link JfrSupport#createQueryExecutionListener()} to create an
+ * instance only when JFR is available.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+@IgnoreJRERequirement
+public class JfrQueryExecutionListener implements QueryExecutionListener {
+
+    private static final String EVENT_KEY = QueryExecutionEvent.NAME;
+    private static final EventType EVENT_TYPE = EventType.getEventType(QueryExecutionEvent.class);
+
+    protected int maxQueryLength = 1000;
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        if (!EVENT_TYPE.isEnabled()) {
+            return;
+        }
+        QueryExecutionEvent event = new QueryExecutionEvent();
+        event.begin();
+        execInfo.addCustomValue(EVENT_KEY, event);
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        QueryExecutionEvent event = execInfo.getCustomValue(EVENT_KEY, QueryExecutionEvent.class);
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.dataSourceName = execInfo.getDataSourceName();
+        event.connectionId = execInfo.getConnectionId();
+        event.query = getQuery(queryInfoList);
+        event.statementType = execInfo.getStatementType() == null ? null : execInfo.getStatementType().name();
+        event.batch = execInfo.isBatch();
+        event.batchSize = execInfo.getBatchSize();
+        event.success = execInfo.isSuccess();
+        event.commit();
+    }
+
+    private String getQuery(List<QueryInfo> queryInfoList) {
+        StringBuilder sb = new StringBuilder();
+        for (QueryInfo queryInfo : queryInfoList) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(queryInfo.getQuery());
+            if (sb.length() >= this.maxQueryLength) {
+                sb.setLength(this.maxQueryLength);
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    public int getMaxQueryLength() {
+        return maxQueryLength;
+    }
+
+    /**
+     * @param maxQueryLength maximum length of query recorded to the event
+     */
+    public void setMaxQueryLength(int maxQueryLength) {
+        this.maxQueryLength = maxQueryLength;
+    }
+
+}
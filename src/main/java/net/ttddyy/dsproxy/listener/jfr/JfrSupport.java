@@ -0,0 +1,58 @@
+package net.ttddyy.dsproxy.listener.jfr;
+
+import net.ttddyy.dsproxy.DataSourceProxyException;
+import net.ttddyy.dsproxy.listener.MethodExecutionListener;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+
+/**
+ * Create JFR listeners only when {@code jdk.jfr} is available at runtime(JDK 8u262+ and JDK 11+).
+ *
+ * JFR listener classes are loaded by reflection, so that this class can be referenced on any JDK.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class JfrSupport {
+
+    private static final boolean AVAILABLE = detect();
+
+    private static boolean detect() {
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrSupport.class.getClassLoader());
+            Class.forName("jdk.jfr.EventType", false, JfrSupport.class.getClassLoader());
+            return true;
+        } catch (Throwable ex) {
+            return false;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @return {@link JfrQueryExecutionListener} or {@code null} if JFR is not available
+     */
+    public static QueryExecutionListener createQueryExecutionListener() {
+        return (QueryExecutionListener) create("net.ttddyy.dsproxy.listener.jfr.JfrQueryExecutionListener");
+    }
+
+    /**
+     * @return {@link JfrMethodExecutionListener} or {@code null} if JFR is not available
+     */
+    public static MethodExecutionListener createMethodExecutionListener() {
+        return (MethodExecutionListener) create("net.ttddyy.dsproxy.listener.jfr.JfrMethodExecutionListener");
+    }
+
+    private static Object create(String className) {
+        if (!AVAILABLE) {
+            return null;
+        }
+        try {
+            return Class.forName(className, true, JfrSupport.class.getClassLoader()).newInstance();
+        } catch (Exception e) {
+            throw new DataSourceProxyException("Failed to create " + className, e);
+        }
+    }
+
+}
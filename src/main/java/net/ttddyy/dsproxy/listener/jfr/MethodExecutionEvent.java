@@ -0,0 +1,48 @@
+package net.ttddyy.dsproxy.listener.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+/**
+ * JFR event for a JDBC method invocation.
+ *
+ * Event name is {@code net.ttddyy.dsproxy.MethodExecution}. This event is disabled by default since it is emitted on
+ * every JDBC call; enable it by JFR settings.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see JfrMethodExecutionListener
+ * @since 1.4.5
+ */
+@Name(MethodExecutionEvent.NAME)
+@Label("JDBC Method Execution")
+@Description("JDBC method invoked through datasource-proxy")
+@Category({"datasource-proxy"})
+@Enabled(false)
+@StackTrace(false)
+@IgnoreJRERequirement
+public class MethodExecutionEvent extends Event {
+
+    public static final String NAME = "net.ttddyy.dsproxy.MethodExecution";
+
+    @Label("DataSource Name")
+    String dataSourceName;
+
+    @Label("Connection Id")
+    long connectionId;
+
+    @Label("Interface")
+    String interfaceName;
+
+    @Label("Method")
+    String methodName;
+
+    @Label("Success")
+    boolean success;
+
+}
@@ -0,0 +1,53 @@
+package net.ttddyy.dsproxy.listener.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+/**
+ * JFR event for a query execution.
+ *
+ * Event name is {@code net.ttddyy.dsproxy.QueryExecution}. Enable/threshold/stackTrace can be configured by JFR
+ * settings.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see JfrQueryExecutionListener
+ * @since 1.4.5
+ */
+@Name(QueryExecutionEvent.NAME)
+@Label("Query Execution")
+@Description("Query executed through datasource-proxy")
+@Category({"datasource-proxy"})
+@StackTrace(false)
+@IgnoreJRERequirement
+public class QueryExecutionEvent extends Event {
+
+    public static final String NAME = "net.ttddyy.dsproxy.QueryExecution";
+
+    @Label("DataSource Name")
+    String dataSourceName;
+
+    @Label("Connection Id")
+    long connectionId;
+
+    @Label("Query")
+    @Description("Executed query. Truncated when it is long. For batch, queries are separated by new line.")
+    String query;
+
+    @Label("Statement Type")
+    String statementType;
+
+    @Label("Batch")
+    boolean batch;
+
+    @Label("Batch Size")
+    int batchSize;
+
+    @Label("Success")
+    boolean success;
+
+}
@@ -0,0 +1,52 @@
+package net.ttddyy.dsproxy.listener.logging;
+
+import net.ttddyy.dsproxy.listener.ConnectionLeakDetector;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Log leaked connections using JUL(Java Util Logging).
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class JULConnectionLeakDetector extends ConnectionLeakDetector {
+
+    protected Logger logger = Logger.getLogger(JULConnectionLeakDetector.class.getName());
+    protected Level logLevel = Level.WARNING; // default WARNING
+
+    public JULConnectionLeakDetector() {
+    }
+
+    public JULConnectionLeakDetector(long threshold, TimeUnit thresholdTimeUnit) {
+        super(threshold, thresholdTimeUnit);
+    }
+
+    @Override
+    protected void onLeakDetected(TrackedConnection trackedConnection) {
+        this.logger.log(this.logLevel, getLeakDescription(trackedConnection));
+    }
+
+    public void setLogLevel(Level logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    public void setLogger(String loggerName) {
+        setLogger(Logger.getLogger(loggerName));
+    }
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    public Level getLogLevel() {
+        return logLevel;
+    }
+
+}
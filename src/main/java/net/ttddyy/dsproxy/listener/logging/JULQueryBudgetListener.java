@@ -0,0 +1,45 @@
+package net.ttddyy.dsproxy.listener.logging;
+
+import net.ttddyy.dsproxy.listener.QueryBudgetListener;
+import net.ttddyy.dsproxy.listener.QueryBudgetViolation;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Log query budget violations using JUL(Java Util Logging).
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class JULQueryBudgetListener extends QueryBudgetListener {
+
+    protected Logger logger = Logger.getLogger(JULQueryBudgetListener.class.getName());
+    protected Level logLevel = Level.WARNING; // default WARNING
+
+    @Override
+    protected void onBudgetExceeded(QueryBudgetViolation violation) {
+        this.logger.log(this.logLevel, violation.getDescription());
+    }
+
+    public void setLogLevel(Level logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    public void setLogger(String loggerName) {
+        setLogger(Logger.getLogger(loggerName));
+    }
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    public Level getLogLevel() {
+        return logLevel;
+    }
+
+}
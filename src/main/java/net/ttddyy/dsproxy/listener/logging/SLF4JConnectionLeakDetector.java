@@ -0,0 +1,53 @@
+package net.ttddyy.dsproxy.listener.logging;
+
+import net.ttddyy.dsproxy.listener.ConnectionLeakDetector;
+import net.ttddyy.dsproxy.support.SLF4JLogUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log leaked connections using SLF4j.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class SLF4JConnectionLeakDetector extends ConnectionLeakDetector {
+
+    protected Logger logger = LoggerFactory.getLogger(SLF4JConnectionLeakDetector.class);
+    protected SLF4JLogLevel logLevel = SLF4JLogLevel.WARN; // default WARN
+
+    public SLF4JConnectionLeakDetector() {
+    }
+
+    public SLF4JConnectionLeakDetector(long threshold, TimeUnit thresholdTimeUnit) {
+        super(threshold, thresholdTimeUnit);
+    }
+
+    @Override
+    protected void onLeakDetected(TrackedConnection trackedConnection) {
+        SLF4JLogUtils.writeLog(this.logger, this.logLevel, getLeakDescription(trackedConnection));
+    }
+
+    public void setLogger(String loggerName) {
+        setLogger(LoggerFactory.getLogger(loggerName));
+    }
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public void setLogLevel(SLF4JLogLevel logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    public SLF4JLogLevel getLogLevel() {
+        return logLevel;
+    }
+
+}
@@ -0,0 +1,45 @@
+package net.ttddyy.dsproxy.listener.logging;
+
+import net.ttddyy.dsproxy.listener.QueryBudgetListener;
+import net.ttddyy.dsproxy.listener.QueryBudgetViolation;
+import net.ttddyy.dsproxy.support.SLF4JLogUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Log query budget violations using SLF4j.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class SLF4JQueryBudgetListener extends QueryBudgetListener {
+
+    protected Logger logger = LoggerFactory.getLogger(SLF4JQueryBudgetListener.class);
+    protected SLF4JLogLevel logLevel = SLF4JLogLevel.WARN; // default WARN
+
+    @Override
+    protected void onBudgetExceeded(QueryBudgetViolation violation) {
+        SLF4JLogUtils.writeLog(this.logger, this.logLevel, violation.getDescription());
+    }
+
+    public void setLogger(String loggerName) {
+        setLogger(LoggerFactory.getLogger(loggerName));
+    }
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public void setLogLevel(SLF4JLogLevel logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    public SLF4JLogLevel getLogLevel() {
+        return logLevel;
+    }
+
+}
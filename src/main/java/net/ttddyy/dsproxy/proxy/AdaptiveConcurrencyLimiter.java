@@ -0,0 +1,209 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ConcurrencyLimiter} that adjusts the datasource limit from observed execution time.
+ *
+ * <p>Executions are sampled in windows of as many executions as the current limit, i.e. about one round trip of all
+ * in-flight executions. At the end of each window, the average execution time of the window(short-term latency) is
+ * compared with the long-term average, and the limit is adjusted by AIMD(additive increase, multiplicative decrease)
+ * as TCP congestion control does:
+ * <ul>
+ * <li>When the short-term latency is longer than {@link #setTolerance(double) tolerance} times the long-term latency,
+ * the database is considered saturated and the limit is multiplied by {@link #setBackoffRatio(double) backoff ratio}.
+ * The window following a decrease is discarded, since it contains executions admitted under the previous limit.
+ * <li>Otherwise, when at least half of the limit was in use during the window, the limit is increased by one.
+ * </ul>
+ *
+ * <p>Comparing averages rather than a minimum latency keeps the limit stable when fast and slow queries are mixed.
+ * The long-term latency is an exponential moving average of the windows with the time constant of
+ * {@link #setBaselineWindow(long, TimeUnit) baseline window}, so that it follows a database that has become
+ * permanently slower. It moves halfway to a window faster than itself, so that it recovers quickly from slow windows
+ * at startup. Since saturation is detected as an increase of latency, the initial limit should not be far
+ * above the capacity of the database, and {@link #setMaxLimit(int)} should be set to bound the limit.
+ *
+ * <p>When the limit is decreased, executions beyond it wait or are rejected by the queue settings of
+ * {@link ConcurrencyLimiter}, which sheds load before the database is overwhelmed.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class AdaptiveConcurrencyLimiter extends ConcurrencyLimiter {
+
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 1000;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final double DEFAULT_TOLERANCE = 2.0;
+    public static final long DEFAULT_BASELINE_WINDOW = 60;  // seconds
+
+    private static final long NOT_SET = Long.MAX_VALUE;
+
+    private volatile int minLimit = DEFAULT_MIN_LIMIT;
+    private volatile int maxLimit = DEFAULT_MAX_LIMIT;
+    private volatile double backoffRatio = DEFAULT_BACKOFF_RATIO;
+    private volatile double tolerance = DEFAULT_TOLERANCE;
+    private volatile long baselineWindow = TimeUnit.SECONDS.toNanos(DEFAULT_BASELINE_WINDOW);
+
+    // current window
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private final AtomicLong sampleSum = new AtomicLong();
+    private volatile boolean busy;
+
+    // updated at the end of windows while holding the lock
+    private final Lock windowLock = new ReentrantLock();
+    private volatile long longTermLatency = NOT_SET;
+    private long windowStart;
+    private boolean skipWindow;
+
+    private final AtomicLong decreaseCount = new AtomicLong();
+
+    /**
+     * @param initialLimit initial max number of statements executing concurrently on the datasource
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit) {
+        super(initialLimit);
+    }
+
+    @Override
+    protected void onExecuted(long elapsedTime) {
+        Limit limit = getDataSourceLimit();
+        int current = limit.getMaxConcurrency();
+        if (limit.getActiveCount() * 2 >= current) {
+            this.busy = true;
+        }
+        this.sampleSum.addAndGet(elapsedTime);
+        if (this.sampleCount.incrementAndGet() >= current && this.windowLock.tryLock()) {
+            try {
+                endWindow(limit);
+            } finally {
+                this.windowLock.unlock();
+            }
+        }
+    }
+
+    private void endWindow(Limit limit) {
+        int count = this.sampleCount.get();
+        if (count < limit.getMaxConcurrency()) {
+            return;  // already ended by another thread
+        }
+        this.sampleCount.addAndGet(-count);
+        long shortTerm = this.sampleSum.getAndSet(0) / count;
+        boolean busy = this.busy;
+        this.busy = false;
+
+        long now = currentTime();
+        long longTerm = this.longTermLatency;
+        if (longTerm == NOT_SET) {
+            this.longTermLatency = shortTerm;
+            this.windowStart = now;
+            return;
+        }
+        if (this.skipWindow) {
+            this.skipWindow = false;
+            this.windowStart = now;
+            return;
+        }
+
+        if (shortTerm > longTerm * this.tolerance) {
+            if (limit.decrease(this.backoffRatio, this.minLimit)) {
+                this.decreaseCount.incrementAndGet();
+                this.skipWindow = true;
+            }
+        } else if (busy) {
+            limit.increment(this.maxLimit);
+        }
+
+        // exponential moving average weighted by the duration of the window. follows faster windows quickly, so that
+        // slow windows at startup(e.g. cold caches) do not hide saturation.
+        double weight = shortTerm < longTerm ? 0.5 :
+                Math.min(1.0, (double) (now - this.windowStart) / Math.max(this.baselineWindow, 1));
+        this.longTermLatency = longTerm + Math.round((shortTerm - longTerm) * weight);
+        this.windowStart = now;
+    }
+
+    /**
+     * @return current time in nanos
+     */
+    protected long currentTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return current max number of statements executing concurrently on the datasource
+     */
+    public int getLimit() {
+        return getDataSourceLimit().getMaxConcurrency();
+    }
+
+    /**
+     * @param unit time unit
+     * @return long-term average latency. {@link Long#MAX_VALUE} if no window has been observed yet.
+     */
+    public long getBaselineLatency(TimeUnit unit) {
+        long baseline = this.longTermLatency;
+        return baseline == NOT_SET ? baseline : unit.convert(baseline, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return number of times the limit has been decreased
+     */
+    public long getDecreaseCount() {
+        return decreaseCount.get();
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public void setMinLimit(int minLimit) {
+        this.minLimit = minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * @param backoffRatio ratio to multiply the limit when the database is saturated. between {@code 0} and {@code 1}.
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @param tolerance ratio of short-term latency to long-term latency considered as saturation
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public long getBaselineWindow(TimeUnit unit) {
+        return unit.convert(this.baselineWindow, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param baselineWindow time constant of the long-term average latency
+     * @param unit           time unit
+     */
+    public void setBaselineWindow(long baselineWindow, TimeUnit unit) {
+        this.baselineWindow = unit.toNanos(baselineWindow);
+    }
+
+}
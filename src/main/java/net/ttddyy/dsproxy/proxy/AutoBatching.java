@@ -0,0 +1,111 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.sql.SQLException;
+import java.util.regex.Pattern;
+
+/**
+ * Rules and helpers for auto-batching.
+ *
+ * Only a single-row {@code INSERT ... VALUES (...)} is buffered, because its update count is always {@code 1} when it
+ * succeeds. Statements that return rows or may affect other number of rows, such as {@code INSERT ... SELECT},
+ * {@code RETURNING} or upsert clauses, are executed as usual. So are inserts with a modifier between {@code INSERT} and
+ * {@code INTO}, such as {@code INSERT IGNORE}, {@code INSERT OR IGNORE} or {@code INSERT OR REPLACE}, since they may
+ * skip or replace rows.
+ *
+ * Statements prepared to return auto-generated keys are not buffered either, because the keys are not available until
+ * the batch is executed.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see ProxyConfig#getAutoBatchSize()
+ * @since 1.4.5
+ */
+class AutoBatching {
+
+    // no modifier such as "IGNORE" or "OR REPLACE"
+    private static final Pattern INSERT_INTO = Pattern.compile("^insert\\s+into\\s");
+
+    private static final String[] NON_BATCHABLE_KEYWORDS = {"select", "returning", "on conflict", "on duplicate", "output"};
+
+    /**
+     * Execute the pending batch of the connection if exists.
+     *
+     * @param connectionState connection state. can be {@code null}.
+     * @throws SQLException when the batch execution failed
+     */
+    static void flush(ConnectionState connectionState) throws SQLException {
+        PendingBatch pendingBatch = connectionState == null ? null : connectionState.getPendingBatch();
+        if (pendingBatch != null) {
+            pendingBatch.flush();
+        }
+    }
+
+    /**
+     * Drop the pending batch of the connection if exists.
+     *
+     * @param connectionState connection state. can be {@code null}.
+     * @throws SQLException when clearing the batch failed
+     */
+    static void discard(ConnectionState connectionState) throws SQLException {
+        PendingBatch pendingBatch = connectionState == null ? null : connectionState.getPendingBatch();
+        if (pendingBatch != null) {
+            pendingBatch.discard();
+        }
+    }
+
+    /**
+     * @param query query
+     * @return {@code true} if the query inserts exactly one row
+     */
+    static boolean isSingleRowInsert(String query) {
+        String sql = removeLiterals(query).trim().toLowerCase();
+        if (!INSERT_INTO.matcher(sql).find()) {
+            return false;
+        }
+        for (String keyword : NON_BATCHABLE_KEYWORDS) {
+            if (sql.contains(keyword)) {
+                return false;
+            }
+        }
+        int valuesIndex = sql.indexOf("values");
+        if (valuesIndex < 0) {
+            return false;
+        }
+
+        // exactly one row of values
+        int rows = 0;
+        int depth = 0;
+        for (int i = valuesIndex + "values".length(); i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '(') {
+                if (depth == 0) {
+                    rows++;
+                }
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && c != ',' && c != ';' && !Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return rows == 1;
+    }
+
+    private static String removeLiterals(String query) {
+        StringBuilder sb = new StringBuilder(query.length());
+        char quote = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,117 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Split large batches into chunks.
+ *
+ * <p>When this policy is set to {@link ProxyConfig}, batch entries added by {@link Statement#addBatch(String)} or
+ * {@link java.sql.PreparedStatement#addBatch()} are executed whenever the number of entries reaches
+ * {@link #getChunkSize()}. {@link Statement#executeBatch()} executes the rest and returns update counts of all
+ * chunks. Memory held by the driver for a batch stays bounded regardless of the number of entries.
+ *
+ * <p>Chunks are executed only when auto-commit is disabled on the connection. Under auto-commit, each executed chunk
+ * would be committed immediately; a later {@link Statement#clearBatch()} or an abandoned batch could not undo those
+ * rows, so the batch is executed as a whole by {@link Statement#executeBatch()} instead. Within a transaction,
+ * {@link Statement#clearBatch()} only discards entries not yet executed; roll back the transaction to undo executed
+ * chunks.
+ *
+ * <p>Query listeners are called for each chunk. {@link #onBatchCompleted(int, int, long)} is called once for the
+ * whole batch.
+ *
+ * <p>When a chunk fails, {@link java.sql.BatchUpdateException} is thrown from the {@code addBatch} or
+ * {@code executeBatch} call that triggered the chunk, and its update counts include those of preceding chunks.
+ *
+ * <p>When {@link #setTargetChunkTime(long, TimeUnit)} is set, the chunk size adapts to observed execution time of
+ * full chunks, within {@link #setMinChunkSize(int)} and {@link #setMaxChunkSize(int)}.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class BatchChunkPolicy {
+
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 10;
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 10000;
+
+    private volatile int chunkSize;
+    private int minChunkSize = DEFAULT_MIN_CHUNK_SIZE;
+    private int maxChunkSize = DEFAULT_MAX_CHUNK_SIZE;
+    private long targetChunkTime;  // nanos. 0 to use fixed chunk size.
+
+    public BatchChunkPolicy(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Record execution of a chunk.
+     *
+     * @param size        number of entries in the chunk
+     * @param elapsedTime time in nanos to execute the chunk
+     */
+    public void onChunkExecuted(int size, long elapsedTime) {
+        int current = this.chunkSize;
+        if (this.targetChunkTime <= 0 || size < current) {
+            return;  // fixed size, or the last partial chunk which does not represent the chunk size
+        }
+        // move halfway to the size expected to take the target time
+        double ideal = (double) size * this.targetChunkTime / Math.max(elapsedTime, 1);
+        long next = Math.round((current + Math.min(ideal, Integer.MAX_VALUE)) / 2);
+        this.chunkSize = (int) Math.max(this.minChunkSize, Math.min(this.maxChunkSize, next));
+    }
+
+    /**
+     * Called when a batch executed in chunks has completed.
+     *
+     * Default implementation does nothing.
+     *
+     * @param size        total number of entries in the batch
+     * @param chunks      number of chunks
+     * @param elapsedTime time in nanos from the first chunk to the end of the last chunk
+     */
+    protected void onBatchCompleted(int size, int chunks, long elapsedTime) {
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    public void setMinChunkSize(int minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * @param unit time unit
+     * @return target execution time of a chunk. {@code 0} if chunk size is fixed.
+     */
+    public long getTargetChunkTime(TimeUnit unit) {
+        return unit.convert(this.targetChunkTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Adapt chunk size so that a chunk takes about the given time.
+     *
+     * @param targetChunkTime target execution time of a chunk. {@code 0} to use fixed chunk size.
+     * @param unit            time unit
+     */
+    public void setTargetChunkTime(long targetChunkTime, TimeUnit unit) {
+        this.targetChunkTime = unit.toNanos(targetChunkTime);
+    }
+
+}
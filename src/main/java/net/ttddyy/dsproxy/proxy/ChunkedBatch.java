@@ -0,0 +1,113 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.ConnectionInfo;
+
+import java.lang.reflect.Method;
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Update counts of chunks already executed for a batch.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see BatchChunkPolicy
+ * @since 1.4.5
+ */
+class ChunkedBatch {
+
+    static final Method EXECUTE_BATCH_METHOD;
+
+    static {
+        try {
+            EXECUTE_BATCH_METHOD = Statement.class.getMethod("executeBatch");
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Chunks are executed only when auto-commit is disabled. Under auto-commit, executed chunks would be committed
+     * immediately and could not be undone by {@code clearBatch} or by abandoning the batch.
+     *
+     * @param statement      actual statement
+     * @param connectionInfo connection info. can be {@code null}.
+     * @return {@code true} if the batch can be executed in chunks
+     * @throws SQLException when auto-commit mode cannot be retrieved
+     */
+    static boolean isChunkable(Statement statement, ConnectionInfo connectionInfo) throws SQLException {
+        Boolean autoCommit = connectionInfo == null ? null : connectionInfo.getAutoCommit();
+        if (autoCommit == null) {
+            autoCommit = statement.getConnection().getAutoCommit();
+        }
+        return !autoCommit;
+    }
+
+    private final long startTime = System.nanoTime();
+    private int[] counts = new int[16];
+    private int size;
+    private int chunks;
+
+    void add(int[] result) {
+        append(result);
+        this.chunks++;
+    }
+
+    /**
+     * @param lastResult result of the last chunk. {@code null} if there was no entry left.
+     * @param policy     policy to notify. can be {@code null}.
+     * @return update counts of whole batch. {@code long[]} if the last result is {@code long[]}.
+     */
+    Object complete(Object lastResult, BatchChunkPolicy policy) {
+        Object result;
+        if (lastResult instanceof long[]) {
+            long[] last = (long[]) lastResult;
+            long[] all = new long[this.size + last.length];
+            for (int i = 0; i < this.size; i++) {
+                all[i] = this.counts[i];
+            }
+            System.arraycopy(last, 0, all, this.size, last.length);
+            this.chunks++;
+            result = all;
+        } else {
+            if (lastResult != null) {
+                add((int[]) lastResult);
+            }
+            result = toArray();
+        }
+        if (policy != null) {
+            int total = result instanceof long[] ? ((long[]) result).length : ((int[]) result).length;
+            policy.onBatchCompleted(total, this.chunks, System.nanoTime() - this.startTime);
+        }
+        return result;
+    }
+
+    /**
+     * @param e failure of a chunk
+     * @return exception whose update counts include preceding chunks
+     */
+    BatchUpdateException toBatchUpdateException(BatchUpdateException e) {
+        int[] failed = e.getUpdateCounts();
+        if (failed != null) {
+            append(failed);
+        }
+        return new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), toArray(), e);
+    }
+
+    private void append(int[] result) {
+        if (this.size + result.length > this.counts.length) {
+            int[] newCounts = new int[Math.max(this.counts.length * 2, this.size + result.length)];
+            System.arraycopy(this.counts, 0, newCounts, 0, this.size);
+            this.counts = newCounts;
+        }
+        System.arraycopy(result, 0, this.counts, this.size, result.length);
+        this.size += result.length;
+    }
+
+    private int[] toArray() {
+        int[] result = new int[this.size];
+        System.arraycopy(this.counts, 0, result, 0, this.size);
+        return result;
+    }
+
+}
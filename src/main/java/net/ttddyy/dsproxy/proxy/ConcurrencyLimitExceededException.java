@@ -0,0 +1,34 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.sql.SQLTransientException;
+
+/**
+ * Thrown by {@link ConcurrencyLimiter} when a statement execution is not admitted.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class ConcurrencyLimitExceededException extends SQLTransientException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String limitName;
+
+    public ConcurrencyLimitExceededException(String reason, String limitName) {
+        super(reason);
+        this.limitName = limitName;
+    }
+
+    public ConcurrencyLimitExceededException(String reason, String limitName, Throwable cause) {
+        super(reason, cause);
+        this.limitName = limitName;
+    }
+
+    /**
+     * @return name of the limit that rejected the execution
+     */
+    public String getLimitName() {
+        return limitName;
+    }
+
+}
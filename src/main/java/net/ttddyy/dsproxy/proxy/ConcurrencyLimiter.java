@@ -0,0 +1,373 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryType;
+import net.ttddyy.dsproxy.listener.QueryUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit number of statements executing concurrently on a datasource.
+ *
+ * <p>When this limiter is set to {@link ProxyConfig}, statement executions acquire a permit from the datasource wide
+ * limit, and from a sub-limit for the query fingerprint or {@link QueryType} if one is configured by
+ * {@link #setFingerprintLimit(String, int)} or {@link #setQueryTypeLimit(QueryType, int)}. When both match, the
+ * fingerprint limit is used. Permits are released as soon as the execution returns.
+ *
+ * <p>When no permit is available, the execution waits up to {@link #setMaxWaitTime(long, TimeUnit)}. At most
+ * {@link #setMaxQueueSize(int)} executions wait at the same time. Executions beyond that, or that did not get a permit
+ * in time, fail with {@link ConcurrencyLimitExceededException}. Time spent waiting is available from
+ * {@link ExecutionInfo#getQueueWaitTime()} and is not included in {@link ExecutionInfo#getElapsedTime()}.
+ *
+ * <p>Acquiring an available permit does not block nor lock. Sub-limits should be configured before the limiter is
+ * used, since prepared statements resolve their sub-limit once.
+ *
+ * <p>Subclasses can adjust the datasource limit from execution times reported to {@link #onExecuted(long)}.
+ *
+ * @see AdaptiveConcurrencyLimiter
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class ConcurrencyLimiter {
+
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 100;
+    public static final long DEFAULT_MAX_WAIT_TIME = 1000;  // millis
+
+    /**
+     * Semaphore whose number of permits can be reduced.
+     */
+    private static class ResizableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        private ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    /**
+     * A limit and its statistics.
+     */
+    public static class Limit {
+        private final String name;
+        private volatile int maxConcurrency;
+        private final ResizableSemaphore semaphore;
+        private final AtomicLong acquiredCount = new AtomicLong();
+        private final AtomicLong waitedCount = new AtomicLong();
+        private final AtomicLong rejectedCount = new AtomicLong();
+        private final AtomicLong totalWaitTime = new AtomicLong();
+
+        Limit(String name, int maxConcurrency) {
+            this.name = name;
+            this.maxConcurrency = maxConcurrency;
+            this.semaphore = new ResizableSemaphore(maxConcurrency);
+        }
+
+        /**
+         * Change max concurrency. Executions holding a permit are not affected.
+         *
+         * @param maxConcurrency new max concurrency
+         */
+        synchronized void resize(int maxConcurrency) {
+            int delta = maxConcurrency - this.maxConcurrency;
+            if (delta > 0) {
+                this.semaphore.release(delta);
+            } else if (delta < 0) {
+                this.semaphore.reducePermits(-delta);
+            }
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        /**
+         * Increase max concurrency by one.
+         *
+         * @param upperBound max concurrency not to exceed
+         * @return {@code true} if max concurrency has been increased
+         */
+        synchronized boolean increment(int upperBound) {
+            if (this.maxConcurrency >= upperBound) {
+                return false;
+            }
+            resize(this.maxConcurrency + 1);
+            return true;
+        }
+
+        /**
+         * Multiply max concurrency by the given factor.
+         *
+         * @param factor     factor between {@code 0} and {@code 1}
+         * @param lowerBound max concurrency not to go below
+         * @return {@code true} if max concurrency has been decreased
+         */
+        synchronized boolean decrease(double factor, int lowerBound) {
+            int next = Math.max(lowerBound, (int) (this.maxConcurrency * factor));
+            if (next >= this.maxConcurrency) {
+                return false;
+            }
+            resize(next);
+            return true;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        /**
+         * @return number of executions currently holding a permit
+         */
+        public int getActiveCount() {
+            return this.maxConcurrency - this.semaphore.availablePermits();
+        }
+
+        public long getAcquiredCount() {
+            return acquiredCount.get();
+        }
+
+        /**
+         * @return number of executions that had to wait for a permit
+         */
+        public long getWaitedCount() {
+            return waitedCount.get();
+        }
+
+        public long getRejectedCount() {
+            return rejectedCount.get();
+        }
+
+        /**
+         * @param unit time unit
+         * @return total time executions waited for a permit
+         */
+        public long getTotalWaitTime(TimeUnit unit) {
+            return unit.convert(this.totalWaitTime.get(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return this.name + " [max=" + this.maxConcurrency + ", active=" + getActiveCount() + "]";
+        }
+    }
+
+    private final Limit dataSourceLimit;
+    private final Map<String, Limit> fingerprintLimits = new ConcurrentHashMap<String, Limit>();
+    private final Limit[] queryTypeLimits = new Limit[QueryType.values().length];
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private volatile boolean hasQueryTypeLimit;
+    private volatile int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private volatile long maxWaitTime = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_WAIT_TIME);
+
+    /**
+     * @param maxConcurrency max number of statements executing concurrently on the datasource
+     */
+    public ConcurrencyLimiter(int maxConcurrency) {
+        this.dataSourceLimit = new Limit("datasource", maxConcurrency);
+    }
+
+    /**
+     * Set a sub-limit for queries having the same fingerprint as the given query.
+     *
+     * @param query          a query. its fingerprint is used.
+     * @param maxConcurrency max number of concurrent executions for the fingerprint
+     * @see QueryUtils#getQueryFingerprint(String)
+     */
+    public void setFingerprintLimit(String query, int maxConcurrency) {
+        String fingerprint = QueryUtils.getQueryFingerprint(query);
+        this.fingerprintLimits.put(fingerprint, new Limit(fingerprint, maxConcurrency));
+    }
+
+    /**
+     * Set a sub-limit for queries of the given type.
+     *
+     * @param queryType      query type
+     * @param maxConcurrency max number of concurrent executions for the query type
+     */
+    public void setQueryTypeLimit(QueryType queryType, int maxConcurrency) {
+        this.queryTypeLimits[queryType.ordinal()] = new Limit(queryType.name(), maxConcurrency);
+        this.hasQueryTypeLimit = true;
+    }
+
+    /**
+     * Find the sub-limit that applies to the query.
+     *
+     * @param query a query. can be {@code null}.
+     * @return sub-limit. {@code null} if only the datasource limit applies.
+     */
+    public Limit getSubLimit(String query) {
+        if (query == null) {
+            return null;
+        }
+        if (!this.fingerprintLimits.isEmpty()) {
+            Limit limit = this.fingerprintLimits.get(QueryUtils.getQueryFingerprint(query));
+            if (limit != null) {
+                return limit;
+            }
+        }
+        if (this.hasQueryTypeLimit) {
+            return this.queryTypeLimits[QueryUtils.getQueryType(query).ordinal()];
+        }
+        return null;
+    }
+
+    /**
+     * Acquire permits from the given sub-limit and the datasource limit.
+     *
+     * @param subLimit sub-limit from {@link #getSubLimit(String)}. can be {@code null}.
+     * @param execInfo execution info to record wait time. can be {@code null}.
+     * @throws ConcurrencyLimitExceededException when a permit is not available in time
+     */
+    public void acquire(Limit subLimit, ExecutionInfo execInfo) throws ConcurrencyLimitExceededException {
+        long waitStart = 0;
+        if (subLimit != null) {
+            waitStart = acquire(subLimit, waitStart);
+        }
+        try {
+            waitStart = acquire(this.dataSourceLimit, waitStart);
+        } catch (ConcurrencyLimitExceededException ex) {
+            if (subLimit != null) {
+                subLimit.semaphore.release();
+            }
+            throw ex;
+        }
+        if (waitStart != 0 && execInfo != null) {
+            execInfo.setQueueWaitTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart));
+        }
+    }
+
+    /**
+     * Release permits acquired by {@link #acquire(Limit, ExecutionInfo)}.
+     *
+     * @param subLimit sub-limit passed to {@link #acquire(Limit, ExecutionInfo)}. can be {@code null}.
+     */
+    public void release(Limit subLimit) {
+        this.dataSourceLimit.semaphore.release();
+        if (subLimit != null) {
+            subLimit.semaphore.release();
+        }
+    }
+
+    /**
+     * Release permits acquired by {@link #acquire(Limit, ExecutionInfo)} and report execution time.
+     *
+     * @param subLimit    sub-limit passed to {@link #acquire(Limit, ExecutionInfo)}. can be {@code null}.
+     * @param elapsedTime execution time in nanos
+     */
+    public void release(Limit subLimit, long elapsedTime) {
+        try {
+            onExecuted(elapsedTime);
+        } finally {
+            release(subLimit);
+        }
+    }
+
+    /**
+     * Called when an execution holding a permit has returned, before its permits are released.
+     *
+     * Default implementation does nothing.
+     *
+     * @param elapsedTime execution time in nanos
+     */
+    protected void onExecuted(long elapsedTime) {
+    }
+
+    /**
+     * @param limit     limit to acquire a permit from
+     * @param waitStart time in nanos when waiting started. {@code 0} if not waited yet.
+     * @return time in nanos when waiting started. {@code 0} if not waited.
+     */
+    private long acquire(Limit limit, long waitStart) throws ConcurrencyLimitExceededException {
+        if (limit.semaphore.tryAcquire()) {
+            limit.acquiredCount.incrementAndGet();
+            return waitStart;
+        }
+
+        long now = System.nanoTime();
+        if (waitStart == 0) {
+            waitStart = now;
+        }
+        if (this.waitingCount.incrementAndGet() > this.maxQueueSize) {
+            this.waitingCount.decrementAndGet();
+            limit.rejectedCount.incrementAndGet();
+            throw new ConcurrencyLimitExceededException("Too many statements are waiting for " + limit, limit.getName());
+        }
+        limit.waitedCount.incrementAndGet();
+        try {
+            long remaining = waitStart + this.maxWaitTime - now;
+            if (remaining <= 0 || !limit.semaphore.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                limit.rejectedCount.incrementAndGet();
+                throw new ConcurrencyLimitExceededException("Timed out waiting for " + limit, limit.getName());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            limit.rejectedCount.incrementAndGet();
+            throw new ConcurrencyLimitExceededException("Interrupted while waiting for " + limit, limit.getName(), ex);
+        } finally {
+            this.waitingCount.decrementAndGet();
+            limit.totalWaitTime.addAndGet(System.nanoTime() - now);
+        }
+        limit.acquiredCount.incrementAndGet();
+        return waitStart;
+    }
+
+    public Limit getDataSourceLimit() {
+        return dataSourceLimit;
+    }
+
+    /**
+     * @return configured sub-limits
+     */
+    public List<Limit> getSubLimits() {
+        List<Limit> limits = new ArrayList<Limit>();
+        for (Limit limit : this.queryTypeLimits) {
+            if (limit != null) {
+                limits.add(limit);
+            }
+        }
+        limits.addAll(this.fingerprintLimits.values());
+        return Collections.unmodifiableList(limits);
+    }
+
+    /**
+     * @return number of executions currently waiting for a permit
+     */
+    public int getWaitingCount() {
+        return waitingCount.get();
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * @param maxQueueSize max number of executions waiting for a permit. {@code 0} to fail immediately.
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    public long getMaxWaitTime(TimeUnit unit) {
+        return unit.convert(this.maxWaitTime, TimeUnit.NANOSECONDS);
+    }
+
+    public void setMaxWaitTime(long maxWaitTime, TimeUnit unit) {
+        this.maxWaitTime = unit.toNanos(maxWaitTime);
+    }
+
+}
@@ -1,9 +1,9 @@
 package net.ttddyy.dsproxy.proxy;
 
+import net.ttddyy.dsproxy.ConnectionIdManager;
 import net.ttddyy.dsproxy.ConnectionInfo;
 import net.ttddyy.dsproxy.listener.MethodExecutionListenerUtils;
 import net.ttddyy.dsproxy.transform.QueryTransformer;
-import net.ttddyy.dsproxy.transform.TransformInfo;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -14,6 +14,7 @@ import java.sql.Statement;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -28,14 +29,29 @@ public class ConnectionProxyLogic {
             new HashSet<String>(Arrays.asList("unwrap", "isWrapperFor"))
     );
 
+    // methods that end or mark the current transaction
+    private static final Set<String> METHODS_TO_FLUSH_AUTO_BATCH = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("commit", "rollback", "setAutoCommit", "setSavepoint", "releaseSavepoint"))
+    );
+
     private Connection connection;
     private ConnectionInfo connectionInfo;
+    private final ConnectionState connectionState = new ConnectionState();
     private ProxyConfig proxyConfig;
+    private ConnectionIdManager connectionIdManager;  // issued the id of this connection. config may be reloaded.
 
     public ConnectionProxyLogic(Connection connection, ConnectionInfo connectionInfo, ProxyConfig proxyConfig) {
         this.connection = connection;
         this.connectionInfo = connectionInfo;
         this.proxyConfig = proxyConfig;
+        this.connectionIdManager = proxyConfig.getConnectionIdManager();
+    }
+
+    /**
+     * @return state shared with statement proxies of this connection
+     */
+    ConnectionState getConnectionState() {
+        return this.connectionState;
     }
 
     public Object invoke(final Object proxyConnection, Method method, Object[] args) throws Throwable {
@@ -43,32 +59,57 @@ public class ConnectionProxyLogic {
         final boolean isCloseMethod = "close".equals(method.getName());
         final boolean isCommitMethod = "commit".equals(method.getName());
         final boolean isRollbackMethod = "rollback".equals(method.getName());
+        final boolean isSetAutoCommitMethod = "setAutoCommit".equals(method.getName());
+        final ProxyConfig proxyConfig = this.proxyConfig.getLatest();
 
         return MethodExecutionListenerUtils.invoke(new MethodExecutionListenerUtils.MethodExecutionCallback() {
             @Override
             public Object execute(Object proxyTarget, Method method, Object[] args) throws Throwable {
-                Object result = performQueryExecutionListener(proxyConnection, method, args);
                 ConnectionInfo connectionInfo = ConnectionProxyLogic.this.connectionInfo;
+                if (isCloseMethod) {
+                    // the connection is regarded as closed even when the close failed
+                    try {
+                        return performQueryExecutionListener(proxyConnection, method, args, proxyConfig);
+                    } finally {
+                        onTransactionEnd(proxyConfig);
+                        TransactionTracker.onClose(connectionInfo, proxyConfig);
+                        connectionInfo.setClosed(true);
+                        ConnectionProxyLogic.this.connectionState.clear();
+                        long connId = connectionInfo.getConnectionId();
+                        ConnectionProxyLogic.this.connectionIdManager.addClosedId(connId);
+                    }
+                }
+
+                Object result = performQueryExecutionListener(proxyConnection, method, args, proxyConfig);
                 if (isCommitMethod) {
                     connectionInfo.incrementCommitCount();
+                    onTransactionEnd(proxyConfig);
+                    TransactionTracker.onCommit(connectionInfo, proxyConfig);
                 } else if (isRollbackMethod) {
                     connectionInfo.incrementRollbackCount();
-                } else if (isCloseMethod) {
-                    connectionInfo.setClosed(true);
-                    long connId = connectionInfo.getConnectionId();
-                    ConnectionProxyLogic.this.proxyConfig.getConnectionIdManager().addClosedId(connId);
+                    // rollback to savepoint does not end the transaction
+                    if (args == null || args.length == 0) {
+                        onTransactionEnd(proxyConfig);
+                        TransactionTracker.onRollback(connectionInfo, proxyConfig);
+                    }
+                } else if (isSetAutoCommitMethod) {
+                    if ((Boolean) args[0]) {
+                        onTransactionEnd(proxyConfig);  // commits current transaction
+                    }
+                    TransactionTracker.onAutoCommit(connectionInfo, proxyConfig, (Boolean) args[0]);
+                    connectionInfo.setAutoCommit((Boolean) args[0]);
                 }
                 return result;
             }
-        }, this.proxyConfig, this.connection, this.connectionInfo, method, args);
+        }, proxyConfig, this.connection, this.connectionInfo, method, args);
     }
 
-    private Object performQueryExecutionListener(Object proxy, Method method, Object[] args) throws Throwable {
+    private Object performQueryExecutionListener(Object proxy, Method method, Object[] args, ProxyConfig proxyConfig) throws Throwable {
         final Connection proxyConnection = (Connection) proxy;
         final String methodName = method.getName();
 
-        QueryTransformer queryTransformer = this.proxyConfig.getQueryTransformer();
-        JdbcProxyFactory jdbcProxyFactory = this.proxyConfig.getJdbcProxyFactory();
+        QueryTransformer queryTransformer = proxyConfig.getQueryTransformer();
+        JdbcProxyFactory jdbcProxyFactory = proxyConfig.getJdbcProxyFactory();
 
 
         if ("toString".equals(methodName)) {
@@ -100,12 +141,52 @@ public class ConnectionProxyLogic {
                 final String query = (String) args[0];
                 final Class<? extends Statement> clazz =
                         "prepareStatement".equals(methodName) ? PreparedStatement.class : CallableStatement.class;
-                final TransformInfo transformInfo = new TransformInfo(clazz, this.connectionInfo.getDataSourceName(), query, false, 0);
-                final String transformedQuery = queryTransformer.transformQuery(transformInfo);
+                final String transformedQuery = QueryTransformerUtils.transformQuery(queryTransformer, clazz,
+                        this.connectionInfo.getDataSourceName(), query, false, 0);
                 args[0] = transformedQuery;
             }
         }
 
+        // populate current auto-commit mode to track transactions
+        if ((proxyConfig.getTransactionListener() != null || proxyConfig.getQueryResultCache() != null)
+                && this.connectionInfo.getAutoCommit() == null
+                && ("createStatement".equals(methodName) || "prepareStatement".equals(methodName) || "prepareCall".equals(methodName))) {
+            boolean autoCommit = this.connection.getAutoCommit();
+            TransactionTracker.onAutoCommit(this.connectionInfo, proxyConfig, autoCommit);
+            this.connectionInfo.setAutoCommit(autoCommit);
+        }
+
+        if (this.connectionState.getPendingBatch() != null) {
+            if (("rollback".equals(methodName) && (args == null || args.length == 0)) || "abort".equals(methodName)) {
+                // buffered inserts would be rolled back anyway
+                AutoBatching.discard(this.connectionState);
+            } else if (METHODS_TO_FLUSH_AUTO_BATCH.contains(methodName)) {
+                AutoBatching.flush(this.connectionState);
+            }
+        }
+
+        if ("close".equals(methodName)) {
+            try {
+                // buffered inserts need to reach the database before the connection is closed
+                AutoBatching.flush(this.connectionState);
+            } finally {
+                // close the connection even when the buffered inserts failed
+                if (this.connectionState.getStatementCache() != null) {
+                    this.connectionState.getStatementCache().close();
+                }
+                MethodUtils.proceedExecution(method, this.connection, args);
+            }
+            return null;
+        }
+
+        PreparedStatementCache preparedStatementCache = proxyConfig.getPreparedStatementCache();
+        if (preparedStatementCache != null && "prepareStatement".equals(methodName) && ObjectArrayUtils.isFirstArgString(args)) {
+            return prepareCachedStatement(preparedStatementCache, method, args, proxyConnection, proxyConfig);
+        }
+        if ("abort".equals(methodName) && this.connectionState.getStatementCache() != null) {
+            this.connectionState.getStatementCache().close();
+        }
+
         // Invoke method on original Connection.
         final Object retVal;
         try {
@@ -118,22 +199,72 @@ public class ConnectionProxyLogic {
         // most of the time, spring and hibernate use prepareStatement to execute query as batch
         if ("createStatement".equals(methodName)) {
             // for normal statement, transforming query is handled inside of handler.
-            return jdbcProxyFactory.createStatement((Statement) retVal, this.connectionInfo, proxyConnection, this.proxyConfig);
+            return jdbcProxyFactory.createStatement((Statement) retVal, this.connectionInfo, proxyConnection, proxyConfig);
         } else if ("prepareStatement".equals(methodName)) {
             if (ObjectArrayUtils.isFirstArgString(args)) {
                 final String query = (String) args[0];
+                if (isGeneratedKeysRequested(args)) {
+                    this.connectionState.addGeneratedKeysStatement((Statement) retVal);
+                }
                 return jdbcProxyFactory.createPreparedStatement((PreparedStatement) retVal, query,
-                        this.connectionInfo, proxyConnection, this.proxyConfig);
+                        this.connectionInfo, proxyConnection, proxyConfig);
             }
         } else if ("prepareCall".equals(methodName)) {  // for stored procedure call
             if (ObjectArrayUtils.isFirstArgString(args)) {
                 final String query = (String) args[0];
                 return jdbcProxyFactory.createCallableStatement((CallableStatement) retVal, query,
-                        this.connectionInfo, proxyConnection, this.proxyConfig);
+                        this.connectionInfo, proxyConnection, proxyConfig);
             }
         }
 
         return retVal;
     }
 
+    private Object prepareCachedStatement(PreparedStatementCache preparedStatementCache, Method method, Object[] args,
+                                          Connection proxyConnection, ProxyConfig proxyConfig) throws Throwable {
+        PreparedStatementCache.ConnectionCache statementCache = this.connectionState.getStatementCache();
+        if (statementCache == null) {
+            statementCache = preparedStatementCache.createConnectionCache();
+            this.connectionState.setStatementCache(statementCache);
+        }
+
+        List<Object> key = PreparedStatementCache.createKey(args);
+        PreparedStatement ps = key == null ? null : statementCache.checkout(key);
+        if (ps == null) {
+            ps = (PreparedStatement) MethodUtils.proceedExecution(method, this.connection, args);
+            if (key != null) {
+                statementCache.register(ps, key);
+            }
+        }
+
+        if (isGeneratedKeysRequested(args)) {
+            this.connectionState.addGeneratedKeysStatement(ps);
+        }
+
+        // new proxy for each use, so that no state is carried over from the previous use
+        return proxyConfig.getJdbcProxyFactory().createPreparedStatement(ps, (String) args[0],
+                this.connectionInfo, proxyConnection, proxyConfig);
+    }
+
+    // invalidate results of tables modified in the transaction, since other connections may have cached old rows
+    private void onTransactionEnd(ProxyConfig proxyConfig) {
+        QueryResultCache queryResultCache = proxyConfig.getQueryResultCache();
+        if (queryResultCache != null) {
+            queryResultCache.onTransactionEnd(this.connectionState);
+        }
+    }
+
+    /**
+     * @param args arguments of {@code prepareStatement}
+     * @return {@code true} if the statement is prepared to return auto-generated keys
+     */
+    private static boolean isGeneratedKeysRequested(Object[] args) {
+        if (args.length != 2) {
+            return false;  // (sql) or (sql, resultSetType, resultSetConcurrency[, resultSetHoldability])
+        }
+        Object arg = args[1];
+        return arg instanceof int[] || arg instanceof String[]
+                || (arg instanceof Integer && (Integer) arg == Statement.RETURN_GENERATED_KEYS);
+    }
+
 }
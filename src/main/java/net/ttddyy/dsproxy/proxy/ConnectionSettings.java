@@ -0,0 +1,124 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Record state-setting calls made on a connection that does not have a physical connection yet, and replay them when
+ * one is acquired.
+ *
+ * <p>Recorded methods are {@code setAutoCommit}, {@code setReadOnly}, {@code setTransactionIsolation},
+ * {@code setCatalog}, {@code setSchema}, {@code setHoldability}, {@code setTypeMap}, {@code setNetworkTimeout} and
+ * {@code setClientInfo}. Only the last value of each setting is kept, and settings are replayed in the order of their
+ * last calls. Corresponding getters can be answered from recorded values.
+ *
+ * <p>This class is not thread safe.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class ConnectionSettings {
+
+    private static final Map<String, String> SETTER_TO_GETTER;
+
+    static {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("setAutoCommit", "getAutoCommit");
+        map.put("setReadOnly", "isReadOnly");
+        map.put("setTransactionIsolation", "getTransactionIsolation");
+        map.put("setCatalog", "getCatalog");
+        map.put("setSchema", "getSchema");  // JDBC 4.1
+        map.put("setHoldability", "getHoldability");
+        map.put("setTypeMap", "getTypeMap");
+        map.put("setNetworkTimeout", "getNetworkTimeout");  // JDBC 4.1
+        map.put("setClientInfo", null);
+        SETTER_TO_GETTER = Collections.unmodifiableMap(map);
+    }
+
+    private static class Setting {
+        private final Method method;
+        private final Object[] args;
+
+        private Setting(Method method, Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+    }
+
+    private final Map<String, Setting> settings = new LinkedHashMap<String, Setting>();
+
+    /**
+     * @param methodName name of a {@link Connection} method
+     * @return {@code true} if the method is recorded by this class
+     */
+    public static boolean isSetter(String methodName) {
+        return SETTER_TO_GETTER.containsKey(methodName);
+    }
+
+    /**
+     * Record a state-setting call.
+     *
+     * @param method a setter method of {@link Connection}
+     * @param args   arguments of the call
+     */
+    public void record(Method method, Object[] args) {
+        String methodName = method.getName();
+        String key = methodName;
+        if ("setClientInfo".equals(methodName) && args[0] instanceof String) {
+            key = methodName + ":" + args[0];
+        }
+        this.settings.remove(key);  // move to the end, so that replay keeps the order of last calls
+        this.settings.put(key, new Setting(method, args == null ? null : args.clone()));
+    }
+
+    /**
+     * @param getterName name of a getter method of {@link Connection}
+     * @return {@code true} if the value returned by the getter has been recorded
+     */
+    public boolean hasValue(String getterName) {
+        return getSetting(getterName) != null;
+    }
+
+    /**
+     * @param getterName name of a getter method of {@link Connection}
+     * @return recorded value, or {@code null} if not recorded
+     */
+    public Object getValue(String getterName) {
+        Setting setting = getSetting(getterName);
+        if (setting == null) {
+            return null;
+        }
+        // setNetworkTimeout(Executor, int) is the only setter taking two arguments
+        return setting.args[setting.args.length - 1];
+    }
+
+    private Setting getSetting(String getterName) {
+        for (Map.Entry<String, Setting> entry : this.settings.entrySet()) {
+            if (getterName.equals(SETTER_TO_GETTER.get(entry.getKey()))) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return this.settings.isEmpty();
+    }
+
+    /**
+     * Replay recorded calls on the given connection.
+     *
+     * @param connection physical connection
+     * @throws Throwable exception thrown by the connection
+     */
+    public void apply(Connection connection) throws Throwable {
+        for (Setting setting : this.settings.values()) {
+            MethodUtils.proceedExecution(setting.method, connection, setting.args);
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.proxy.jdk.ConnectionInvocationHandler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Mutable per-connection state shared by proxy logics of a connection and its statements.
+ *
+ * Owned by {@link ConnectionProxyLogic}. Statement proxy logics look it up from the proxy connection they are
+ * created with, so that no registry is shared across connections.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+class ConnectionState {
+
+    /**
+     * Returns the state of the connection.
+     *
+     * @param proxyConnection proxy connection passed to statement proxies
+     * @return state of the connection. {@code null} if the connection is not a proxy created by
+     * {@link net.ttddyy.dsproxy.proxy.jdk.JdkJdbcProxyFactory}.
+     */
+    static ConnectionState of(Connection proxyConnection) {
+        if (proxyConnection == null || !Proxy.isProxyClass(proxyConnection.getClass())) {
+            return null;
+        }
+        InvocationHandler handler = Proxy.getInvocationHandler(proxyConnection);
+        if (!(handler instanceof ConnectionInvocationHandler)) {
+            return null;
+        }
+        return ((ConnectionInvocationHandler) handler).getDelegate().getConnectionState();
+    }
+
+    private volatile PendingBatch pendingBatch;
+    private volatile PreparedStatementCache.ConnectionCache statementCache;
+
+    // tables modified in the current transaction. null when there is no uncommitted modification.
+    private Set<String> modifiedTables;
+
+    // statements prepared to return generated keys, until their proxy is created. null until the first one.
+    private Set<Statement> generatedKeysStatements;
+
+    /**
+     * @return batch buffered by auto-batching and not yet executed. {@code null} if there is nothing buffered.
+     */
+    PendingBatch getPendingBatch() {
+        return pendingBatch;
+    }
+
+    void setPendingBatch(PendingBatch pendingBatch) {
+        this.pendingBatch = pendingBatch;
+    }
+
+    /**
+     * @return prepared statements cached for this connection. {@code null} if nothing is cached.
+     */
+    PreparedStatementCache.ConnectionCache getStatementCache() {
+        return statementCache;
+    }
+
+    void setStatementCache(PreparedStatementCache.ConnectionCache statementCache) {
+        this.statementCache = statementCache;
+    }
+
+    /**
+     * Record tables modified in the current transaction.
+     *
+     * @param tableNames modified tables. can be empty when tables are not known.
+     */
+    synchronized void addModifiedTables(Set<String> tableNames) {
+        if (this.modifiedTables == null) {
+            this.modifiedTables = new HashSet<String>();
+        }
+        this.modifiedTables.addAll(tableNames);
+    }
+
+    /**
+     * @return {@code true} if the current transaction has uncommitted modifications
+     */
+    synchronized boolean hasModifiedTables() {
+        return this.modifiedTables != null;
+    }
+
+    /**
+     * Called when the current transaction ends.
+     *
+     * @return tables modified in the transaction. {@code null} if there was no modification.
+     */
+    synchronized Set<String> removeModifiedTables() {
+        Set<String> tableNames = this.modifiedTables;
+        this.modifiedTables = null;
+        return tableNames;
+    }
+
+    /**
+     * Record that the statement is prepared to return generated keys.
+     *
+     * @param statement actual statement
+     */
+    synchronized void addGeneratedKeysStatement(Statement statement) {
+        if (this.generatedKeysStatements == null) {
+            this.generatedKeysStatements = Collections.newSetFromMap(new IdentityHashMap<Statement, Boolean>());
+        }
+        this.generatedKeysStatements.add(statement);
+    }
+
+    /**
+     * @param statement actual statement
+     * @return {@code true} if the statement is prepared to return generated keys
+     */
+    synchronized boolean removeGeneratedKeysStatement(Statement statement) {
+        return this.generatedKeysStatements != null && this.generatedKeysStatements.remove(statement);
+    }
+
+    /**
+     * Called when the connection is closed.
+     */
+    synchronized void clear() {
+        this.generatedKeysStatements = null;
+    }
+
+}
@@ -35,20 +35,32 @@ public class DataSourceProxyLogic {
 
     public Object invoke(Method method, Object[] args) throws Throwable {
 
+        final ProxyConfig proxyConfig = this.proxyConfig.getLatest();
+
+        // for getConnection, create ConnectionInfo upfront so that method listeners can see it.
+        // connection id is populated once actual connection is retrieved.
+        final ConnectionInfo connectionInfo;
+        if ("getConnection".equals(method.getName())) {
+            connectionInfo = new ConnectionInfo();
+            connectionInfo.setDataSourceName(proxyConfig.getDataSourceName());
+        } else {
+            connectionInfo = null;
+        }
+
         return MethodExecutionListenerUtils.invoke(new MethodExecutionListenerUtils.MethodExecutionCallback() {
             @Override
             public Object execute(Object proxy, Method method, Object[] args) throws Throwable {
-                return performQueryExecutionListener(method, args);
+                return performQueryExecutionListener(method, args, connectionInfo, proxyConfig);
             }
-        }, this.proxyConfig, this.dataSource, null, method, args);
+        }, proxyConfig, this.dataSource, connectionInfo, method, args);
 
     }
 
-    private Object performQueryExecutionListener(Method method, Object[] args) throws Throwable {
+    private Object performQueryExecutionListener(Method method, Object[] args, ConnectionInfo connectionInfo, ProxyConfig proxyConfig) throws Throwable {
 
-        String dataSourceName = this.proxyConfig.getDataSourceName();
-        JdbcProxyFactory jdbcProxyFactory = this.proxyConfig.getJdbcProxyFactory();
-        ConnectionIdManager connectionIdManager = this.proxyConfig.getConnectionIdManager();
+        String dataSourceName = proxyConfig.getDataSourceName();
+        JdbcProxyFactory jdbcProxyFactory = proxyConfig.getJdbcProxyFactory();
+        ConnectionIdManager connectionIdManager = proxyConfig.getConnectionIdManager();
 
         final String methodName = method.getName();
 
@@ -75,6 +87,15 @@ public class DataSourceProxyLogic {
             }
         }
 
+        LazyConnectionFactory lazyConnectionFactory = proxyConfig.getLazyConnectionFactory();
+        if ("getConnection".equals(methodName) && lazyConnectionFactory != null) {
+            String username = args == null ? null : (String) args[0];
+            String password = args == null ? null : (String) args[1];
+            Connection conn = lazyConnectionFactory.createConnection(dataSource, username, password);
+            connectionInfo.setConnectionId(connectionIdManager.getId(conn));
+            return jdbcProxyFactory.createConnection(conn, connectionInfo, proxyConfig);
+        }
+
         // Invoke method on original datasource.
         try {
             final Object retVal = method.invoke(dataSource, args);
@@ -82,11 +103,9 @@ public class DataSourceProxyLogic {
             if ("getConnection".equals(methodName)) {
                 Connection conn = (Connection) retVal;
                 long connId = connectionIdManager.getId(conn);
-                ConnectionInfo connectionInfo = new ConnectionInfo();
                 connectionInfo.setConnectionId(connId);
-                connectionInfo.setDataSourceName(dataSourceName);
 
-                return jdbcProxyFactory.createConnection((Connection) retVal, connectionInfo, this.proxyConfig);
+                return jdbcProxyFactory.createConnection((Connection) retVal, connectionInfo, proxyConfig);
             }
             return retVal;
         } catch (InvocationTargetException ex) {
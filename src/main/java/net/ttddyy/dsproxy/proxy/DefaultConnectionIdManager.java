@@ -3,8 +3,9 @@ package net.ttddyy.dsproxy.proxy;
 import net.ttddyy.dsproxy.ConnectionIdManager;
 
 import java.sql.Connection;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -12,34 +13,177 @@ import java.util.concurrent.atomic.AtomicLong;
  *
  * This implementation returns sequentially increasing unique number as connection id.
  *
+ * Open connection ids are kept in striped primitive {@code long} sets. Since ids are sequential, consecutive
+ * connections land on different stripes and acquire/release rarely contend, and no boxing happens on that path.
+ *
  * @author Tadaya Tsuyukubo
  * @since 1.4.2
  */
 public class DefaultConnectionIdManager implements ConnectionIdManager {
 
+    /**
+     * Open addressing hash set of positive {@code long} values with linear probing.
+     * {@code 0} is used as empty slot marker. Callers must synchronize on the instance.
+     */
+    private static class LongHashSet {
+
+        private static final int INITIAL_CAPACITY = 16;  // must be power of two
+
+        private long[] table = new long[INITIAL_CAPACITY];
+        private int size;
+
+        private static int hash(long value) {
+            // spread values; ids in the same stripe share their low bits
+            int h = (int) (value ^ (value >>> 32)) * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        boolean add(long value) {
+            if ((this.size + 1) * 2 > this.table.length) {
+                resize(this.table.length * 2);
+            }
+            long[] tab = this.table;
+            int mask = tab.length - 1;
+            int index = hash(value) & mask;
+            while (tab[index] != 0) {
+                if (tab[index] == value) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            tab[index] = value;
+            this.size++;
+            return true;
+        }
+
+        boolean remove(long value) {
+            long[] tab = this.table;
+            int mask = tab.length - 1;
+            int index = hash(value) & mask;
+            while (tab[index] != value) {
+                if (tab[index] == 0) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+
+            // backward shift deletion to keep probe sequences intact without tombstones
+            int hole = index;
+            int next = (hole + 1) & mask;
+            while (tab[next] != 0) {
+                int home = hash(tab[next]) & mask;
+                // move the entry into the hole if its home slot is not in (hole, next]
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    tab[hole] = tab[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            tab[hole] = 0;
+            this.size--;
+
+            if (tab.length > INITIAL_CAPACITY && this.size * 8 < tab.length) {
+                resize(tab.length / 2);
+            }
+            return true;
+        }
+
+        void copyTo(Set<Long> target) {
+            for (long value : this.table) {
+                if (value != 0) {
+                    target.add(value);
+                }
+            }
+        }
+
+        private void resize(int newCapacity) {
+            long[] oldTable = this.table;
+            this.table = new long[newCapacity];
+            this.size = 0;
+            for (long value : oldTable) {
+                if (value != 0) {
+                    add(value);
+                }
+            }
+        }
+    }
+
+    private static final int STRIPE_COUNT = 16;  // must be power of two
+
     private AtomicLong idCounter = new AtomicLong(0);
 
-    private Set<Long> openIds = new HashSet<Long>();
+    private final AtomicInteger openCount = new AtomicInteger();
+
+    private final LongHashSet[] stripes = new LongHashSet[STRIPE_COUNT];
+
+    public DefaultConnectionIdManager() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            this.stripes[i] = new LongHashSet();
+        }
+    }
+
+    private LongHashSet stripeFor(long id) {
+        return this.stripes[(int) (id & (STRIPE_COUNT - 1))];
+    }
 
     @Override
     public long getId(Connection connection) {
         long id = this.idCounter.incrementAndGet();
-        synchronized (this) {
-            this.openIds.add(id);
+        LongHashSet stripe = stripeFor(id);
+        synchronized (stripe) {
+            stripe.add(id);
         }
+        this.openCount.incrementAndGet();
         return id;
     }
 
     @Override
     public void addClosedId(long closedId) {
-        synchronized (this) {
-            this.openIds.remove(closedId);
+        LongHashSet stripe = stripeFor(closedId);
+        boolean removed;
+        synchronized (stripe) {
+            removed = stripe.remove(closedId);
+        }
+        if (removed) {
+            this.openCount.decrementAndGet();
         }
     }
 
+    /**
+     * Return a snapshot of open connection ids in ascending order.
+     *
+     * All stripes are locked while copying, so the snapshot reflects a single point in time.
+     *
+     * @return set of open connection ids
+     */
     @Override
     public Set<Long> getOpenConnectionIds() {
-        return new HashSet<Long>(this.openIds);
+        Set<Long> snapshot = new TreeSet<Long>();
+        copyWithLock(0, snapshot);
+        return snapshot;
+    }
+
+    private void copyWithLock(int stripeIndex, Set<Long> target) {
+        if (stripeIndex == STRIPE_COUNT) {
+            for (LongHashSet stripe : this.stripes) {
+                stripe.copyTo(target);
+            }
+            return;
+        }
+        // always lock in the same order
+        synchronized (this.stripes[stripeIndex]) {
+            copyWithLock(stripeIndex + 1, target);
+        }
+    }
+
+    /**
+     * Number of currently open connections. Cheap to call; does not copy ids.
+     *
+     * @return number of open connections
+     * @since 1.4.5
+     */
+    public int getOpenConnectionCount() {
+        return this.openCount.get();
     }
 
 }
@@ -0,0 +1,78 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.listener.QueryUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link QueryResultCachePolicy} that assigns time-to-live per query fingerprint.
+ *
+ * <p>Queries are matched by {@link QueryUtils#getQueryFingerprint(String)}, so literal values, whitespace and comments
+ * do not matter.
+ *
+ * <pre>
+ * DefaultQueryResultCachePolicy policy = new DefaultQueryResultCachePolicy()
+ *     .cache("SELECT * FROM country WHERE code = ?", 10, TimeUnit.MINUTES)
+ *     .cache("SELECT * FROM currency", 1, TimeUnit.HOURS);
+ * </pre>
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class DefaultQueryResultCachePolicy implements QueryResultCachePolicy {
+
+    private static final int MAX_RESOLVED_QUERIES = 1000;
+
+    private final Map<String, Long> timeToLiveByFingerprint = new ConcurrentHashMap<String, Long>();
+
+    // resolved ttl keyed by raw query string to avoid computing fingerprint for every execution
+    private final Map<String, Long> resolved = new ConcurrentHashMap<String, Long>();
+
+    private long defaultTimeToLive;
+
+    /**
+     * Make the result of given query cacheable.
+     *
+     * @param query      query or its fingerprint
+     * @param timeToLive time-to-live
+     * @param unit       time unit of time-to-live
+     * @return this
+     */
+    public DefaultQueryResultCachePolicy cache(String query, long timeToLive, TimeUnit unit) {
+        this.timeToLiveByFingerprint.put(QueryUtils.getQueryFingerprint(query), unit.toMillis(timeToLive));
+        this.resolved.clear();
+        return this;
+    }
+
+    /**
+     * Time-to-live for queries that are not explicitly registered. Default is {@code 0}(not cached).
+     *
+     * @param timeToLive time-to-live
+     * @param unit       time unit of time-to-live
+     * @return this
+     */
+    public DefaultQueryResultCachePolicy defaultTimeToLive(long timeToLive, TimeUnit unit) {
+        this.defaultTimeToLive = unit.toMillis(timeToLive);
+        this.resolved.clear();
+        return this;
+    }
+
+    @Override
+    public long getTimeToLive(String query) {
+        Long ttl = this.resolved.get(query);
+        if (ttl == null) {
+            ttl = this.timeToLiveByFingerprint.get(QueryUtils.getQueryFingerprint(query));
+            if (ttl == null) {
+                ttl = this.defaultTimeToLive;
+            }
+            if (this.resolved.size() >= MAX_RESOLVED_QUERIES) {
+                this.resolved.clear();
+            }
+            this.resolved.put(query, ttl);
+        }
+        return ttl;
+    }
+
+}
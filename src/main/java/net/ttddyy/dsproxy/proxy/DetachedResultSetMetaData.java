@@ -0,0 +1,195 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Immutable snapshot of {@link ResultSetMetaData} that stays usable after the original result set is closed.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see QueryResultCache
+ * @since 1.4.5
+ */
+class DetachedResultSetMetaData implements ResultSetMetaData {
+
+    private static class Column {
+        private String catalogName;
+        private String schemaName;
+        private String tableName;
+        private String columnName;
+        private String columnLabel;
+        private String columnClassName;
+        private String columnTypeName;
+        private int columnType;
+        private int columnDisplaySize;
+        private int precision;
+        private int scale;
+        private int nullable;
+        private boolean autoIncrement;
+        private boolean caseSensitive;
+        private boolean searchable;
+        private boolean currency;
+        private boolean signed;
+        private boolean readOnly;
+        private boolean writable;
+        private boolean definitelyWritable;
+    }
+
+    private final Column[] columns;
+
+    DetachedResultSetMetaData(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        this.columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            int index = i + 1;
+            Column column = new Column();
+            column.catalogName = metaData.getCatalogName(index);
+            column.schemaName = metaData.getSchemaName(index);
+            column.tableName = metaData.getTableName(index);
+            column.columnName = metaData.getColumnName(index);
+            column.columnLabel = metaData.getColumnLabel(index);
+            column.columnClassName = metaData.getColumnClassName(index);
+            column.columnTypeName = metaData.getColumnTypeName(index);
+            column.columnType = metaData.getColumnType(index);
+            column.columnDisplaySize = metaData.getColumnDisplaySize(index);
+            column.precision = metaData.getPrecision(index);
+            column.scale = metaData.getScale(index);
+            column.nullable = metaData.isNullable(index);
+            column.autoIncrement = metaData.isAutoIncrement(index);
+            column.caseSensitive = metaData.isCaseSensitive(index);
+            column.searchable = metaData.isSearchable(index);
+            column.currency = metaData.isCurrency(index);
+            column.signed = metaData.isSigned(index);
+            column.readOnly = metaData.isReadOnly(index);
+            column.writable = metaData.isWritable(index);
+            column.definitelyWritable = metaData.isDefinitelyWritable(index);
+            this.columns[i] = column;
+        }
+    }
+
+    private Column getColumn(int column) throws SQLException {
+        if (column < 1 || column > this.columns.length) {
+            throw new SQLException("Invalid column index " + column);
+        }
+        return this.columns[column - 1];
+    }
+
+    @Override
+    public int getColumnCount() throws SQLException {
+        return this.columns.length;
+    }
+
+    @Override
+    public boolean isAutoIncrement(int column) throws SQLException {
+        return getColumn(column).autoIncrement;
+    }
+
+    @Override
+    public boolean isCaseSensitive(int column) throws SQLException {
+        return getColumn(column).caseSensitive;
+    }
+
+    @Override
+    public boolean isSearchable(int column) throws SQLException {
+        return getColumn(column).searchable;
+    }
+
+    @Override
+    public boolean isCurrency(int column) throws SQLException {
+        return getColumn(column).currency;
+    }
+
+    @Override
+    public int isNullable(int column) throws SQLException {
+        return getColumn(column).nullable;
+    }
+
+    @Override
+    public boolean isSigned(int column) throws SQLException {
+        return getColumn(column).signed;
+    }
+
+    @Override
+    public int getColumnDisplaySize(int column) throws SQLException {
+        return getColumn(column).columnDisplaySize;
+    }
+
+    @Override
+    public String getColumnLabel(int column) throws SQLException {
+        return getColumn(column).columnLabel;
+    }
+
+    @Override
+    public String getColumnName(int column) throws SQLException {
+        return getColumn(column).columnName;
+    }
+
+    @Override
+    public String getSchemaName(int column) throws SQLException {
+        return getColumn(column).schemaName;
+    }
+
+    @Override
+    public int getPrecision(int column) throws SQLException {
+        return getColumn(column).precision;
+    }
+
+    @Override
+    public int getScale(int column) throws SQLException {
+        return getColumn(column).scale;
+    }
+
+    @Override
+    public String getTableName(int column) throws SQLException {
+        return getColumn(column).tableName;
+    }
+
+    @Override
+    public String getCatalogName(int column) throws SQLException {
+        return getColumn(column).catalogName;
+    }
+
+    @Override
+    public int getColumnType(int column) throws SQLException {
+        return getColumn(column).columnType;
+    }
+
+    @Override
+    public String getColumnTypeName(int column) throws SQLException {
+        return getColumn(column).columnTypeName;
+    }
+
+    @Override
+    public boolean isReadOnly(int column) throws SQLException {
+        return getColumn(column).readOnly;
+    }
+
+    @Override
+    public boolean isWritable(int column) throws SQLException {
+        return getColumn(column).writable;
+    }
+
+    @Override
+    public boolean isDefinitelyWritable(int column) throws SQLException {
+        return getColumn(column).definitelyWritable;
+    }
+
+    @Override
+    public String getColumnClassName(int column) throws SQLException {
+        return getColumn(column).columnClassName;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return (T) this;
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+}
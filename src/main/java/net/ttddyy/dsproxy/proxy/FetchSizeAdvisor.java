@@ -0,0 +1,394 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.Histogram;
+import net.ttddyy.dsproxy.listener.QueryUtils;
+import net.ttddyy.dsproxy.proxy.jdk.ResultSetInvocationHandler;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Learn number of rows returned per query fingerprint and recommend a fetch size for the query.
+ *
+ * <p>When this advisor is set to {@link ProxyConfig}, {@link ResultSet} returned by {@code executeQuery} is wrapped
+ * to count the rows read by the application. The row counts are kept per {@link QueryUtils#getQueryFingerprint(String)}
+ * in a {@link Histogram}. The recommended fetch size is the smallest power of two that covers the configured
+ * percentile of observed row counts, bounded by {@link #setMinFetchSize(int)} and {@link #setMaxFetchSize(int)}.
+ *
+ * <p>When {@link #setAutoApply(boolean)} is {@code true}, the recommended fetch size is set to the statement by
+ * {@link Statement#setFetchSize(int)} before executing a query, unless the application has explicitly called
+ * {@code setFetchSize} on the statement.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see #getAdvices()
+ * @see #explain(String)
+ * @since 1.4.5
+ */
+public class FetchSizeAdvisor {
+
+    public static final int DEFAULT_MIN_FETCH_SIZE = 1;
+    public static final int DEFAULT_MAX_FETCH_SIZE = 1000;
+    public static final int DEFAULT_MIN_SAMPLES = 10;
+    public static final double DEFAULT_PERCENTILE = 0.9;
+    public static final int DEFAULT_MAX_FINGERPRINTS = 1000;
+
+    /**
+     * Learned values for a query fingerprint.
+     */
+    public static class Advice {
+        private String fingerprint;
+        private long sampleCount;
+        private long totalRows;
+        private long maxRows;
+        private long percentileRows;
+        private int recommendedFetchSize;
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        public long getTotalRows() {
+            return totalRows;
+        }
+
+        public long getMaxRows() {
+            return maxRows;
+        }
+
+        public double getAverageRows() {
+            return this.sampleCount == 0 ? 0 : (double) this.totalRows / this.sampleCount;
+        }
+
+        /**
+         * Upper bound of row counts for the configured percentile.
+         *
+         * @return row count for the percentile
+         */
+        public long getPercentileRows() {
+            return percentileRows;
+        }
+
+        /**
+         * @return recommended fetch size. {@code 0} when not enough samples are collected yet.
+         */
+        public int getRecommendedFetchSize() {
+            return recommendedFetchSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("fetchSize=%d, samples=%d, avgRows=%.1f, maxRows=%d, percentileRows=%d, query=%s",
+                    this.recommendedFetchSize, this.sampleCount, getAverageRows(), this.maxRows, this.percentileRows,
+                    this.fingerprint);
+        }
+    }
+
+    /**
+     * Row counts of a query fingerprint and the fetch size calculated from them.
+     */
+    private static class RowStats {
+        private final Histogram rows = new Histogram();
+        private volatile int recommendedFetchSize;
+    }
+
+    /**
+     * Counts rows read from a {@link ResultSet} and reports the count when the result set is exhausted or closed.
+     */
+    private class RowCountResultSetProxyLogic implements ResultSetProxyLogic {
+
+        private final ResultSet resultSet;
+        private final String fingerprint;
+        private long rows;
+        private boolean reported;
+
+        private RowCountResultSetProxyLogic(ResultSet resultSet, String fingerprint) {
+            this.resultSet = resultSet;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public Object invoke(Method method, Object[] args) throws Throwable {
+            final String methodName = method.getName();
+
+            if ("getTarget".equals(methodName)) {
+                // ProxyJdbcObject interface has a method to return original object.
+                return this.resultSet;
+            }
+
+            Object result = MethodUtils.proceedExecution(method, this.resultSet, args);
+
+            if ("next".equals(methodName)) {
+                if (Boolean.TRUE.equals(result)) {
+                    this.rows++;
+                } else {
+                    report();
+                }
+            } else if ("close".equals(methodName)) {
+                report();
+            }
+            return result;
+        }
+
+        private void report() {
+            if (!this.reported) {
+                this.reported = true;
+                recordForFingerprint(this.fingerprint, this.rows);
+            }
+        }
+    }
+
+    private final ConcurrentMap<String, RowStats> statsMap = new ConcurrentHashMap<String, RowStats>();
+
+    private boolean autoApply;
+    private int minFetchSize = DEFAULT_MIN_FETCH_SIZE;
+    private int maxFetchSize = DEFAULT_MAX_FETCH_SIZE;
+    private int minSamples = DEFAULT_MIN_SAMPLES;
+    private double percentile = DEFAULT_PERCENTILE;
+    private int maxFingerprints = DEFAULT_MAX_FINGERPRINTS;
+
+    /**
+     * Record number of rows returned by the query.
+     *
+     * @param query query string or fingerprint
+     * @param rows  number of rows read from the result set
+     */
+    public void record(String query, long rows) {
+        recordForFingerprint(QueryUtils.getQueryFingerprint(query), rows);
+    }
+
+    void recordForFingerprint(String fingerprint, long rows) {
+        RowStats stats = this.statsMap.get(fingerprint);
+        if (stats == null) {
+            if (this.statsMap.size() >= this.maxFingerprints) {
+                return;  // do not learn more fingerprints
+            }
+            RowStats newStats = new RowStats();
+            stats = this.statsMap.putIfAbsent(fingerprint, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        stats.rows.record(rows);
+        if (stats.rows.getCount() >= this.minSamples) {
+            stats.recommendedFetchSize = calculateFetchSize(percentileRows(stats));
+        }
+    }
+
+    private long percentileRows(RowStats stats) {
+        // upper bound of the bucket, so that recommended fetch sizes are powers of two
+        int bucketIndex = stats.rows.getPercentileBucketIndex(this.percentile);
+        return bucketIndex < 0 ? 0 : Histogram.getBucketUpperBound(bucketIndex);
+    }
+
+    /**
+     * Calculate fetch size for the given number of rows.
+     *
+     * @param rows expected number of rows
+     * @return fetch size
+     */
+    protected int calculateFetchSize(long rows) {
+        // fetch expected rows plus one in a single round trip. bucket upper bounds are 2^n - 1.
+        long size = rows == Long.MAX_VALUE ? rows : rows + 1;
+        if (size < this.minFetchSize) {
+            return this.minFetchSize;
+        }
+        if (size > this.maxFetchSize) {
+            return this.maxFetchSize;
+        }
+        return (int) size;
+    }
+
+    /**
+     * Returns recommended fetch size for the query.
+     *
+     * @param query query string
+     * @return recommended fetch size. {@code 0} if there is no recommendation yet.
+     */
+    public int getRecommendedFetchSize(String query) {
+        return getRecommendedFetchSizeForFingerprint(QueryUtils.getQueryFingerprint(query));
+    }
+
+    private int getRecommendedFetchSizeForFingerprint(String fingerprint) {
+        RowStats stats = this.statsMap.get(fingerprint);
+        return stats == null ? 0 : stats.recommendedFetchSize;
+    }
+
+    /**
+     * Apply the recommended fetch size to the statement if available.
+     *
+     * @param statement statement to execute the query
+     * @param query     query string
+     * @throws SQLException when failed to set fetch size
+     */
+    public void applyFetchSize(Statement statement, String query) throws SQLException {
+        applyFetchSizeForFingerprint(statement, QueryUtils.getQueryFingerprint(query));
+    }
+
+    /**
+     * Same as {@link #applyFetchSize(Statement, String)} with a fingerprint computed by the caller.
+     * Proxies compute the fingerprint once per statement or execution.
+     */
+    void applyFetchSizeForFingerprint(Statement statement, String fingerprint) throws SQLException {
+        int fetchSize = getRecommendedFetchSizeForFingerprint(fingerprint);
+        if (fetchSize > 0) {
+            statement.setFetchSize(fetchSize);
+        }
+    }
+
+    /**
+     * Wrap the given {@link ResultSet} to count rows for the query.
+     *
+     * @param resultSet a result set
+     * @param query     query string that produced the result set
+     * @return wrapped result set
+     */
+    public ResultSet wrapResultSet(ResultSet resultSet, String query) {
+        return wrapResultSetForFingerprint(resultSet, QueryUtils.getQueryFingerprint(query));
+    }
+
+    ResultSet wrapResultSetForFingerprint(ResultSet resultSet, String fingerprint) {
+        if (resultSet == null) {
+            return null;
+        }
+        return (ResultSet) Proxy.newProxyInstance(ProxyJdbcObject.class.getClassLoader(),
+                new Class<?>[]{ProxyJdbcObject.class, ResultSet.class},
+                new ResultSetInvocationHandler(new RowCountResultSetProxyLogic(resultSet, fingerprint)));
+    }
+
+    /**
+     * Returns learned values for the query.
+     *
+     * @param query query string
+     * @return learned values or {@code null} if there is no observation for the query
+     */
+    public Advice explain(String query) {
+        String fingerprint = QueryUtils.getQueryFingerprint(query);
+        RowStats stats = this.statsMap.get(fingerprint);
+        return stats == null ? null : toAdvice(fingerprint, stats);
+    }
+
+    /**
+     * Returns learned values for all observed queries ordered by number of samples.
+     *
+     * @return list of advices
+     */
+    public List<Advice> getAdvices() {
+        List<Advice> advices = new ArrayList<Advice>();
+        for (Map.Entry<String, RowStats> entry : this.statsMap.entrySet()) {
+            advices.add(toAdvice(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(advices, new Comparator<Advice>() {
+            @Override
+            public int compare(Advice left, Advice right) {
+                return left.sampleCount < right.sampleCount ? 1 : (left.sampleCount == right.sampleCount ? 0 : -1);
+            }
+        });
+        return advices;
+    }
+
+    /**
+     * Returns a human readable report of learned values.
+     *
+     * @return report
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Advice advice : getAdvices()) {
+            sb.append(advice.toString());
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    public void clear() {
+        this.statsMap.clear();
+    }
+
+    private Advice toAdvice(String fingerprint, RowStats stats) {
+        Advice advice = new Advice();
+        advice.fingerprint = fingerprint;
+        advice.sampleCount = stats.rows.getCount();
+        advice.totalRows = stats.rows.getSum();
+        advice.maxRows = stats.rows.getMax();
+        advice.percentileRows = percentileRows(stats);
+        advice.recommendedFetchSize = stats.recommendedFetchSize;
+        return advice;
+    }
+
+    public boolean isAutoApply() {
+        return autoApply;
+    }
+
+    /**
+     * When set to {@code true}, recommended fetch size is applied to statements before executing queries.
+     *
+     * @param autoApply apply recommended fetch size or not. (default is false)
+     */
+    public void setAutoApply(boolean autoApply) {
+        this.autoApply = autoApply;
+    }
+
+    public int getMinFetchSize() {
+        return minFetchSize;
+    }
+
+    public void setMinFetchSize(int minFetchSize) {
+        this.minFetchSize = minFetchSize;
+    }
+
+    public int getMaxFetchSize() {
+        return maxFetchSize;
+    }
+
+    public void setMaxFetchSize(int maxFetchSize) {
+        this.maxFetchSize = maxFetchSize;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    /**
+     * @param minSamples number of observations required before recommending a fetch size
+     */
+    public void setMinSamples(int minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * @param percentile percentile of observed row counts to cover by recommended fetch size. (e.g. 0.9)
+     */
+    public void setPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    public int getMaxFingerprints() {
+        return maxFingerprints;
+    }
+
+    /**
+     * @param maxFingerprints maximum number of query fingerprints to learn
+     */
+    public void setMaxFingerprints(int maxFingerprints) {
+        this.maxFingerprints = maxFingerprints;
+    }
+
+}
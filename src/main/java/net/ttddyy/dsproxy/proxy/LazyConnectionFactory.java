@@ -0,0 +1,196 @@
+package net.ttddyy.dsproxy.proxy;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Create connections that borrow a physical connection from the datasource only when a statement is created.
+ *
+ * <p>When this factory is set to {@link ProxyConfig}, {@code getConnection()} on the proxy datasource returns
+ * immediately without touching the actual datasource. Calls such as {@code setAutoCommit}, {@code setReadOnly} and
+ * {@code setTransactionIsolation} are recorded by {@link ConnectionSettings}, and replayed when the physical
+ * connection is borrowed on the first {@code createStatement}, {@code prepareStatement} or {@code prepareCall}, or on
+ * any other call that needs it. {@code commit}, {@code rollback}, {@code close} and {@code abort} on a connection
+ * that has not borrowed do nothing, and {@code isValid} returns {@code true} until it is closed, so that transactions
+ * that never run SQL never hit the pool.
+ *
+ * <p>{@code getAutoCommit}, {@code isReadOnly} and {@code getTransactionIsolation} are answered from recorded values,
+ * or from defaults. Defaults are read from the first physical connection, unless they are set beforehand with
+ * {@link #setDefaultAutoCommit(Boolean)} etc. Thus, the first of these calls may borrow a connection.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class LazyConnectionFactory {
+
+    /**
+     * Handler of the connection that borrows lazily. This handler is wrapped by the usual connection proxy.
+     */
+    private class LazyConnectionInvocationHandler implements InvocationHandler {
+        private final DataSource dataSource;
+        private final String username;
+        private final String password;
+        private final ConnectionSettings settings = new ConnectionSettings();
+        private Connection connection;
+        private boolean closed;
+
+        private LazyConnectionInvocationHandler(DataSource dataSource, String username, String password) {
+            this.dataSource = dataSource;
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+
+            if ("toString".equals(methodName)) {
+                return "LazyConnection [" + this.connection + "]";
+            } else if ("hashCode".equals(methodName)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(methodName)) {
+                return proxy == args[0];
+            } else if ("getTarget".equals(methodName)) {
+                return getConnection();  // ProxyJdbcObject
+            }
+
+            if (this.connection != null) {
+                return MethodUtils.proceedExecution(method, this.connection, args);
+            }
+
+            if ("isClosed".equals(methodName)) {
+                return this.closed;
+            } else if ("close".equals(methodName) || "abort".equals(methodName)) {
+                this.closed = true;
+                return null;
+            } else if ("isValid".equals(methodName)) {
+                return !this.closed;  // a physical connection is validated by the pool when borrowed
+            }
+            if (this.closed) {
+                throw new SQLException("Connection is closed");
+            }
+
+            if (ConnectionSettings.isSetter(methodName)) {
+                this.settings.record(method, args);
+                return null;
+            } else if (this.settings.hasValue(methodName)) {
+                return this.settings.getValue(methodName);
+            } else if ("commit".equals(methodName) || ("rollback".equals(methodName) && args == null)
+                    || "clearWarnings".equals(methodName)) {
+                return null;  // nothing has been executed
+            } else if ("getWarnings".equals(methodName)) {
+                return null;
+            } else if ("getAutoCommit".equals(methodName) && defaultAutoCommit != null) {
+                return defaultAutoCommit;
+            } else if ("isReadOnly".equals(methodName) && defaultReadOnly != null) {
+                return defaultReadOnly;
+            } else if ("getTransactionIsolation".equals(methodName) && defaultTransactionIsolation != null) {
+                return defaultTransactionIsolation;
+            } else if (("unwrap".equals(methodName) || "isWrapperFor".equals(methodName))
+                    && ((Class<?>) args[0]).isInstance(proxy)) {
+                return "unwrap".equals(methodName) ? proxy : Boolean.TRUE;
+            }
+
+            return MethodUtils.proceedExecution(method, getConnection(), args);
+        }
+
+        private Connection getConnection() throws Throwable {
+            if (this.connection == null) {
+                if (this.closed) {
+                    throw new SQLException("Connection is closed");
+                }
+                Connection connection = this.username == null ? this.dataSource.getConnection()
+                        : this.dataSource.getConnection(this.username, this.password);
+                borrowedCount.incrementAndGet();
+                try {
+                    learnDefaults(connection);
+                    this.settings.apply(connection);
+                } catch (Throwable ex) {
+                    connection.close();
+                    throw ex;
+                }
+                this.connection = connection;
+            }
+            return this.connection;
+        }
+    }
+
+    private volatile Boolean defaultAutoCommit;
+    private volatile Boolean defaultReadOnly;
+    private volatile Integer defaultTransactionIsolation;
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong borrowedCount = new AtomicLong();
+
+    /**
+     * Create a connection that borrows from the datasource lazily.
+     *
+     * @param dataSource actual datasource
+     * @param username   username for {@link DataSource#getConnection(String, String)}. {@code null} to call
+     *                   {@link DataSource#getConnection()}.
+     * @param password   password
+     * @return a connection
+     */
+    public Connection createConnection(DataSource dataSource, String username, String password) {
+        this.createdCount.incrementAndGet();
+        return (Connection) Proxy.newProxyInstance(ProxyJdbcObject.class.getClassLoader(),
+                new Class<?>[]{ProxyJdbcObject.class, Connection.class},
+                new LazyConnectionInvocationHandler(dataSource, username, password));
+    }
+
+    private void learnDefaults(Connection connection) throws SQLException {
+        // settings have not been replayed yet. values are the ones the pool gives.
+        if (this.defaultAutoCommit == null) {
+            this.defaultAutoCommit = connection.getAutoCommit();
+        }
+        if (this.defaultReadOnly == null) {
+            this.defaultReadOnly = connection.isReadOnly();
+        }
+        if (this.defaultTransactionIsolation == null) {
+            this.defaultTransactionIsolation = connection.getTransactionIsolation();
+        }
+    }
+
+    /**
+     * @return number of connections created by this factory
+     */
+    public long getCreatedCount() {
+        return this.createdCount.get();
+    }
+
+    /**
+     * @return number of connections that have borrowed a physical connection
+     */
+    public long getBorrowedCount() {
+        return this.borrowedCount.get();
+    }
+
+    public Boolean getDefaultAutoCommit() {
+        return defaultAutoCommit;
+    }
+
+    public void setDefaultAutoCommit(Boolean defaultAutoCommit) {
+        this.defaultAutoCommit = defaultAutoCommit;
+    }
+
+    public Boolean getDefaultReadOnly() {
+        return defaultReadOnly;
+    }
+
+    public void setDefaultReadOnly(Boolean defaultReadOnly) {
+        this.defaultReadOnly = defaultReadOnly;
+    }
+
+    public Integer getDefaultTransactionIsolation() {
+        return defaultTransactionIsolation;
+    }
+
+    public void setDefaultTransactionIsolation(Integer defaultTransactionIsolation) {
+        this.defaultTransactionIsolation = defaultTransactionIsolation;
+    }
+
+}
@@ -0,0 +1,81 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Apply {@link ParameterSetOperation} to a {@link PreparedStatement}.
+ *
+ * Common index based setters are called directly, and others are invoked reflectively.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+class ParameterBinder {
+
+    static void bind(PreparedStatement ps, ParameterSetOperation operation) throws SQLException {
+        Method method = operation.getMethod();
+        Object[] args = operation.getArgs();
+        if (args.length == 2 && args[0] instanceof Integer) {
+            int index = (Integer) args[0];
+            Object value = args[1];
+            String name = method.getName();
+            if ("setString".equals(name)) {
+                ps.setString(index, (String) value);
+                return;
+            } else if ("setInt".equals(name)) {
+                ps.setInt(index, (Integer) value);
+                return;
+            } else if ("setLong".equals(name)) {
+                ps.setLong(index, (Long) value);
+                return;
+            } else if ("setObject".equals(name)) {
+                ps.setObject(index, value);
+                return;
+            } else if ("setNull".equals(name)) {
+                ps.setNull(index, (Integer) value);
+                return;
+            } else if ("setBoolean".equals(name)) {
+                ps.setBoolean(index, (Boolean) value);
+                return;
+            } else if ("setDouble".equals(name)) {
+                ps.setDouble(index, (Double) value);
+                return;
+            } else if ("setBigDecimal".equals(name)) {
+                ps.setBigDecimal(index, (BigDecimal) value);
+                return;
+            } else if ("setTimestamp".equals(name)) {
+                ps.setTimestamp(index, (Timestamp) value);
+                return;
+            } else if ("setDate".equals(name)) {
+                ps.setDate(index, (Date) value);
+                return;
+            } else if ("setTime".equals(name)) {
+                ps.setTime(index, (Time) value);
+                return;
+            } else if ("setBytes".equals(name)) {
+                ps.setBytes(index, (byte[]) value);
+                return;
+            }
+        }
+
+        try {
+            method.invoke(ps, args);
+        } catch (IllegalAccessException e) {
+            throw new SQLException("Failed to set parameter with " + method.getName(), e);
+        } catch (InvocationTargetException e) {
+            Throwable target = e.getTargetException();
+            if (target instanceof SQLException) {
+                throw (SQLException) target;
+            }
+            throw new SQLException("Failed to set parameter with " + method.getName(), target);
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.sql.SQLException;
+
+/**
+ * Statement executions buffered by auto-batching and not yet sent to the database.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see ProxyConfig#getAutoBatchSize()
+ * @see ConnectionState#getPendingBatch()
+ * @since 1.4.5
+ */
+interface PendingBatch {
+
+    /**
+     * @return number of buffered executions
+     */
+    int size();
+
+    /**
+     * Execute buffered executions as a batch.
+     *
+     * @throws SQLException when the batch execution failed
+     */
+    void flush() throws SQLException;
+
+    /**
+     * Drop buffered executions without sending them to the database.
+     *
+     * @throws SQLException when clearing the batch failed
+     */
+    void discard() throws SQLException;
+
+}
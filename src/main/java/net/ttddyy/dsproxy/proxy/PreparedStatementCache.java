@@ -0,0 +1,237 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side cache of {@link PreparedStatement}s for drivers and pools that do not cache statements.
+ *
+ * <p>Each connection keeps its own LRU cache of idle statements keyed by SQL and the other arguments of
+ * {@code prepareStatement}. When the application closes a cached statement through the proxy, its current result set is
+ * closed, its parameters, batch and warnings are cleared, max rows, fetch size and query timeout are reset to the values
+ * at preparation, and the actual statement is kept open in the cache. Next {@code prepareStatement} with the
+ * same arguments on the same connection reuses it instead of preparing again. When a connection holds more than
+ * {@link #getMaxSize()} idle statements, the least recently used one is closed. All idle statements are closed when
+ * the connection is closed.
+ *
+ * <p>Only one idle statement is kept per key. {@code prepareStatement} variants taking arrays (column indexes or
+ * names for generated keys) and {@code prepareCall} are not cached.
+ *
+ * <p>Note: other properties set on a statement, such as max field size or escape processing, are kept when it is reused.
+ *
+ * <p>This instance holds hit/miss/eviction counts of the datasource it is set to.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class PreparedStatementCache {
+
+    /**
+     * Statements cached for one connection.
+     */
+    static class ConnectionCache {
+
+        private final PreparedStatementCache cache;
+        private final Map<List<Object>, CachedStatement> idleStatements;
+        private final Map<PreparedStatement, CachedStatement> checkedOut = new IdentityHashMap<PreparedStatement, CachedStatement>();
+        private boolean closed;
+
+        ConnectionCache(PreparedStatementCache cache) {
+            this.cache = cache;
+            this.idleStatements = new LinkedHashMap<List<Object>, CachedStatement>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedStatement> eldest) {
+                    if (size() > ConnectionCache.this.cache.maxSize) {
+                        closeQuietly(eldest.getValue().ps);
+                        ConnectionCache.this.cache.evictionCount.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Take an idle statement for the key.
+         *
+         * @param key key from {@link #createKey(Object[])}
+         * @return cached statement. {@code null} on cache miss.
+         */
+        synchronized PreparedStatement checkout(List<Object> key) {
+            CachedStatement cached = this.idleStatements.remove(key);
+            if (cached == null) {
+                this.cache.missCount.incrementAndGet();
+                return null;
+            }
+            this.cache.hitCount.incrementAndGet();
+            this.checkedOut.put(cached.ps, cached);
+            return cached.ps;
+        }
+
+        /**
+         * Register a statement newly prepared for the key, so that it returns to the cache when closed.
+         */
+        synchronized void register(PreparedStatement ps, List<Object> key) {
+            if (this.closed) {
+                return;
+            }
+            int maxRows;
+            int fetchSize;
+            int queryTimeout;
+            try {
+                maxRows = ps.getMaxRows();
+                fetchSize = ps.getFetchSize();
+                queryTimeout = ps.getQueryTimeout();
+            } catch (SQLException ex) {
+                return;  // not cached, since the properties cannot be restored
+            }
+            this.checkedOut.put(ps, new CachedStatement(ps, key, maxRows, fetchSize, queryTimeout));
+        }
+
+        /**
+         * Return a statement closed by the application to the cache.
+         *
+         * @param ps actual statement
+         * @return {@code true} when the statement is kept in the cache. {@code false} when it needs to be closed.
+         */
+        synchronized boolean release(PreparedStatement ps) {
+            CachedStatement cached = this.checkedOut.remove(ps);
+            if (cached == null || this.closed || this.idleStatements.containsKey(cached.key)) {
+                return false;
+            }
+            try {
+                if (ps.isClosed()) {
+                    return false;
+                }
+                // nothing carries over to the next checkout
+                ResultSet resultSet = ps.getResultSet();
+                if (resultSet != null) {
+                    resultSet.close();
+                }
+                ps.clearParameters();
+                ps.clearBatch();
+                ps.clearWarnings();
+                ps.setMaxRows(cached.maxRows);
+                ps.setQueryTimeout(cached.queryTimeout);
+                ps.setFetchSize(cached.fetchSize);
+            } catch (SQLException ex) {
+                return false;
+            }
+            this.idleStatements.put(cached.key, cached);
+            return true;
+        }
+
+        /**
+         * Close all idle statements. Called when the connection is closed.
+         */
+        synchronized void close() {
+            this.closed = true;
+            for (CachedStatement cached : this.idleStatements.values()) {
+                closeQuietly(cached.ps);
+            }
+            this.idleStatements.clear();
+            this.checkedOut.clear();
+        }
+
+        /**
+         * @return number of idle statements
+         */
+        synchronized int size() {
+            return this.idleStatements.size();
+        }
+
+    }
+
+    private static class CachedStatement {
+
+        private final PreparedStatement ps;
+        private final List<Object> key;
+        // values at preparation
+        private final int maxRows;
+        private final int fetchSize;
+        private final int queryTimeout;
+
+        private CachedStatement(PreparedStatement ps, List<Object> key, int maxRows, int fetchSize, int queryTimeout) {
+            this.ps = ps;
+            this.key = key;
+            this.maxRows = maxRows;
+            this.fetchSize = fetchSize;
+            this.queryTimeout = queryTimeout;
+        }
+    }
+
+    private final int maxSize;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxSize max number of idle statements per connection
+     */
+    public PreparedStatementCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    ConnectionCache createConnectionCache() {
+        return new ConnectionCache(this);
+    }
+
+    /**
+     * Create a cache key from arguments of {@code prepareStatement}.
+     *
+     * @param args arguments of {@code prepareStatement}
+     * @return cache key. {@code null} if the statement is not cacheable.
+     */
+    static List<Object> createKey(Object[] args) {
+        for (Object arg : args) {
+            if (arg != null && arg.getClass().isArray()) {
+                return null;
+            }
+        }
+        return new ArrayList<Object>(Arrays.asList(args));
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ex) {
+            // ignore. the statement is no longer used.
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * Reset hit/miss/eviction counts.
+     */
+    public void resetMetrics() {
+        this.hitCount.set(0);
+        this.missCount.set(0);
+        this.evictionCount.set(0);
+    }
+
+}
@@ -5,21 +5,28 @@ import net.ttddyy.dsproxy.ExecutionInfo;
 import net.ttddyy.dsproxy.QueryInfo;
 import net.ttddyy.dsproxy.listener.MethodExecutionListenerUtils;
 import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.listener.QueryUtils;
 import net.ttddyy.dsproxy.transform.ParameterReplacer;
 import net.ttddyy.dsproxy.transform.ParameterTransformer;
+import net.ttddyy.dsproxy.transform.SelectiveParameterTransformer;
 import net.ttddyy.dsproxy.transform.TransformInfo;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.sql.BatchUpdateException;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static net.ttddyy.dsproxy.proxy.StatementMethodNames.METHODS_TO_RETURN_RESULTSET;
 
@@ -31,6 +38,17 @@ import static net.ttddyy.dsproxy.proxy.StatementMethodNames.METHODS_TO_RETURN_RE
  */
 public class PreparedStatementProxyLogic {
 
+    // methods that do not need to flush pending auto-batch of this statement
+    private static final Set<String> METHODS_NOT_TO_FLUSH = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("toString", "getDataSourceName", "getTarget", "getConnection",
+                    "unwrap", "isWrapperFor"))
+    );
+
+    // methods still available after the statement is returned to the prepared statement cache
+    private static final Set<String> OBJECT_METHODS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("toString", "hashCode", "equals"))
+    );
+
     /**
      * Builder for {@link PreparedStatementProxyLogic}.
      *
@@ -52,6 +70,10 @@ public class PreparedStatementProxyLogic {
             logic.ps = this.ps;
             logic.query = this.query;
             logic.connectionInfo = this.connectionInfo;
+            logic.connectionState = ConnectionState.of(this.proxyConnection);
+            if (logic.connectionState != null) {
+                logic.generatedKeysRequested = logic.connectionState.removeGeneratedKeysStatement(this.ps);
+            }
             logic.proxyConnection = this.proxyConnection;
             logic.proxyConfig = this.proxyConfig;
             return logic;
@@ -86,6 +108,8 @@ public class PreparedStatementProxyLogic {
     private PreparedStatement ps;
     private String query;
     private ConnectionInfo connectionInfo;
+    private ConnectionState connectionState;  // null when the proxy connection is not available
+    private boolean generatedKeysRequested;
 
     // when same key(index/name) is used for parameter set operation, old value will be replaced. To implement that logic
     // using a map, so that putting same key will override the entry.
@@ -95,29 +119,89 @@ public class PreparedStatementProxyLogic {
 
     private Connection proxyConnection;
     private ProxyConfig proxyConfig;
+    private boolean fetchSizeSpecified;
+    private String queryFingerprint;  // lazily evaluated for fetch size advisor
+    private ParameterTransformer evaluatedParameterTransformer;
+    private boolean parameterTransformerApplicable;
+    private Boolean singleRowInsert;  // lazily evaluated for auto-batching
+    private final AutoBatch autoBatch = new AutoBatch();
+    private ChunkedBatch chunkedBatch;  // non-null while a batch is executed in chunks
+    private ConcurrencyLimiter resolvedConcurrencyLimiter;
+    private ConcurrencyLimiter.Limit resolvedSubLimit;
+    private QueryTimeoutPolicy resolvedQueryTimeoutPolicy;
+    private int resolvedQueryTimeout;
+    private boolean queryTimeoutSpecified;
+    private int queryTimeout;  // set by application or by query timeout policy
+    private volatile boolean cancelRequested;  // cancel can be called from other threads
+    private boolean returnedToCache;  // the actual statement may be in use by another proxy
 
     public Object invoke(Method method, Object[] args) throws Throwable {
 
+        final ProxyConfig proxyConfig = this.proxyConfig.getLatest();
         return MethodExecutionListenerUtils.invoke(new MethodExecutionListenerUtils.MethodExecutionCallback() {
             @Override
             public Object execute(Object proxyTarget, Method method, Object[] args) throws Throwable {
-                return performQueryExecutionListener(method, args);
+                return performQueryExecutionListener(method, args, proxyConfig);
             }
-        }, this.proxyConfig, this.ps, this.connectionInfo, method, args);
+        }, proxyConfig, this.ps, this.connectionInfo, method, args);
 
     }
 
-    private Object performQueryExecutionListener(Method method, Object[] args) throws Throwable {
+    private Object performQueryExecutionListener(Method method, Object[] args, ProxyConfig proxyConfig) throws Throwable {
 
         final String methodName = method.getName();
 
+        if ("setFetchSize".equals(methodName)) {
+            this.fetchSizeSpecified = true;
+        } else if ("setQueryTimeout".equals(methodName)) {
+            this.queryTimeoutSpecified = true;
+            this.queryTimeout = (Integer) args[0];
+        } else if ("cancel".equals(methodName)) {
+            this.cancelRequested = true;
+        }
+
+        // buffered executions must reach the database before anything else happens on this statement
+        if (this.connectionState != null && this.connectionState.getPendingBatch() == this.autoBatch
+                && !StatementMethodNames.PARAMETER_METHODS.contains(methodName)
+                && !StatementMethodNames.EXEC_METHODS.contains(methodName)
+                && !METHODS_NOT_TO_FLUSH.contains(methodName)) {
+            if ("close".equals(methodName)) {
+                try {
+                    this.autoBatch.flush();
+                } catch (SQLException ex) {
+                    this.ps.close();
+                    throw ex;
+                }
+            } else {
+                this.autoBatch.flush();
+            }
+        }
+
+        if (this.returnedToCache && !OBJECT_METHODS.contains(methodName)) {
+            if ("close".equals(methodName)) {
+                return null;
+            } else if ("isClosed".equals(methodName)) {
+                return true;
+            }
+            throw new SQLException("Statement is closed");
+        } else if ("close".equals(methodName) && this.connectionState != null
+                && this.connectionState.getStatementCache() != null
+                && this.connectionState.getStatementCache().release(this.ps)) {
+            this.returnedToCache = true;
+            return null;
+        }
+
         if (!StatementMethodNames.METHODS_TO_INTERCEPT.contains(methodName)) {
             return MethodUtils.proceedExecution(method, ps, args);
         }
 
-        ParameterTransformer parameterTransformer = this.proxyConfig.getParameterTransformer();
-        QueryExecutionListener queryListener = this.proxyConfig.getQueryListener();
-        JdbcProxyFactory proxyFactory = this.proxyConfig.getJdbcProxyFactory();
+        ParameterTransformer parameterTransformer = proxyConfig.getParameterTransformer();
+        QueryExecutionListener queryListener = proxyConfig.getQueryListener();
+        JdbcProxyFactory proxyFactory = proxyConfig.getJdbcProxyFactory();
+        FetchSizeAdvisor fetchSizeAdvisor = proxyConfig.getFetchSizeAdvisor();
+        QueryResultCache queryResultCache = proxyConfig.getQueryResultCache();
+        final ConcurrencyLimiter concurrencyLimiter = proxyConfig.getConcurrencyLimiter();
+        final QueryTimeoutPolicy queryTimeoutPolicy = proxyConfig.getQueryTimeoutPolicy();
 
 
         // special treat for toString method
@@ -187,17 +271,35 @@ public class PreparedStatementProxyLogic {
                     parameters.clear();
                 } else if ("clearBatch".equals(methodName)) {
                     batchParameters.clear();
+                    this.chunkedBatch = null;
                 }
             }
 
             // proceed execution, no need to call listener
-            return MethodUtils.proceedExecution(method, ps, args);
+            Object retVal = MethodUtils.proceedExecution(method, ps, args);
+            if ("addBatch".equals(methodName)) {
+                executeBatchChunkIfFull(proxyConfig);
+            }
+            return retVal;
         }
 
 
         // query execution methods
 
+        if (this.connectionState != null) {
+            if ("executeUpdate".equals(methodName) && isAutoBatchable(args, proxyConfig)) {
+                return addAutoBatch(parameterTransformer, proxyConfig);
+            }
+            AutoBatching.flush(this.connectionState);
+        }
+
+        if (this.chunkedBatch != null && StatementMethodNames.BATCH_EXEC_METHODS.contains(methodName)) {
+            return executeLastBatchChunk(method, args, proxyConfig);
+        }
+
         final List<QueryInfo> queries = new ArrayList<QueryInfo>();
+        final boolean isExecuteQuery = "executeQuery".equals(methodName);
+        QueryResultCache.CacheKey cacheKey = null;
         boolean isBatchExecution = false;
         int batchSize = 0;
 
@@ -219,6 +321,26 @@ public class PreparedStatementProxyLogic {
             QueryInfo queryInfo = new QueryInfo(this.query);
             queryInfo.getParametersList().add(new ArrayList<ParameterSetOperation>(parameters.values()));
             queries.add(queryInfo);
+
+            if (isExecuteQuery && queryResultCache != null && QueryResultCache.isAvailable(this.connectionState)) {
+                cacheKey = queryResultCache.createKey(this.query, this.parameters);
+                if (cacheKey != null) {
+                    ResultSet cachedResultSet = queryResultCache.get(cacheKey, this.ps);
+                    if (cachedResultSet != null) {
+                        // serve from cache without calling query listeners
+                        return cachedResultSet;
+                    }
+                }
+            }
+
+            if (isExecuteQuery && fetchSizeAdvisor != null && fetchSizeAdvisor.isAutoApply() && !this.fetchSizeSpecified) {
+                fetchSizeAdvisor.applyFetchSizeForFingerprint(this.ps, getQueryFingerprint());
+            }
+        }
+
+        int queryTimeout = 0;
+        if (queryTimeoutPolicy != null && StatementMethodNames.EXEC_METHODS.contains(methodName)) {
+            queryTimeout = applyQueryTimeout(queryTimeoutPolicy);
         }
 
         final ExecutionInfo execInfo = new ExecutionInfo(this.connectionInfo, this.ps, isBatchExecution, batchSize, method, args);
@@ -226,16 +348,58 @@ public class PreparedStatementProxyLogic {
         queryListener.beforeQuery(execInfo, queries);
 
         // Invoke method on original Statement.
+        final boolean limitConcurrency = concurrencyLimiter != null && StatementMethodNames.EXEC_METHODS.contains(methodName);
+        QueryTimeoutPolicy.Watch watch = null;
+        this.cancelRequested = false;
         try {
+            ConcurrencyLimiter.Limit subLimit = null;
+            if (limitConcurrency) {
+                subLimit = getSubLimit(concurrencyLimiter);
+                concurrencyLimiter.acquire(subLimit, execInfo);
+            }
+
             final long beforeTime = System.currentTimeMillis();
 
-            Object retVal = method.invoke(ps, args);
+            final long start = limitConcurrency ? System.nanoTime() : 0;
+            Object retVal;
+            try {
+                // inside of the try, so that the permit is released even when watching fails
+                if (queryTimeout > 0) {
+                    watch = queryTimeoutPolicy.watch(this.ps, queryTimeout);
+                }
+                retVal = method.invoke(ps, args);
+            } finally {
+                if (watch != null) {
+                    queryTimeoutPolicy.unwatch(watch);
+                }
+                if (limitConcurrency) {
+                    concurrencyLimiter.release(subLimit, System.nanoTime() - start);
+                }
+            }
 
             final long afterTime = System.currentTimeMillis();
 
+            if (queryResultCache != null && !isExecuteQuery) {
+                // invalidate cached results for modified tables
+                Boolean autoCommit = this.connectionInfo == null ? null : this.connectionInfo.getAutoCommit();
+                queryResultCache.onQuery(this.query, this.connectionState, autoCommit);
+            }
+
             // execInfo.setResult will have proxied ResultSet if enabled
-            if (METHODS_TO_RETURN_RESULTSET.contains(methodName)) {
-                retVal = proxyFactory.createResultSet((ResultSet) retVal, this.connectionInfo, this.proxyConfig);
+            if (cacheKey != null) {
+                // read whole result and store to the cache. rows read from the database are counted to learn
+                // fetch size. result set proxy factory is not used since returned result set is detached.
+                ResultSet resultSet = (ResultSet) retVal;
+                if (fetchSizeAdvisor != null) {
+                    resultSet = fetchSizeAdvisor.wrapResultSetForFingerprint(resultSet, getQueryFingerprint());
+                }
+                retVal = queryResultCache.put(cacheKey, this.query, resultSet, this.ps);
+            } else if (METHODS_TO_RETURN_RESULTSET.contains(methodName)) {
+                retVal = proxyFactory.createResultSet((ResultSet) retVal, this.connectionInfo, proxyConfig);
+                if (isExecuteQuery && fetchSizeAdvisor != null) {
+                    // count rows to learn fetch size
+                    retVal = fetchSizeAdvisor.wrapResultSetForFingerprint((ResultSet) retVal, getQueryFingerprint());
+                }
             }
 
             execInfo.setResult(retVal);
@@ -246,35 +410,215 @@ public class PreparedStatementProxyLogic {
         } catch (InvocationTargetException ex) {
             execInfo.setThrowable(ex.getTargetException());
             execInfo.setSuccess(false);
+            QueryTimeoutPolicy.setAbortReason(execInfo, ex.getTargetException(), queryTimeoutPolicy, watch, this.cancelRequested);
             throw ex.getTargetException();
+        } catch (ConcurrencyLimitExceededException ex) {
+            execInfo.setThrowable(ex);
+            execInfo.setSuccess(false);
+            throw ex;
         } finally {
             queryListener.afterQuery(execInfo, queries);
+            TransactionTracker.onExecution(this.connectionInfo, proxyConfig, execInfo, queries);
+        }
+    }
+
+
+    private String getQueryFingerprint() {
+        // query of the statement never changes. compute once.
+        if (this.queryFingerprint == null) {
+            this.queryFingerprint = QueryUtils.getQueryFingerprint(this.query);
         }
+        return this.queryFingerprint;
     }
 
+    private ConcurrencyLimiter.Limit getSubLimit(ConcurrencyLimiter concurrencyLimiter) {
+        // query of the statement never changes. resolve once per limiter.
+        if (concurrencyLimiter != this.resolvedConcurrencyLimiter) {
+            this.resolvedSubLimit = concurrencyLimiter.getSubLimit(this.query);
+            this.resolvedConcurrencyLimiter = concurrencyLimiter;
+        }
+        return this.resolvedSubLimit;
+    }
+
+    private int applyQueryTimeout(QueryTimeoutPolicy queryTimeoutPolicy) throws SQLException {
+        if (!this.queryTimeoutSpecified) {
+            // query of the statement never changes. resolve once per policy.
+            if (queryTimeoutPolicy != this.resolvedQueryTimeoutPolicy) {
+                this.resolvedQueryTimeout = queryTimeoutPolicy.getTimeout(this.query);
+                this.resolvedQueryTimeoutPolicy = queryTimeoutPolicy;
+            }
+            if (this.resolvedQueryTimeout != this.queryTimeout) {
+                this.ps.setQueryTimeout(this.resolvedQueryTimeout);
+                this.queryTimeout = this.resolvedQueryTimeout;
+            }
+        }
+        return this.queryTimeout;
+    }
+
+    private void executeBatchChunkIfFull(ProxyConfig proxyConfig) throws Throwable {
+        BatchChunkPolicy batchChunkPolicy = proxyConfig.getBatchChunkPolicy();
+        if (batchChunkPolicy == null || this.batchParameters.size() < batchChunkPolicy.getChunkSize()
+                || !ChunkedBatch.isChunkable(this.ps, this.connectionInfo)) {
+            return;
+        }
+
+        ChunkedBatch chunkedBatch = this.chunkedBatch == null ? new ChunkedBatch() : this.chunkedBatch;
+        this.chunkedBatch = null;  // execute the chunk as a plain batch
+        int size = this.batchParameters.size();
+        long start = System.nanoTime();
+        try {
+            chunkedBatch.add((int[]) performQueryExecutionListener(ChunkedBatch.EXECUTE_BATCH_METHOD, null, proxyConfig));
+        } catch (BatchUpdateException ex) {
+            throw chunkedBatch.toBatchUpdateException(ex);
+        }
+        batchChunkPolicy.onChunkExecuted(size, System.nanoTime() - start);
+        this.chunkedBatch = chunkedBatch;
+    }
+
+    private Object executeLastBatchChunk(Method method, Object[] args, ProxyConfig proxyConfig) throws Throwable {
+        BatchChunkPolicy batchChunkPolicy = proxyConfig.getBatchChunkPolicy();
+        ChunkedBatch chunkedBatch = this.chunkedBatch;
+        this.chunkedBatch = null;
+        int size = this.batchParameters.size();
+        Object lastResult = null;
+        if (size > 0) {
+            long start = System.nanoTime();
+            try {
+                lastResult = performQueryExecutionListener(method, args, proxyConfig);
+            } catch (BatchUpdateException ex) {
+                throw chunkedBatch.toBatchUpdateException(ex);
+            }
+            if (batchChunkPolicy != null) {
+                batchChunkPolicy.onChunkExecuted(size, System.nanoTime() - start);
+            }
+        }
+        return chunkedBatch.complete(lastResult, batchChunkPolicy);
+    }
+
+    private boolean isAutoBatchable(Object[] args, ProxyConfig proxyConfig) throws SQLException {
+        // generated keys of buffered executions cannot be retrieved
+        if (proxyConfig.getAutoBatchSize() <= 0 || (args != null && args.length > 0) || this.ps instanceof CallableStatement
+                || this.generatedKeysRequested || this.connectionState == null) {
+            return false;
+        }
+        // do not mix with batch built by application
+        if ((!this.batchParameters.isEmpty() && this.connectionState.getPendingBatch() != this.autoBatch)
+                || this.chunkedBatch != null) {
+            return false;
+        }
+        if (this.singleRowInsert == null) {
+            this.singleRowInsert = AutoBatching.isSingleRowInsert(this.query);
+        }
+        if (!this.singleRowInsert) {
+            return false;
+        }
+
+        // only in a transaction. in auto-commit mode, each execution must be committed on return.
+        Boolean autoCommit = this.connectionInfo.getAutoCommit();
+        if (autoCommit == null) {
+            autoCommit = this.ps.getConnection().getAutoCommit();
+            this.connectionInfo.setAutoCommit(autoCommit);
+        }
+        return !autoCommit;
+    }
+
+    private Object addAutoBatch(ParameterTransformer parameterTransformer, ProxyConfig proxyConfig) throws Throwable {
+        // batch of other statement needs to be executed first
+        if (this.connectionState.getPendingBatch() != this.autoBatch) {
+            AutoBatching.flush(this.connectionState);
+        }
+
+        transformParameters(parameterTransformer, true, this.batchParameters.size());
+        this.ps.addBatch();
+        // parameters stay set as they do after executeUpdate
+        this.batchParameters.add(new LinkedHashMap<ParameterKey, ParameterSetOperation>(this.parameters));
+        this.connectionState.setPendingBatch(this.autoBatch);
+
+        if (this.batchParameters.size() >= proxyConfig.getAutoBatchSize()) {
+            this.autoBatch.flush();
+        }
+        return 1;  // single-row insert
+    }
+
+    /**
+     * Executions of this statement buffered by auto-batching.
+     */
+    private class AutoBatch implements PendingBatch {
+
+        @Override
+        public int size() {
+            return batchParameters.size();
+        }
+
+        @Override
+        public void flush() throws SQLException {
+            connectionState.setPendingBatch(null);
+            try {
+                performQueryExecutionListener(ChunkedBatch.EXECUTE_BATCH_METHOD, null, proxyConfig.getLatest());
+            } catch (SQLException ex) {
+                throw ex;
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new SQLException("Failed to execute auto-batch", ex);
+            }
+        }
+
+        @Override
+        public void discard() throws SQLException {
+            connectionState.setPendingBatch(null);
+            batchParameters.clear();
+            ps.clearBatch();
+        }
+    }
 
     private void transformParameters(ParameterTransformer parameterTransformer, boolean isBatch, int count) throws SQLException, IllegalAccessException, InvocationTargetException {
 
+        if (QueryTransformerUtils.isNoOp(parameterTransformer) || !isApplicable(parameterTransformer)) {
+            return;
+        }
+
         // transform parameters
         final ParameterReplacer parameterReplacer = new ParameterReplacer(this.parameters);
         final TransformInfo transformInfo = new TransformInfo(ps.getClass(), this.connectionInfo.getDataSourceName(), query, isBatch, count);
         parameterTransformer.transformParameters(parameterReplacer, transformInfo);
 
-        if (parameterReplacer.isModified()) {
+        if (!parameterReplacer.isModified()) {
+            return;
+        }
 
+        if (parameterReplacer.isCleared()) {
             ps.clearParameters();  // clear existing parameters
 
             // re-set parameters
             Map<ParameterKey, ParameterSetOperation> modifiedParameters = parameterReplacer.getModifiedParameters();
             for (ParameterSetOperation operation : modifiedParameters.values()) {
-                final Method paramMethod = operation.getMethod();
-                final Object[] paramArgs = operation.getArgs();
-                paramMethod.invoke(ps, paramArgs);
+                ParameterBinder.bind(ps, operation);
             }
 
             // replace
             this.parameters = modifiedParameters;
+        } else {
+            // only re-bind changed parameters. setting a parameter overrides the previous value.
+            for (Map.Entry<ParameterKey, ParameterSetOperation> entry : parameterReplacer.getChangedParameters().entrySet()) {
+                ParameterBinder.bind(ps, entry.getValue());
+                this.parameters.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private boolean isApplicable(ParameterTransformer parameterTransformer) {
+        if (!(parameterTransformer instanceof SelectiveParameterTransformer)) {
+            return true;
+        }
+        // query of the statement never changes. evaluate once per transformer.
+        if (parameterTransformer != this.evaluatedParameterTransformer) {
+            this.parameterTransformerApplicable = ((SelectiveParameterTransformer) parameterTransformer).isApplicable(this.query);
+            this.evaluatedParameterTransformer = parameterTransformer;
         }
+        return this.parameterTransformerApplicable;
     }
 
 }
@@ -3,8 +3,12 @@ package net.ttddyy.dsproxy.proxy;
 import net.ttddyy.dsproxy.ConnectionIdManager;
 import net.ttddyy.dsproxy.listener.ChainListener;
 import net.ttddyy.dsproxy.listener.CompositeMethodListener;
+import net.ttddyy.dsproxy.listener.ListenerExecutionPolicy;
 import net.ttddyy.dsproxy.listener.MethodExecutionListener;
 import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.listener.TransactionListener;
+import net.ttddyy.dsproxy.transform.CachingQueryTransformer;
+import net.ttddyy.dsproxy.transform.DeterministicQueryTransformer;
 import net.ttddyy.dsproxy.transform.ParameterTransformer;
 import net.ttddyy.dsproxy.transform.QueryTransformer;
 
@@ -25,6 +29,18 @@ public class ProxyConfig {
         private ResultSetProxyLogicFactory resultSetProxyLogicFactory;  // can be null if resultset proxy is disabled
         private ConnectionIdManager connectionIdManager = new DefaultConnectionIdManager();  // create instance every time
         private CompositeMethodListener methodListener = new CompositeMethodListener();  // empty default
+        private FetchSizeAdvisor fetchSizeAdvisor;  // can be null if fetch size advisor is disabled
+        private QueryResultCache queryResultCache;  // can be null if query result cache is disabled
+        private TransactionListener transactionListener;  // can be null if transaction tracking is disabled
+        private ListenerExecutionPolicy listenerExecutionPolicy;  // can be null to call listeners inline
+        private ProxyConfigHolder configHolder;  // can be null if config is not reloadable
+        private int autoBatchSize;  // 0 if auto-batching is disabled
+        private BatchChunkPolicy batchChunkPolicy;  // can be null if batches are not split
+        private ConcurrencyLimiter concurrencyLimiter;  // can be null if concurrency is not limited
+        private QueryTimeoutPolicy queryTimeoutPolicy;  // can be null if query timeouts are not applied
+        private LazyConnectionFactory lazyConnectionFactory;  // can be null if connections are borrowed eagerly
+        private PreparedStatementCache preparedStatementCache;  // can be null if prepared statements are not cached
+        private long version;
 
         public static Builder create() {
             return new Builder();
@@ -39,19 +55,53 @@ public class ProxyConfig {
                     .jdbcProxyFactory(proxyConfig.jdbcProxyFactory)
                     .resultSetProxyLogicFactory(proxyConfig.resultSetProxyLogicFactory)
                     .connectionIdManager(proxyConfig.connectionIdManager)
-                    .methodListener(proxyConfig.methodListener);
+                    .methodListener(proxyConfig.methodListener)
+                    .fetchSizeAdvisor(proxyConfig.fetchSizeAdvisor)
+                    .queryResultCache(proxyConfig.queryResultCache)
+                    .transactionListener(proxyConfig.transactionListener)
+                    .listenerExecutionPolicy(proxyConfig.listenerExecutionPolicy)
+                    .autoBatchSize(proxyConfig.autoBatchSize)
+                    .batchChunkPolicy(proxyConfig.batchChunkPolicy)
+                    .concurrencyLimiter(proxyConfig.concurrencyLimiter)
+                    .queryTimeoutPolicy(proxyConfig.queryTimeoutPolicy)
+                    .lazyConnectionFactory(proxyConfig.lazyConnectionFactory)
+                    .preparedStatementCache(proxyConfig.preparedStatementCache)
+                    .configHolder(proxyConfig.configHolder);
         }
 
         public ProxyConfig build() {
             ProxyConfig proxyConfig = new ProxyConfig();
             proxyConfig.dataSourceName = this.dataSourceName;
-            proxyConfig.queryListener = this.queryListener;
-            proxyConfig.queryTransformer = this.queryTransformer;
+            // copy listeners, so that further modification to the builder does not affect the built config
+            ChainListener queryListener = new ChainListener();
+            queryListener.setListeners(this.queryListener.getListeners());
+            queryListener.setExecutionPolicy(this.listenerExecutionPolicy);
+            proxyConfig.queryListener = queryListener;
+            if (this.queryTransformer instanceof DeterministicQueryTransformer
+                    && !(this.queryTransformer instanceof CachingQueryTransformer)) {
+                proxyConfig.queryTransformer = new CachingQueryTransformer(this.queryTransformer);
+            } else {
+                proxyConfig.queryTransformer = this.queryTransformer;
+            }
             proxyConfig.parameterTransformer = this.parameterTransformer;
             proxyConfig.jdbcProxyFactory = this.jdbcProxyFactory;
             proxyConfig.resultSetProxyLogicFactory = this.resultSetProxyLogicFactory;
             proxyConfig.connectionIdManager = this.connectionIdManager;
-            proxyConfig.methodListener = this.methodListener;
+            CompositeMethodListener methodListener = new CompositeMethodListener();
+            methodListener.setListeners(this.methodListener.getListeners());
+            proxyConfig.methodListener = methodListener;
+            proxyConfig.fetchSizeAdvisor = this.fetchSizeAdvisor;
+            proxyConfig.queryResultCache = this.queryResultCache;
+            proxyConfig.transactionListener = this.transactionListener;
+            proxyConfig.listenerExecutionPolicy = this.listenerExecutionPolicy;
+            proxyConfig.configHolder = this.configHolder;
+            proxyConfig.autoBatchSize = this.autoBatchSize;
+            proxyConfig.batchChunkPolicy = this.batchChunkPolicy;
+            proxyConfig.concurrencyLimiter = this.concurrencyLimiter;
+            proxyConfig.queryTimeoutPolicy = this.queryTimeoutPolicy;
+            proxyConfig.lazyConnectionFactory = this.lazyConnectionFactory;
+            proxyConfig.preparedStatementCache = this.preparedStatementCache;
+            proxyConfig.version = this.version;
             return proxyConfig;
         }
 
@@ -106,6 +156,103 @@ public class ProxyConfig {
             }
             return this;
         }
+
+        /**
+         * @since 1.4.5
+         */
+        public Builder fetchSizeAdvisor(FetchSizeAdvisor fetchSizeAdvisor) {
+            this.fetchSizeAdvisor = fetchSizeAdvisor;
+            return this;
+        }
+
+        /**
+         * @since 1.4.5
+         */
+        public Builder queryResultCache(QueryResultCache queryResultCache) {
+            this.queryResultCache = queryResultCache;
+            return this;
+        }
+
+        /**
+         * @since 1.4.5
+         */
+        public Builder transactionListener(TransactionListener transactionListener) {
+            this.transactionListener = transactionListener;
+            return this;
+        }
+
+        /**
+         * @since 1.4.5
+         */
+        public Builder listenerExecutionPolicy(ListenerExecutionPolicy listenerExecutionPolicy) {
+            this.listenerExecutionPolicy = listenerExecutionPolicy;
+            return this;
+        }
+
+        /**
+         * @since 1.4.5
+         */
+        public Builder configHolder(ProxyConfigHolder configHolder) {
+            this.configHolder = configHolder;
+            return this;
+        }
+
+        /**
+         * Buffer consecutive single-row inserts on a prepared statement in a transaction into a batch.
+         *
+         * @param autoBatchSize max number of rows to buffer. {@code 0} disables auto-batching.
+         * @return builder
+         * @since 1.4.5
+         */
+        public Builder autoBatchSize(int autoBatchSize) {
+            this.autoBatchSize = autoBatchSize;
+            return this;
+        }
+
+        /**
+         * @since 1.4.5
+         */
+        public Builder batchChunkPolicy(BatchChunkPolicy batchChunkPolicy) {
+            this.batchChunkPolicy = batchChunkPolicy;
+            return this;
+        }
+
+        /**
+         * @since 1.4.5
+         */
+        public Builder concurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+            return this;
+        }
+
+        /**
+         * @since 1.4.5
+         */
+        public Builder queryTimeoutPolicy(QueryTimeoutPolicy queryTimeoutPolicy) {
+            this.queryTimeoutPolicy = queryTimeoutPolicy;
+            return this;
+        }
+
+        /**
+         * @since 1.4.5
+         */
+        public Builder lazyConnectionFactory(LazyConnectionFactory lazyConnectionFactory) {
+            this.lazyConnectionFactory = lazyConnectionFactory;
+            return this;
+        }
+
+        /**
+         * @since 1.4.5
+         */
+        public Builder preparedStatementCache(PreparedStatementCache preparedStatementCache) {
+            this.preparedStatementCache = preparedStatementCache;
+            return this;
+        }
+
+        Builder version(long version) {
+            this.version = version;
+            return this;
+        }
     }
 
     private String dataSourceName;
@@ -116,6 +263,18 @@ public class ProxyConfig {
     private ResultSetProxyLogicFactory resultSetProxyLogicFactory;
     private ConnectionIdManager connectionIdManager;
     private CompositeMethodListener methodListener;
+    private FetchSizeAdvisor fetchSizeAdvisor;
+    private QueryResultCache queryResultCache;
+    private TransactionListener transactionListener;
+    private ListenerExecutionPolicy listenerExecutionPolicy;
+    private ProxyConfigHolder configHolder;
+    private int autoBatchSize;
+    private BatchChunkPolicy batchChunkPolicy;
+    private ConcurrencyLimiter concurrencyLimiter;
+    private QueryTimeoutPolicy queryTimeoutPolicy;
+    private LazyConnectionFactory lazyConnectionFactory;
+    private PreparedStatementCache preparedStatementCache;
+    private long version;
 
     public String getDataSourceName() {
         return dataSourceName;
@@ -149,4 +308,114 @@ public class ProxyConfig {
         return methodListener;
     }
 
+    /**
+     * @return fetch size advisor. {@code null} if it is disabled.
+     * @since 1.4.5
+     */
+    public FetchSizeAdvisor getFetchSizeAdvisor() {
+        return fetchSizeAdvisor;
+    }
+
+    /**
+     * @return query result cache. {@code null} if it is disabled.
+     * @since 1.4.5
+     */
+    public QueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
+    /**
+     * @return transaction listener. {@code null} if transaction tracking is disabled.
+     * @since 1.4.5
+     */
+    public TransactionListener getTransactionListener() {
+        return transactionListener;
+    }
+
+    /**
+     * @return listener execution policy. {@code null} if query listeners are called inline.
+     * @since 1.4.5
+     */
+    public ListenerExecutionPolicy getListenerExecutionPolicy() {
+        return listenerExecutionPolicy;
+    }
+
+    /**
+     * @return max number of rows to buffer by auto-batching. {@code 0} if auto-batching is disabled.
+     * @since 1.4.5
+     */
+    public int getAutoBatchSize() {
+        return autoBatchSize;
+    }
+
+    /**
+     * @return batch chunk policy. {@code null} if batches are not split.
+     * @since 1.4.5
+     */
+    public BatchChunkPolicy getBatchChunkPolicy() {
+        return batchChunkPolicy;
+    }
+
+    /**
+     * @return concurrency limiter. {@code null} if concurrency is not limited.
+     * @since 1.4.5
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * @return query timeout policy. {@code null} if query timeouts are not applied.
+     * @since 1.4.5
+     */
+    public QueryTimeoutPolicy getQueryTimeoutPolicy() {
+        return queryTimeoutPolicy;
+    }
+
+    /**
+     * @return factory of lazy connections. {@code null} if connections are borrowed eagerly.
+     * @since 1.4.5
+     */
+    public LazyConnectionFactory getLazyConnectionFactory() {
+        return lazyConnectionFactory;
+    }
+
+    /**
+     * @return prepared statement cache. {@code null} if prepared statements are not cached.
+     * @since 1.4.5
+     */
+    public PreparedStatementCache getPreparedStatementCache() {
+        return preparedStatementCache;
+    }
+
+    /**
+     * Returns the config to use for a JDBC method invocation.
+     *
+     * Proxies call this once at the beginning of each invocation and use the returned config throughout the
+     * invocation, so that before and after callbacks see the same config.
+     *
+     * @return latest config from {@link ProxyConfigHolder} if this config is reloadable, otherwise this config
+     * @since 1.4.5
+     */
+    public ProxyConfig getLatest() {
+        ProxyConfigHolder configHolder = this.configHolder;
+        return configHolder == null ? this : configHolder.get();
+    }
+
+    /**
+     * @return config holder. {@code null} if this config is not reloadable.
+     * @since 1.4.5
+     */
+    public ProxyConfigHolder getConfigHolder() {
+        return configHolder;
+    }
+
+    /**
+     * @return version assigned by {@link ProxyConfigHolder}. {@code 0} if this config is not reloadable.
+     * @since 1.4.5
+     */
+    public long getVersion() {
+        return version;
+    }
+
 }
@@ -0,0 +1,73 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hold the latest {@link ProxyConfig} and allow replacing it at runtime.
+ *
+ * Configs managed by a holder refer the holder, and already created proxies read the latest config through
+ * {@link ProxyConfig#getLatest()}, which is a single volatile read per JDBC method invocation. Therefore, changes
+ * such as enabling or disabling listeners, transformers or result set proxying apply to live connections,
+ * statements and result sets immediately.
+ *
+ * Each JDBC method invocation uses one config version. A query execution that is in progress while the config is
+ * replaced completes its before and after callbacks with the version it has started with.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see net.ttddyy.dsproxy.support.ProxyDataSourceBuilder#reloadableProxyConfig()
+ * @since 1.4.5
+ */
+public class ProxyConfigHolder {
+
+    private final AtomicReference<ProxyConfig> current = new AtomicReference<ProxyConfig>();
+
+    public ProxyConfigHolder(ProxyConfig proxyConfig) {
+        this.current.set(manage(proxyConfig, 1));
+    }
+
+    /**
+     * @return the latest config
+     */
+    public ProxyConfig get() {
+        return this.current.get();
+    }
+
+    /**
+     * @return version of the latest config
+     */
+    public long getVersion() {
+        return this.current.get().getVersion();
+    }
+
+    /**
+     * Replace the config.
+     *
+     * @param proxyConfig new config
+     * @return new config managed by this holder
+     */
+    public ProxyConfig update(ProxyConfig proxyConfig) {
+        while (true) {
+            ProxyConfig expected = this.current.get();
+            ProxyConfig newConfig = manage(proxyConfig, expected.getVersion() + 1);
+            if (this.current.compareAndSet(expected, newConfig)) {
+                return newConfig;
+            }
+        }
+    }
+
+    /**
+     * Replace the config only when the latest config is the expected one.
+     *
+     * @param expected    expected latest config
+     * @param proxyConfig new config
+     * @return {@code true} if replaced
+     */
+    public boolean compareAndUpdate(ProxyConfig expected, ProxyConfig proxyConfig) {
+        return this.current.compareAndSet(expected, manage(proxyConfig, expected.getVersion() + 1));
+    }
+
+    private ProxyConfig manage(ProxyConfig proxyConfig, long version) {
+        return ProxyConfig.Builder.from(proxyConfig).configHolder(this).version(version).build();
+    }
+
+}
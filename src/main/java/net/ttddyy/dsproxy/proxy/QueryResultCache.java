@@ -0,0 +1,666 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.QueryType;
+import net.ttddyy.dsproxy.listener.QueryUtils;
+import net.ttddyy.dsproxy.proxy.jdk.ResultSetInvocationHandler;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client side read-through cache for results of idempotent {@code SELECT} queries executed by
+ * {@link java.sql.PreparedStatement#executeQuery()}.
+ *
+ * <p>Cacheability and time-to-live are decided per query by {@link QueryResultCachePolicy}. When an entry exists for
+ * the same query and parameter values, the proxy returns a detached, replayable {@link ResultSet} instead of accessing
+ * the database. On cache miss, rows of the actual result set are read, stored, and replayed. When the result has more
+ * rows than {@link #getMaxRowsPerEntry()} or exceeds {@link #getMaxBytes()}, reading stops there; rows read so far are
+ * replayed and the rest is streamed from the actual result set without being cached.
+ *
+ * <p>Entries are invalidated when:
+ * <ul>
+ * <li>time-to-live has passed
+ * <li>{@code INSERT}, {@code UPDATE} or {@code DELETE} against one of the referenced tables goes through the proxy
+ * (see {@link QueryUtils#getTableNames(String)}). When it is executed in a transaction, the tables are invalidated
+ * again when the transaction is committed or rolled back.
+ * <li>{@link #invalidate(String)}, {@link #invalidateQuery(String)} or {@link #invalidateAll()} is called
+ * </ul>
+ *
+ * <p>While a connection has uncommitted modifications, queries on the connection neither use nor populate the cache,
+ * so that uncommitted rows are never shared with other connections.
+ *
+ * <p>The store is bounded by number of entries and by estimated size of cached rows. When a limit is exceeded,
+ * expired entries are removed first, then the least recently used ones. Lookups do not take a lock.
+ *
+ * <p>Note: Since cached results do not reach the database, {@link net.ttddyy.dsproxy.listener.QueryExecutionListener}s
+ * are not called on cache hit. Also, modifications made by other applications or outside of the proxy cannot be
+ * detected; use time-to-live accordingly.
+ *
+ * <p>Returned result sets are not created by {@link ProxyConfig#getResultSetProxyLogicFactory()}, thus
+ * {@link net.ttddyy.dsproxy.listener.MethodExecutionListener}s are not called for their methods. They do not hold
+ * database resources except for the streamed part of a too large result.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see DefaultQueryResultCachePolicy
+ * @since 1.4.5
+ */
+public class QueryResultCache {
+
+    /**
+     * Key of the cache. Combination of query and parameter values.
+     */
+    static class CacheKey {
+        private final String query;
+        private final List<Object> parameters;
+        private final int hash;
+        private long generation;  // invalidation generation when the key is created. not part of equality.
+
+        CacheKey(String query, List<Object> parameters) {
+            this.query = query;
+            this.parameters = parameters;
+            this.hash = 31 * query.hashCode() + parameters.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey that = (CacheKey) o;
+            return this.hash == that.hash && this.query.equals(that.query) && this.parameters.equals(that.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    // identity equality, so that removing an entry never affects a newer entry for the same key
+    private static class CacheEntry {
+        private CacheKey key;
+        private List<Object[]> rows;
+        private DetachedResultSetMetaData metaData;
+        private Map<String, Integer> columnNameToIndex;
+        private int columnCount;
+        private long expireAt;
+        private long estimatedBytes;
+        private Set<String> tableNames;
+        private volatile long lastAccess;  // System.nanoTime() of the last hit, for LRU eviction
+    }
+
+    private static class EvictionCandidate implements Comparable<EvictionCandidate> {
+        private final CacheEntry entry;
+        private final long lastAccess;  // snapshot, since the entry may be accessed while sorting
+
+        private EvictionCandidate(CacheEntry entry) {
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+
+        @Override
+        public int compareTo(EvictionCandidate o) {
+            long diff = this.lastAccess - o.lastAccess;  // nanoTime values need to be compared by difference
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+
+    private static final Set<Class<?>> CACHEABLE_PARAMETER_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            String.class, Integer.class, Long.class, Short.class, Byte.class, Double.class, Float.class,
+            Boolean.class, Character.class, java.math.BigDecimal.class, java.math.BigInteger.class,
+            java.sql.Date.class, java.sql.Time.class, java.sql.Timestamp.class, java.util.Date.class
+    ));
+
+    private QueryResultCachePolicy policy;
+    private volatile int maxEntries = 1000;
+    private volatile long maxBytes = 16 * 1024 * 1024;
+    private volatile int maxRowsPerEntry = 1000;
+
+    private final ConcurrentMap<CacheKey, CacheEntry> entries = new ConcurrentHashMap<CacheKey, CacheEntry>();
+    private final ConcurrentMap<String, Set<CacheEntry>> entriesByTable = new ConcurrentHashMap<String, Set<CacheEntry>>();
+    private final AtomicLong currentBytes = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();  // incremented on every invalidation
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong expirationCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    public QueryResultCache(QueryResultCachePolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Create a cache key for the query and parameters.
+     *
+     * @param query      query
+     * @param parameters parameters set to the prepared statement
+     * @return cache key or {@code null} when the query is not cacheable
+     */
+    CacheKey createKey(String query, Map<ParameterKey, ParameterSetOperation> parameters) {
+        if (this.policy.getTimeToLive(query) <= 0 || QueryUtils.getQueryType(query) != QueryType.SELECT) {
+            return null;
+        }
+
+        // sort by parameter key so that the order of setXxx calls does not matter
+        Map<ParameterKey, ParameterSetOperation> sorted = new TreeMap<ParameterKey, ParameterSetOperation>(parameters);
+        List<Object> values = new ArrayList<Object>(sorted.size() * 3);
+        for (Map.Entry<ParameterKey, ParameterSetOperation> entry : sorted.entrySet()) {
+            ParameterSetOperation operation = entry.getValue();
+            Object[] args = operation.getArgs();
+            values.add(entry.getKey().getKeyAsString());
+            values.add(operation.getMethod().getName());
+            for (int i = 1; i < args.length; i++) {
+                Object arg = args[i];
+                if (arg != null && !CACHEABLE_PARAMETER_TYPES.contains(arg.getClass())) {
+                    return null;  // streams, LOBs, arrays, etc.
+                }
+                values.add(arg);
+            }
+        }
+        CacheKey key = new CacheKey(query, values);
+        key.generation = this.generation.get();
+        return key;
+    }
+
+    /**
+     * Retrieve cached result.
+     *
+     * @param key       cache key
+     * @param statement statement returned by {@link ResultSet#getStatement()}
+     * @return replayable result set or {@code null} when not cached
+     */
+    ResultSet get(CacheKey key, Statement statement) {
+        CacheEntry entry = this.entries.get(key);
+        if (entry != null && entry.expireAt <= System.currentTimeMillis()) {
+            if (removeEntry(entry)) {
+                this.expirationCount.incrementAndGet();
+            }
+            entry = null;
+        }
+        if (entry == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        this.hitCount.incrementAndGet();
+        return createResultSet(entry, statement);
+    }
+
+    /**
+     * Read rows from given result set, store them to the cache and return replayable result set.
+     *
+     * <p>When the result is within the limits, it is fully read and given result set is closed. Otherwise, reading
+     * stops at the limit and returned result set replays rows read so far, then continues with given result set.
+     *
+     * @param key       cache key
+     * @param query     query
+     * @param resultSet result set to read
+     * @param statement statement returned by {@link ResultSet#getStatement()}
+     * @return replayable result set
+     * @throws SQLException on failure to read the result set
+     */
+    ResultSet put(CacheKey key, String query, ResultSet resultSet, Statement statement) throws SQLException {
+        CacheEntry entry = new CacheEntry();
+        boolean overflow = false;
+        try {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            int columnCount = metaData.getColumnCount();
+            Map<String, Integer> columnNameToIndex = new HashMap<String, Integer>();
+            for (int i = columnCount; i >= 1; i--) {
+                // first occurrence wins on duplicated labels
+                columnNameToIndex.put(metaData.getColumnLabel(i).toUpperCase(), i);
+            }
+            int maxRows = this.maxRowsPerEntry;
+            long maxBytes = this.maxBytes;
+            List<Object[]> rows = new ArrayList<Object[]>();
+            long bytes = 0;
+            while (resultSet.next()) {
+                Object[] row = new Object[columnCount + 1];
+                for (int i = 1; i <= columnCount; i++) {
+                    row[i] = resultSet.getObject(i);
+                }
+                rows.add(row);
+                bytes += estimateSize(row);
+                if (rows.size() > maxRows || bytes > maxBytes) {
+                    // too large to cache. do not read the rest into memory.
+                    overflow = true;
+                    return createResultSet(new OverflowResultSetProxyLogic(rows, columnNameToIndex, resultSet));
+                }
+            }
+            entry.rows = rows;
+            entry.metaData = new DetachedResultSetMetaData(metaData);
+            entry.columnNameToIndex = columnNameToIndex;
+            entry.columnCount = columnCount;
+            entry.estimatedBytes = bytes;
+        } finally {
+            if (!overflow) {
+                resultSet.close();
+            }
+        }
+
+        long ttl = this.policy.getTimeToLive(query);
+        if (ttl > 0) {
+            entry.key = key;
+            entry.expireAt = System.currentTimeMillis() + ttl;
+            entry.tableNames = QueryUtils.getTableNames(query);
+            entry.lastAccess = System.nanoTime();
+            store(entry);
+        }
+        return createResultSet(entry, statement);
+    }
+
+    private void store(CacheEntry entry) {
+        if (entry.key.generation != this.generation.get()) {
+            return;  // invalidation happened while the query was running. result may be stale.
+        }
+
+        // register to tables first, so that concurrent invalidation can find the entry
+        for (String tableName : entry.tableNames) {
+            Set<CacheEntry> tableEntries = this.entriesByTable.get(tableName);
+            if (tableEntries == null) {
+                Set<CacheEntry> newEntries = Collections.newSetFromMap(new ConcurrentHashMap<CacheEntry, Boolean>());
+                tableEntries = this.entriesByTable.putIfAbsent(tableName, newEntries);
+                if (tableEntries == null) {
+                    tableEntries = newEntries;
+                }
+            }
+            tableEntries.add(entry);
+        }
+        CacheEntry previous = this.entries.put(entry.key, entry);
+        this.currentBytes.addAndGet(entry.estimatedBytes);
+        if (previous != null) {
+            this.currentBytes.addAndGet(-previous.estimatedBytes);
+            removeFromTables(previous);
+        }
+
+        if (entry.key.generation != this.generation.get()) {
+            // invalidated while storing
+            removeEntry(entry);
+            return;
+        }
+        evictIfNecessary();
+    }
+
+    /**
+     * Invalidate entries referencing tables modified by given query.
+     * Does nothing for {@code SELECT} queries.
+     *
+     * @param query executed query
+     */
+    public void onQuery(String query) {
+        Set<String> tableNames = getModifiedTableNames(query);
+        if (tableNames == null) {
+            return;
+        }
+        for (String tableName : tableNames) {
+            invalidate(tableName);
+        }
+    }
+
+    /**
+     * Invalidate entries referencing tables modified by given query executed on a connection.
+     *
+     * <p>When the connection is not in auto-commit mode, the tables are remembered and invalidated again by
+     * {@link #onTransactionEnd(ConnectionState)}, since other connections may cache rows before the modification is
+     * committed. Until then, the connection does not use the cache.
+     *
+     * @param query           executed query
+     * @param connectionState state of the connection. can be {@code null}.
+     * @param autoCommit      auto-commit mode of the connection. {@code null} if unknown.
+     */
+    void onQuery(String query, ConnectionState connectionState, Boolean autoCommit) {
+        Set<String> tableNames = getModifiedTableNames(query);
+        if (tableNames == null) {
+            return;
+        }
+        if (connectionState != null && !Boolean.TRUE.equals(autoCommit)) {
+            connectionState.addModifiedTables(tableNames);
+        }
+        for (String tableName : tableNames) {
+            invalidate(tableName);
+        }
+    }
+
+    /**
+     * Invalidate tables modified in the transaction of the connection. Called when the transaction is committed or
+     * rolled back, or the connection is closed.
+     *
+     * @param connectionState state of the connection
+     */
+    void onTransactionEnd(ConnectionState connectionState) {
+        Set<String> tableNames = connectionState.removeModifiedTables();
+        if (tableNames != null) {
+            for (String tableName : tableNames) {
+                invalidate(tableName);
+            }
+        }
+    }
+
+    /**
+     * @param connectionState state of the connection. can be {@code null}.
+     * @return {@code true} if the connection can use the cache
+     */
+    static boolean isAvailable(ConnectionState connectionState) {
+        // results read in a transaction with uncommitted modifications must not be shared
+        return connectionState == null || !connectionState.hasModifiedTables();
+    }
+
+    // null if the query does not modify tables
+    private Set<String> getModifiedTableNames(String query) {
+        QueryType queryType = QueryUtils.getQueryType(query);
+        if (queryType == QueryType.SELECT) {
+            return null;
+        }
+        if (queryType == QueryType.OTHER) {
+            // e.g. TRUNCATE, MERGE, DDL. Drop everything for safety when referenced tables are cached.
+            String fingerprint = QueryUtils.getQueryFingerprint(query);
+            if (!(fingerprint.startsWith("truncate") || fingerprint.startsWith("merge")
+                    || fingerprint.startsWith("drop") || fingerprint.startsWith("alter"))) {
+                return null;
+            }
+        }
+        return QueryUtils.getTableNames(query);
+    }
+
+    /**
+     * Invalidate entries referencing given table.
+     *
+     * @param tableName table name (case insensitive, without schema)
+     */
+    public void invalidate(String tableName) {
+        this.generation.incrementAndGet();
+        Set<CacheEntry> tableEntries = this.entriesByTable.get(tableName.toLowerCase());
+        if (tableEntries == null) {
+            return;
+        }
+        for (CacheEntry entry : tableEntries) {
+            if (removeEntry(entry)) {
+                this.invalidationCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Invalidate entries for given query regardless of parameter values.
+     *
+     * @param query query
+     */
+    public void invalidateQuery(String query) {
+        this.generation.incrementAndGet();
+        String fingerprint = QueryUtils.getQueryFingerprint(query);
+        for (CacheEntry entry : this.entries.values()) {
+            if (fingerprint.equals(QueryUtils.getQueryFingerprint(entry.key.query)) && removeEntry(entry)) {
+                this.invalidationCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Invalidate all entries.
+     */
+    public void invalidateAll() {
+        this.generation.incrementAndGet();
+        for (CacheEntry entry : this.entries.values()) {
+            if (removeEntry(entry)) {
+                this.invalidationCount.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean removeEntry(CacheEntry entry) {
+        removeFromTables(entry);
+        if (!this.entries.remove(entry.key, entry)) {
+            return false;
+        }
+        this.currentBytes.addAndGet(-entry.estimatedBytes);
+        return true;
+    }
+
+    private void removeFromTables(CacheEntry entry) {
+        for (String tableName : entry.tableNames) {
+            Set<CacheEntry> tableEntries = this.entriesByTable.get(tableName);
+            if (tableEntries != null) {
+                tableEntries.remove(entry);
+            }
+        }
+    }
+
+    private boolean isOverLimit() {
+        return this.entries.size() > this.maxEntries || this.currentBytes.get() > this.maxBytes;
+    }
+
+    private void evictIfNecessary() {
+        // only one thread evicts. others do not wait for it.
+        if (!isOverLimit() || !this.evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            List<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>(this.entries.size());
+            long now = System.currentTimeMillis();
+            for (CacheEntry entry : this.entries.values()) {
+                if (entry.expireAt <= now) {
+                    if (removeEntry(entry)) {
+                        this.expirationCount.incrementAndGet();
+                    }
+                } else {
+                    candidates.add(new EvictionCandidate(entry));
+                }
+            }
+            Collections.sort(candidates);
+            for (EvictionCandidate candidate : candidates) {
+                if (!isOverLimit()) {
+                    break;
+                }
+                if (removeEntry(candidate.entry)) {
+                    this.evictionCount.incrementAndGet();
+                }
+            }
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    private ResultSet createResultSet(CacheEntry entry, Statement statement) {
+        ResultSetProxyLogic logic = RepeatableReadResultSetProxyLogic.Builder.create()
+                .statement(statement)
+                .cachedResults(entry.rows)
+                .resultSetMetaData(entry.metaData)
+                .columnNameToIndex(entry.columnNameToIndex)
+                .columnCount(entry.columnCount)
+                .build();
+        return createResultSet(logic);
+    }
+
+    private ResultSet createResultSet(ResultSetProxyLogic logic) {
+        return (ResultSet) Proxy.newProxyInstance(ProxyJdbcObject.class.getClassLoader(),
+                new Class<?>[]{ProxyJdbcObject.class, ResultSet.class},
+                new ResultSetInvocationHandler(logic));
+    }
+
+    private long estimateSize(Object[] row) {
+        long size = 16 + 8L * row.length;
+        for (Object value : row) {
+            if (value == null) {
+                continue;
+            }
+            if (value instanceof String) {
+                size += 40 + 2L * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else {
+                size += 32;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Result set for a result too large to cache. Replays rows already read, then delegates to the actual result
+     * set positioned at the last read row.
+     */
+    private static class OverflowResultSetProxyLogic implements ResultSetProxyLogic {
+
+        private List<Object[]> rows;  // released when replay finished
+        private final Map<String, Integer> columnNameToIndex;
+        private final ResultSet resultSet;
+        private int rowIndex = -1;
+        private Object lastValue;
+
+        private OverflowResultSetProxyLogic(List<Object[]> rows, Map<String, Integer> columnNameToIndex, ResultSet resultSet) {
+            this.rows = rows;
+            this.columnNameToIndex = columnNameToIndex;
+            this.resultSet = resultSet;
+        }
+
+        @Override
+        public Object invoke(Method method, Object[] args) throws Throwable {
+            final String methodName = method.getName();
+            if ("getTarget".equals(methodName)) {
+                return this.resultSet;
+            }
+            if (this.rows == null || "toString".equals(methodName) || "close".equals(methodName)
+                    || "isClosed".equals(methodName) || "getMetaData".equals(methodName)) {
+                return MethodUtils.proceedExecution(method, this.resultSet, args);
+            }
+
+            if ("next".equals(methodName)) {
+                if (this.rowIndex < this.rows.size() - 1) {
+                    this.rowIndex++;
+                    return true;
+                }
+                this.rows = null;  // the actual result set is on the last replayed row
+                return this.resultSet.next();
+            }
+            if ("wasNull".equals(methodName) && this.rowIndex >= 0) {
+                return this.lastValue == null;
+            }
+            if (methodName.startsWith("get") && args != null && args.length > 0
+                    && (args[0] instanceof Integer || args[0] instanceof String)) {
+                if (this.rowIndex < 0) {
+                    throw new SQLException("Result set not advanced. Call next before any get method!");
+                }
+                Object value = this.rows.get(this.rowIndex)[getColumnIndex(args[0])];
+                this.lastValue = value;
+                Class<?> requiredType = method.getReturnType();
+                if (args.length == 2 && args[1] instanceof Class) {
+                    requiredType = (Class<?>) args[1];  // getObject(int, Class) and getObject(String, Class)
+                }
+                return ResultSetValueConverter.convert(value, requiredType);
+            }
+            return MethodUtils.proceedExecution(method, this.resultSet, args);
+        }
+
+        private int getColumnIndex(Object lookup) throws SQLException {
+            if (lookup instanceof Integer) {
+                return (Integer) lookup;
+            }
+            Integer index = this.columnNameToIndex.get(((String) lookup).toUpperCase());
+            if (index == null) {
+                throw new SQLException("Unknown column name '" + lookup + "'");
+            }
+            return index;
+        }
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    public long getExpirationCount() {
+        return this.expirationCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return this.invalidationCount.get();
+    }
+
+    public int getSize() {
+        return this.entries.size();
+    }
+
+    public long getEstimatedBytes() {
+        return this.currentBytes.get();
+    }
+
+    /**
+     * Reset hit/miss/eviction/expiration/invalidation counts.
+     */
+    public void resetMetrics() {
+        this.hitCount.set(0);
+        this.missCount.set(0);
+        this.evictionCount.set(0);
+        this.expirationCount.set(0);
+        this.invalidationCount.set(0);
+    }
+
+    public QueryResultCachePolicy getPolicy() {
+        return policy;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param maxEntries maximum number of cached entries. Default is {@code 1000}.
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param maxBytes maximum estimated size of cached rows in bytes. Default is 16MB.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public int getMaxRowsPerEntry() {
+        return maxRowsPerEntry;
+    }
+
+    /**
+     * Results having more rows are returned but not stored.
+     *
+     * @param maxRowsPerEntry maximum number of rows to cache per query. Default is {@code 1000}.
+     */
+    public void setMaxRowsPerEntry(int maxRowsPerEntry) {
+        this.maxRowsPerEntry = maxRowsPerEntry;
+    }
+
+}
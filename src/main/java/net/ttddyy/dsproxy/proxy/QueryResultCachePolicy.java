@@ -0,0 +1,20 @@
+package net.ttddyy.dsproxy.proxy;
+
+/**
+ * Decides whether the result of a query can be cached by {@link QueryResultCache} and for how long.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see DefaultQueryResultCachePolicy
+ * @since 1.4.5
+ */
+public interface QueryResultCachePolicy {
+
+    /**
+     * Returns time-to-live in milliseconds for the result of given query.
+     *
+     * @param query executed query
+     * @return time-to-live in milliseconds. {@code 0} or negative value means the result is not cacheable.
+     */
+    long getTimeToLive(String query);
+
+}
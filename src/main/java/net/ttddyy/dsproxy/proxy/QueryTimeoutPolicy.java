@@ -0,0 +1,308 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryType;
+import net.ttddyy.dsproxy.listener.QueryUtils;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Query timeouts applied by the proxy to statements that do not set one.
+ *
+ * <p>When this policy is set to {@link ProxyConfig}, statement executions call
+ * {@link Statement#setQueryTimeout(int)} with the timeout for the query, unless the application has called
+ * {@code setQueryTimeout} on the statement. The timeout is resolved from the query fingerprint, then from the
+ * {@link QueryType}, then falls back to the default timeout. Timeouts are in seconds as in JDBC; {@code 0} means no
+ * timeout.
+ *
+ * <p>Some drivers ignore query timeouts. When {@link #setWatchdogEnabled(boolean) watchdog} is enabled, executions
+ * with a timeout are also tracked, and a background thread calls {@link Statement#cancel()} on executions still
+ * running after the timeout plus {@link #setWatchdogGracePeriod(long, TimeUnit) grace period}. Starting and finishing
+ * an execution only puts and removes an entry in a concurrent map.
+ *
+ * <p>Failed executions are reported by {@link ExecutionInfo#isCancelled()} when the statement was cancelled during the
+ * execution, either by the watchdog or by the application, and otherwise by {@link ExecutionInfo#isTimedOut()} when
+ * {@link #isTimeout(Throwable)} matches the thrown exception.
+ *
+ * <p>Timeouts should be configured before the policy is used, since prepared statements resolve their timeout once.
+ *
+ * <pre>
+ * QueryTimeoutPolicy policy = new QueryTimeoutPolicy(30);
+ * policy.setQueryTypeTimeout(QueryType.SELECT, 10);
+ * policy.setFingerprintTimeout("SELECT * FROM report WHERE year = ?", 120);
+ * policy.setWatchdogEnabled(true);
+ * DataSource ds = ProxyDataSourceBuilder.create(actualDataSource).queryTimeout(policy).build();
+ * </pre>
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class QueryTimeoutPolicy {
+
+    public static final long DEFAULT_WATCHDOG_GRACE_PERIOD = 1000;  // millis
+
+    /**
+     * An execution tracked by the watchdog.
+     */
+    public static class Watch {
+        private final Statement statement;
+        private final long deadline;
+        private volatile boolean cancelled;
+
+        Watch(Statement statement, long deadline) {
+            this.statement = statement;
+            this.deadline = deadline;
+        }
+
+        public Statement getStatement() {
+            return statement;
+        }
+
+        /**
+         * @return {@code true} when the watchdog has cancelled the execution
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private volatile int defaultTimeout;
+    private final Map<String, Integer> fingerprintTimeouts = new ConcurrentHashMap<String, Integer>();
+    private final Integer[] queryTypeTimeouts = new Integer[QueryType.values().length];
+    private volatile boolean hasQueryTypeTimeout;
+
+    private volatile boolean watchdogEnabled;
+    private volatile long watchdogGracePeriod = TimeUnit.MILLISECONDS.toNanos(DEFAULT_WATCHDOG_GRACE_PERIOD);
+    protected boolean useDaemonThread = true;
+    protected ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setDaemon(QueryTimeoutPolicy.this.useDaemonThread);
+            return thread;
+        }
+    });
+    protected Set<Watch> watches = Collections.newSetFromMap(new ConcurrentHashMap<Watch, Boolean>());
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicLong cancelCount = new AtomicLong();
+
+    /**
+     * @param defaultTimeout timeout in seconds for queries without a specific timeout. {@code 0} for no timeout.
+     */
+    public QueryTimeoutPolicy(int defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    /**
+     * Set a timeout for queries having the same fingerprint as the given query.
+     *
+     * @param query   a query. its fingerprint is used.
+     * @param timeout timeout in seconds. {@code 0} for no timeout.
+     * @see QueryUtils#getQueryFingerprint(String)
+     */
+    public void setFingerprintTimeout(String query, int timeout) {
+        this.fingerprintTimeouts.put(QueryUtils.getQueryFingerprint(query), timeout);
+    }
+
+    /**
+     * Set a timeout for queries of the given type.
+     *
+     * @param queryType query type
+     * @param timeout   timeout in seconds. {@code 0} for no timeout.
+     */
+    public void setQueryTypeTimeout(QueryType queryType, int timeout) {
+        this.queryTypeTimeouts[queryType.ordinal()] = timeout;
+        this.hasQueryTypeTimeout = true;
+    }
+
+    /**
+     * Resolve the timeout for the query.
+     *
+     * @param query a query. can be {@code null}.
+     * @return timeout in seconds. {@code 0} for no timeout.
+     */
+    public int getTimeout(String query) {
+        if (query != null) {
+            if (!this.fingerprintTimeouts.isEmpty()) {
+                Integer timeout = this.fingerprintTimeouts.get(QueryUtils.getQueryFingerprint(query));
+                if (timeout != null) {
+                    return timeout;
+                }
+            }
+            if (this.hasQueryTypeTimeout) {
+                Integer timeout = this.queryTypeTimeouts[QueryUtils.getQueryType(query).ordinal()];
+                if (timeout != null) {
+                    return timeout;
+                }
+            }
+        }
+        return this.defaultTimeout;
+    }
+
+    /**
+     * Start watching an execution.
+     *
+     * @param statement statement to cancel
+     * @param timeout   query timeout of the execution in seconds
+     * @return a watch to pass to {@link #unwatch(Watch)}. {@code null} if the execution is not watched.
+     */
+    public Watch watch(Statement statement, int timeout) {
+        if (!this.watchdogEnabled || timeout <= 0) {
+            return null;
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout) + this.watchdogGracePeriod;
+        Watch watch = new Watch(statement, deadline);
+        this.watches.add(watch);
+        if (this.started.compareAndSet(false, true)) {
+            startChecking();
+        }
+        return watch;
+    }
+
+    /**
+     * Stop watching an execution that has returned.
+     *
+     * @param watch a watch from {@link #watch(Statement, int)}. can be {@code null}.
+     */
+    public void unwatch(Watch watch) {
+        if (watch != null) {
+            this.watches.remove(watch);
+        }
+    }
+
+    protected void startChecking() {
+        long interval = Math.max(TimeUnit.NANOSECONDS.toMillis(this.watchdogGracePeriod) / 2, 10);
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkTimeouts();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel watched executions that are running past their deadline.
+     */
+    public void checkTimeouts() {
+        long now = System.nanoTime();
+        for (Watch watch : this.watches) {
+            if (now - watch.deadline >= 0 && this.watches.remove(watch)) {
+                watch.cancelled = true;
+                this.cancelCount.incrementAndGet();
+                try {
+                    watch.statement.cancel();
+                } catch (SQLException ex) {
+                    // execution may have finished meanwhile, or the driver does not support cancel
+                } catch (RuntimeException ex) {
+                    // keep checking other executions
+                }
+            }
+        }
+    }
+
+    /**
+     * Record why a failed execution has been aborted.
+     *
+     * @param execInfo        execution info of the failed execution
+     * @param thrown          exception thrown by the execution
+     * @param policy          query timeout policy. can be {@code null}.
+     * @param watch           watch of the execution. can be {@code null}.
+     * @param cancelRequested whether {@link Statement#cancel()} was called during the execution
+     */
+    static void setAbortReason(ExecutionInfo execInfo, Throwable thrown, QueryTimeoutPolicy policy, Watch watch, boolean cancelRequested) {
+        if (cancelRequested || (watch != null && watch.cancelled)) {
+            execInfo.setCancelled(true);
+        } else if (policy != null ? policy.isTimeout(thrown) : thrown instanceof SQLTimeoutException) {
+            execInfo.setTimedOut(true);
+        }
+    }
+
+    /**
+     * Whether the exception thrown by an execution means the query timeout has expired.
+     *
+     * Default implementation matches {@link SQLTimeoutException}. Override for drivers that report timeouts
+     * differently.
+     *
+     * @param throwable exception thrown by the execution
+     * @return {@code true} when the execution timed out
+     */
+    public boolean isTimeout(Throwable throwable) {
+        return throwable instanceof SQLTimeoutException;
+    }
+
+    public int getDefaultTimeout() {
+        return defaultTimeout;
+    }
+
+    public void setDefaultTimeout(int defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    public boolean isWatchdogEnabled() {
+        return watchdogEnabled;
+    }
+
+    /**
+     * Cancel executions running past their timeout, for drivers that ignore query timeouts.
+     *
+     * @param watchdogEnabled enable watchdog or not. (default is false)
+     */
+    public void setWatchdogEnabled(boolean watchdogEnabled) {
+        this.watchdogEnabled = watchdogEnabled;
+    }
+
+    public long getWatchdogGracePeriod(TimeUnit unit) {
+        return unit.convert(this.watchdogGracePeriod, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time to wait after the query timeout before the watchdog cancels an execution, so that drivers honoring the
+     * timeout abort the execution themselves.
+     *
+     * @param watchdogGracePeriod grace period
+     * @param unit                time unit
+     */
+    public void setWatchdogGracePeriod(long watchdogGracePeriod, TimeUnit unit) {
+        this.watchdogGracePeriod = unit.toNanos(watchdogGracePeriod);
+    }
+
+    /**
+     * @return number of executions cancelled by the watchdog
+     */
+    public long getCancelCount() {
+        return this.cancelCount.get();
+    }
+
+    /**
+     * @return number of executions currently watched
+     */
+    public int getWatchedCount() {
+        return this.watches.size();
+    }
+
+    public ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * When set to {@code true}(default), the executor creates daemon threads to cancel executions.
+     *
+     * @param useDaemonThread use daemon thread or not. (default is true)
+     */
+    public void setUseDaemonThread(boolean useDaemonThread) {
+        this.useDaemonThread = useDaemonThread;
+    }
+
+}
@@ -0,0 +1,53 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.transform.CachingQueryTransformer;
+import net.ttddyy.dsproxy.transform.DeterministicQueryTransformer;
+import net.ttddyy.dsproxy.transform.NoOpParameterTransformer;
+import net.ttddyy.dsproxy.transform.NoOpQueryTransformer;
+import net.ttddyy.dsproxy.transform.ParameterTransformer;
+import net.ttddyy.dsproxy.transform.QueryTransformer;
+import net.ttddyy.dsproxy.transform.TransformInfo;
+
+import java.sql.Statement;
+
+/**
+ * Call {@link QueryTransformer} without creating {@link TransformInfo} when the transformer does nothing or the
+ * result is cached by {@link CachingQueryTransformer}.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+class QueryTransformerUtils {
+
+    static String transformQuery(QueryTransformer queryTransformer, Class<? extends Statement> clazz,
+                                 String dataSourceName, String query, boolean batch, int count) {
+        if (isNoOp(queryTransformer)) {
+            return query;
+        }
+        if (queryTransformer instanceof CachingQueryTransformer) {
+            String cached = ((CachingQueryTransformer) queryTransformer).getCachedQuery(clazz, dataSourceName, query, batch);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        TransformInfo transformInfo = new TransformInfo(clazz, dataSourceName, query, batch, count);
+        return queryTransformer.transformQuery(transformInfo);
+    }
+
+    static boolean isNoOp(QueryTransformer queryTransformer) {
+        return queryTransformer.getClass() == NoOpQueryTransformer.class;
+    }
+
+    static boolean isNoOp(ParameterTransformer parameterTransformer) {
+        return parameterTransformer.getClass() == NoOpParameterTransformer.class;
+    }
+
+    /**
+     * @param queryTransformer query transformer
+     * @return {@code true} if the same query always transforms to the same result
+     */
+    static boolean isDeterministic(QueryTransformer queryTransformer) {
+        return isNoOp(queryTransformer) || queryTransformer instanceof DeterministicQueryTransformer;
+    }
+
+}
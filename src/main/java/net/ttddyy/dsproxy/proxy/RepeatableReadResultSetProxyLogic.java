@@ -2,11 +2,16 @@ package net.ttddyy.dsproxy.proxy;
 
 import net.ttddyy.dsproxy.ConnectionInfo;
 import net.ttddyy.dsproxy.listener.MethodExecutionListenerUtils;
+import net.ttddyy.dsproxy.proxy.jdk.ResultSetInvocationHandler;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -45,6 +50,9 @@ public class RepeatableReadResultSetProxyLogic implements ResultSetProxyLogic {
         private ProxyConfig proxyConfig;
         private Map<String, Integer> columnNameToIndex;
         private int columnCount;
+        private List<Object[]> cachedResults;
+        private ResultSetMetaData resultSetMetaData;
+        private Statement statement;
 
         public static Builder create() {
             return new Builder();
@@ -57,6 +65,14 @@ public class RepeatableReadResultSetProxyLogic implements ResultSetProxyLogic {
             logic.proxyConfig = this.proxyConfig;
             logic.columnNameToIndex = this.columnNameToIndex;
             logic.columnCount = this.columnCount;
+            if (this.cachedResults != null) {
+                // detached mode. all rows are already available.
+                logic.cachedResults.addAll(this.cachedResults);
+                logic.resultSetConsumed = true;
+                logic.resultPointer = -1;
+            }
+            logic.resultSetMetaData = this.resultSetMetaData;
+            logic.statement = this.statement;
             return logic;
         }
 
@@ -84,6 +100,39 @@ public class RepeatableReadResultSetProxyLogic implements ResultSetProxyLogic {
             this.columnCount = columnCount;
             return this;
         }
+
+        /**
+         * Pre-populate rows to replay. When specified, the logic works without underlying {@link ResultSet}.
+         * Each row is an array of column values whose index 0 is unused(column index is 1 origin).
+         *
+         * @param cachedResults rows to replay
+         * @return builder
+         * @since 1.4.5
+         */
+        public Builder cachedResults(List<Object[]> cachedResults) {
+            this.cachedResults = cachedResults;
+            return this;
+        }
+
+        /**
+         * @param resultSetMetaData metadata to return from {@link ResultSet#getMetaData()} when there is no underlying result set
+         * @return builder
+         * @since 1.4.5
+         */
+        public Builder resultSetMetaData(ResultSetMetaData resultSetMetaData) {
+            this.resultSetMetaData = resultSetMetaData;
+            return this;
+        }
+
+        /**
+         * @param statement statement to return from {@link ResultSet#getStatement()} when there is no underlying result set
+         * @return builder
+         * @since 1.4.5
+         */
+        public Builder statement(Statement statement) {
+            this.statement = statement;
+            return this;
+        }
     }
 
     private Map<String, Integer> columnNameToIndex;
@@ -91,22 +140,29 @@ public class RepeatableReadResultSetProxyLogic implements ResultSetProxyLogic {
     private ConnectionInfo connectionInfo;
     private int columnCount;
     private ProxyConfig proxyConfig;
+    private ResultSetMetaData resultSetMetaData;
+    private Statement statement;
 
     private int resultPointer;
     private boolean resultSetConsumed;
     private boolean closed;
     private Object[] currentResult;
+    private Object lastValue;
     private final List<Object[]> cachedResults = new ArrayList<Object[]>();
 
 
     @Override
     public Object invoke(Method method, Object[] args) throws Throwable {
+        if (this.proxyConfig == null) {
+            // detached result set without config
+            return performQueryExecutionListener(method, args);
+        }
         return MethodExecutionListenerUtils.invoke(new MethodExecutionListenerUtils.MethodExecutionCallback() {
             @Override
             public Object execute(Object proxyTarget, Method method, Object[] args) throws Throwable {
                 return performQueryExecutionListener(method, args);
             }
-        }, this.proxyConfig, this.resultSet, this.connectionInfo, method, args);
+        }, this.proxyConfig.getLatest(), this.resultSet, this.connectionInfo, method, args);
     }
 
     private Object performQueryExecutionListener(Method method, Object[] args) throws Throwable {
@@ -114,6 +170,10 @@ public class RepeatableReadResultSetProxyLogic implements ResultSetProxyLogic {
 
         final String methodName = method.getName();
 
+        if (this.resultSet == null) {
+            return handleDetached(method, args);
+        }
+
         if (!METHODS_TO_INTERCEPT.contains(methodName)) {
             return MethodUtils.proceedExecution(method, this.resultSet, args);
         }
@@ -139,12 +199,18 @@ public class RepeatableReadResultSetProxyLogic implements ResultSetProxyLogic {
             closed = true;
             return method.invoke(resultSet, args);
         }
+        if (isIsClosedMethod(method)) {
+            return closed;
+        }
         if (closed) {
             throw new SQLException("Already closed");
         }
         if (resultSetConsumed) {
             if (isGetMethod(method)) {
-                return handleGetMethodUsingCache(args);
+                return handleGetMethodUsingCache(method, args);
+            }
+            if (isWasNullMethod(method)) {
+                return lastValue == null;
             }
             if (isNextMethod(method)) {
                 return handleNextMethodUsingCache();
@@ -156,6 +222,9 @@ public class RepeatableReadResultSetProxyLogic implements ResultSetProxyLogic {
             if (isNextMethod(method)) {
                 return handleNextMethodByDelegating(method, args);
             }
+            if (isWasNullMethod(method)) {
+                return method.invoke(resultSet, args);
+            }
             if (isBeforeFirstMethod(method)) {
                 resultPointer = -1;
                 resultSetConsumed = true;
@@ -165,6 +234,81 @@ public class RepeatableReadResultSetProxyLogic implements ResultSetProxyLogic {
         throw new UnsupportedOperationException(format("Method '%s' is not supported by this proxy", method));
     }
 
+    /**
+     * Handle invocations without underlying {@link ResultSet}. All rows are in {@link #cachedResults}.
+     */
+    private Object handleDetached(Method method, Object[] args) throws Throwable {
+        final String methodName = method.getName();
+
+        // Object methods. the logic is bound to one proxy, so identity of the logic is identity of the proxy.
+        if ("toString".equals(methodName)) {
+            return "DetachedResultSet [rows=" + this.cachedResults.size() + "]";
+        } else if ("hashCode".equals(methodName)) {
+            return System.identityHashCode(this);
+        } else if ("equals".equals(methodName)) {
+            Object other = args[0];
+            return other != null && Proxy.isProxyClass(other.getClass())
+                    && Proxy.getInvocationHandler(other) instanceof ResultSetInvocationHandler
+                    && ((ResultSetInvocationHandler) Proxy.getInvocationHandler(other)).getDelegate() == this;
+        } else if ("getTarget".equals(methodName)) {
+            return null;
+        }
+
+        if (isCloseMethod(method)) {
+            this.closed = true;
+            return null;
+        } else if (isIsClosedMethod(method)) {
+            return this.closed;
+        }
+        if (this.closed) {
+            throw new SQLException("Already closed");
+        }
+
+        if (isGetMethod(method)) {
+            return handleGetMethodUsingCache(method, args);
+        } else if (isNextMethod(method)) {
+            return handleNextMethodUsingCache();
+        } else if (isWasNullMethod(method)) {
+            return this.lastValue == null;
+        } else if (isBeforeFirstMethod(method)) {
+            this.resultPointer = -1;
+            this.currentResult = null;
+            return null;
+        } else if (isGetMetaDataMethod(method)) {
+            return this.resultSetMetaData;
+        } else if ("getStatement".equals(methodName)) {
+            return this.statement;
+        } else if ("findColumn".equals(methodName)) {
+            return determineColumnIndex(args);
+        } else if ("getRow".equals(methodName)) {
+            return this.resultPointer >= 0 && this.resultPointer < this.cachedResults.size() ? this.resultPointer + 1 : 0;
+        } else if ("isBeforeFirst".equals(methodName)) {
+            return this.resultPointer == -1 && !this.cachedResults.isEmpty();
+        } else if ("isAfterLast".equals(methodName)) {
+            return this.resultPointer >= this.cachedResults.size() && !this.cachedResults.isEmpty();
+        } else if ("isFirst".equals(methodName)) {
+            return this.resultPointer == 0 && !this.cachedResults.isEmpty();
+        } else if ("isLast".equals(methodName)) {
+            return this.resultPointer >= 0 && this.resultPointer == this.cachedResults.size() - 1;
+        } else if ("getWarnings".equals(methodName) || "clearWarnings".equals(methodName)
+                || "setFetchSize".equals(methodName) || "setFetchDirection".equals(methodName)) {
+            return null;
+        } else if ("getFetchSize".equals(methodName)) {
+            return 0;
+        } else if ("getFetchDirection".equals(methodName)) {
+            return ResultSet.FETCH_FORWARD;
+        } else if ("getType".equals(methodName)) {
+            return ResultSet.TYPE_FORWARD_ONLY;
+        } else if ("getConcurrency".equals(methodName)) {
+            return ResultSet.CONCUR_READ_ONLY;
+        } else if ("getHoldability".equals(methodName)) {
+            return ResultSet.HOLD_CURSORS_OVER_COMMIT;  // rows do not depend on the transaction
+        } else if ("isWrapperFor".equals(methodName)) {
+            return ((Class<?>) args[0]).isAssignableFrom(ResultSet.class);
+        }
+        throw new SQLFeatureNotSupportedException(format("Method '%s' is not supported by detached result set", method));
+    }
+
     private Object handleNextMethodByDelegating(Method method, Object[] args) throws IllegalAccessException, InvocationTargetException {
         Object result = method.invoke(resultSet, args);
         if (TRUE.equals(result)) {
@@ -193,12 +337,18 @@ public class RepeatableReadResultSetProxyLogic implements ResultSetProxyLogic {
         }
     }
 
-    private Object handleGetMethodUsingCache(Object[] args) throws SQLException {
+    private Object handleGetMethodUsingCache(Method method, Object[] args) throws SQLException {
         if (resultPointer == -1) {
             throw new SQLException("Result set not advanced. Call next before any get method!");
         } else if (resultPointer < cachedResults.size()) {
             int columnIndex = determineColumnIndex(args);
-            return currentResult[columnIndex];
+            Object value = currentResult[columnIndex];
+            lastValue = value;
+            Class<?> requiredType = method.getReturnType();
+            if (args.length == 2 && args[1] instanceof Class) {
+                requiredType = (Class<?>) args[1];  // getObject(int, Class) and getObject(String, Class)
+            }
+            return ResultSetValueConverter.convert(value, requiredType);
         } else {
             throw new SQLException(format("Result set exhausted. There were %d result(s) only", cachedResults.size()));
         }
@@ -216,6 +366,14 @@ public class RepeatableReadResultSetProxyLogic implements ResultSetProxyLogic {
         return method.getName().startsWith("get") && method.getParameterTypes().length > 0;
     }
 
+    private boolean isIsClosedMethod(Method method) {
+        return method.getName().equals("isClosed");
+    }
+
+    private boolean isWasNullMethod(Method method) {
+        return method.getName().equals("wasNull");
+    }
+
     private boolean isNextMethod(Method method) {
         return method.getName().equals("next");
     }
@@ -0,0 +1,119 @@
+package net.ttddyy.dsproxy.proxy;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+
+/**
+ * Converts a cached column value to the type required by the {@link java.sql.ResultSet} getter used to replay it.
+ *
+ * <p>Values are retrieved from the actual result set in whatever form it was first accessed (or via
+ * {@code getObject}), so replaying them through a different getter (e.g. {@code getLong} on an {@code Integer})
+ * requires a lenient conversion similar to what JDBC drivers do.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+class ResultSetValueConverter {
+
+    static Object convert(Object value, Class<?> requiredType) throws SQLException {
+        if (requiredType.isPrimitive()) {
+            return convertToPrimitive(value, requiredType);
+        }
+        if (value == null || requiredType == Object.class || requiredType.isInstance(value)) {
+            return value;
+        }
+
+        if (requiredType == String.class) {
+            return value.toString();
+        }
+        if (Number.class.isAssignableFrom(requiredType)) {
+            return convertToNumber(value, requiredType);
+        }
+        if (requiredType == Boolean.class) {
+            return toBoolean(value);
+        }
+        if (value instanceof java.util.Date) {
+            long time = ((java.util.Date) value).getTime();
+            if (requiredType == java.sql.Timestamp.class) {
+                return new java.sql.Timestamp(time);
+            } else if (requiredType == java.sql.Date.class) {
+                return new java.sql.Date(time);
+            } else if (requiredType == java.sql.Time.class) {
+                return new java.sql.Time(time);
+            }
+        }
+        throw new SQLException("Cannot convert " + value.getClass().getName() + " to " + requiredType.getName());
+    }
+
+    private static Object convertToPrimitive(Object value, Class<?> requiredType) throws SQLException {
+        if (requiredType == boolean.class) {
+            return value == null ? Boolean.FALSE : toBoolean(value);
+        }
+        Number number = value == null ? Integer.valueOf(0) : toNumber(value);
+        if (requiredType == int.class) {
+            return number.intValue();
+        } else if (requiredType == long.class) {
+            return number.longValue();
+        } else if (requiredType == double.class) {
+            return number.doubleValue();
+        } else if (requiredType == float.class) {
+            return number.floatValue();
+        } else if (requiredType == short.class) {
+            return number.shortValue();
+        } else if (requiredType == byte.class) {
+            return number.byteValue();
+        }
+        throw new SQLException("Cannot convert " + value + " to " + requiredType.getName());
+    }
+
+    private static Object convertToNumber(Object value, Class<?> requiredType) throws SQLException {
+        Number number = toNumber(value);
+        if (requiredType == BigDecimal.class) {
+            return number instanceof BigDecimal ? number : new BigDecimal(number.toString());
+        } else if (requiredType == BigInteger.class) {
+            return new BigDecimal(number.toString()).toBigInteger();
+        } else if (requiredType == Integer.class) {
+            return number.intValue();
+        } else if (requiredType == Long.class) {
+            return number.longValue();
+        } else if (requiredType == Double.class) {
+            return number.doubleValue();
+        } else if (requiredType == Float.class) {
+            return number.floatValue();
+        } else if (requiredType == Short.class) {
+            return number.shortValue();
+        } else if (requiredType == Byte.class) {
+            return number.byteValue();
+        }
+        return number;
+    }
+
+    private static Number toNumber(Object value) throws SQLException {
+        if (value instanceof Number) {
+            return (Number) value;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        } else if (value instanceof String) {
+            try {
+                return new BigDecimal(((String) value).trim());
+            } catch (NumberFormatException ex) {
+                throw new SQLException("Cannot convert '" + value + "' to number");
+            }
+        }
+        throw new SQLException("Cannot convert " + value.getClass().getName() + " to number");
+    }
+
+    private static Boolean toBoolean(Object value) throws SQLException {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        } else if (value instanceof String) {
+            String str = ((String) value).trim();
+            return "true".equalsIgnoreCase(str) || "1".equals(str) || "y".equalsIgnoreCase(str);
+        }
+        throw new SQLException("Cannot convert " + value.getClass().getName() + " to boolean");
+    }
+
+}
@@ -31,7 +31,7 @@ public class SimpleResultSetProxyLogic implements ResultSetProxyLogic {
             public Object execute(Object proxyTarget, Method method, Object[] args) throws Throwable {
                 return performQueryExecutionListener(method, args);
             }
-        }, this.proxyConfig, this.resultSet, this.connectionInfo, method, args);
+        }, this.proxyConfig.getLatest(), this.resultSet, this.connectionInfo, method, args);
     }
 
     private Object performQueryExecutionListener(Method method, Object[] args) throws Throwable {
@@ -5,13 +5,15 @@ import net.ttddyy.dsproxy.ExecutionInfo;
 import net.ttddyy.dsproxy.QueryInfo;
 import net.ttddyy.dsproxy.listener.MethodExecutionListenerUtils;
 import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.listener.QueryUtils;
 import net.ttddyy.dsproxy.transform.QueryTransformer;
-import net.ttddyy.dsproxy.transform.TransformInfo;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -43,6 +45,7 @@ public class StatementProxyLogic {
             StatementProxyLogic logic = new StatementProxyLogic();
             logic.stmt = this.stmt;
             logic.connectionInfo = this.connectionInfo;
+            logic.connectionState = ConnectionState.of(this.proxyConnection);
             logic.proxyConnection = this.proxyConnection;
             logic.proxyConfig = this.proxyConfig;
             return logic;
@@ -86,26 +89,45 @@ public class StatementProxyLogic {
 
     private Statement stmt;
     private ConnectionInfo connectionInfo;
+    private ConnectionState connectionState;  // null when the proxy connection is not available
     private List<String> batchQueries = new ArrayList<String>();
     private Connection proxyConnection;
     private ProxyConfig proxyConfig;
+    private boolean fetchSizeSpecified;
+    private String lastBatchQuery;
+    private QueryTransformer lastBatchQueryTransformer;
+    private String lastTransformedBatchQuery;
+    private ChunkedBatch chunkedBatch;  // non-null while a batch is executed in chunks
+    private boolean queryTimeoutSpecified;
+    private int queryTimeout;  // set by application or by query timeout policy
+    private volatile boolean cancelRequested;  // cancel can be called from other threads
 
 
     public Object invoke(Method method, Object[] args) throws Throwable {
 
+        final ProxyConfig proxyConfig = this.proxyConfig.getLatest();
         return MethodExecutionListenerUtils.invoke(new MethodExecutionListenerUtils.MethodExecutionCallback() {
             @Override
             public Object execute(Object proxyTarget, Method method, Object[] args) throws Throwable {
-                return performQueryExecutionListener(method, args);
+                return performQueryExecutionListener(method, args, proxyConfig);
             }
-        }, this.proxyConfig, this.stmt, this.connectionInfo, method, args);
+        }, proxyConfig, this.stmt, this.connectionInfo, method, args);
 
     }
 
-    private Object performQueryExecutionListener(Method method, Object[] args) throws Throwable {
+    private Object performQueryExecutionListener(Method method, Object[] args, ProxyConfig proxyConfig) throws Throwable {
 
         final String methodName = method.getName();
 
+        if ("setFetchSize".equals(methodName)) {
+            this.fetchSizeSpecified = true;
+        } else if ("setQueryTimeout".equals(methodName)) {
+            this.queryTimeoutSpecified = true;
+            this.queryTimeout = (Integer) args[0];
+        } else if ("cancel".equals(methodName)) {
+            this.cancelRequested = true;
+        }
+
         if (!METHODS_TO_INTERCEPT.contains(methodName)) {
             return MethodUtils.proceedExecution(method, stmt, args);
         }
@@ -125,9 +147,13 @@ public class StatementProxyLogic {
             return stmt;
         }
 
-        QueryExecutionListener queryListener = this.proxyConfig.getQueryListener();
-        QueryTransformer queryTransformer = this.proxyConfig.getQueryTransformer();
-        JdbcProxyFactory proxyFactory = this.proxyConfig.getJdbcProxyFactory();
+        QueryExecutionListener queryListener = proxyConfig.getQueryListener();
+        QueryTransformer queryTransformer = proxyConfig.getQueryTransformer();
+        JdbcProxyFactory proxyFactory = proxyConfig.getJdbcProxyFactory();
+        FetchSizeAdvisor fetchSizeAdvisor = proxyConfig.getFetchSizeAdvisor();
+        QueryResultCache queryResultCache = proxyConfig.getQueryResultCache();
+        final ConcurrencyLimiter concurrencyLimiter = proxyConfig.getConcurrencyLimiter();
+        final QueryTimeoutPolicy queryTimeoutPolicy = proxyConfig.getQueryTimeoutPolicy();
 
         if (StatementMethodNames.JDBC4_METHODS.contains(methodName)) {
             final Class<?> clazz = (Class<?>) args[0];
@@ -145,27 +171,52 @@ public class StatementProxyLogic {
         if ("addBatch".equals(methodName) || "clearBatch".equals(methodName)) {
             if ("addBatch".equals(methodName) && ObjectArrayUtils.isFirstArgString(args)) {
                 final String query = (String) args[0];
-                final Class<? extends Statement> clazz = Statement.class;
-                final int batchCount = batchQueries.size();
-                final TransformInfo transformInfo = new TransformInfo(clazz, this.connectionInfo.getDataSourceName(), query, true, batchCount);
-                final String transformedQuery = queryTransformer.transformQuery(transformInfo);
+                final String transformedQuery;
+                if (query.equals(this.lastBatchQuery) && queryTransformer == this.lastBatchQueryTransformer
+                        && QueryTransformerUtils.isDeterministic(queryTransformer)) {
+                    // reuse the result for repeated batch query
+                    transformedQuery = this.lastTransformedBatchQuery;
+                } else {
+                    final int batchCount = batchQueries.size();
+                    transformedQuery = QueryTransformerUtils.transformQuery(queryTransformer, Statement.class,
+                            this.connectionInfo.getDataSourceName(), query, true, batchCount);
+                    this.lastBatchQuery = query;
+                    this.lastBatchQueryTransformer = queryTransformer;
+                    this.lastTransformedBatchQuery = transformedQuery;
+                }
                 args[0] = transformedQuery;  // replace to the new query
                 batchQueries.add(transformedQuery);
             } else if ("clearBatch".equals(methodName)) {
                 batchQueries.clear();
+                this.chunkedBatch = null;
             }
 
             // proceed execution, no need to call listener
+            final Object retVal;
             try {
-                return method.invoke(stmt, args);
+                retVal = method.invoke(stmt, args);
             } catch (InvocationTargetException ex) {
                 throw ex.getTargetException();
             }
+            if ("addBatch".equals(methodName)) {
+                executeBatchChunkIfFull(proxyConfig);
+            }
+            return retVal;
         }
 
+        if (StatementMethodNames.EXEC_METHODS.contains(methodName)) {
+            // inserts buffered by auto-batching need to run before this statement
+            AutoBatching.flush(this.connectionState);
+        }
+
+        if (this.chunkedBatch != null && StatementMethodNames.BATCH_EXEC_METHODS.contains(methodName)) {
+            return executeLastBatchChunk(method, args, proxyConfig);
+        }
 
         final List<QueryInfo> queries = new ArrayList<QueryInfo>();
+        final boolean isExecuteQuery = "executeQuery".equals(methodName);
         boolean isBatchExecute = false;
+        String queryFingerprint = null;  // computed once per execution for fetch size advisor
         int batchSize = 0;
 
         if (StatementMethodNames.BATCH_EXEC_METHODS.contains(methodName)) {
@@ -181,28 +232,76 @@ public class StatementProxyLogic {
 
             if (ObjectArrayUtils.isFirstArgString(args)) {
                 final String query = (String) args[0];
-                final TransformInfo transformInfo = new TransformInfo(Statement.class, this.connectionInfo.getDataSourceName(), query, false, 0);
-                final String transformedQuery = queryTransformer.transformQuery(transformInfo);
+                final String transformedQuery = QueryTransformerUtils.transformQuery(queryTransformer, Statement.class,
+                        this.connectionInfo.getDataSourceName(), query, false, 0);
                 args[0] = transformedQuery; // replace to the new query
                 queries.add(new QueryInfo(transformedQuery));
+
+                if (isExecuteQuery && fetchSizeAdvisor != null) {
+                    queryFingerprint = QueryUtils.getQueryFingerprint(transformedQuery);
+                    if (fetchSizeAdvisor.isAutoApply() && !this.fetchSizeSpecified) {
+                        fetchSizeAdvisor.applyFetchSizeForFingerprint(this.stmt, queryFingerprint);
+                    }
+                }
             }
         }
 
+        int queryTimeout = 0;
+        if (queryTimeoutPolicy != null && StatementMethodNames.EXEC_METHODS.contains(methodName)) {
+            queryTimeout = applyQueryTimeout(queryTimeoutPolicy, queries);
+        }
+
         final ExecutionInfo execInfo = new ExecutionInfo(this.connectionInfo, this.stmt, isBatchExecute, batchSize, method, args);
 
         queryListener.beforeQuery(execInfo, queries);
 
         // Invoke method on original Statement.
+        final boolean limitConcurrency = concurrencyLimiter != null && StatementMethodNames.EXEC_METHODS.contains(methodName);
+        QueryTimeoutPolicy.Watch watch = null;
+        this.cancelRequested = false;
         try {
+            ConcurrencyLimiter.Limit subLimit = null;
+            if (limitConcurrency) {
+                subLimit = concurrencyLimiter.getSubLimit(queries.isEmpty() ? null : queries.get(0).getQuery());
+                concurrencyLimiter.acquire(subLimit, execInfo);
+            }
+
             final long beforeTime = System.currentTimeMillis();
 
-            Object retVal = method.invoke(stmt, args);
+            final long start = limitConcurrency ? System.nanoTime() : 0;
+            Object retVal;
+            try {
+                // inside of the try, so that the permit is released even when watching fails
+                if (queryTimeout > 0) {
+                    watch = queryTimeoutPolicy.watch(this.stmt, queryTimeout);
+                }
+                retVal = method.invoke(stmt, args);
+            } finally {
+                if (watch != null) {
+                    queryTimeoutPolicy.unwatch(watch);
+                }
+                if (limitConcurrency) {
+                    concurrencyLimiter.release(subLimit, System.nanoTime() - start);
+                }
+            }
 
             final long afterTime = System.currentTimeMillis();
 
+            if (queryResultCache != null) {
+                // invalidate cached results for modified tables
+                Boolean autoCommit = this.connectionInfo == null ? null : this.connectionInfo.getAutoCommit();
+                for (QueryInfo queryInfo : queries) {
+                    queryResultCache.onQuery(queryInfo.getQuery(), this.connectionState, autoCommit);
+                }
+            }
+
             // execInfo.setResult will have proxied ResultSet if enabled
             if (METHODS_TO_RETURN_RESULTSET.contains(methodName)) {
-                retVal = proxyFactory.createResultSet((ResultSet) retVal, this.connectionInfo, this.proxyConfig);
+                retVal = proxyFactory.createResultSet((ResultSet) retVal, this.connectionInfo, proxyConfig);
+                if (isExecuteQuery && fetchSizeAdvisor != null) {
+                    // count rows to learn fetch size
+                    retVal = fetchSizeAdvisor.wrapResultSetForFingerprint((ResultSet) retVal, queryFingerprint);
+                }
             }
 
             execInfo.setResult(retVal);
@@ -213,11 +312,68 @@ public class StatementProxyLogic {
         } catch (InvocationTargetException ex) {
             execInfo.setThrowable(ex.getTargetException());
             execInfo.setSuccess(false);
+            QueryTimeoutPolicy.setAbortReason(execInfo, ex.getTargetException(), queryTimeoutPolicy, watch, this.cancelRequested);
             throw ex.getTargetException();
+        } catch (ConcurrencyLimitExceededException ex) {
+            execInfo.setThrowable(ex);
+            execInfo.setSuccess(false);
+            throw ex;
         } finally {
             queryListener.afterQuery(execInfo, queries);
+            TransactionTracker.onExecution(this.connectionInfo, proxyConfig, execInfo, queries);
+        }
+
+    }
+
+    private int applyQueryTimeout(QueryTimeoutPolicy queryTimeoutPolicy, List<QueryInfo> queries) throws SQLException {
+        if (!this.queryTimeoutSpecified) {
+            int timeout = queryTimeoutPolicy.getTimeout(queries.isEmpty() ? null : queries.get(0).getQuery());
+            if (timeout != this.queryTimeout) {
+                this.stmt.setQueryTimeout(timeout);
+                this.queryTimeout = timeout;
+            }
+        }
+        return this.queryTimeout;
+    }
+
+    private void executeBatchChunkIfFull(ProxyConfig proxyConfig) throws Throwable {
+        BatchChunkPolicy batchChunkPolicy = proxyConfig.getBatchChunkPolicy();
+        if (batchChunkPolicy == null || this.batchQueries.size() < batchChunkPolicy.getChunkSize()
+                || !ChunkedBatch.isChunkable(this.stmt, this.connectionInfo)) {
+            return;
+        }
+
+        ChunkedBatch chunkedBatch = this.chunkedBatch == null ? new ChunkedBatch() : this.chunkedBatch;
+        this.chunkedBatch = null;  // execute the chunk as a plain batch
+        int size = this.batchQueries.size();
+        long start = System.nanoTime();
+        try {
+            chunkedBatch.add((int[]) performQueryExecutionListener(ChunkedBatch.EXECUTE_BATCH_METHOD, null, proxyConfig));
+        } catch (BatchUpdateException ex) {
+            throw chunkedBatch.toBatchUpdateException(ex);
         }
+        batchChunkPolicy.onChunkExecuted(size, System.nanoTime() - start);
+        this.chunkedBatch = chunkedBatch;
+    }
 
+    private Object executeLastBatchChunk(Method method, Object[] args, ProxyConfig proxyConfig) throws Throwable {
+        BatchChunkPolicy batchChunkPolicy = proxyConfig.getBatchChunkPolicy();
+        ChunkedBatch chunkedBatch = this.chunkedBatch;
+        this.chunkedBatch = null;
+        int size = this.batchQueries.size();
+        Object lastResult = null;
+        if (size > 0) {
+            long start = System.nanoTime();
+            try {
+                lastResult = performQueryExecutionListener(method, args, proxyConfig);
+            } catch (BatchUpdateException ex) {
+                throw chunkedBatch.toBatchUpdateException(ex);
+            }
+            if (batchChunkPolicy != null) {
+                batchChunkPolicy.onChunkExecuted(size, System.nanoTime() - start);
+            }
+        }
+        return chunkedBatch.complete(lastResult, batchChunkPolicy);
     }
 
 }
@@ -0,0 +1,127 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.ConnectionInfo;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.TransactionInfo;
+import net.ttddyy.dsproxy.listener.TransactionListener;
+
+import java.util.List;
+
+/**
+ * Track transaction boundaries of a connection and notify {@link TransactionListener}.
+ *
+ * State of the transaction is kept in {@link ConnectionInfo}. Methods in this class do nothing when
+ * {@link ProxyConfig#getTransactionListener()} is not set.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+class TransactionTracker {
+
+    static void onAutoCommit(ConnectionInfo connectionInfo, ProxyConfig proxyConfig, boolean autoCommit) {
+        TransactionListener listener = proxyConfig.getTransactionListener();
+        if (listener == null) {
+            return;
+        }
+        Boolean previous = connectionInfo.getAutoCommit();
+        connectionInfo.setAutoCommit(autoCommit);
+        if (autoCommit) {
+            // changing to auto-commit mode commits current transaction
+            finish(connectionInfo, listener, TransactionInfo.Outcome.COMMIT);
+        } else if (previous == null || previous) {
+            connectionInfo.setCurrentTransaction(new TransactionInfo(connectionInfo, System.currentTimeMillis()));
+        }
+    }
+
+    static void onCommit(ConnectionInfo connectionInfo, ProxyConfig proxyConfig) {
+        TransactionListener listener = proxyConfig.getTransactionListener();
+        if (listener != null) {
+            finish(connectionInfo, listener, TransactionInfo.Outcome.COMMIT);
+        }
+    }
+
+    static void onRollback(ConnectionInfo connectionInfo, ProxyConfig proxyConfig) {
+        TransactionListener listener = proxyConfig.getTransactionListener();
+        if (listener != null) {
+            finish(connectionInfo, listener, TransactionInfo.Outcome.ROLLBACK);
+        }
+    }
+
+    static void onClose(ConnectionInfo connectionInfo, ProxyConfig proxyConfig) {
+        TransactionListener listener = proxyConfig.getTransactionListener();
+        if (listener != null) {
+            finish(connectionInfo, listener, TransactionInfo.Outcome.CLOSE);
+        }
+    }
+
+    /**
+     * Record a statement execution.
+     *
+     * @param connectionInfo connection info
+     * @param proxyConfig    proxy config
+     * @param execInfo       execution info
+     * @param queries        executed queries
+     */
+    static void onExecution(ConnectionInfo connectionInfo, ProxyConfig proxyConfig, ExecutionInfo execInfo, List<QueryInfo> queries) {
+        TransactionListener listener = proxyConfig.getTransactionListener();
+        if (listener == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        String query = queries.isEmpty() ? null : queries.get(0).getQuery();
+        long rowsAffected = getRowsAffected(execInfo.getResult());
+
+        if (Boolean.FALSE.equals(connectionInfo.getAutoCommit())) {
+            TransactionInfo transactionInfo = connectionInfo.getCurrentTransaction();
+            if (transactionInfo == null) {
+                // new transaction starts with first statement after commit/rollback
+                transactionInfo = new TransactionInfo(connectionInfo, now - execInfo.getElapsedTime());
+                connectionInfo.setCurrentTransaction(transactionInfo);
+            }
+            transactionInfo.addStatement(query, now, execInfo.getElapsedTime(), rowsAffected);
+        } else {
+            // auto-commit (or unknown) mode. each statement is a transaction.
+            TransactionInfo transactionInfo = new TransactionInfo(connectionInfo, now - execInfo.getElapsedTime());
+            transactionInfo.addStatement(query, now, execInfo.getElapsedTime(), rowsAffected);
+            transactionInfo.finish(TransactionInfo.Outcome.AUTO_COMMIT, now);
+            listener.afterTransaction(transactionInfo);
+        }
+    }
+
+    private static void finish(ConnectionInfo connectionInfo, TransactionListener listener, TransactionInfo.Outcome outcome) {
+        TransactionInfo transactionInfo = connectionInfo.getCurrentTransaction();
+        if (transactionInfo == null) {
+            return;
+        }
+        connectionInfo.setCurrentTransaction(null);
+        transactionInfo.finish(outcome, System.currentTimeMillis());
+        listener.afterTransaction(transactionInfo);
+    }
+
+    private static long getRowsAffected(Object result) {
+        // "execute()" returns boolean; calling "getUpdateCount()" here may interfere with application. so, ignore it.
+        if (result instanceof Integer || result instanceof Long) {
+            return ((Number) result).longValue();
+        } else if (result instanceof int[]) {
+            long total = 0;
+            for (int count : (int[]) result) {
+                if (count > 0) {
+                    total += count;
+                }
+            }
+            return total;
+        } else if (result instanceof long[]) {
+            long total = 0;
+            for (long count : (long[]) result) {
+                if (count > 0) {
+                    total += count;
+                }
+            }
+            return total;
+        }
+        return 0;
+    }
+
+}
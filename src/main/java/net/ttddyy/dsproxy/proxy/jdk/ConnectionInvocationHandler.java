@@ -21,6 +21,14 @@ public class ConnectionInvocationHandler implements InvocationHandler {
         this.delegate = new ConnectionProxyLogic(connection, connectionInfo, proxyConfig);
     }
 
+    /**
+     * @return proxy logic invocations are delegated to
+     * @since 1.4.5
+     */
+    public ConnectionProxyLogic getDelegate() {
+        return delegate;
+    }
+
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         return delegate.invoke(proxy, method, args);
     }
@@ -23,6 +23,22 @@ public class ResultSetInvocationHandler implements InvocationHandler {
         this.delegate = proxyConfig.getResultSetProxyLogicFactory().create(resultSet, connectionInfo, proxyConfig);
     }
 
+    /**
+     * @param delegate proxy logic to delegate invocations
+     * @since 1.4.5
+     */
+    public ResultSetInvocationHandler(ResultSetProxyLogic delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return proxy logic invocations are delegated to
+     * @since 1.4.5
+     */
+    public ResultSetProxyLogic getDelegate() {
+        return delegate;
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         return delegate.invoke(method, args);
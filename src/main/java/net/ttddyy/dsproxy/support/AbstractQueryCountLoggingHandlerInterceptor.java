@@ -2,6 +2,7 @@ package net.ttddyy.dsproxy.support;
 
 import net.ttddyy.dsproxy.QueryCount;
 import net.ttddyy.dsproxy.QueryCountHolder;
+import net.ttddyy.dsproxy.QueryCountScope;
 import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
 
 import javax.servlet.http.HttpServletRequest;
@@ -10,34 +11,60 @@ import java.util.Collections;
 import java.util.List;
 
 /**
+ * Spring MVC interceptor to output query statistics.
+ *
+ * <p>Unless <em>clearQueryCounter</em> is {@code false}, queries are counted in a {@link QueryCountScope} opened for
+ * each request, so that listeners relying on the scope, such as
+ * {@link net.ttddyy.dsproxy.listener.QueryBudgetListener}, work with this interceptor as well as with the servlet
+ * filters.
+ *
  * @author Tadaya Tsuyukubo
  * @since 1.3
  */
 public abstract class AbstractQueryCountLoggingHandlerInterceptor extends HandlerInterceptorAdapter {
 
+    private static final String SCOPE_ATTRIBUTE = AbstractQueryCountLoggingHandlerInterceptor.class.getName() + ".scope";
+
     private boolean clearQueryCounter = true;
     private boolean writeAsJson = false;
     private QueryCountLogEntryCreator logFormatter = new DefaultQueryCountLogEntryCreator();
 
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // count queries of this request in its own scope, unless the counter is kept across requests
+        if (this.clearQueryCounter && QueryCountScope.current() == null) {
+            request.setAttribute(SCOPE_ATTRIBUTE, QueryCountScope.open());
+        }
+        return true;
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
 
-        List<String> dsNames = QueryCountHolder.getDataSourceNamesAsList();
-        Collections.sort(dsNames);
+        QueryCountScope scope = (QueryCountScope) request.getAttribute(SCOPE_ATTRIBUTE);
+        try {
+            List<String> dsNames = QueryCountHolder.getDataSourceNamesAsList();
+            Collections.sort(dsNames);
 
-        for (String dsName : dsNames) {
-            QueryCount count = QueryCountHolder.get(dsName);
-            String logEntry;
-            if (this.writeAsJson) {
-                logEntry = logFormatter.getLogMessageAsJson(dsName, count);
-            } else {
-                logEntry = logFormatter.getLogMessage(dsName, count);
+            for (String dsName : dsNames) {
+                QueryCount count = QueryCountHolder.get(dsName);
+                String logEntry;
+                if (this.writeAsJson) {
+                    logEntry = logFormatter.getLogMessageAsJson(dsName, count);
+                } else {
+                    logEntry = logFormatter.getLogMessage(dsName, count);
+                }
+                writeLog(logEntry);
             }
-            writeLog(logEntry);
-        }
 
-        if (clearQueryCounter) {
-            QueryCountHolder.clear();
+            if (clearQueryCounter) {
+                QueryCountHolder.clear();
+            }
+        } finally {
+            if (scope != null) {
+                request.removeAttribute(SCOPE_ATTRIBUTE);
+                scope.close();
+            }
         }
 
     }
@@ -2,6 +2,7 @@ package net.ttddyy.dsproxy.support;
 
 import net.ttddyy.dsproxy.QueryCount;
 import net.ttddyy.dsproxy.QueryCountHolder;
+import net.ttddyy.dsproxy.QueryCountScope;
 
 import javax.servlet.*;
 import java.io.IOException;
@@ -16,6 +17,10 @@ import java.util.List;
  * If you want to manage when to reset the counter, you can disable this filter to clear the counter by setting
  * filter parameter <em>clearQueryCounter</em> to {@code false}.
  *
+ * <p>Unless <em>clearQueryCounter</em> is {@code false}, queries are counted in a {@link QueryCountScope} opened for
+ * each request. Tasks wrapped by {@link QueryCountScope#wrap(java.util.concurrent.Executor)} with
+ * {@link QueryCountScope#current()} are counted to the request even when they run on other threads.
+ *
  * <p><em>loggerName</em> parameter(Optional): create a logger instance by this name if specified.
  *
  * <pre>
@@ -82,24 +87,37 @@ public abstract class AbstractQueryCountLoggingServletFilter implements Filter {
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
-        chain.doFilter(request, response);
-
-        final List<String> dsNames = QueryCountHolder.getDataSourceNamesAsList();
-        Collections.sort(dsNames);
-
-        for (String dsName : dsNames) {
-            QueryCount count = QueryCountHolder.get(dsName);
-            String message;
-            if (this.writeAsJson) {
-                message = this.logFormatter.getLogMessageAsJson(dsName, count);
-            } else {
-                message = this.logFormatter.getLogMessage(dsName, count);
-            }
-            writeLog(message);
+
+        // count queries of this request in its own scope, unless the counter is kept across requests
+        QueryCountScope scope = null;
+        if (this.clearQueryCounter && QueryCountScope.current() == null) {
+            scope = QueryCountScope.open();
         }
 
-        if (clearQueryCounter) {
-            QueryCountHolder.clear();
+        try {
+            chain.doFilter(request, response);
+
+            final List<String> dsNames = QueryCountHolder.getDataSourceNamesAsList();
+            Collections.sort(dsNames);
+
+            for (String dsName : dsNames) {
+                QueryCount count = QueryCountHolder.get(dsName);
+                String message;
+                if (this.writeAsJson) {
+                    message = this.logFormatter.getLogMessageAsJson(dsName, count);
+                } else {
+                    message = this.logFormatter.getLogMessage(dsName, count);
+                }
+                writeLog(message);
+            }
+
+            if (clearQueryCounter) {
+                QueryCountHolder.clear();
+            }
+        } finally {
+            if (scope != null) {
+                scope.close();
+            }
         }
     }
 
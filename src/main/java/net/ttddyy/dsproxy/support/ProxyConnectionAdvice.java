@@ -28,12 +28,13 @@ public class ProxyConnectionAdvice implements MethodInterceptor {
         }
 
         Connection conn = (Connection) retVal;
-        long connId = this.proxyConfig.getConnectionIdManager().getId(conn);
+        ProxyConfig proxyConfig = this.proxyConfig.getLatest();
+        long connId = proxyConfig.getConnectionIdManager().getId(conn);
         ConnectionInfo connectionInfo = new ConnectionInfo();
         connectionInfo.setConnectionId(connId);
         connectionInfo.setDataSourceName("");
 
-        return this.proxyConfig.getJdbcProxyFactory().createConnection((Connection) retVal, connectionInfo, this.proxyConfig);
+        return proxyConfig.getJdbcProxyFactory().createConnection((Connection) retVal, connectionInfo, proxyConfig);
     }
 
 
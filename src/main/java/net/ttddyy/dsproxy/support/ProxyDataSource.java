@@ -6,7 +6,9 @@ import net.ttddyy.dsproxy.DataSourceProxyException;
 import net.ttddyy.dsproxy.listener.MethodExecutionListenerUtils;
 import net.ttddyy.dsproxy.listener.QueryExecutionListener;
 import net.ttddyy.dsproxy.proxy.JdbcProxyFactory;
+import net.ttddyy.dsproxy.proxy.LazyConnectionFactory;
 import net.ttddyy.dsproxy.proxy.ProxyConfig;
+import net.ttddyy.dsproxy.proxy.ProxyConfigHolder;
 import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 
 import javax.sql.DataSource;
@@ -17,6 +19,8 @@ import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -40,7 +44,8 @@ public class ProxyDataSource implements DataSource, Closeable {
 
 
     private DataSource dataSource;
-    private ProxyConfig proxyConfig = ProxyConfig.Builder.create().build();  // default
+    private List<Closeable> closeables = Collections.emptyList();  // closed with this datasource
+    private volatile ProxyConfig proxyConfig = ProxyConfig.Builder.create().build();  // default
 
     public ProxyDataSource() {
     }
@@ -60,20 +65,35 @@ public class ProxyDataSource implements DataSource, Closeable {
 
     @Override
     public Connection getConnection() throws SQLException {
-        final Connection conn = dataSource.getConnection();
-        return getConnectionProxy(conn, GET_CONNECTION_WITH_NO_ARGS, null);
+        // read the config once, so that the connection is created with a consistent config
+        ProxyConfig proxyConfig = this.proxyConfig.getLatest();
+        LazyConnectionFactory lazyConnectionFactory = proxyConfig.getLazyConnectionFactory();
+        final Connection conn;
+        if (lazyConnectionFactory != null) {
+            conn = lazyConnectionFactory.createConnection(dataSource, null, null);
+        } else {
+            conn = dataSource.getConnection();
+        }
+        return getConnectionProxy(conn, proxyConfig, GET_CONNECTION_WITH_NO_ARGS, null);
     }
 
     @Override
     public Connection getConnection(String username, String password) throws SQLException {
-        final Connection conn = dataSource.getConnection(username, password);
-        return getConnectionProxy(conn, GET_CONNECTION_WITH_USER_PASS, new Object[]{username, password});
+        ProxyConfig proxyConfig = this.proxyConfig.getLatest();
+        LazyConnectionFactory lazyConnectionFactory = proxyConfig.getLazyConnectionFactory();
+        final Connection conn;
+        if (lazyConnectionFactory != null) {
+            conn = lazyConnectionFactory.createConnection(dataSource, username, password);
+        } else {
+            conn = dataSource.getConnection(username, password);
+        }
+        return getConnectionProxy(conn, proxyConfig, GET_CONNECTION_WITH_USER_PASS, new Object[]{username, password});
     }
 
-    private Connection getConnectionProxy(final Connection conn, Method method, Object[] args) throws SQLException {
-        String dataSourceName = this.proxyConfig.getDataSourceName();
-        ConnectionIdManager connectionIdManager = this.proxyConfig.getConnectionIdManager();
-        final JdbcProxyFactory jdbcProxyFactory = this.proxyConfig.getJdbcProxyFactory();
+    private Connection getConnectionProxy(final Connection conn, final ProxyConfig proxyConfig, Method method, Object[] args) throws SQLException {
+        String dataSourceName = proxyConfig.getDataSourceName();
+        ConnectionIdManager connectionIdManager = proxyConfig.getConnectionIdManager();
+        final JdbcProxyFactory jdbcProxyFactory = proxyConfig.getJdbcProxyFactory();
 
         long connectionId = connectionIdManager.getId(conn);
 
@@ -85,9 +105,9 @@ public class ProxyDataSource implements DataSource, Closeable {
             return (Connection) MethodExecutionListenerUtils.invoke(new MethodExecutionListenerUtils.MethodExecutionCallback() {
                 @Override
                 public Object execute(Object proxy, Method method, Object[] args) throws Throwable {
-                    return jdbcProxyFactory.createConnection(conn, connectionInfo, ProxyDataSource.this.proxyConfig);
+                    return jdbcProxyFactory.createConnection(conn, connectionInfo, proxyConfig);
                 }
-            }, this.proxyConfig, this, connectionInfo, method, args);
+            }, proxyConfig, this, connectionInfo, method, args);
         } catch (Throwable throwable) {
             if (throwable instanceof SQLException) {
                 throw (SQLException) throwable;
@@ -129,41 +149,75 @@ public class ProxyDataSource implements DataSource, Closeable {
         return dataSource.getParentLogger();  // JDBC4.1 (jdk7+)
     }
 
+    /**
+     * Close the actual datasource if it is {@link Closeable}, then close listeners given to
+     * {@link ProxyDataSourceBuilder} that are {@link Closeable}.
+     *
+     * @throws IOException first exception thrown while closing
+     */
     @Override
     public void close() throws IOException {
+        IOException thrown = null;
         if (dataSource instanceof Closeable) {
-            ((Closeable) dataSource).close();
+            try {
+                ((Closeable) dataSource).close();
+            } catch (IOException ex) {
+                thrown = ex;
+            }
+        }
+        for (Closeable closeable : this.closeables) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                if (thrown == null) {
+                    thrown = ex;
+                }
+            }
+        }
+        if (thrown != null) {
+            throw thrown;
         }
     }
 
+    /**
+     * @param closeables resources to close when this datasource is closed
+     * @since 1.4.5
+     */
+    void setCloseables(List<Closeable> closeables) {
+        this.closeables = closeables;
+    }
+
     /**
      * @deprecated
      */
     public void setListener(QueryExecutionListener listener) {
-        this.proxyConfig = ProxyConfig.Builder.from(this.proxyConfig)
+        updateProxyConfig(ProxyConfig.Builder.from(getProxyConfig())
                 .queryListener(listener)
-                .build();
+                .build());
     }
 
-    public void addListener(QueryExecutionListener listener) {
-        this.proxyConfig.getQueryListener().addListener(listener);
+    public synchronized void addListener(QueryExecutionListener listener) {
+        // replace the whole config instead of modifying listeners in use
+        updateProxyConfig(ProxyConfig.Builder.from(getProxyConfig())
+                .queryListener(listener)
+                .build());
     }
 
     public void setDataSourceName(String dataSourceName) {
-        this.proxyConfig = ProxyConfig.Builder.from(this.proxyConfig)
+        updateProxyConfig(ProxyConfig.Builder.from(getProxyConfig())
                 .dataSourceName(dataSourceName)
-                .build();
+                .build());
     }
 
     public String getDataSourceName() {
-        return this.proxyConfig.getDataSourceName();
+        return getProxyConfig().getDataSourceName();
     }
 
     /**
      * @since 1.4.2
      */
     public ConnectionIdManager getConnectionIdManager() {
-        return this.proxyConfig.getConnectionIdManager();
+        return getProxyConfig().getConnectionIdManager();
     }
 
 
@@ -171,23 +225,39 @@ public class ProxyDataSource implements DataSource, Closeable {
      * @since 1.4.2
      */
     public void setConnectionIdManager(ConnectionIdManager connectionIdManager) {
-        this.proxyConfig = ProxyConfig.Builder.from(this.proxyConfig)
+        updateProxyConfig(ProxyConfig.Builder.from(getProxyConfig())
                 .connectionIdManager(connectionIdManager)
-                .build();
+                .build());
     }
 
     /**
      * @since 1.4.3
      */
     public ProxyConfig getProxyConfig() {
-        return proxyConfig;
+        return this.proxyConfig.getLatest();
     }
 
     /**
+     * Set the proxy config.
+     *
+     * When current config is reloadable({@link ProxyConfig#getConfigHolder()}), given config replaces the config of
+     * live connections, statements and result sets as well.
+     *
+     * @param proxyConfig proxy config
      * @since 1.4.3
      */
     public void setProxyConfig(ProxyConfig proxyConfig) {
-        this.proxyConfig = proxyConfig;
+        ProxyConfigHolder configHolder = this.proxyConfig.getConfigHolder();
+        if (configHolder != null && proxyConfig.getConfigHolder() == null) {
+            this.proxyConfig = configHolder.update(proxyConfig);
+        } else {
+            this.proxyConfig = proxyConfig;
+        }
+    }
+
+    private void updateProxyConfig(ProxyConfig proxyConfig) {
+        ProxyConfigHolder configHolder = proxyConfig.getConfigHolder();
+        this.proxyConfig = configHolder == null ? proxyConfig : configHolder.update(proxyConfig);
     }
 
 }
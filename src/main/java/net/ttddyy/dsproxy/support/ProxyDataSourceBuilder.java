@@ -4,13 +4,17 @@ import net.ttddyy.dsproxy.ConnectionIdManager;
 import net.ttddyy.dsproxy.ExecutionInfo;
 import net.ttddyy.dsproxy.QueryInfo;
 import net.ttddyy.dsproxy.listener.DataSourceQueryCountListener;
+import net.ttddyy.dsproxy.listener.ListenerExecutionPolicy;
 import net.ttddyy.dsproxy.listener.MethodExecutionContext;
 import net.ttddyy.dsproxy.listener.MethodExecutionListener;
 import net.ttddyy.dsproxy.listener.NoOpMethodExecutionListener;
 import net.ttddyy.dsproxy.listener.NoOpQueryExecutionListener;
 import net.ttddyy.dsproxy.listener.QueryCountStrategy;
 import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.listener.QueryMetricsListener;
 import net.ttddyy.dsproxy.listener.TracingMethodListener;
+import net.ttddyy.dsproxy.listener.TransactionListener;
+import net.ttddyy.dsproxy.listener.jfr.JfrSupport;
 import net.ttddyy.dsproxy.listener.logging.CommonsLogLevel;
 import net.ttddyy.dsproxy.listener.logging.CommonsQueryLoggingListener;
 import net.ttddyy.dsproxy.listener.logging.CommonsSlowQueryListener;
@@ -23,15 +27,25 @@ import net.ttddyy.dsproxy.listener.logging.SLF4JQueryLoggingListener;
 import net.ttddyy.dsproxy.listener.logging.SLF4JSlowQueryListener;
 import net.ttddyy.dsproxy.listener.logging.SystemOutQueryLoggingListener;
 import net.ttddyy.dsproxy.listener.logging.SystemOutSlowQueryListener;
+import net.ttddyy.dsproxy.proxy.BatchChunkPolicy;
+import net.ttddyy.dsproxy.proxy.ConcurrencyLimiter;
 import net.ttddyy.dsproxy.proxy.DefaultConnectionIdManager;
+import net.ttddyy.dsproxy.proxy.FetchSizeAdvisor;
+import net.ttddyy.dsproxy.proxy.QueryResultCache;
 import net.ttddyy.dsproxy.proxy.JdbcProxyFactory;
+import net.ttddyy.dsproxy.proxy.LazyConnectionFactory;
+import net.ttddyy.dsproxy.proxy.PreparedStatementCache;
 import net.ttddyy.dsproxy.proxy.ProxyConfig;
+import net.ttddyy.dsproxy.proxy.ProxyConfigHolder;
+import net.ttddyy.dsproxy.proxy.QueryTimeoutPolicy;
 import net.ttddyy.dsproxy.proxy.RepeatableReadResultSetProxyLogicFactory;
 import net.ttddyy.dsproxy.proxy.ResultSetProxyLogicFactory;
+import net.ttddyy.dsproxy.support.jmx.DataSourceMetricsRegistrar;
 import net.ttddyy.dsproxy.transform.ParameterTransformer;
 import net.ttddyy.dsproxy.transform.QueryTransformer;
 
 import javax.sql.DataSource;
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -136,6 +150,21 @@ public class ProxyDataSourceBuilder {
 
     private ResultSetProxyLogicFactory resultSetProxyLogicFactory;
 
+    private FetchSizeAdvisor fetchSizeAdvisor;
+    private QueryResultCache queryResultCache;
+    private TransactionListener transactionListener;
+    private DataSourceMetricsRegistrar metricsRegistrar;
+    private boolean createJfrListeners;
+    private boolean createJfrMethodListener;
+    private ListenerExecutionPolicy listenerExecutionPolicy;
+    private boolean reloadableProxyConfig;
+    private int autoBatchSize;
+    private BatchChunkPolicy batchChunkPolicy;
+    private ConcurrencyLimiter concurrencyLimiter;
+    private QueryTimeoutPolicy queryTimeoutPolicy;
+    private LazyConnectionFactory lazyConnectionFactory;
+    private PreparedStatementCache preparedStatementCache;
+
     private List<MethodExecutionListener> methodExecutionListeners = new ArrayList<MethodExecutionListener>();
 
     public static ProxyDataSourceBuilder create() {
@@ -685,6 +714,272 @@ public class ProxyDataSourceBuilder {
         return this;
     }
 
+    /**
+     * Enable {@link FetchSizeAdvisor} that learns number of rows returned per query.
+     *
+     * To apply the learned fetch size to statements, use {@link FetchSizeAdvisor#setAutoApply(boolean)}.
+     *
+     * @param fetchSizeAdvisor a fetch size advisor
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder fetchSizeAdvisor(FetchSizeAdvisor fetchSizeAdvisor) {
+        this.fetchSizeAdvisor = fetchSizeAdvisor;
+        return this;
+    }
+
+    /**
+     * Enable {@link QueryResultCache} that serves results of cacheable {@code SELECT} queries executed by
+     * {@link java.sql.PreparedStatement#executeQuery()} from memory.
+     *
+     * Query listeners are not called when the result is served from the cache.
+     *
+     * @param queryResultCache a query result cache
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder queryResultCache(QueryResultCache queryResultCache) {
+        this.queryResultCache = queryResultCache;
+        return this;
+    }
+
+    /**
+     * Enable transaction tracking and register {@link TransactionListener}.
+     *
+     * @param transactionListener a transaction listener
+     * @return builder
+     * @see net.ttddyy.dsproxy.listener.TransactionMetricsListener
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder transactionListener(TransactionListener transactionListener) {
+        this.transactionListener = transactionListener;
+        return this;
+    }
+
+    /**
+     * Register {@link net.ttddyy.dsproxy.support.jmx.DataSourceMetrics} MBean to the platform MBean server.
+     *
+     * The MBean exposes query counts, latency percentiles, slow query count and open connections of the datasource.
+     * Slow query threshold is taken from {@code logSlowQuery*} methods if specified.
+     *
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder registerMetricsMBean() {
+        return registerMetricsMBean(new DataSourceMetricsRegistrar());
+    }
+
+    /**
+     * Register {@link net.ttddyy.dsproxy.support.jmx.DataSourceMetrics} MBean with given registrar.
+     *
+     * @param registrar registrar to register MBean
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder registerMetricsMBean(DataSourceMetricsRegistrar registrar) {
+        this.metricsRegistrar = registrar;
+        return this;
+    }
+
+    /**
+     * Emit Java Flight Recorder events for query executions.
+     *
+     * Recording of the events is controlled by JFR settings. This is ignored when JFR is not available on the
+     * running JDK.
+     *
+     * @return builder
+     * @see net.ttddyy.dsproxy.listener.jfr.QueryExecutionEvent
+     * @see #recordJfrEvents(boolean)
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder recordJfrEvents() {
+        return recordJfrEvents(false);
+    }
+
+    /**
+     * Emit Java Flight Recorder events for query executions and optionally for JDBC method invocations.
+     *
+     * Method events require a method listener, which creates a {@link MethodExecutionContext} for every JDBC call
+     * even when the event is not enabled by JFR settings. Include them only when needed.
+     *
+     * @param includeMethodEvents {@code true} to also emit events for JDBC method invocations
+     * @return builder
+     * @see net.ttddyy.dsproxy.listener.jfr.QueryExecutionEvent
+     * @see net.ttddyy.dsproxy.listener.jfr.MethodExecutionEvent
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder recordJfrEvents(boolean includeMethodEvents) {
+        this.createJfrListeners = true;
+        this.createJfrMethodListener = includeMethodEvents;
+        return this;
+    }
+
+    /**
+     * Set {@link ListenerExecutionPolicy} to isolate failures of query listeners, call some of them asynchronously
+     * and record time spent by each listener.
+     *
+     * @param listenerExecutionPolicy a listener execution policy
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder listenerExecutionPolicy(ListenerExecutionPolicy listenerExecutionPolicy) {
+        this.listenerExecutionPolicy = listenerExecutionPolicy;
+        return this;
+    }
+
+    /**
+     * Enable auto-batching.
+     *
+     * While a connection is in a transaction, consecutive {@code executeUpdate()} calls of a single-row
+     * {@code INSERT} on the same {@link java.sql.PreparedStatement} are buffered into a batch, and the batch is
+     * executed when other statements run, the transaction ends, the statement is closed, or the batch reaches
+     * {@code maxBatchSize}. Buffered calls return {@code 1} as update count, and errors are reported by the call
+     * that flushes the batch.
+     *
+     * @param maxBatchSize max number of rows in a batch
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder autoBatch(int maxBatchSize) {
+        this.autoBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Split batches into chunks of the given size.
+     *
+     * @param chunkSize max number of entries sent to the database at once
+     * @return builder
+     * @see BatchChunkPolicy
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder splitBatch(int chunkSize) {
+        return splitBatch(new BatchChunkPolicy(chunkSize));
+    }
+
+    /**
+     * Split batches into chunks by the given {@link BatchChunkPolicy}.
+     *
+     * @param batchChunkPolicy a batch chunk policy
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder splitBatch(BatchChunkPolicy batchChunkPolicy) {
+        this.batchChunkPolicy = batchChunkPolicy;
+        return this;
+    }
+
+    /**
+     * Limit number of statements executing concurrently on the datasource.
+     *
+     * @param maxConcurrency max number of concurrent statement executions
+     * @return builder
+     * @see ConcurrencyLimiter
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder limitConcurrency(int maxConcurrency) {
+        return limitConcurrency(new ConcurrencyLimiter(maxConcurrency));
+    }
+
+    /**
+     * Limit concurrent statement executions by the given {@link ConcurrencyLimiter}.
+     *
+     * @param concurrencyLimiter a concurrency limiter
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder limitConcurrency(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        return this;
+    }
+
+    /**
+     * Apply the query timeout to statements that do not set one.
+     *
+     * @param defaultTimeout query timeout in seconds
+     * @return builder
+     * @see QueryTimeoutPolicy
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder queryTimeout(int defaultTimeout) {
+        return queryTimeout(new QueryTimeoutPolicy(defaultTimeout));
+    }
+
+    /**
+     * Apply query timeouts from the given {@link QueryTimeoutPolicy} to statements that do not set one.
+     *
+     * @param queryTimeoutPolicy a query timeout policy
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder queryTimeout(QueryTimeoutPolicy queryTimeoutPolicy) {
+        this.queryTimeoutPolicy = queryTimeoutPolicy;
+        return this;
+    }
+
+    /**
+     * Borrow physical connections from the datasource only when a statement is created.
+     *
+     * @return builder
+     * @see LazyConnectionFactory
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder lazyConnection() {
+        return lazyConnection(new LazyConnectionFactory());
+    }
+
+    /**
+     * Create lazy connections by the given {@link LazyConnectionFactory}.
+     *
+     * @param lazyConnectionFactory a lazy connection factory
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder lazyConnection(LazyConnectionFactory lazyConnectionFactory) {
+        this.lazyConnectionFactory = lazyConnectionFactory;
+        return this;
+    }
+
+    /**
+     * Cache prepared statements per connection, keeping up to the given number of idle statements.
+     *
+     * @param maxSize max number of idle statements per connection
+     * @return builder
+     * @see PreparedStatementCache
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder preparedStatementCache(int maxSize) {
+        return preparedStatementCache(new PreparedStatementCache(maxSize));
+    }
+
+    /**
+     * Cache prepared statements per connection by the given {@link PreparedStatementCache}.
+     *
+     * @param preparedStatementCache a prepared statement cache
+     * @return builder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder preparedStatementCache(PreparedStatementCache preparedStatementCache) {
+        this.preparedStatementCache = preparedStatementCache;
+        return this;
+    }
+
+    /**
+     * Make the {@link ProxyConfig} of the datasource reloadable.
+     *
+     * Config changes made by {@link ProxyDataSource#setProxyConfig(ProxyConfig)}, {@link ProxyDataSource#addListener(QueryExecutionListener)}
+     * or {@link ProxyConfigHolder#update(ProxyConfig)} apply to already created connections, statements and result
+     * sets. For example, tracing can be enabled on pooled connections without recycling them.
+     *
+     * @return builder
+     * @see ProxyConfigHolder
+     * @since 1.4.5
+     */
+    public ProxyDataSourceBuilder reloadableProxyConfig() {
+        this.reloadableProxyConfig = true;
+        return this;
+    }
+
     /**
      * Add {@link MethodExecutionListener}.
      *
@@ -838,6 +1133,24 @@ public class ProxyDataSourceBuilder {
             listeners.add(countListener);
         }
 
+        // metrics listener for MBean
+        QueryMetricsListener metricsListener = null;
+        if (this.metricsRegistrar != null) {
+            metricsListener = new QueryMetricsListener();
+            if (this.slowQueryTimeUnit != null) {
+                metricsListener.setSlowQueryThreshold(this.slowQueryThreshold, this.slowQueryTimeUnit);
+            }
+            listeners.add(metricsListener);
+        }
+
+        // JFR listeners
+        if (this.createJfrListeners && JfrSupport.isAvailable()) {
+            listeners.add(JfrSupport.createQueryExecutionListener());
+            if (this.createJfrMethodListener) {
+                this.methodExecutionListeners.add(JfrSupport.createMethodExecutionListener());
+            }
+        }
+
         // tracing listener
         if (this.createTracingMethodListener) {
             this.methodExecutionListeners.add(buildTracingMethodListenr());
@@ -888,17 +1201,75 @@ public class ProxyDataSourceBuilder {
         // this can be null if creation of resultset proxy is disabled
         proxyConfigBuilder.resultSetProxyLogicFactory(this.resultSetProxyLogicFactory);
 
+        // this can be null if fetch size advisor is disabled
+        proxyConfigBuilder.fetchSizeAdvisor(this.fetchSizeAdvisor);
+
+        // this can be null if query result cache is disabled
+        proxyConfigBuilder.queryResultCache(this.queryResultCache);
+
+        // this can be null if transaction tracking is disabled
+        proxyConfigBuilder.transactionListener(this.transactionListener);
+
+        // this can be null to call listeners inline
+        proxyConfigBuilder.listenerExecutionPolicy(this.listenerExecutionPolicy);
+
+        proxyConfigBuilder.autoBatchSize(this.autoBatchSize);
+
+        // this can be null if batches are not split
+        proxyConfigBuilder.batchChunkPolicy(this.batchChunkPolicy);
+
+        // this can be null if concurrency is not limited
+        proxyConfigBuilder.concurrencyLimiter(this.concurrencyLimiter);
+
+        // this can be null if query timeouts are not applied
+        proxyConfigBuilder.queryTimeoutPolicy(this.queryTimeoutPolicy);
+
+        // this can be null if connections are borrowed eagerly
+        proxyConfigBuilder.lazyConnectionFactory(this.lazyConnectionFactory);
+
+        // this can be null if prepared statements are not cached
+        proxyConfigBuilder.preparedStatementCache(this.preparedStatementCache);
+
         // build ProxyDataSource
         ProxyDataSource proxyDataSource = new ProxyDataSource();
         if (this.dataSource != null) {
             proxyDataSource.setDataSource(dataSource);
         }
         ProxyConfig proxyConfig = proxyConfigBuilder.build();
+        if (this.reloadableProxyConfig) {
+            proxyConfig = new ProxyConfigHolder(proxyConfig).get();
+        }
         proxyDataSource.setProxyConfig(proxyConfig);
 
+        // listeners holding resources(e.g. threads) are closed with the datasource
+        List<Closeable> closeables = new ArrayList<Closeable>();
+        for (Object listener : listeners) {
+            addCloseable(closeables, listener);
+        }
+        for (Object listener : this.methodExecutionListeners) {
+            addCloseable(closeables, listener);
+        }
+        proxyDataSource.setCloseables(closeables);
+
+        if (this.metricsRegistrar != null) {
+            this.metricsRegistrar.register(this.dataSourceName, metricsListener, proxyConfig.getConnectionIdManager());
+        }
+
         return proxyDataSource;
     }
 
+    private static void addCloseable(List<Closeable> closeables, Object listener) {
+        if (!(listener instanceof Closeable)) {
+            return;
+        }
+        for (Closeable closeable : closeables) {
+            if (closeable == listener) {
+                return;  // registered as both query and method listener
+            }
+        }
+        closeables.add((Closeable) listener);
+    }
+
     private CommonsQueryLoggingListener buildCommonsQueryListener() {
         CommonsQueryLoggingListener listener = new CommonsQueryLoggingListener();
         if (this.commonsLogLevel != null) {
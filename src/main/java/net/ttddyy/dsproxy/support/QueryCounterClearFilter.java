@@ -1,6 +1,7 @@
 package net.ttddyy.dsproxy.support;
 
 import net.ttddyy.dsproxy.QueryCountHolder;
+import net.ttddyy.dsproxy.QueryCountScope;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -14,6 +15,8 @@ import java.io.IOException;
  * Servlet filter to clear the {@link net.ttddyy.dsproxy.QueryCount} stored in thread local at the end of the
  * http servlet request lifecycle when {@link net.ttddyy.dsproxy.listener.DataSourceQueryCountListener} is used.
  *
+ * Queries in the request are counted in a {@link QueryCountScope} opened by this filter.
+ *
  * @author Tadaya Tsuyukubo
  * @see QueryCounterClearHandlerInterceptor
  * @see QueryCounterClearServletRequestListener
@@ -23,9 +26,16 @@ public class QueryCounterClearFilter implements Filter {
     }
 
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
-        chain.doFilter(request, response);
+        QueryCountScope scope = QueryCountScope.current() == null ? QueryCountScope.open() : null;
+        try {
+            chain.doFilter(request, response);
 
-        QueryCountHolder.clear();
+            QueryCountHolder.clear();
+        } finally {
+            if (scope != null) {
+                scope.close();
+            }
+        }
     }
 
     public void destroy() {
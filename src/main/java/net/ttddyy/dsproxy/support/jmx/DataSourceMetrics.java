@@ -0,0 +1,260 @@
+package net.ttddyy.dsproxy.support.jmx;
+
+import net.ttddyy.dsproxy.ConnectionIdManager;
+import net.ttddyy.dsproxy.Histogram;
+import net.ttddyy.dsproxy.QueryCount;
+import net.ttddyy.dsproxy.listener.QueryMetrics;
+import net.ttddyy.dsproxy.proxy.DefaultConnectionIdManager;
+
+import java.util.Set;
+
+/**
+ * {@link DataSourceMetricsMBean} implementation.
+ *
+ * Attributes are read from a snapshot that is taken at most once per {@link #setSnapshotInterval(long) snapshot
+ * interval}(default 1 second). Polling tools reading many attributes at once see consistent values, and do not
+ * iterate histograms or open connection ids for each attribute. Open connection ids are copied only when
+ * {@link #getOpenConnectionIds()} is read.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see DataSourceMetricsRegistrar
+ * @since 1.4.5
+ */
+public class DataSourceMetrics implements DataSourceMetricsMBean {
+
+    private static class Snapshot {
+        private long time;
+        private QueryCount queryCount;
+        private long slowQueryCount;
+        private double latencyMean;
+        private long latency50thPercentile;
+        private long latency95thPercentile;
+        private long latency99thPercentile;
+        private long latencyMax;
+        private int openConnectionCount;
+        private volatile long[] openConnectionIds;  // lazily populated
+    }
+
+    private final QueryMetrics queryMetrics;
+    private final ConnectionIdManager connectionIdManager;
+
+    private long snapshotInterval = 1000;
+    private volatile Snapshot snapshot;
+
+    public DataSourceMetrics(QueryMetrics queryMetrics, ConnectionIdManager connectionIdManager) {
+        this.queryMetrics = queryMetrics;
+        this.connectionIdManager = connectionIdManager;
+    }
+
+    private Snapshot getSnapshot() {
+        long now = System.currentTimeMillis();
+        Snapshot current = this.snapshot;
+        if (current == null || now - current.time >= this.snapshotInterval) {
+            current = takeSnapshot(now);
+            this.snapshot = current;
+        }
+        return current;
+    }
+
+    private Snapshot takeSnapshot(long now) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.time = now;
+
+        // copy the values, so that all counts come from the same point in time
+        QueryCount source = this.queryMetrics.getQueryCount();
+        QueryCount queryCount = new QueryCount();
+        queryCount.setSelect(source.getSelect());
+        queryCount.setInsert(source.getInsert());
+        queryCount.setUpdate(source.getUpdate());
+        queryCount.setDelete(source.getDelete());
+        queryCount.setOther(source.getOther());
+        queryCount.setStatement(source.getStatement());
+        queryCount.setPrepared(source.getPrepared());
+        queryCount.setCallable(source.getCallable());
+        queryCount.setTotal(source.getTotal());
+        queryCount.setSuccess(source.getSuccess());
+        queryCount.setFailure(source.getFailure());
+        queryCount.setTimeout(source.getTimeout());
+        queryCount.setCancel(source.getCancel());
+        queryCount.setTime(source.getTime());
+        snapshot.queryCount = queryCount;
+        snapshot.slowQueryCount = this.queryMetrics.getSlowQueryCount();
+
+        Histogram histogram = this.queryMetrics.getLatencyHistogram();
+        snapshot.latencyMean = histogram.getMean();
+        snapshot.latency50thPercentile = histogram.getPercentile(0.5);
+        snapshot.latency95thPercentile = histogram.getPercentile(0.95);
+        snapshot.latency99thPercentile = histogram.getPercentile(0.99);
+        snapshot.latencyMax = histogram.getMax();
+
+        if (this.connectionIdManager instanceof DefaultConnectionIdManager) {
+            // avoid taking snapshot of ids
+            snapshot.openConnectionCount = ((DefaultConnectionIdManager) this.connectionIdManager).getOpenConnectionCount();
+        } else if (this.connectionIdManager != null) {
+            snapshot.openConnectionCount = this.connectionIdManager.getOpenConnectionIds().size();
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String getDataSourceName() {
+        return this.queryMetrics.getDataSourceName();
+    }
+
+    @Override
+    public long getSelect() {
+        return getSnapshot().queryCount.getSelect();
+    }
+
+    @Override
+    public long getInsert() {
+        return getSnapshot().queryCount.getInsert();
+    }
+
+    @Override
+    public long getUpdate() {
+        return getSnapshot().queryCount.getUpdate();
+    }
+
+    @Override
+    public long getDelete() {
+        return getSnapshot().queryCount.getDelete();
+    }
+
+    @Override
+    public long getOther() {
+        return getSnapshot().queryCount.getOther();
+    }
+
+    @Override
+    public long getStatement() {
+        return getSnapshot().queryCount.getStatement();
+    }
+
+    @Override
+    public long getPrepared() {
+        return getSnapshot().queryCount.getPrepared();
+    }
+
+    @Override
+    public long getCallable() {
+        return getSnapshot().queryCount.getCallable();
+    }
+
+    @Override
+    public long getTotal() {
+        return getSnapshot().queryCount.getTotal();
+    }
+
+    @Override
+    public long getSuccess() {
+        return getSnapshot().queryCount.getSuccess();
+    }
+
+    @Override
+    public long getFailure() {
+        return getSnapshot().queryCount.getFailure();
+    }
+
+    @Override
+    public long getTimeout() {
+        return getSnapshot().queryCount.getTimeout();
+    }
+
+    @Override
+    public long getCancel() {
+        return getSnapshot().queryCount.getCancel();
+    }
+
+    @Override
+    public long getTime() {
+        return getSnapshot().queryCount.getTime();
+    }
+
+    @Override
+    public long getSlowQueryCount() {
+        return getSnapshot().slowQueryCount;
+    }
+
+    @Override
+    public double getLatencyMean() {
+        return getSnapshot().latencyMean;
+    }
+
+    @Override
+    public long getLatency50thPercentile() {
+        return getSnapshot().latency50thPercentile;
+    }
+
+    @Override
+    public long getLatency95thPercentile() {
+        return getSnapshot().latency95thPercentile;
+    }
+
+    @Override
+    public long getLatency99thPercentile() {
+        return getSnapshot().latency99thPercentile;
+    }
+
+    @Override
+    public long getLatencyMax() {
+        return getSnapshot().latencyMax;
+    }
+
+    @Override
+    public int getOpenConnectionCount() {
+        return getSnapshot().openConnectionCount;
+    }
+
+    @Override
+    public long[] getOpenConnectionIds() {
+        Snapshot snapshot = getSnapshot();
+        long[] openConnectionIds = snapshot.openConnectionIds;
+        if (openConnectionIds == null) {
+            if (this.connectionIdManager != null) {
+                Set<Long> ids = this.connectionIdManager.getOpenConnectionIds();
+                openConnectionIds = new long[ids.size()];
+                int i = 0;
+                for (Long id : ids) {
+                    openConnectionIds[i++] = id;
+                }
+            } else {
+                openConnectionIds = new long[0];
+            }
+            snapshot.openConnectionIds = openConnectionIds;
+        }
+        return openConnectionIds.clone();
+    }
+
+    @Override
+    public long getSnapshotTime() {
+        return getSnapshot().time;
+    }
+
+    @Override
+    public void reset() {
+        this.queryMetrics.reset();
+        this.snapshot = null;
+    }
+
+    @Override
+    public void refresh() {
+        this.snapshot = null;
+    }
+
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * @param snapshotInterval minimum interval in millis to take a new snapshot. {@code 0} to always read latest values.
+     */
+    public void setSnapshotInterval(long snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+}
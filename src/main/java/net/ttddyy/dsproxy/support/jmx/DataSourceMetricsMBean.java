@@ -0,0 +1,75 @@
+package net.ttddyy.dsproxy.support.jmx;
+
+/**
+ * MBean interface exposing query metrics and open connections of a datasource.
+ *
+ * Times are in milliseconds.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see DataSourceMetrics
+ * @since 1.4.5
+ */
+public interface DataSourceMetricsMBean {
+
+    String getDataSourceName();
+
+    long getSelect();
+
+    long getInsert();
+
+    long getUpdate();
+
+    long getDelete();
+
+    long getOther();
+
+    long getStatement();
+
+    long getPrepared();
+
+    long getCallable();
+
+    long getTotal();
+
+    long getSuccess();
+
+    long getFailure();
+
+    long getTimeout();
+
+    long getCancel();
+
+    long getTime();
+
+    long getSlowQueryCount();
+
+    double getLatencyMean();
+
+    long getLatency50thPercentile();
+
+    long getLatency95thPercentile();
+
+    long getLatency99thPercentile();
+
+    long getLatencyMax();
+
+    int getOpenConnectionCount();
+
+    long[] getOpenConnectionIds();
+
+    /**
+     * @return time in millis when the current snapshot was taken
+     */
+    long getSnapshotTime();
+
+    /**
+     * Reset query counts and latency histogram.
+     */
+    void reset();
+
+    /**
+     * Discard the current snapshot so that next read reflects latest values.
+     */
+    void refresh();
+
+}
@@ -0,0 +1,105 @@
+package net.ttddyy.dsproxy.support.jmx;
+
+import net.ttddyy.dsproxy.ConnectionIdManager;
+import net.ttddyy.dsproxy.DataSourceProxyException;
+import net.ttddyy.dsproxy.listener.QueryMetricsListener;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Register {@link DataSourceMetrics} MBean per datasource name.
+ *
+ * MBeans are registered with object name {@code <domain>:type=DataSourceMetrics,name="<datasource name>"}. Default
+ * domain is {@value #DEFAULT_DOMAIN} and default {@link MBeanServer} is the platform MBean server.
+ *
+ * <pre>
+ * {@code
+ *   QueryMetricsListener listener = new QueryMetricsListener(1, TimeUnit.SECONDS);
+ *   ProxyDataSource ds = ProxyDataSourceBuilder.create(actual).name("myDS").listener(listener).build();
+ *   registrar.register("myDS", listener, ds.getProxyConfig().getConnectionIdManager());
+ * }
+ * </pre>
+ *
+ * Alternatively, use {@link net.ttddyy.dsproxy.support.ProxyDataSourceBuilder#registerMetricsMBean()}.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class DataSourceMetricsRegistrar {
+
+    public static final String DEFAULT_DOMAIN = "net.ttddyy.dsproxy";
+
+    private final MBeanServer mBeanServer;
+    private final String domain;
+    private final ConcurrentMap<String, ObjectName> registered = new ConcurrentHashMap<String, ObjectName>();
+
+    public DataSourceMetricsRegistrar() {
+        this(ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+    }
+
+    public DataSourceMetricsRegistrar(MBeanServer mBeanServer, String domain) {
+        this.mBeanServer = mBeanServer;
+        this.domain = domain;
+    }
+
+    /**
+     * Register MBean for the datasource. Existing MBean with the same name is replaced.
+     *
+     * @param dataSourceName      datasource name
+     * @param listener            listener that collects metrics of the datasource
+     * @param connectionIdManager connection id manager of the datasource. can be {@code null}.
+     * @return registered MBean
+     * @throws DataSourceProxyException when registration failed
+     */
+    public DataSourceMetrics register(String dataSourceName, QueryMetricsListener listener, ConnectionIdManager connectionIdManager) {
+        String name = dataSourceName == null ? "" : dataSourceName;
+        DataSourceMetrics mbean = new DataSourceMetrics(listener.getOrCreateMetrics(name), connectionIdManager);
+        try {
+            ObjectName objectName = getObjectName(name);
+            if (this.mBeanServer.isRegistered(objectName)) {
+                this.mBeanServer.unregisterMBean(objectName);
+            }
+            this.mBeanServer.registerMBean(mbean, objectName);
+            this.registered.put(name, objectName);
+        } catch (JMException e) {
+            throw new DataSourceProxyException("Failed to register MBean for datasource " + name, e);
+        }
+        return mbean;
+    }
+
+    public void unregister(String dataSourceName) {
+        ObjectName objectName = this.registered.remove(dataSourceName == null ? "" : dataSourceName);
+        if (objectName == null) {
+            return;
+        }
+        try {
+            if (this.mBeanServer.isRegistered(objectName)) {
+                this.mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new DataSourceProxyException("Failed to unregister MBean " + objectName, e);
+        }
+    }
+
+    public void unregisterAll() {
+        for (String dataSourceName : new ArrayList<String>(this.registered.keySet())) {
+            unregister(dataSourceName);
+        }
+    }
+
+    public ObjectName getObjectName(String dataSourceName) throws JMException {
+        return new ObjectName(this.domain + ":type=DataSourceMetrics,name=" + ObjectName.quote(dataSourceName == null ? "" : dataSourceName));
+    }
+
+    public List<ObjectName> getRegisteredObjectNames() {
+        return new ArrayList<ObjectName>(this.registered.values());
+    }
+
+}
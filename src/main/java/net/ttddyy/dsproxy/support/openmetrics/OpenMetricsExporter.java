@@ -0,0 +1,310 @@
+package net.ttddyy.dsproxy.support.openmetrics;
+
+import net.ttddyy.dsproxy.ConnectionIdManager;
+import net.ttddyy.dsproxy.Histogram;
+import net.ttddyy.dsproxy.QueryCount;
+import net.ttddyy.dsproxy.listener.QueryMetrics;
+import net.ttddyy.dsproxy.listener.QueryMetricsListener;
+import net.ttddyy.dsproxy.proxy.ConcurrencyLimiter;
+import net.ttddyy.dsproxy.proxy.DefaultConnectionIdManager;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Write metrics collected by {@link QueryMetricsListener} in
+ * <a href="https://openmetrics.io/">OpenMetrics</a> text format, which Prometheus can scrape.
+ *
+ * Following metric families are written with {@code datasource} label:
+ * <ul>
+ * <li>{@code dsproxy_queries_total} - number of queries by {@code type}(select, insert, update, delete, other)
+ * <li>{@code dsproxy_statements_total} - number of executions by statement {@code type}(statement, prepared, callable)
+ * <li>{@code dsproxy_executions_total} - number of executions by {@code result}(success, failure)
+ * <li>{@code dsproxy_aborted_executions_total} - number of failed executions by {@code reason}(timeout, cancel)
+ * <li>{@code dsproxy_query_duration_seconds} - histogram of execution time
+ * <li>{@code dsproxy_slow_queries_total} - number of executions exceeded slow query threshold
+ * <li>{@code dsproxy_open_connections} - number of open connections, for datasources whose
+ * {@link ConnectionIdManager} is added by {@link #addConnectionIdManager(String, ConnectionIdManager)}
+ * <li>{@code dsproxy_concurrency_limit}, {@code dsproxy_concurrency_in_flight}, {@code dsproxy_concurrency_waiting}
+ * and {@code dsproxy_concurrency_rejected_total} - current limit, executions holding a permit, executions waiting for a
+ * permit and rejected executions of the datasource limit, for datasources whose {@link ConcurrencyLimiter} is added by
+ * {@link #addConcurrencyLimiter(String, ConcurrencyLimiter)}
+ * </ul>
+ *
+ * Writing reads atomic counters directly and does not take locks that query executions use. Numbers are written
+ * without creating intermediate strings.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see OpenMetricsHttpServer
+ * @since 1.4.5
+ */
+public class OpenMetricsExporter {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final String[] QUERY_TYPES = {"select", "insert", "update", "delete", "other"};
+    private static final String[] STATEMENT_TYPES = {"statement", "prepared", "callable"};
+
+    private final QueryMetricsListener queryMetricsListener;
+    private final ConcurrentMap<String, ConnectionIdManager> connectionIdManagers = new ConcurrentHashMap<String, ConnectionIdManager>();
+    private final ConcurrentMap<String, ConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+    public OpenMetricsExporter(QueryMetricsListener queryMetricsListener) {
+        this.queryMetricsListener = queryMetricsListener;
+    }
+
+    /**
+     * Add {@link ConnectionIdManager} to report number of open connections of the datasource.
+     *
+     * @param dataSourceName      datasource name
+     * @param connectionIdManager connection id manager used by the datasource
+     */
+    public void addConnectionIdManager(String dataSourceName, ConnectionIdManager connectionIdManager) {
+        this.connectionIdManagers.put(dataSourceName == null ? "" : dataSourceName, connectionIdManager);
+    }
+
+    public void removeConnectionIdManager(String dataSourceName) {
+        this.connectionIdManagers.remove(dataSourceName == null ? "" : dataSourceName);
+    }
+
+    /**
+     * Add {@link ConcurrencyLimiter} to report its state.
+     *
+     * @param dataSourceName     datasource name
+     * @param concurrencyLimiter concurrency limiter used by the datasource
+     * @since 1.4.5
+     */
+    public void addConcurrencyLimiter(String dataSourceName, ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiters.put(dataSourceName == null ? "" : dataSourceName, concurrencyLimiter);
+    }
+
+    public void removeConcurrencyLimiter(String dataSourceName) {
+        this.concurrencyLimiters.remove(dataSourceName == null ? "" : dataSourceName);
+    }
+
+    /**
+     * Write all metrics followed by {@code # EOF}.
+     *
+     * @param writer writer to write to. it is not flushed nor closed.
+     * @throws IOException when writing failed
+     */
+    public void write(Writer writer) throws IOException {
+        char[] buffer = new char[20];
+        Map<String, QueryMetrics> metricsMap = this.queryMetricsListener.getMetricsMap();
+
+        writeHeader(writer, "dsproxy_queries", "counter", null, "Number of queries by query type.");
+        for (QueryMetrics metrics : metricsMap.values()) {
+            QueryCount count = metrics.getQueryCount();
+            long[] values = {count.getSelect(), count.getInsert(), count.getUpdate(), count.getDelete(), count.getOther()};
+            for (int i = 0; i < QUERY_TYPES.length; i++) {
+                writeSample(writer, "dsproxy_queries_total", metrics.getDataSourceName(), "type", QUERY_TYPES[i]);
+                writeLong(writer, values[i], buffer);
+                writer.write('\n');
+            }
+        }
+
+        writeHeader(writer, "dsproxy_statements", "counter", null, "Number of executions by statement type.");
+        for (QueryMetrics metrics : metricsMap.values()) {
+            QueryCount count = metrics.getQueryCount();
+            long[] values = {count.getStatement(), count.getPrepared(), count.getCallable()};
+            for (int i = 0; i < STATEMENT_TYPES.length; i++) {
+                writeSample(writer, "dsproxy_statements_total", metrics.getDataSourceName(), "type", STATEMENT_TYPES[i]);
+                writeLong(writer, values[i], buffer);
+                writer.write('\n');
+            }
+        }
+
+        writeHeader(writer, "dsproxy_executions", "counter", null, "Number of executions by result.");
+        for (QueryMetrics metrics : metricsMap.values()) {
+            QueryCount count = metrics.getQueryCount();
+            writeSample(writer, "dsproxy_executions_total", metrics.getDataSourceName(), "result", "success");
+            writeLong(writer, count.getSuccess(), buffer);
+            writer.write('\n');
+            writeSample(writer, "dsproxy_executions_total", metrics.getDataSourceName(), "result", "failure");
+            writeLong(writer, count.getFailure(), buffer);
+            writer.write('\n');
+        }
+
+        writeHeader(writer, "dsproxy_aborted_executions", "counter", null, "Number of failed executions that timed out or were cancelled.");
+        for (QueryMetrics metrics : metricsMap.values()) {
+            QueryCount count = metrics.getQueryCount();
+            writeSample(writer, "dsproxy_aborted_executions_total", metrics.getDataSourceName(), "reason", "timeout");
+            writeLong(writer, count.getTimeout(), buffer);
+            writer.write('\n');
+            writeSample(writer, "dsproxy_aborted_executions_total", metrics.getDataSourceName(), "reason", "cancel");
+            writeLong(writer, count.getCancel(), buffer);
+            writer.write('\n');
+        }
+
+        writeHeader(writer, "dsproxy_query_duration_seconds", "histogram", "seconds", "Query execution time.");
+        for (QueryMetrics metrics : metricsMap.values()) {
+            writeHistogram(writer, "dsproxy_query_duration_seconds", metrics.getDataSourceName(), metrics.getLatencyHistogram(), buffer);
+        }
+
+        writeHeader(writer, "dsproxy_slow_queries", "counter", null, "Number of executions exceeded slow query threshold.");
+        for (QueryMetrics metrics : metricsMap.values()) {
+            writeSample(writer, "dsproxy_slow_queries_total", metrics.getDataSourceName(), null, null);
+            writeLong(writer, metrics.getSlowQueryCount(), buffer);
+            writer.write('\n');
+        }
+
+        writeHeader(writer, "dsproxy_open_connections", "gauge", null, "Number of open connections.");
+        for (Map.Entry<String, ConnectionIdManager> entry : this.connectionIdManagers.entrySet()) {
+            writeSample(writer, "dsproxy_open_connections", entry.getKey(), null, null);
+            writeLong(writer, getOpenConnectionCount(entry.getValue()), buffer);
+            writer.write('\n');
+        }
+
+        writeHeader(writer, "dsproxy_concurrency_limit", "gauge", null, "Max number of concurrent executions.");
+        for (Map.Entry<String, ConcurrencyLimiter> entry : this.concurrencyLimiters.entrySet()) {
+            writeSample(writer, "dsproxy_concurrency_limit", entry.getKey(), null, null);
+            writeLong(writer, entry.getValue().getDataSourceLimit().getMaxConcurrency(), buffer);
+            writer.write('\n');
+        }
+
+        writeHeader(writer, "dsproxy_concurrency_in_flight", "gauge", null, "Number of executions holding a permit.");
+        for (Map.Entry<String, ConcurrencyLimiter> entry : this.concurrencyLimiters.entrySet()) {
+            writeSample(writer, "dsproxy_concurrency_in_flight", entry.getKey(), null, null);
+            writeLong(writer, entry.getValue().getDataSourceLimit().getActiveCount(), buffer);
+            writer.write('\n');
+        }
+
+        writeHeader(writer, "dsproxy_concurrency_waiting", "gauge", null, "Number of executions waiting for a permit.");
+        for (Map.Entry<String, ConcurrencyLimiter> entry : this.concurrencyLimiters.entrySet()) {
+            writeSample(writer, "dsproxy_concurrency_waiting", entry.getKey(), null, null);
+            writeLong(writer, entry.getValue().getWaitingCount(), buffer);
+            writer.write('\n');
+        }
+
+        writeHeader(writer, "dsproxy_concurrency_rejected", "counter", null, "Number of executions rejected by the limit.");
+        for (Map.Entry<String, ConcurrencyLimiter> entry : this.concurrencyLimiters.entrySet()) {
+            writeSample(writer, "dsproxy_concurrency_rejected_total", entry.getKey(), null, null);
+            writeLong(writer, entry.getValue().getDataSourceLimit().getRejectedCount(), buffer);
+            writer.write('\n');
+        }
+
+        writer.write("# EOF\n");
+    }
+
+    private long getOpenConnectionCount(ConnectionIdManager connectionIdManager) {
+        if (connectionIdManager instanceof DefaultConnectionIdManager) {
+            // avoid taking snapshot of ids
+            return ((DefaultConnectionIdManager) connectionIdManager).getOpenConnectionCount();
+        }
+        return connectionIdManager.getOpenConnectionIds().size();
+    }
+
+    private void writeHistogram(Writer writer, String name, String dataSourceName, Histogram histogram, char[] buffer) throws IOException {
+        // always write all bucket boundaries, so that the set of series does not change between scrapes
+        long cumulative = 0;
+        for (int i = 0; i < Histogram.BUCKET_COUNT - 1; i++) {
+            cumulative += histogram.getBucketCount(i);
+            writeSample(writer, name + "_bucket", dataSourceName, "le", null);
+            writeMillisAsSeconds(writer, Histogram.getBucketUpperBound(i), buffer);
+            writer.write("\"} ");
+            writeLong(writer, cumulative, buffer);
+            writer.write('\n');
+        }
+        cumulative += histogram.getBucketCount(Histogram.BUCKET_COUNT - 1);
+
+        // use cumulative value as count, so that "+Inf" bucket and count are consistent
+        writeSample(writer, name + "_bucket", dataSourceName, "le", "+Inf");
+        writeLong(writer, cumulative, buffer);
+        writer.write('\n');
+        writeSample(writer, name + "_count", dataSourceName, null, null);
+        writeLong(writer, cumulative, buffer);
+        writer.write('\n');
+        writeSample(writer, name + "_sum", dataSourceName, null, null);
+        writeMillisAsSeconds(writer, histogram.getSum(), buffer);
+        writer.write('\n');
+    }
+
+    private void writeHeader(Writer writer, String name, String type, String unit, String help) throws IOException {
+        writer.write("# TYPE ");
+        writer.write(name);
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+        if (unit != null) {
+            writer.write("# UNIT ");
+            writer.write(name);
+            writer.write(' ');
+            writer.write(unit);
+            writer.write('\n');
+        }
+        writer.write("# HELP ");
+        writer.write(name);
+        writer.write(' ');
+        writer.write(help);
+        writer.write('\n');
+    }
+
+    /**
+     * Write metric name and labels followed by a space.
+     * When {@code labelValue} is {@code null} for a label, label value is left open for caller to write.
+     */
+    private void writeSample(Writer writer, String name, String dataSourceName, String labelName, String labelValue) throws IOException {
+        writer.write(name);
+        writer.write("{datasource=\"");
+        writeEscaped(writer, dataSourceName);
+        writer.write('"');
+        if (labelName != null) {
+            writer.write(',');
+            writer.write(labelName);
+            writer.write("=\"");
+            if (labelValue == null) {
+                return;
+            }
+            writer.write(labelValue);
+            writer.write('"');
+        }
+        writer.write("} ");
+    }
+
+    private void writeEscaped(Writer writer, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                writer.write("\\\\");
+            } else if (c == '"') {
+                writer.write("\\\"");
+            } else if (c == '\n') {
+                writer.write("\\n");
+            } else {
+                writer.write(c);
+            }
+        }
+    }
+
+    // write "seconds.millis" e.g. 1234 => "1.234"
+    private void writeMillisAsSeconds(Writer writer, long millis, char[] buffer) throws IOException {
+        writeLong(writer, millis / 1000, buffer);
+        writer.write('.');
+        long fraction = millis % 1000;
+        if (fraction < 100) {
+            writer.write('0');
+        }
+        if (fraction < 10) {
+            writer.write('0');
+        }
+        writeLong(writer, fraction, buffer);
+    }
+
+    private void writeLong(Writer writer, long value, char[] buffer) throws IOException {
+        if (value < 0) {
+            // counters never become negative; keep it simple
+            writer.write(Long.toString(value));
+            return;
+        }
+        int pos = buffer.length;
+        do {
+            buffer[--pos] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        writer.write(buffer, pos, buffer.length - pos);
+    }
+
+}
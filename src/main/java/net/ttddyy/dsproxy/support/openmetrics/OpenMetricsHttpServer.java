@@ -0,0 +1,111 @@
+package net.ttddyy.dsproxy.support.openmetrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.ttddyy.dsproxy.DataSourceProxyException;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+
+/**
+ * Minimal HTTP endpoint that serves {@link OpenMetricsExporter} output, using the JDK built-in
+ * {@code com.sun.net.httpserver}.
+ *
+ * <pre>
+ * {@code
+ *   OpenMetricsHttpServer server = new OpenMetricsHttpServer(exporter, new InetSocketAddress(9404));
+ *   server.start();  // serves "http://localhost:9404/metrics"
+ *   ...
+ *   server.stop();
+ * }
+ * </pre>
+ *
+ * Requests are handled by a single thread that is started by the server.
+ * {@code com.sun.net.httpserver} is available on Oracle JDK and OpenJDK since java6.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+@IgnoreJRERequirement
+public class OpenMetricsHttpServer {
+
+    public static final String DEFAULT_PATH = "/metrics";
+
+    private final OpenMetricsExporter exporter;
+    private final InetSocketAddress address;
+    private final String path;
+    private HttpServer server;
+
+    public OpenMetricsHttpServer(OpenMetricsExporter exporter, InetSocketAddress address) {
+        this(exporter, address, DEFAULT_PATH);
+    }
+
+    public OpenMetricsHttpServer(OpenMetricsExporter exporter, InetSocketAddress address, String path) {
+        this.exporter = exporter;
+        this.address = address;
+        this.path = path;
+    }
+
+    public synchronized void start() {
+        if (this.server != null) {
+            return;
+        }
+        try {
+            this.server = HttpServer.create(this.address, 0);
+        } catch (IOException e) {
+            throw new DataSourceProxyException("Failed to start metrics http server on " + this.address, e);
+        }
+        this.server.createContext(this.path, new MetricsHandler());
+        this.server.start();
+    }
+
+    public synchronized void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.server = null;
+        }
+    }
+
+    /**
+     * @return bound address. useful when started with port {@code 0}. {@code null} if not started.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return this.server == null ? null : this.server.getAddress();
+    }
+
+    @IgnoreJRERequirement
+    private class MetricsHandler implements HttpHandler {
+
+        // reused between requests. the server handles requests on a single thread.
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                this.buffer.reset();
+                Writer writer = new OutputStreamWriter(this.buffer, "UTF-8");
+                exporter.write(writer);
+                writer.flush();
+
+                exchange.getResponseHeaders().set("Content-Type", OpenMetricsExporter.CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, this.buffer.size());
+                OutputStream out = exchange.getResponseBody();
+                this.buffer.writeTo(out);
+                out.flush();
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+}
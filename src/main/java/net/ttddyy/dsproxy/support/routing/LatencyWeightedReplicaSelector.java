@@ -0,0 +1,40 @@
+package net.ttddyy.dsproxy.support.routing;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Choose a replica by execution time weighted with load.
+ *
+ * Two replicas are picked at random, and the one with lower {@code latency * (inFlight + 1)} is chosen. Comparing a
+ * random pair, instead of always taking the best one, keeps connections from piling up on a replica that looked the
+ * fastest when they were acquired. Replicas without executions yet have no latency and are preferred.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class LatencyWeightedReplicaSelector implements ReplicaSelector {
+
+    private final Random random = new Random();
+
+    @Override
+    public Replica select(List<Replica> replicas) {
+        int size = replicas.size();
+        if (size == 1) {
+            return replicas.get(0);
+        }
+        int first = this.random.nextInt(size);
+        int second = this.random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        Replica a = replicas.get(first);
+        Replica b = replicas.get(second);
+        return getScore(a) <= getScore(b) ? a : b;
+    }
+
+    protected double getScore(Replica replica) {
+        return replica.getLatency() * (replica.getInFlightCount() + 1);
+    }
+
+}
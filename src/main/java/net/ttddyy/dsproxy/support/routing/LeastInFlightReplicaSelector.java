@@ -0,0 +1,35 @@
+package net.ttddyy.dsproxy.support.routing;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Choose the replica with the fewest executing statements.
+ *
+ * Ties are broken in round-robin order, so that idle replicas share connections evenly.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class LeastInFlightReplicaSelector implements ReplicaSelector {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public Replica select(List<Replica> replicas) {
+        int size = replicas.size();
+        int offset = (this.counter.getAndIncrement() & Integer.MAX_VALUE) % size;
+        Replica selected = null;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((offset + i) % size);
+            int inFlight = replica.getInFlightCount();
+            if (inFlight < min) {
+                min = inFlight;
+                selected = replica;
+            }
+        }
+        return selected;
+    }
+
+}
@@ -0,0 +1,223 @@
+package net.ttddyy.dsproxy.support.routing;
+
+import net.ttddyy.dsproxy.QueryType;
+import net.ttddyy.dsproxy.listener.QueryUtils;
+import net.ttddyy.dsproxy.proxy.LazyConnectionFactory;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * A {@link DataSource} that sends reads to replicas and everything else to the primary.
+ *
+ * <p>Connections returned by this datasource do not hold a physical connection until a statement is created. Then,
+ * based on the SQL given to {@link Connection#prepareStatement(String)}, they borrow a connection from:
+ * <ul>
+ * <li>a replica, for read queries({@link #isReadQuery(String)}) unless a write has been executed in the current
+ * transaction, and for all statements while the connection is {@link Connection#setReadOnly(boolean) read-only}
+ * <li>the primary, for other queries, {@link Connection#createStatement()} and {@link Connection#prepareCall(String)}.
+ * In a transaction, once a statement goes to the primary, all following statements go to the primary until the
+ * transaction ends.
+ * </ul>
+ * Therefore, a transaction that only reads never touches the primary. Each connection borrows at most one primary and
+ * one replica connection, and keeps them until it is closed. The primary connection is created by
+ * {@link LazyConnectionFactory}. Connection settings such as auto-commit and isolation level are recorded and replayed
+ * on borrowed connections. Commit and rollback are applied to all borrowed connections. Other methods use the primary
+ * connection, or the replica connection if only that one is borrowed.
+ *
+ * <p>Settings that have not been set are answered from defaults of the primary, which are read from the first primary
+ * connection unless set to {@link #getLazyConnectionFactory()} beforehand.
+ *
+ * <p>A replica is chosen by {@link ReplicaSelector}(default {@link LeastInFlightReplicaSelector}) among replicas that
+ * {@link ReplicaLagPolicy} considers available. When none is available, reads go to the primary. Replica datasources
+ * are wrapped with {@link net.ttddyy.dsproxy.support.ProxyDataSource} to collect load statistics for the selector.
+ *
+ * <pre>
+ * ReadWriteRoutingDataSource ds = new ReadWriteRoutingDataSource(primary, Arrays.asList(replica1, replica2));
+ * ds.setReplicaSelector(new LatencyWeightedReplicaSelector());
+ * ds.setReplicaLagPolicy(lagPolicy);
+ * </pre>
+ *
+ * Statements return the connection of the datasource they are created from for {@code getConnection()}.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class ReadWriteRoutingDataSource implements DataSource {
+
+    private static final String[] LOCKING_CLAUSES = {
+            "for update", "for share", "for no key update", "for key share", "lock in share mode"
+    };
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private volatile ReplicaSelector replicaSelector = new LeastInFlightReplicaSelector();
+    private volatile ReplicaLagPolicy replicaLagPolicy;
+    private final LazyConnectionFactory lazyConnectionFactory = new LazyConnectionFactory();
+
+    public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas) {
+        this.primary = primary;
+        List<Replica> list = new ArrayList<Replica>(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            list.add(new Replica("replica-" + i, replicas.get(i)));
+        }
+        this.replicas = Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return createConnection(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return createConnection(username, password);
+    }
+
+    private Connection createConnection(String username, String password) {
+        RoutingConnectionInvocationHandler handler = new RoutingConnectionInvocationHandler(this, username, password);
+        return (Connection) Proxy.newProxyInstance(ReadWriteRoutingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
+    /**
+     * Whether the query only reads and can be served by a replica.
+     *
+     * Default implementation accepts {@link QueryType#SELECT} queries without locking clauses such as
+     * {@code FOR UPDATE}.
+     *
+     * @param query a query
+     * @return {@code true} for read query
+     */
+    protected boolean isReadQuery(String query) {
+        if (QueryUtils.getQueryType(query) != QueryType.SELECT) {
+            return false;
+        }
+        String lowerCase = query.toLowerCase(Locale.ROOT);
+        for (String clause : LOCKING_CLAUSES) {
+            if (lowerCase.contains(clause)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a replica to read from. {@code null} if no replica is available.
+     */
+    Replica selectReplica() {
+        ReplicaLagPolicy lagPolicy = this.replicaLagPolicy;
+        List<Replica> candidates = this.replicas;
+        if (lagPolicy != null) {
+            candidates = new ArrayList<Replica>(this.replicas.size());
+            for (Replica replica : this.replicas) {
+                if (lagPolicy.isAvailable(replica)) {
+                    candidates.add(replica);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        return this.replicaSelector.select(candidates);
+    }
+
+    boolean isAvailable(Replica replica) {
+        ReplicaLagPolicy lagPolicy = this.replicaLagPolicy;
+        return lagPolicy == null || lagPolicy.isAvailable(replica);
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @return total number of connections borrowed from the primary, including closed ones
+     */
+    public long getPrimaryConnectionCount() {
+        return this.lazyConnectionFactory.getBorrowedCount();
+    }
+
+    /**
+     * Factory of lazy primary connections. Defaults of connection settings can be set to it, so that
+     * {@code getAutoCommit()} etc. before any connection has been borrowed do not borrow the primary.
+     *
+     * @return factory of lazy primary connections
+     */
+    public LazyConnectionFactory getLazyConnectionFactory() {
+        return lazyConnectionFactory;
+    }
+
+    public ReplicaSelector getReplicaSelector() {
+        return replicaSelector;
+    }
+
+    public void setReplicaSelector(ReplicaSelector replicaSelector) {
+        this.replicaSelector = replicaSelector;
+    }
+
+    public ReplicaLagPolicy getReplicaLagPolicy() {
+        return replicaLagPolicy;
+    }
+
+    /**
+     * @param replicaLagPolicy lag policy. {@code null}(default) considers all replicas available.
+     */
+    public void setReplicaLagPolicy(ReplicaLagPolicy replicaLagPolicy) {
+        this.replicaLagPolicy = replicaLagPolicy;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return this.primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        this.primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        this.primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return this.primary.getLoginTimeout();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return this.primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || this.primary.isWrapperFor(iface);
+    }
+
+    @IgnoreJRERequirement
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return this.primary.getParentLogger();  // JDBC4.1 (jdk7+)
+    }
+
+}
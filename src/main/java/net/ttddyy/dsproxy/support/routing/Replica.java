@@ -0,0 +1,120 @@
+package net.ttddyy.dsproxy.support.routing;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read replica of {@link ReadWriteRoutingDataSource} and its load statistics.
+ *
+ * Statistics are collected by a {@link QueryExecutionListener} on the proxy of the replica datasource.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public class Replica {
+
+    private static final double LATENCY_DECAY = 0.2;
+
+    private final String name;
+    private final DataSource actualDataSource;
+    private final DataSource dataSource;  // proxy of the actual datasource collecting statistics
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicLong totalConnectionCount = new AtomicLong();
+    private final AtomicLong executionCount = new AtomicLong();
+    private final AtomicLong latency = new AtomicLong(Double.doubleToLongBits(0));
+
+    private final QueryExecutionListener statisticsListener = new QueryExecutionListener() {
+        @Override
+        public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+            Replica.this.inFlightCount.incrementAndGet();
+        }
+
+        @Override
+        public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+            Replica.this.inFlightCount.decrementAndGet();
+            recordLatency(execInfo.getElapsedTime());
+        }
+    };
+
+    Replica(String name, DataSource actualDataSource) {
+        this.name = name;
+        this.actualDataSource = actualDataSource;
+        this.dataSource = ProxyDataSourceBuilder.create(actualDataSource).name(name).listener(this.statisticsListener).build();
+    }
+
+    /**
+     * Update the exponentially weighted moving average of execution time.
+     *
+     * @param elapsedTime execution time in millis
+     */
+    void recordLatency(long elapsedTime) {
+        long count = this.executionCount.incrementAndGet();
+        long current;
+        double next;
+        do {
+            current = this.latency.get();
+            double average = Double.longBitsToDouble(current);
+            next = count == 1 ? elapsedTime : average + (elapsedTime - average) * LATENCY_DECAY;
+        } while (!this.latency.compareAndSet(current, Double.doubleToLongBits(next)));
+    }
+
+    void incrementTotalConnectionCount() {
+        this.totalConnectionCount.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return datasource to borrow connections from
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * @return datasource given to {@link ReadWriteRoutingDataSource}
+     */
+    public DataSource getActualDataSource() {
+        return actualDataSource;
+    }
+
+    /**
+     * @return number of statements currently executing on the replica
+     */
+    public int getInFlightCount() {
+        return this.inFlightCount.get();
+    }
+
+    /**
+     * @return moving average of execution time in millis. {@code 0} until a statement is executed.
+     */
+    public double getLatency() {
+        return Double.longBitsToDouble(this.latency.get());
+    }
+
+    public long getExecutionCount() {
+        return this.executionCount.get();
+    }
+
+    /**
+     * @return total number of connections borrowed from the replica, including closed ones
+     */
+    public long getTotalConnectionCount() {
+        return this.totalConnectionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.name + " [inFlight=" + getInFlightCount() + ", latency=" + getLatency() + "ms]";
+    }
+
+}
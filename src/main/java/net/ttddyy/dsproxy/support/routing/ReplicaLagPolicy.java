@@ -0,0 +1,23 @@
+package net.ttddyy.dsproxy.support.routing;
+
+/**
+ * Decide whether a replica is fresh enough to serve reads.
+ *
+ * Called when {@link ReadWriteRoutingDataSource} chooses a replica for a connection, and when a connection reuses its
+ * replica outside of a transaction. Implementations should answer from cached lag information, for example updated
+ * periodically by a background task, rather than querying the replica on each call.
+ *
+ * When no replica is available, reads go to the primary.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public interface ReplicaLagPolicy {
+
+    /**
+     * @param replica a replica
+     * @return {@code true} if the replica can serve reads
+     */
+    boolean isAvailable(Replica replica);
+
+}
@@ -0,0 +1,21 @@
+package net.ttddyy.dsproxy.support.routing;
+
+import java.util.List;
+
+/**
+ * Choose a replica to serve reads of a connection.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see LeastInFlightReplicaSelector
+ * @see LatencyWeightedReplicaSelector
+ * @since 1.4.5
+ */
+public interface ReplicaSelector {
+
+    /**
+     * @param replicas available replicas. never empty.
+     * @return chosen replica
+     */
+    Replica select(List<Replica> replicas);
+
+}
@@ -0,0 +1,247 @@
+package net.ttddyy.dsproxy.support.routing;
+
+import net.ttddyy.dsproxy.proxy.ConnectionSettings;
+import net.ttddyy.dsproxy.proxy.LazyConnectionFactory;
+import net.ttddyy.dsproxy.proxy.MethodUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Proxy InvocationHandler for {@link Connection} returned by {@link ReadWriteRoutingDataSource}.
+ *
+ * The primary connection is a lazy connection from {@link LazyConnectionFactory}, which records settings, ignores
+ * commit and rollback until it borrows, and answers settings from defaults of the primary. Replica connections are
+ * borrowed when a read is routed, and recorded settings are replayed on them. When the replica in use falls behind, a
+ * read is routed to another replica; the previous replica connection is kept until this connection is closed, since
+ * the application may still use statements or result sets created from it.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+class RoutingConnectionInvocationHandler implements InvocationHandler {
+
+    private final ReadWriteRoutingDataSource routingDataSource;
+    private final String username;
+    private final String password;
+    private final ConnectionSettings settings = new ConnectionSettings();
+
+    private final Connection primaryConnection;  // lazy connection
+    private boolean primaryUsed;  // a call has been routed to the primary connection
+    private Connection replicaConnection;
+    private Replica replica;
+    private Map<Replica, Connection> retiredConnections;  // replica connections switched away from. null until a switch.
+    private boolean writeTransaction;  // a statement has gone to the primary in current transaction
+    private boolean closed;
+
+    RoutingConnectionInvocationHandler(ReadWriteRoutingDataSource routingDataSource, String username, String password) {
+        this.routingDataSource = routingDataSource;
+        this.username = username;
+        this.password = password;
+        this.primaryConnection = routingDataSource.getLazyConnectionFactory()
+                .createConnection(routingDataSource.getPrimary(), username, password);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+
+        if ("toString".equals(methodName)) {
+            return "RoutingConnection [primary=" + this.primaryConnection + ", replica=" + this.replica + "]";
+        } else if ("hashCode".equals(methodName)) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(methodName)) {
+            return proxy == args[0];
+        } else if ("isClosed".equals(methodName)) {
+            return this.closed;
+        } else if ("close".equals(methodName)) {
+            close();
+            return null;
+        }
+
+        if (this.closed) {
+            throw new SQLException("Connection is closed");
+        }
+
+        if ("unwrap".equals(methodName) || "isWrapperFor".equals(methodName)) {
+            Class<?> iface = (Class<?>) args[0];
+            if (iface.isInstance(proxy)) {
+                return "unwrap".equals(methodName) ? proxy : Boolean.TRUE;
+            }
+        }
+
+        if (ConnectionSettings.isSetter(methodName)) {
+            return setState(method, args);
+        } else if (this.settings.hasValue(methodName)) {
+            return this.settings.getValue(methodName);
+        }
+
+        if ("commit".equals(methodName) || ("rollback".equals(methodName) && args == null)) {
+            this.writeTransaction = false;
+            return invokeOnBorrowed(method, args);
+        }
+
+        Connection target;
+        if ("prepareStatement".equals(methodName)) {
+            target = route((String) args[0]);
+        } else if ("createStatement".equals(methodName) || "prepareCall".equals(methodName)) {
+            target = route(null);
+        } else if ("setSavepoint".equals(methodName) || "releaseSavepoint".equals(methodName) || "rollback".equals(methodName)) {
+            target = getPrimaryConnection();  // savepoints belong to the connection taking writes
+        } else {
+            target = getAnyConnection();
+        }
+        return MethodUtils.proceedExecution(method, target, args);
+    }
+
+    private Object setState(Method method, Object[] args) throws Throwable {
+        if ("setAutoCommit".equals(method.getName())) {
+            this.writeTransaction = false;  // changing auto-commit mode ends the transaction
+        }
+        this.settings.record(method, args);
+        return invokeOnBorrowed(method, args);
+    }
+
+    private Object invokeOnBorrowed(Method method, Object[] args) throws Throwable {
+        if (this.replicaConnection != null) {
+            MethodUtils.proceedExecution(method, this.replicaConnection, args);
+        }
+        // lazy connection records settings and ignores commit/rollback until it borrows
+        MethodUtils.proceedExecution(method, this.primaryConnection, args);
+        return null;
+    }
+
+    /**
+     * @param query query of the statement. {@code null} when unknown.
+     * @return connection to create the statement from
+     */
+    private Connection route(String query) throws Throwable {
+        if (isReadOnly() || (!this.writeTransaction && query != null && this.routingDataSource.isReadQuery(query))) {
+            Connection connection = getReplicaConnection();
+            if (connection != null) {
+                return connection;
+            }
+        }
+        Connection connection = getPrimaryConnection();
+        if (!isAutoCommit()) {
+            this.writeTransaction = true;
+        }
+        return connection;
+    }
+
+    private boolean isReadOnly() {
+        Object readOnly = this.settings.getValue("isReadOnly");
+        if (readOnly == null) {
+            readOnly = this.routingDataSource.getLazyConnectionFactory().getDefaultReadOnly();  // not to borrow
+        }
+        return Boolean.TRUE.equals(readOnly);
+    }
+
+    private boolean isAutoCommit() throws SQLException {
+        Object autoCommit = this.settings.getValue("getAutoCommit");
+        if (autoCommit != null) {
+            return (Boolean) autoCommit;
+        }
+        Boolean defaultAutoCommit = this.routingDataSource.getLazyConnectionFactory().getDefaultAutoCommit();
+        if (defaultAutoCommit != null) {
+            return defaultAutoCommit;
+        }
+        // defaults are not known yet. ask a borrowed replica, or let the lazy primary borrow to learn them.
+        if (this.replicaConnection != null) {
+            return this.replicaConnection.getAutoCommit();
+        }
+        return this.primaryConnection.getAutoCommit();
+    }
+
+    private Connection getReplicaConnection() throws Throwable {
+        if (this.replicaConnection != null) {
+            if (!isAutoCommit() || this.routingDataSource.isAvailable(this.replica)) {
+                return this.replicaConnection;
+            }
+            // the replica has fallen behind. choose again unless in a transaction.
+            // statements of the connection may still be in use, so keep it open until close.
+            if (this.retiredConnections == null) {
+                this.retiredConnections = new HashMap<Replica, Connection>();
+            }
+            this.retiredConnections.put(this.replica, this.replicaConnection);
+            this.replicaConnection = null;
+            this.replica = null;
+        }
+        Replica replica = this.routingDataSource.selectReplica();
+        if (replica == null) {
+            return null;
+        }
+        Connection connection = this.retiredConnections == null ? null : this.retiredConnections.remove(replica);
+        if (connection != null) {
+            // caught up again. settings may have changed while retired.
+            this.settings.apply(connection);
+        } else {
+            connection = borrow(replica);
+        }
+        this.replica = replica;
+        this.replicaConnection = connection;
+        return connection;
+    }
+
+    private Connection borrow(Replica replica) throws Throwable {
+        Connection connection = this.username == null ? replica.getDataSource().getConnection()
+                : replica.getDataSource().getConnection(this.username, this.password);
+        replica.incrementTotalConnectionCount();
+        try {
+            this.settings.apply(connection);
+        } catch (Throwable ex) {
+            connection.close();
+            throw ex;
+        }
+        return connection;
+    }
+
+    private Connection getPrimaryConnection() {
+        this.primaryUsed = true;
+        return this.primaryConnection;
+    }
+
+    private Connection getAnyConnection() {
+        if (!this.primaryUsed && this.replicaConnection != null) {
+            return this.replicaConnection;
+        }
+        return getPrimaryConnection();
+    }
+
+    private void close() throws SQLException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        List<Connection> connections = new ArrayList<Connection>();
+        if (this.retiredConnections != null) {
+            connections.addAll(this.retiredConnections.values());
+        }
+        if (this.replicaConnection != null) {
+            connections.add(this.replicaConnection);
+        }
+        connections.add(this.primaryConnection);
+        SQLException thrown = null;
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                if (thrown == null) {
+                    thrown = ex;
+                }
+            }
+        }
+        this.replicaConnection = null;
+        this.retiredConnections = null;
+        if (thrown != null) {
+            throw thrown;
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+package net.ttddyy.dsproxy.transform;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Memoize results of a deterministic {@link QueryTransformer}.
+ *
+ * Transformed queries are cached by query, statement class, datasource name and batch flag. Each datasource has a
+ * map per statement class and batch flag keyed by query, so that {@link #getCachedQuery(Class, String, String, boolean)}
+ * looks up a query without creating a {@link TransformInfo} or a key object.
+ *
+ * The cache is bounded by {@link #getMaxSize()}. Each cached query occupies a slot; when a query is added, a randomly
+ * chosen slot is reused and the query previously held by the slot is evicted. Slots are only claimed by queries
+ * actually added, so concurrent misses never grow the cache beyond the bound.
+ * Only {@link Statement}, {@link PreparedStatement} and {@link CallableStatement} are cached.
+ *
+ * @author Tadaya Tsuyukubo
+ * @see DeterministicQueryTransformer
+ * @since 1.4.5
+ */
+public class CachingQueryTransformer implements DeterministicQueryTransformer {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static final Class<?>[] STATEMENT_CLASSES = new Class<?>[]{
+            Statement.class, PreparedStatement.class, CallableStatement.class};
+
+    /**
+     * Cached queries of a datasource. One map per statement class and batch flag, keyed by query.
+     */
+    private static class Segment {
+
+        private final List<ConcurrentMap<String, String>> maps;
+
+        public Segment() {
+            int size = STATEMENT_CLASSES.length * 2;
+            this.maps = new ArrayList<ConcurrentMap<String, String>>(size);
+            for (int i = 0; i < size; i++) {
+                this.maps.add(new ConcurrentHashMap<String, String>());
+            }
+        }
+
+        public ConcurrentMap<String, String> getMap(int index) {
+            return this.maps.get(index);
+        }
+
+        public void clear() {
+            for (ConcurrentMap<String, String> map : this.maps) {
+                map.clear();
+            }
+        }
+
+        public int size() {
+            int size = 0;
+            for (ConcurrentMap<String, String> map : this.maps) {
+                size += map.size();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Cache entry held by a slot. Used to remove the entry from its map when the slot is reused.
+     */
+    private static class Slot {
+
+        private final ConcurrentMap<String, String> map;
+        private final String query;
+        private final String transformed;
+
+        public Slot(ConcurrentMap<String, String> map, String query, String transformed) {
+            this.map = map;
+            this.query = query;
+            this.transformed = transformed;
+        }
+    }
+
+    private final QueryTransformer delegate;
+    private final int maxSize;
+    private final ConcurrentMap<String, Segment> segments = new ConcurrentHashMap<String, Segment>();
+    private final Segment nullNameSegment = new Segment();  // ConcurrentHashMap doesn't allow null key
+    private final AtomicReferenceArray<Slot> slots;
+    private final AtomicInteger usedSlots = new AtomicInteger();
+    private final Random random = new Random();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public CachingQueryTransformer(QueryTransformer delegate) {
+        this(delegate, DEFAULT_MAX_SIZE);
+    }
+
+    public CachingQueryTransformer(QueryTransformer delegate, int maxSize) {
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+        this.slots = new AtomicReferenceArray<Slot>(Math.max(maxSize, 0));
+    }
+
+    /**
+     * Look up the cached result without calling the delegate.
+     *
+     * @param clazz          statement class
+     * @param dataSourceName datasource name
+     * @param query          query
+     * @param batch          batch flag
+     * @return transformed query. {@code null} if it is not cached.
+     */
+    public String getCachedQuery(Class<? extends Statement> clazz, String dataSourceName, String query, boolean batch) {
+        if (query == null) {
+            return null;
+        }
+        ConcurrentMap<String, String> map = getMap(clazz, dataSourceName, batch, false);
+        if (map == null) {
+            return null;
+        }
+        String transformed = map.get(query);
+        if (transformed != null) {
+            this.hitCount.incrementAndGet();
+        }
+        return transformed;
+    }
+
+    @Override
+    public String transformQuery(TransformInfo transformInfo) {
+        String query = transformInfo.getQuery();
+        ConcurrentMap<String, String> map = query == null || this.maxSize <= 0 ? null :
+                getMap(transformInfo.getClazz(), transformInfo.getDataSourceName(), transformInfo.isBatch(), true);
+        if (map == null) {
+            return this.delegate.transformQuery(transformInfo);
+        }
+        String transformed = map.get(query);
+        if (transformed != null) {
+            this.hitCount.incrementAndGet();
+            return transformed;
+        }
+        this.missCount.incrementAndGet();
+        transformed = this.delegate.transformQuery(transformInfo);
+        if (transformed != null && map.putIfAbsent(query, transformed) == null) {
+            // fill empty slots first, then reuse a random one
+            int index = this.usedSlots.get() < this.maxSize ? this.usedSlots.getAndIncrement() : this.maxSize;
+            if (index >= this.maxSize) {
+                index = this.random.nextInt(this.maxSize);
+            }
+            Slot evicted = this.slots.getAndSet(index, new Slot(map, query, transformed));
+            if (evicted != null) {
+                evicted.map.remove(evicted.query, evicted.transformed);
+            }
+        }
+        return transformed;
+    }
+
+    private ConcurrentMap<String, String> getMap(Class<?> clazz, String dataSourceName, boolean batch, boolean create) {
+        int classIndex = -1;
+        for (int i = 0; i < STATEMENT_CLASSES.length; i++) {
+            if (STATEMENT_CLASSES[i] == clazz) {
+                classIndex = i;
+                break;
+            }
+        }
+        if (classIndex < 0) {
+            return null;
+        }
+        Segment segment;
+        if (dataSourceName == null) {
+            segment = this.nullNameSegment;
+        } else {
+            segment = this.segments.get(dataSourceName);
+            if (segment == null) {
+                if (!create) {
+                    return null;
+                }
+                Segment newSegment = new Segment();
+                segment = this.segments.putIfAbsent(dataSourceName, newSegment);
+                if (segment == null) {
+                    segment = newSegment;
+                }
+            }
+        }
+        return segment.getMap(classIndex * 2 + (batch ? 1 : 0));
+    }
+
+    public void clear() {
+        for (int i = 0; i < this.slots.length(); i++) {
+            this.slots.set(i, null);
+        }
+        this.usedSlots.set(0);
+        this.nullNameSegment.clear();
+        for (Segment segment : this.segments.values()) {
+            segment.clear();
+        }
+    }
+
+    public QueryTransformer getDelegate() {
+        return delegate;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getSize() {
+        int size = this.nullNameSegment.size();
+        for (Segment segment : this.segments.values()) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+}
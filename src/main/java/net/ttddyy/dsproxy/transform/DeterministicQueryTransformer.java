@@ -0,0 +1,16 @@
+package net.ttddyy.dsproxy.transform;
+
+/**
+ * Marker for {@link QueryTransformer} whose result depends only on query, statement class, datasource name and
+ * batch flag of {@link TransformInfo}, not on {@link TransformInfo#getCount()} nor any other state.
+ *
+ * {@link net.ttddyy.dsproxy.proxy.ProxyConfig.Builder#build()} wraps such transformer with
+ * {@link CachingQueryTransformer}, and statements reuse the transformed query for repeated
+ * {@link java.sql.Statement#addBatch(String)} calls.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public interface DeterministicQueryTransformer extends QueryTransformer {
+
+}
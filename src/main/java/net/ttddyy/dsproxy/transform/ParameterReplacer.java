@@ -11,41 +11,58 @@ import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.*;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
+ * Receive parameter changes made by {@link ParameterTransformer}.
+ *
+ * Given parameters are not copied nor modified. Changes are kept separately, so that only changed parameters need to
+ * be applied to the statement.
+ *
  * @author Tadaya Tsuyukubo
  * @since 1.2
  */
 public class ParameterReplacer {
 
-    private Map<ParameterKey, ParameterSetOperation> parameters = new LinkedHashMap<ParameterKey, ParameterSetOperation>();
+    private Map<ParameterKey, ParameterSetOperation> parameters;
+    private Map<ParameterKey, ParameterSetOperation> changedParameters = new LinkedHashMap<ParameterKey, ParameterSetOperation>();
     private boolean modified = false;
+    private boolean cleared = false;
 
     public ParameterReplacer() {
+        this.parameters = Collections.emptyMap();
     }
 
     public ParameterReplacer(Map<ParameterKey, ParameterSetOperation> parameters) {
-        // make a copy
-        this.parameters.putAll(parameters);
+        this.parameters = parameters;
     }
 
     @SuppressWarnings("unchecked")
     public <T> T getValue(int index) {
         ParameterKey parameterKey = new ParameterKey(index);
-        return (T) this.parameters.get(parameterKey).getArgs()[1];  // index 1 in arguments is always value
+        return (T) getOperation(parameterKey).getArgs()[1];  // index 1 in arguments is always value
     }
 
     @SuppressWarnings("unchecked")
     public <T> T getValue(String paramName) {
         ParameterKey parameterKey = new ParameterKey(paramName);
-        return (T) this.parameters.get(parameterKey).getArgs()[1];  // index 1 in arguments is always value
+        return (T) getOperation(parameterKey).getArgs()[1];  // index 1 in arguments is always value
+    }
+
+    private ParameterSetOperation getOperation(ParameterKey parameterKey) {
+        ParameterSetOperation operation = this.changedParameters.get(parameterKey);
+        if (operation == null && !this.cleared) {
+            operation = this.parameters.get(parameterKey);
+        }
+        return operation;
     }
 
     public void clearParameters() {
-        this.parameters.clear();
+        this.changedParameters.clear();
         modified = true;
+        cleared = true;
     }
 
     private Method getDeclaredMethod(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
@@ -58,13 +75,13 @@ public class ParameterReplacer {
 
     private void record(int parameterIndex, Method paramMethod, Object... args) {
         ParameterKey parameterKey = new ParameterKey(parameterIndex);
-        this.parameters.put(parameterKey, new ParameterSetOperation(paramMethod, args));
+        this.changedParameters.put(parameterKey, new ParameterSetOperation(paramMethod, args));
         modified = true;
     }
 
     private void recordByName(String parameterName, Method paramMethod, Object... args) {
         ParameterKey parameterKey = new ParameterKey(parameterName);
-        this.parameters.put(parameterKey, new ParameterSetOperation(paramMethod, args));
+        this.changedParameters.put(parameterKey, new ParameterSetOperation(paramMethod, args));
         modified = true;
     }
 
@@ -72,8 +89,32 @@ public class ParameterReplacer {
         return modified;
     }
 
+    /**
+     * @return {@code true} if {@link #clearParameters()} is called
+     * @since 1.4.5
+     */
+    public boolean isCleared() {
+        return cleared;
+    }
+
+    /**
+     * @return all parameters after modification
+     */
     public Map<ParameterKey, ParameterSetOperation> getModifiedParameters() {
-        return this.parameters;
+        Map<ParameterKey, ParameterSetOperation> result = new LinkedHashMap<ParameterKey, ParameterSetOperation>();
+        if (!this.cleared) {
+            result.putAll(this.parameters);
+        }
+        result.putAll(this.changedParameters);
+        return result;
+    }
+
+    /**
+     * @return parameters set by the transformer. When {@link #isCleared()}, this is all parameters.
+     * @since 1.4.5
+     */
+    public Map<ParameterKey, ParameterSetOperation> getChangedParameters() {
+        return Collections.unmodifiableMap(this.changedParameters);
     }
 
 
@@ -0,0 +1,20 @@
+package net.ttddyy.dsproxy.transform;
+
+/**
+ * {@link ParameterTransformer} that declares which queries it applies to.
+ *
+ * {@link #isApplicable(String)} is called once per prepared statement. When it returns {@code false},
+ * {@link #transformParameters(ParameterReplacer, TransformInfo)} is never called for the statement.
+ *
+ * @author Tadaya Tsuyukubo
+ * @since 1.4.5
+ */
+public interface SelectiveParameterTransformer extends ParameterTransformer {
+
+    /**
+     * @param query query of the prepared statement
+     * @return {@code true} if parameters of the query may be transformed
+     */
+    boolean isApplicable(String query);
+
+}
@@ -0,0 +1,65 @@
+package net.ttddyy.dsproxy;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measure bytes allocated by the current thread using {@code com.sun.management.ThreadMXBean}.
+ *
+ * @author Tadaya Tsuyukubo
+ */
+public class AllocationMeter {
+
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int MEASURE_ITERATIONS = 10000;
+    private static final int ROUNDS = 5;
+
+    private final com.sun.management.ThreadMXBean threadMXBean;
+
+    public AllocationMeter() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            this.threadMXBean = (com.sun.management.ThreadMXBean) bean;
+            if (this.threadMXBean.isThreadAllocatedMemorySupported()) {
+                this.threadMXBean.setThreadAllocatedMemoryEnabled(true);
+            }
+        } else {
+            this.threadMXBean = null;
+        }
+    }
+
+    public boolean isSupported() {
+        return this.threadMXBean != null && this.threadMXBean.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Run the operation in a tight loop and return bytes allocated per operation.
+     *
+     * The smallest value among several rounds is returned, so that one-off allocations (class loading, JIT, etc.)
+     * do not affect the result.
+     *
+     * @param operation operation to measure
+     * @return allocated bytes per operation
+     */
+    public long measure(Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long min = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = this.threadMXBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+                operation.run();
+            }
+            long after = this.threadMXBean.getThreadAllocatedBytes(threadId);
+            min = Math.min(min, (after - before) / MEASURE_ITERATIONS);
+        }
+        return min;
+    }
+
+}
@@ -0,0 +1,167 @@
+package net.ttddyy.dsproxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Verify bytes allocated per JDBC operation by the proxy stay within budgets.
+ *
+ * Operations run against {@link StubDataSource} which does not allocate by itself. Allocation of the raw datasource is
+ * subtracted from the proxied one, so that budgets only account for the proxy. When a change increases allocation in
+ * hot paths, update the budget only if the increase is intended.
+ *
+ * @author Tadaya Tsuyukubo
+ */
+@RunWith(Parameterized.class)
+public class ProxyAllocationTest {
+
+    private static final String SELECT = "SELECT id, name FROM emp";
+    private static final String SELECT_BY_ID = "SELECT id, name FROM emp WHERE id = ?";
+
+    // budget in bytes per operation: executeQuery, setLong, setLong+executeQuery, next+getString
+    // highest allocation measured on JDK 8, 11, 17 and 21 is:
+    //   NO_LISTENER      256,  96,  488,   0
+    //   COUNT_ONLY      2616,  72, 2816,   0
+    //   REPEATABLE_READ  928,  72, 1104, 136
+    // budgets leave room for differences in JIT(escape analysis) and JDK versions
+    @Parameterized.Parameters(name = "{0}")
+    public static Object[][] getBudgets() {
+        return new Object[][]{
+                {ProxyConfigurations.NO_LISTENER, 800, 384, 1600, 64},
+                {ProxyConfigurations.COUNT_ONLY, 3200, 384, 3800, 64},
+                {ProxyConfigurations.REPEATABLE_READ, 1280, 384, 1800, 384},
+        };
+    }
+
+    private final ProxyConfigurations configuration;
+    private final long executeQueryBudget;
+    private final long setLongBudget;
+    private final long preparedExecuteQueryBudget;
+    private final long getStringBudget;
+
+    private AllocationMeter meter;
+    private Connection rawConnection;
+    private Connection proxyConnection;
+
+    public ProxyAllocationTest(ProxyConfigurations configuration, long executeQueryBudget, long setLongBudget,
+                               long preparedExecuteQueryBudget, long getStringBudget) {
+        this.configuration = configuration;
+        this.executeQueryBudget = executeQueryBudget;
+        this.setLongBudget = setLongBudget;
+        this.preparedExecuteQueryBudget = preparedExecuteQueryBudget;
+        this.getStringBudget = getStringBudget;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.meter = new AllocationMeter();
+        assumeTrue("thread allocation measurement is not supported", this.meter.isSupported());
+
+        DataSource actualDataSource = new StubDataSource(Integer.MAX_VALUE, 3);
+        this.rawConnection = actualDataSource.getConnection();
+        this.proxyConnection = this.configuration.create(actualDataSource).getConnection();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.proxyConnection != null) {
+            this.proxyConnection.close();
+        }
+        if (this.rawConnection != null) {
+            this.rawConnection.close();
+        }
+    }
+
+    @Test
+    public void statementExecuteQuery() throws Exception {
+        long allocated = measure(new ConnectionOperation() {
+            @Override
+            public AllocationMeter.Operation create(Connection connection) throws Exception {
+                final Statement statement = connection.createStatement();
+                return new AllocationMeter.Operation() {
+                    @Override
+                    public void run() throws Exception {
+                        statement.executeQuery(SELECT);
+                    }
+                };
+            }
+        });
+        assertThat(allocated).as("bytes per executeQuery").isLessThanOrEqualTo(this.executeQueryBudget);
+    }
+
+    @Test
+    public void preparedStatementSetLong() throws Exception {
+        long allocated = measure(new ConnectionOperation() {
+            @Override
+            public AllocationMeter.Operation create(Connection connection) throws Exception {
+                final PreparedStatement ps = connection.prepareStatement(SELECT_BY_ID);
+                return new AllocationMeter.Operation() {
+                    @Override
+                    public void run() throws Exception {
+                        ps.setLong(1, 100L);
+                    }
+                };
+            }
+        });
+        assertThat(allocated).as("bytes per setLong").isLessThanOrEqualTo(this.setLongBudget);
+    }
+
+    @Test
+    public void preparedStatementExecuteQuery() throws Exception {
+        long allocated = measure(new ConnectionOperation() {
+            @Override
+            public AllocationMeter.Operation create(Connection connection) throws Exception {
+                final PreparedStatement ps = connection.prepareStatement(SELECT_BY_ID);
+                return new AllocationMeter.Operation() {
+                    @Override
+                    public void run() throws Exception {
+                        ps.setLong(1, 100L);
+                        ps.executeQuery();
+                    }
+                };
+            }
+        });
+        assertThat(allocated).as("bytes per setLong and executeQuery").isLessThanOrEqualTo(this.preparedExecuteQueryBudget);
+    }
+
+    @Test
+    public void resultSetGetString() throws Exception {
+        long allocated = measure(new ConnectionOperation() {
+            @Override
+            public AllocationMeter.Operation create(Connection connection) throws Exception {
+                final ResultSet rs = connection.createStatement().executeQuery(SELECT);
+                return new AllocationMeter.Operation() {
+                    @Override
+                    public void run() throws Exception {
+                        rs.next();
+                        rs.getString(1);
+                    }
+                };
+            }
+        });
+        assertThat(allocated).as("bytes per next and getString").isLessThanOrEqualTo(this.getStringBudget);
+    }
+
+    private interface ConnectionOperation {
+        AllocationMeter.Operation create(Connection connection) throws Exception;
+    }
+
+    private long measure(ConnectionOperation connectionOperation) throws Exception {
+        long raw = this.meter.measure(connectionOperation.create(this.rawConnection));
+        long proxied = this.meter.measure(connectionOperation.create(this.proxyConnection));
+        return proxied - raw;
+    }
+
+}
@@ -0,0 +1,91 @@
+package net.ttddyy.dsproxy;
+
+import net.ttddyy.dsproxy.listener.TracingMethodListener;
+import net.ttddyy.dsproxy.listener.logging.AbstractQueryLoggingListener;
+import net.ttddyy.dsproxy.listener.logging.LoggingCondition;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+
+import javax.sql.DataSource;
+
+/**
+ * Proxy configurations used by benchmarks and allocation tests.
+ *
+ * Logging and tracing configurations build log messages but discard them, so that I/O does not skew measurements.
+ *
+ * @author Tadaya Tsuyukubo
+ */
+public enum ProxyConfigurations {
+
+    /**
+     * Actual datasource without proxy.
+     */
+    RAW {
+        @Override
+        public DataSource create(DataSource dataSource) {
+            return dataSource;
+        }
+    },
+
+    /**
+     * Proxy without any listener.
+     */
+    NO_LISTENER {
+        @Override
+        public DataSource create(DataSource dataSource) {
+            return ProxyDataSourceBuilder.create(dataSource).build();
+        }
+    },
+
+    COUNT_ONLY {
+        @Override
+        public DataSource create(DataSource dataSource) {
+            return ProxyDataSourceBuilder.create(dataSource).countQuery().build();
+        }
+    },
+
+    LOGGING {
+        @Override
+        public DataSource create(DataSource dataSource) {
+            return ProxyDataSourceBuilder.create(dataSource).listener(new AbstractQueryLoggingListener() {
+                {
+                    this.loggingCondition = new LoggingCondition() {
+                        @Override
+                        public boolean getAsBoolean() {
+                            return true;
+                        }
+                    };
+                }
+
+                @Override
+                protected void writeLog(String message) {
+                    sink = message;
+                }
+            }).build();
+        }
+    },
+
+    TRACING {
+        @Override
+        public DataSource create(DataSource dataSource) {
+            return ProxyDataSourceBuilder.create(dataSource).traceMethods(new TracingMethodListener.TracingMessageConsumer() {
+                @Override
+                public void accept(String message) {
+                    sink = message;
+                }
+            }).build();
+        }
+    },
+
+    REPEATABLE_READ {
+        @Override
+        public DataSource create(DataSource dataSource) {
+            return ProxyDataSourceBuilder.create(dataSource).repeatableReadResultSet().build();
+        }
+    };
+
+    // keep the last message reachable so that building it cannot be optimized away
+    static volatile String sink;
+
+    public abstract DataSource create(DataSource dataSource);
+
+}
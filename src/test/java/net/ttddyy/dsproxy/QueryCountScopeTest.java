@@ -0,0 +1,142 @@
+package net.ttddyy.dsproxy;
+
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class QueryCountScopeTest {
+
+    private DataSource jdbcDataSource;
+    private DataSource dataSource;
+
+    @Before
+    public void setup() throws Exception {
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+        this.dataSource = ProxyDataSourceBuilder.create(this.jdbcDataSource).name("myDS").countQuery().build();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        QueryCountHolder.clear();
+        TestUtils.shutdown(this.jdbcDataSource);
+    }
+
+    private void select() throws Exception {
+        try (Connection conn = this.dataSource.getConnection()) {
+            conn.createStatement().executeQuery("SELECT id FROM emp");
+        }
+    }
+
+    @Test
+    public void openAndClose() throws Exception {
+        select();
+        assertThat(QueryCountHolder.get("myDS").getSelect()).isEqualTo(1);
+
+        QueryCountScope scope = QueryCountScope.open();
+        assertThat(QueryCountScope.current()).isSameAs(scope);
+        try {
+            select();
+            select();
+            assertThat(QueryCountHolder.get("myDS").getSelect()).isEqualTo(2);
+        } finally {
+            scope.close();
+        }
+
+        assertThat(QueryCountScope.current()).isNull();
+        assertThat(scope.get("myDS").getSelect()).isEqualTo(2);
+        assertThat(scope.getGrandTotal().getTotal()).isEqualTo(2);
+
+        // thread local value is intact
+        assertThat(QueryCountHolder.get("myDS").getSelect()).isEqualTo(1);
+    }
+
+    @Test
+    public void nested() throws Exception {
+        QueryCountScope outer = QueryCountScope.open();
+        select();
+        QueryCountScope inner = QueryCountScope.open();
+        select();
+        inner.close();
+        assertThat(QueryCountScope.current()).isSameAs(outer);
+        select();
+        outer.close();
+        assertThat(QueryCountScope.current()).isNull();
+
+        assertThat(outer.get("myDS").getSelect()).isEqualTo(2);
+        assertThat(inner.get("myDS").getSelect()).isEqualTo(1);
+    }
+
+    @Test
+    public void closeWithLeakedInnerScope() throws Exception {
+        QueryCountScope outer = QueryCountScope.open();
+        QueryCountScope.open();  // not closed
+        outer.close();
+        assertThat(QueryCountScope.current()).isNull();
+
+        outer.close();  // no-op
+        assertThat(QueryCountScope.current()).isNull();
+    }
+
+    @Test
+    public void wrapExecutor() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        QueryCountScope scope = QueryCountScope.open();
+        try {
+            Executor executor = scope.wrap(executorService);
+            for (int i = 0; i < 10; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            select();
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+            }
+            Future<Long> future = executorService.submit(scope.wrap(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    select();
+                    return QueryCountHolder.get("myDS").getSelect();
+                }
+            }));
+            assertThat(future.get()).isGreaterThanOrEqualTo(1);
+
+            // pool threads do not keep the scope after wrapped tasks
+            for (int i = 0; i < 4; i++) {
+                Future<QueryCountScope> current = executorService.submit(new Callable<QueryCountScope>() {
+                    @Override
+                    public QueryCountScope call() throws Exception {
+                        return QueryCountScope.current();
+                    }
+                });
+                assertThat(current.get()).isNull();
+            }
+        } finally {
+            scope.close();
+            executorService.shutdown();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        assertThat(scope.get("myDS").getSelect()).isEqualTo(11);
+
+    }
+
+}
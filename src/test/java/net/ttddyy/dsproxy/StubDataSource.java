@@ -0,0 +1,228 @@
+package net.ttddyy.dsproxy;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * No-op JDBC implementation for measuring proxy overhead.
+ *
+ * All JDBC objects are shared and do nothing. {@link ResultSet} returned from queries has {@link #getRowCount()} rows
+ * of constant values. Apart from what {@link Proxy} requires, calling JDBC methods does not allocate, so that the
+ * cost of the proxy stands out in benchmarks and allocation tests.
+ *
+ * @author Tadaya Tsuyukubo
+ */
+public class StubDataSource implements DataSource {
+
+    private static final String STRING_VALUE = "value";
+    private static final Long LONG_VALUE = 1L;
+    private static final Integer INT_VALUE = 1;
+    private static final int[] BATCH_RESULT = new int[0];
+
+    private final int rowCount;
+    private final int columnCount;
+    private final String[] columnLabels;
+
+    private final Connection connection;
+    private final Statement statement;
+    private final PreparedStatement preparedStatement;
+    private final CallableStatement callableStatement;
+    private final ResultSet resultSet;
+    private final ResultSetMetaData resultSetMetaData;
+    private final DatabaseMetaData databaseMetaData;
+
+    // cursor of the shared result set
+    private int currentRow;
+
+    public StubDataSource() {
+        this(10, 3);
+    }
+
+    public StubDataSource(int rowCount, int columnCount) {
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        this.columnLabels = new String[columnCount + 1];
+        for (int i = 1; i <= columnCount; i++) {
+            this.columnLabels[i] = "COL" + i;
+        }
+
+        this.connection = createStub(Connection.class, new ConnectionHandler());
+        this.statement = createStub(Statement.class, new StatementHandler());
+        this.preparedStatement = createStub(PreparedStatement.class, new StatementHandler());
+        this.callableStatement = createStub(CallableStatement.class, new StatementHandler());
+        this.resultSet = createStub(ResultSet.class, new ResultSetHandler());
+        this.resultSetMetaData = createStub(ResultSetMetaData.class, new ResultSetMetaDataHandler());
+        this.databaseMetaData = createStub(DatabaseMetaData.class, new DefaultValueHandler());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T createStub(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object defaultValue(Class<?> returnType) {
+        if (returnType == boolean.class) {
+            return Boolean.FALSE;
+        } else if (returnType == int.class) {
+            return 0;
+        } else if (returnType == long.class) {
+            return 0L;
+        } else if (returnType == double.class) {
+            return 0d;
+        } else if (returnType == float.class) {
+            return 0f;
+        } else if (returnType == short.class) {
+            return (short) 0;
+        } else if (returnType == byte.class) {
+            return (byte) 0;
+        }
+        return null;
+    }
+
+    private static class DefaultValueHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("toString".equals(name)) {
+                return "stub";
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    private class ConnectionHandler extends DefaultValueHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("createStatement".equals(name)) {
+                return statement;
+            } else if ("prepareStatement".equals(name)) {
+                return preparedStatement;
+            } else if ("prepareCall".equals(name)) {
+                return callableStatement;
+            } else if ("getAutoCommit".equals(name)) {
+                return Boolean.TRUE;
+            } else if ("getMetaData".equals(name)) {
+                return databaseMetaData;
+            }
+            return super.invoke(proxy, method, args);
+        }
+    }
+
+    private class StatementHandler extends DefaultValueHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("executeQuery".equals(name) || "getResultSet".equals(name)) {
+                currentRow = 0;
+                return resultSet;
+            } else if ("executeUpdate".equals(name)) {
+                return INT_VALUE;
+            } else if ("executeBatch".equals(name)) {
+                return BATCH_RESULT;
+            } else if ("getConnection".equals(name)) {
+                return connection;
+            } else if ("getUpdateCount".equals(name)) {
+                return -1;
+            }
+            return super.invoke(proxy, method, args);
+        }
+    }
+
+    private class ResultSetHandler extends DefaultValueHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("next".equals(name)) {
+                return ++currentRow <= rowCount;
+            } else if ("getString".equals(name) || "getObject".equals(name)) {
+                return STRING_VALUE;
+            } else if ("getLong".equals(name)) {
+                return LONG_VALUE;
+            } else if ("getInt".equals(name)) {
+                return INT_VALUE;
+            } else if ("getMetaData".equals(name)) {
+                return resultSetMetaData;
+            }
+            return super.invoke(proxy, method, args);
+        }
+    }
+
+    private class ResultSetMetaDataHandler extends DefaultValueHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("getColumnCount".equals(name)) {
+                return columnCount;
+            } else if ("getColumnLabel".equals(name) || "getColumnName".equals(name)) {
+                return columnLabels[(Integer) args[0]];
+            }
+            return super.invoke(proxy, method, args);
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return this.connection;
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return this.connection;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new SQLException("Not a wrapper");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return false;
+    }
+
+}
@@ -0,0 +1,161 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.proxy.JdbcProxyFactory;
+import net.ttddyy.dsproxy.proxy.ProxyConfig;
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class ConnectionLeakDetectorTest {
+
+    private DataSource jdbcDataSource;
+
+    @Before
+    public void setup() throws Exception {
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        TestUtils.shutdown(this.jdbcDataSource);
+    }
+
+    @Test
+    public void detectLeak() throws Exception {
+        final List<ConnectionLeakDetector.TrackedConnection> leaks = new ArrayList<ConnectionLeakDetector.TrackedConnection>();
+        ConnectionLeakDetector detector = new ConnectionLeakDetector(50, TimeUnit.MILLISECONDS) {
+            @Override
+            protected void onLeakDetected(TrackedConnection trackedConnection) {
+                leaks.add(trackedConnection);
+            }
+        };
+        detector.setStackTraceSamplingRate(1);
+
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).name("myDS")
+                .listener(detector).methodListener(detector).build();
+
+        Connection leaked = ds.getConnection();
+        Statement stmt = leaked.createStatement();
+        stmt.executeQuery("SELECT * FROM emp");
+        stmt.close();
+
+        Connection returned = ds.getConnection();
+        returned.close();
+
+        assertThat(detector.getOpenConnections()).hasSize(1);
+        assertThat(detector.getHoldTimeHistogram().getCount()).isEqualTo(1);
+
+        Thread.sleep(100);
+        detector.checkLeaks();
+
+        assertThat(leaks).hasSize(1);
+        ConnectionLeakDetector.TrackedConnection tracked = leaks.get(0);
+        assertThat(tracked.getConnectionInfo().getDataSourceName()).isEqualTo("myDS");
+        assertThat(tracked.getLastQuery()).isEqualTo("SELECT * FROM emp");
+        assertThat(tracked.getAcquisitionStackTrace()).isNotEmpty();
+        assertThat(tracked.getThreadName()).isEqualTo(Thread.currentThread().getName());
+        assertThat(detector.getLeakDescription(tracked)).contains("SELECT * FROM emp").contains(getClass().getName());
+
+        // reported only once
+        detector.checkLeaks();
+        assertThat(leaks).hasSize(1);
+        assertThat(detector.getLeakCount()).isEqualTo(1);
+
+        leaked.close();
+        assertThat(detector.getOpenConnections()).isEmpty();
+        assertThat(detector.getHoldTimeHistogram().getCount()).isEqualTo(2);
+        assertThat(detector.getHoldTimeHistogram().getMax()).isGreaterThanOrEqualTo(100);
+    }
+
+    @Test
+    public void withJdkProxyDataSource() throws Exception {
+        ConnectionLeakDetector detector = new ConnectionLeakDetector(1, TimeUnit.MINUTES);
+
+        ProxyConfig proxyConfig = ProxyConfig.Builder.create().queryListener(detector).methodListener(detector).build();
+        DataSource ds = JdbcProxyFactory.DEFAULT.createDataSource(this.jdbcDataSource, proxyConfig);
+
+        Connection conn = ds.getConnection();
+        assertThat(detector.getOpenConnections()).hasSize(1);
+        assertThat(detector.getOpenConnections().get(0).getConnectionInfo().getConnectionId()).isEqualTo(1);
+        assertThat(detector.getOpenConnections().get(0).getAcquisitionStackTrace()).isNull();
+
+        conn.close();
+        assertThat(detector.getOpenConnections()).isEmpty();
+    }
+
+    @Test
+    public void close() throws Exception {
+        ConnectionLeakDetector detector = new ConnectionLeakDetector(1, TimeUnit.MINUTES);
+        ProxyDataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource)
+                .listener(detector).methodListener(detector).build();
+
+        Connection conn = ds.getConnection();  // starts checking
+        conn.close();
+        assertThat(detector.getExecutor().isShutdown()).isFalse();
+
+        // closing the datasource closes the detector
+        ds.close();
+        assertThat(detector.getExecutor().isShutdown()).isTrue();
+
+        // connections are still tracked without background check
+        conn = ds.getConnection();
+        assertThat(detector.getOpenConnections()).hasSize(1);
+        conn.close();
+        assertThat(detector.getOpenConnections()).isEmpty();
+    }
+
+    @Test
+    public void closeBeforeStart() throws Exception {
+        ConnectionLeakDetector detector = new ConnectionLeakDetector(1, TimeUnit.MINUTES);
+        detector.close();
+        assertThat(detector.getExecutor().isShutdown()).isTrue();
+
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).methodListener(detector).build();
+        Connection conn = ds.getConnection();  // does not schedule on the closed executor
+        assertThat(detector.getOpenConnections()).hasSize(1);
+        conn.close();
+    }
+
+    @Test
+    public void releaseOnFailedClose() throws Exception {
+        ConnectionLeakDetector detector = new ConnectionLeakDetector(1, TimeUnit.MINUTES);
+
+        Connection connection = mock(Connection.class);
+        doThrow(new SQLException("close failed")).when(connection).close();
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        ProxyConfig proxyConfig = ProxyConfig.Builder.create().methodListener(detector).build();
+        DataSource ds = JdbcProxyFactory.DEFAULT.createDataSource(dataSource, proxyConfig);
+
+        Connection conn = ds.getConnection();
+        assertThat(detector.getOpenConnections()).hasSize(1);
+        try {
+            conn.close();
+            fail("SQLException should be thrown");
+        } catch (SQLException ex) {
+        }
+        assertThat(detector.getOpenConnections()).isEmpty();
+    }
+
+}
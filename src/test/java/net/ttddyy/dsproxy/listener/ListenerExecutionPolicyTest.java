@@ -0,0 +1,244 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryCount;
+import net.ttddyy.dsproxy.QueryCountHolder;
+import net.ttddyy.dsproxy.QueryCountScope;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class ListenerExecutionPolicyTest {
+
+    private DataSource jdbcDataSource;
+    private ListenerExecutionPolicy policy;
+
+    @Before
+    public void setup() throws Exception {
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+        this.policy = new ListenerExecutionPolicy();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        this.policy.shutdown();
+        TestUtils.shutdown(this.jdbcDataSource);
+    }
+
+    @Test
+    public void isolateFailures() throws Exception {
+        QueryExecutionListener failing = new NoOpQueryExecutionListener() {
+            @Override
+            public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                throw new IllegalStateException("failure");
+            }
+        };
+        CallCheckQueryListener working = new CallCheckQueryListener();
+
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource)
+                .listener(failing).listener(working).listenerExecutionPolicy(this.policy).build();
+        executeQuery(ds);
+
+        // following listener is still called
+        assertThat(working.beforeCount).isEqualTo(1);
+        assertThat(working.afterCount).isEqualTo(1);
+
+        ListenerExecutionPolicy.ListenerStats stats = this.policy.getStats(failing);
+        assertThat(stats.getInvocationCount()).isEqualTo(2);
+        assertThat(stats.getFailureCount()).isEqualTo(1);
+        assertThat(stats.getLastFailure()).isInstanceOf(IllegalStateException.class);
+        assertThat(this.policy.getStats(working).getFailureCount()).isEqualTo(0);
+        assertThat(this.policy.getStats(working).getTotalTime()).isGreaterThan(0);
+    }
+
+    @Test
+    public void withoutIsolation() throws Exception {
+        this.policy.setIsolateFailures(false);
+        QueryExecutionListener failing = new NoOpQueryExecutionListener() {
+            @Override
+            public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                throw new IllegalStateException("failure");
+            }
+        };
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource)
+                .listener(failing).listenerExecutionPolicy(this.policy).build();
+        try {
+            executeQuery(ds);
+            fail("exception should be thrown");
+        } catch (IllegalStateException e) {
+        }
+        assertThat(this.policy.getStats(failing).getFailureCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void propagateBudgetException() throws Exception {
+        QueryBudgetListener budgetListener = new QueryBudgetListener();
+        budgetListener.setMaxQueries(1);
+        budgetListener.setThrowOnViolation(true);
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource)
+                .listener(budgetListener).listenerExecutionPolicy(this.policy).build();
+
+        QueryCountScope scope = QueryCountScope.open();
+        try {
+            executeQuery(ds);
+            executeQuery(ds);
+            fail("exception should be thrown");
+        } catch (QueryBudgetExceededException e) {
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Test
+    public void async() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<String> threadName = new AtomicReference<String>();
+        final AtomicReference<QueryCountScope> scopeInListener = new AtomicReference<QueryCountScope>();
+        QueryExecutionListener asyncListener = new NoOpQueryExecutionListener() {
+            @Override
+            public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                threadName.set(Thread.currentThread().getName());
+                scopeInListener.set(QueryCountScope.current());
+                latch.countDown();
+            }
+        };
+        this.policy.addAsyncListener(asyncListener);
+
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource)
+                .listener(asyncListener).listenerExecutionPolicy(this.policy).build();
+
+        QueryCountScope scope = QueryCountScope.open();
+        try {
+            executeQuery(ds);
+        } finally {
+            scope.close();
+        }
+
+        assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(threadName.get()).isNotEqualTo(Thread.currentThread().getName());
+        assertThat(scopeInListener.get()).isSameAs(scope);
+    }
+
+    @Test
+    public void asyncQueueFull() throws Exception {
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        QueryExecutionListener blockingListener = new NoOpQueryExecutionListener() {
+            @Override
+            public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                started.countDown();
+                try {
+                    blocking.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        this.policy.setAsyncQueueCapacity(1);
+        this.policy.addAsyncListener(blockingListener);
+
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource)
+                .listener(blockingListener).listenerExecutionPolicy(this.policy).build();
+
+        // block the executor thread
+        this.policy.beforeQuery(blockingListener, new ExecutionInfo(), Collections.<QueryInfo>emptyList());
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // caller is not blocked. "before" of first query is queued, others are discarded
+        executeQuery(ds);
+        executeQuery(ds);
+        assertThat(this.policy.getQueueSize()).isEqualTo(1);
+        assertThat(this.policy.getStats(blockingListener).getDiscardCount()).isEqualTo(3);
+
+        blocking.countDown();
+    }
+
+    @Test
+    public void asyncCallerRuns() throws Exception {
+        this.policy.setAsyncQueueCapacity(1);
+        this.policy.setOverflowAction(ListenerExecutionPolicy.OverflowAction.CALLER_RUNS);
+
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        QueryExecutionListener blockingListener = new NoOpQueryExecutionListener() {
+            @Override
+            public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                if (started.getCount() > 0) {
+                    started.countDown();
+                    try {
+                        blocking.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        this.policy.addAsyncListener(blockingListener);
+        CallCheckQueryListener syncListener = new CallCheckQueryListener();
+
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource)
+                .listener(blockingListener).listener(syncListener).listenerExecutionPolicy(this.policy).build();
+
+        this.policy.beforeQuery(blockingListener, new ExecutionInfo(), Collections.<QueryInfo>emptyList());
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        executeQuery(ds);
+        executeQuery(ds);
+        assertThat(this.policy.getStats(blockingListener).getDiscardCount()).isEqualTo(0);
+        assertThat(this.policy.getStats(blockingListener).getInvocationCount()).isGreaterThanOrEqualTo(3);
+        assertThat(this.policy.isAsync(syncListener)).isFalse();
+        assertThat(syncListener.beforeCount).isEqualTo(2);
+
+        blocking.countDown();
+    }
+
+    @Test
+    public void noPolicy() throws Exception {
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).countQuery().build();
+        QueryCountHolder.clear();
+        executeQuery(ds);
+        QueryCount count = QueryCountHolder.getGrandTotal();
+        assertThat(count.getTotal()).isEqualTo(1);
+        assertThat(this.policy.getStatsMap()).isEmpty();
+    }
+
+    private void executeQuery(DataSource ds) throws Exception {
+        Connection conn = ds.getConnection();
+        Statement stmt = conn.createStatement();
+        stmt.executeQuery("SELECT * FROM emp");
+        conn.close();
+    }
+
+    private static class CallCheckQueryListener implements QueryExecutionListener {
+        private int beforeCount;
+        private int afterCount;
+
+        @Override
+        public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+            this.beforeCount++;
+        }
+
+        @Override
+        public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+            this.afterCount++;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryCountScope;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class QueryBudgetListenerTest {
+
+    private DataSource jdbcDataSource;
+    private List<QueryBudgetViolation> violations = new ArrayList<QueryBudgetViolation>();
+    private QueryBudgetListener listener;
+    private DataSource dataSource;
+
+    @Before
+    public void setup() throws Exception {
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+        this.listener = new QueryBudgetListener() {
+            @Override
+            protected void onBudgetExceeded(QueryBudgetViolation violation) {
+                violations.add(violation);
+            }
+        };
+        this.dataSource = ProxyDataSourceBuilder.create(this.jdbcDataSource).name("myDS").listener(this.listener).build();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        TestUtils.shutdown(this.jdbcDataSource);
+    }
+
+    @Test
+    public void queryCount() throws Exception {
+        this.listener.setMaxQueries(2);
+
+        QueryCountScope scope = QueryCountScope.open();
+        try {
+            Connection conn = this.dataSource.getConnection();
+            Statement stmt = conn.createStatement();
+            stmt.executeQuery("SELECT * FROM emp");
+            stmt.executeQuery("SELECT * FROM emp");
+            assertThat(this.violations).isEmpty();
+
+            stmt.executeQuery("SELECT * FROM emp");
+            stmt.executeQuery("SELECT * FROM emp");
+            conn.close();
+
+            // reported once
+            assertThat(this.violations).hasSize(1);
+            QueryBudgetViolation violation = this.violations.get(0);
+            assertThat(violation.getType()).isEqualTo(QueryBudgetViolation.Type.QUERY_COUNT);
+            assertThat(violation.getDataSourceName()).isEqualTo("myDS");
+            assertThat(violation.getActual()).isEqualTo(3);
+            assertThat(violation.getLimit()).isEqualTo(2);
+            assertThat(violation.getCallSite()).isNotEmpty();
+            assertThat(violation.getCallSite()[0].getClassName()).isEqualTo(getClass().getName());
+
+            assertThat(this.listener.getUsage(scope).getQueryCount()).isEqualTo(4);
+        } finally {
+            scope.close();
+        }
+
+        // new scope has its own budget
+        scope = QueryCountScope.open();
+        try {
+            Connection conn = this.dataSource.getConnection();
+            Statement stmt = conn.createStatement();
+            stmt.executeQuery("SELECT * FROM emp");
+            conn.close();
+            assertThat(this.listener.getUsage(scope).getQueryCount()).isEqualTo(1);
+        } finally {
+            scope.close();
+        }
+        assertThat(this.violations).hasSize(1);
+    }
+
+    @Test
+    public void repeatedQuery() throws Exception {
+        this.listener.setMaxRepeatedQueries(2);
+
+        QueryCountScope scope = QueryCountScope.open();
+        try {
+            Connection conn = this.dataSource.getConnection();
+            PreparedStatement ps = conn.prepareStatement("SELECT * FROM emp WHERE id = ?");
+
+            // same parameter is not counted as repetition
+            ps.setInt(1, 1);
+            ps.executeQuery();
+            ps.executeQuery();
+            ps.setInt(1, 2);
+            ps.executeQuery();
+            assertThat(this.violations).isEmpty();
+
+            ps.setInt(1, 3);
+            ps.executeQuery();
+            ps.setInt(1, 4);
+            ps.executeQuery();
+
+            // literals are normalized by fingerprint
+            Statement stmt = conn.createStatement();
+            stmt.executeQuery("SELECT * FROM emp WHERE id = 5");
+            conn.close();
+
+            // reported once per fingerprint
+            assertThat(this.violations).hasSize(1);
+            QueryBudgetViolation violation = this.violations.get(0);
+            assertThat(violation.getType()).isEqualTo(QueryBudgetViolation.Type.REPEATED_QUERY);
+            assertThat(violation.getQuery()).isEqualTo("SELECT * FROM emp WHERE id = ?");
+            assertThat(violation.getActual()).isEqualTo(3);
+            assertThat(violation.getLimit()).isEqualTo(2);
+            assertThat(violation.getDescription()).contains("N+1");
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Test
+    public void repeatedQueryWithTableFull() throws Exception {
+        this.listener.setMaxRepeatedQueries(1);
+        this.listener.setMaxTrackedFingerprints(1);
+
+        QueryCountScope scope = QueryCountScope.open();
+        try {
+            Connection conn = this.dataSource.getConnection();
+            Statement stmt = conn.createStatement();
+            stmt.executeQuery("SELECT id FROM emp WHERE id = 1");
+            stmt.executeQuery("SELECT name FROM emp WHERE id = 1");
+            stmt.executeQuery("SELECT name FROM emp WHERE id = 2");
+            assertThat(this.violations).isEmpty();
+
+            stmt.executeQuery("SELECT id FROM emp WHERE id = 2");
+            conn.close();
+
+            assertThat(this.violations).hasSize(1);
+            assertThat(this.listener.getUsage(scope).getTrackedFingerprints()).isEqualTo(1);
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Test
+    public void databaseTime() throws Exception {
+        this.listener.setMaxDatabaseTime(1, TimeUnit.NANOSECONDS);  // less than 1ms is 0
+        assertThat(this.listener.getMaxDatabaseTime()).isEqualTo(0);
+        this.listener.setMaxDatabaseTime(10, TimeUnit.MILLISECONDS);
+
+        QueryCountScope scope = QueryCountScope.open();
+        try {
+            List<QueryInfo> queries = Collections.singletonList(new QueryInfo("SELECT * FROM emp"));
+            ExecutionInfo execInfo = new ExecutionInfo();
+            execInfo.setDataSourceName("myDS");
+            execInfo.setElapsedTime(8);
+            this.listener.beforeQuery(execInfo, queries);
+            this.listener.afterQuery(execInfo, queries);
+            assertThat(this.violations).isEmpty();
+
+            this.listener.beforeQuery(execInfo, queries);
+            this.listener.afterQuery(execInfo, queries);
+            this.listener.beforeQuery(execInfo, queries);
+            this.listener.afterQuery(execInfo, queries);
+
+            assertThat(this.violations).hasSize(1);
+            QueryBudgetViolation violation = this.violations.get(0);
+            assertThat(violation.getType()).isEqualTo(QueryBudgetViolation.Type.DATABASE_TIME);
+            assertThat(violation.getActual()).isEqualTo(16);
+            assertThat(this.listener.getUsage(scope).getDatabaseTime()).isEqualTo(24);
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Test
+    public void throwOnViolation() throws Exception {
+        this.listener.setMaxQueries(1);
+        this.listener.setThrowOnViolation(true);
+
+        QueryCountScope scope = QueryCountScope.open();
+        try {
+            Connection conn = this.dataSource.getConnection();
+            Statement stmt = conn.createStatement();
+            stmt.executeQuery("SELECT * FROM emp");
+            for (int i = 0; i < 2; i++) {
+                try {
+                    stmt.executeUpdate("DELETE FROM emp");
+                    fail("exception should be thrown");
+                } catch (QueryBudgetExceededException e) {
+                    assertThat(e.getViolation().getType()).isEqualTo(QueryBudgetViolation.Type.QUERY_COUNT);
+                }
+            }
+
+            // query is not executed
+            assertThat(TestUtils.countTable(this.jdbcDataSource, "emp")).isEqualTo(2);
+            conn.close();
+        } finally {
+            scope.close();
+        }
+        assertThat(this.violations).hasSize(1);
+    }
+
+    @Test
+    public void noScope() throws Exception {
+        this.listener.setMaxQueries(1);
+        this.listener.setMaxRepeatedQueries(1);
+
+        Connection conn = this.dataSource.getConnection();
+        Statement stmt = conn.createStatement();
+        stmt.executeQuery("SELECT * FROM emp WHERE id = 1");
+        stmt.executeQuery("SELECT * FROM emp WHERE id = 2");
+        stmt.executeQuery("SELECT * FROM emp WHERE id = 3");
+        conn.close();
+
+        assertThat(this.violations).isEmpty();
+    }
+
+}
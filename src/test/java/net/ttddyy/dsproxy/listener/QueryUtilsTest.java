@@ -37,4 +37,34 @@ public class QueryUtilsTest {
         assertThat(QueryUtils.getQueryType("DELETE")).isEqualTo(QueryType.DELETE);
         assertThat(QueryUtils.getQueryType("delete")).isEqualTo(QueryType.DELETE);
     }
+
+    @Test
+    public void getQueryFingerprint() {
+        assertThat(QueryUtils.getQueryFingerprint(null)).isNull();
+        assertThat(QueryUtils.getQueryFingerprint("")).isEqualTo("");
+        assertThat(QueryUtils.getQueryFingerprint("SELECT * FROM emp WHERE id = 1"))
+                .isEqualTo("select * from emp where id = ?");
+        assertThat(QueryUtils.getQueryFingerprint("select *\n  from emp where id = ?"))
+                .isEqualTo("select * from emp where id = ?");
+        assertThat(QueryUtils.getQueryFingerprint("select * from emp where name = 'it''s' -- comment\n"))
+                .isEqualTo("select * from emp where name = ?");
+        assertThat(QueryUtils.getQueryFingerprint("/* hint */ select * from emp where id in (1, 2, 3)"))
+                .isEqualTo("select * from emp where id in (?)");
+        assertThat(QueryUtils.getQueryFingerprint("select * from emp where id in (?,?,?)"))
+                .isEqualTo("select * from emp where id in (?)");
+        assertThat(QueryUtils.getQueryFingerprint("select col1 from \"Emp2\" where x = 1.5"))
+                .isEqualTo("select col1 from \"Emp2\" where x = ?");
+    }
+
+    @Test
+    public void getTableNames() {
+        assertThat(QueryUtils.getTableNames(null)).isEmpty();
+        assertThat(QueryUtils.getTableNames("SELECT * FROM emp WHERE id = 1")).containsExactly("emp");
+        assertThat(QueryUtils.getTableNames("select * from emp e, dept d where e.dept_id = d.id")).containsExactly("emp", "dept");
+        assertThat(QueryUtils.getTableNames("select * from hr.emp e join \"Dept\" d on e.dept_id = d.id")).containsExactly("emp", "dept");
+        assertThat(QueryUtils.getTableNames("insert into emp (id, name) values (?, ?)")).containsExactly("emp");
+        assertThat(QueryUtils.getTableNames("update emp set name = ? where id = ?")).containsExactly("emp");
+        assertThat(QueryUtils.getTableNames("delete from emp where id in (select id from retired)")).containsExactly("emp", "retired");
+        assertThat(QueryUtils.getTableNames("truncate table emp")).containsExactly("emp");
+    }
 }
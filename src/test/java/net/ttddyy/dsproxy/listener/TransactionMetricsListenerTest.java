@@ -0,0 +1,107 @@
+package net.ttddyy.dsproxy.listener;
+
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.TransactionInfo;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class TransactionMetricsListenerTest {
+
+    private DataSource jdbcDataSource;
+
+    @Before
+    public void setup() throws Exception {
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        TestUtils.shutdown(this.jdbcDataSource);
+    }
+
+    @Test
+    public void transaction() throws Exception {
+        final List<TransactionInfo> transactions = new ArrayList<TransactionInfo>();
+        TransactionMetricsListener listener = new TransactionMetricsListener() {
+            @Override
+            public void afterTransaction(TransactionInfo transactionInfo) {
+                transactions.add(transactionInfo);
+                super.afterTransaction(transactionInfo);
+            }
+        };
+
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).name("myDS").transactionListener(listener).build();
+
+        Connection conn = ds.getConnection();
+
+        // auto-commit
+        Statement stmt = conn.createStatement();
+        stmt.executeQuery("SELECT * FROM emp");
+        assertThat(transactions).hasSize(1);
+        assertThat(transactions.get(0).getOutcome()).isEqualTo(TransactionInfo.Outcome.AUTO_COMMIT);
+
+        // explicit transaction
+        conn.setAutoCommit(false);
+        stmt.executeUpdate("UPDATE emp SET name = 'FOO' WHERE id = 1");
+        Thread.sleep(50);  // idle in transaction
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO emp (id, name) VALUES (?, ?)");
+        ps.setInt(1, 3);
+        ps.setString(2, "baz");
+        ps.addBatch();
+        ps.setInt(1, 4);
+        ps.setString(2, "qux");
+        ps.addBatch();
+        ps.executeBatch();
+        conn.commit();
+
+        assertThat(transactions).hasSize(2);
+        TransactionInfo tx = transactions.get(1);
+        assertThat(tx.getOutcome()).isEqualTo(TransactionInfo.Outcome.COMMIT);
+        assertThat(tx.getDataSourceName()).isEqualTo("myDS");
+        assertThat(tx.getStatementCount()).isEqualTo(2);
+        assertThat(tx.getRowsAffected()).isEqualTo(3);
+        assertThat(tx.getElapsedTime()).isGreaterThanOrEqualTo(50);
+        assertThat(tx.getMaxIdleTime()).isGreaterThanOrEqualTo(50);
+        assertThat(tx.getIdleTime()).isGreaterThanOrEqualTo(tx.getMaxIdleTime());
+        assertThat(tx.getSlowestQuery()).isNotNull();
+
+        // next transaction starts with the first statement, ends with rollback
+        stmt.executeUpdate("DELETE FROM emp WHERE id = 4");
+        conn.rollback();
+        assertThat(transactions).hasSize(3);
+        assertThat(transactions.get(2).getOutcome()).isEqualTo(TransactionInfo.Outcome.ROLLBACK);
+        assertThat(transactions.get(2).getStatementCount()).isEqualTo(1);
+
+        // rollback without any statement does not produce a transaction
+        conn.rollback();
+        assertThat(transactions).hasSize(3);
+
+        // closing with open transaction
+        stmt.executeUpdate("DELETE FROM emp WHERE id = 4");
+        conn.close();
+        assertThat(transactions).hasSize(4);
+        assertThat(transactions.get(3).getOutcome()).isEqualTo(TransactionInfo.Outcome.CLOSE);
+
+        assertThat(listener.getAutoCommitCount()).isEqualTo(1);
+        assertThat(listener.getCommitCount()).isEqualTo(1);
+        assertThat(listener.getRollbackCount()).isEqualTo(1);
+        assertThat(listener.getCloseCount()).isEqualTo(1);
+        assertThat(listener.getDurationHistogram().getCount()).isEqualTo(3);
+        assertThat(listener.getMaxIdleTimeHistogram().getMax()).isGreaterThanOrEqualTo(50);
+    }
+
+}
@@ -0,0 +1,154 @@
+package net.ttddyy.dsproxy.listener.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class JfrListenerTest {
+
+    private DataSource jdbcDataSource;
+    private File file;
+
+    @Before
+    public void setup() throws Exception {
+        assumeTrue("JFR is not available", JfrSupport.isAvailable());
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+        this.file = File.createTempFile("dsproxy", ".jfr");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (this.jdbcDataSource != null) {
+            TestUtils.shutdown(this.jdbcDataSource);
+        }
+        if (this.file != null) {
+            this.file.delete();
+        }
+    }
+
+    private List<RecordedEvent> getEvents(Recording recording, String name) throws Exception {
+        recording.dump(this.file.toPath());
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(this.file.toPath())) {
+            if (event.getEventType().getName().equals(name)) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    @Test
+    public void queryExecutionEvent() throws Exception {
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).name("myDS").recordJfrEvents().build();
+
+        try (Recording recording = new Recording()) {
+            recording.enable(QueryExecutionEvent.NAME).withoutThreshold();
+            recording.start();
+
+            try (Connection conn = ds.getConnection()) {
+                Statement stmt = conn.createStatement();
+                stmt.executeQuery("SELECT id FROM emp");
+                PreparedStatement ps = conn.prepareStatement("UPDATE emp SET name = ? WHERE id = ?");
+                ps.setString(1, "FOO");
+                ps.setInt(2, 1);
+                ps.addBatch();
+                ps.setString(1, "BAR");
+                ps.setInt(2, 2);
+                ps.addBatch();
+                ps.executeBatch();
+            }
+            recording.stop();
+
+            List<RecordedEvent> events = getEvents(recording, QueryExecutionEvent.NAME);
+            assertThat(events).hasSize(2);
+
+            RecordedEvent event = events.get(0);
+            assertThat(event.getString("dataSourceName")).isEqualTo("myDS");
+            assertThat(event.getString("query")).isEqualTo("SELECT id FROM emp");
+            assertThat(event.getString("statementType")).isEqualTo("STATEMENT");
+            assertThat(event.getBoolean("batch")).isFalse();
+            assertThat(event.getBoolean("success")).isTrue();
+
+            event = events.get(1);
+            assertThat(event.getString("statementType")).isEqualTo("PREPARED");
+            assertThat(event.getBoolean("batch")).isTrue();
+            assertThat(event.getInt("batchSize")).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void methodListenerNotRegisteredByDefault() {
+        ProxyDataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).recordJfrEvents().build();
+        assertThat(ds.getProxyConfig().getMethodListener().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void methodExecutionEventDisabledByDefault() throws Exception {
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).recordJfrEvents(true).build();
+
+        try (Recording recording = new Recording()) {
+            recording.enable(QueryExecutionEvent.NAME).withoutThreshold();
+            recording.start();
+            try (Connection conn = ds.getConnection()) {
+                conn.createStatement().executeQuery("SELECT id FROM emp");
+            }
+            recording.stop();
+            assertThat(getEvents(recording, MethodExecutionEvent.NAME)).isEmpty();
+        }
+
+        try (Recording recording = new Recording()) {
+            recording.enable(MethodExecutionEvent.NAME).withoutThreshold();
+            recording.start();
+            try (Connection conn = ds.getConnection()) {
+                conn.createStatement().executeQuery("SELECT id FROM emp");
+            }
+            recording.stop();
+
+            List<String> methods = new ArrayList<>();
+            for (RecordedEvent event : getEvents(recording, MethodExecutionEvent.NAME)) {
+                methods.add(event.getString("interfaceName") + "#" + event.getString("methodName"));
+            }
+            assertThat(methods).contains("Connection#createStatement", "Statement#executeQuery", "Connection#close");
+        }
+    }
+
+    @Test
+    public void truncateQuery() throws Exception {
+        JfrQueryExecutionListener listener = (JfrQueryExecutionListener) JfrSupport.createQueryExecutionListener();
+        listener.setMaxQueryLength(10);
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).listener(listener).build();
+
+        try (Recording recording = new Recording()) {
+            recording.enable(QueryExecutionEvent.NAME).withoutThreshold();
+            recording.start();
+            try (Connection conn = ds.getConnection()) {
+                conn.createStatement().executeQuery("SELECT id FROM emp");
+            }
+            recording.stop();
+            List<RecordedEvent> events = getEvents(recording, QueryExecutionEvent.NAME);
+            assertThat(events).hasSize(1);
+            assertThat(events.get(0).getString("query")).isEqualTo("SELECT id ");
+        }
+    }
+
+}
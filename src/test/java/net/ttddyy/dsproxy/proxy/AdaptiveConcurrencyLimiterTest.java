@@ -0,0 +1,223 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    /**
+     * Limiter with a simulated clock.
+     */
+    private static class SimulatedLimiter extends AdaptiveConcurrencyLimiter {
+        private long time;
+
+        SimulatedLimiter(int initialLimit) {
+            super(initialLimit);
+        }
+
+        @Override
+        protected long currentTime() {
+            return this.time;
+        }
+    }
+
+    /**
+     * Database that serves {@code capacity} executions in parallel in {@code baseLatency}. Executions beyond the
+     * capacity queue up in the database.
+     */
+    private static long latency(int concurrency, int capacity, long baseLatency) {
+        return baseLatency * Math.max(1, (concurrency + capacity - 1) / capacity);
+    }
+
+    /**
+     * Run rounds of executions. Each round fills the current limit, and all executions take the latency for that
+     * concurrency.
+     */
+    private static void simulate(SimulatedLimiter limiter, int rounds, int capacity, long baseLatency) throws Exception {
+        for (int round = 0; round < rounds; round++) {
+            int concurrency = limiter.getLimit();
+            for (int i = 0; i < concurrency; i++) {
+                limiter.acquire(null, null);
+            }
+            long latency = latency(concurrency, capacity, baseLatency);
+            limiter.time += latency;
+            for (int i = 0; i < concurrency; i++) {
+                limiter.release(null, latency);
+            }
+        }
+    }
+
+    @Test
+    public void convergeToDatabaseCapacity() throws Exception {
+        SimulatedLimiter limiter = new SimulatedLimiter(5);
+        limiter.setTolerance(1.5);
+
+        List<Integer> limits = new ArrayList<Integer>();
+        for (int i = 0; i < 200; i++) {
+            simulate(limiter, 1, 10, 1000);
+            limits.add(limiter.getLimit());
+        }
+
+        assertThat(limiter.getBaselineLatency(TimeUnit.NANOSECONDS)).isEqualTo(1000);
+        assertThat(limiter.getDecreaseCount()).isGreaterThan(0);
+        // oscillate around the capacity once converged
+        for (int limit : limits.subList(100, limits.size())) {
+            assertThat(limit).isBetween(9, 12);
+        }
+        assertThat(limiter.getDataSourceLimit().getActiveCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void increaseWhenDatabaseIsFast() throws Exception {
+        SimulatedLimiter limiter = new SimulatedLimiter(5);
+        limiter.setMaxLimit(20);
+
+        simulate(limiter, 100, 100, 1000);
+
+        assertThat(limiter.getLimit()).isEqualTo(20);
+        assertThat(limiter.getDecreaseCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void mixedQueries() throws Exception {
+        SimulatedLimiter limiter = new SimulatedLimiter(10);
+        limiter.setMaxLimit(20);
+
+        // fast and slow queries in every window do not look like saturation
+        for (int round = 0; round < 100; round++) {
+            int concurrency = limiter.getLimit();
+            for (int i = 0; i < concurrency; i++) {
+                limiter.acquire(null, null);
+            }
+            limiter.time += 10000;
+            for (int i = 0; i < concurrency; i++) {
+                limiter.release(null, i % 2 == 0 ? 100 : 10000);
+            }
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(20);
+        assertThat(limiter.getDecreaseCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void followSlowerDatabase() throws Exception {
+        SimulatedLimiter limiter = new SimulatedLimiter(10);
+        limiter.setBaselineWindow(1, TimeUnit.MILLISECONDS);
+
+        simulate(limiter, 10, 100, 1000);
+        assertThat(limiter.getBaselineLatency(TimeUnit.NANOSECONDS)).isEqualTo(1000);
+
+        // database became permanently slower
+        simulate(limiter, 1000, 100, 10000);
+        assertThat(limiter.getDecreaseCount()).isGreaterThan(0);
+        assertThat(limiter.getBaselineLatency(TimeUnit.NANOSECONDS)).isGreaterThanOrEqualTo(9000);
+        assertThat(limiter.getLimit()).isGreaterThan(100);
+    }
+
+    @Test
+    public void minLimit() throws Exception {
+        SimulatedLimiter limiter = new SimulatedLimiter(4);
+        limiter.setMinLimit(2);
+        simulate(limiter, 5, 100, 1000);
+
+        simulate(limiter, 40, 100, 1000000);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void resizeLimit() {
+        ConcurrencyLimiter.Limit limit = new ConcurrencyLimiter(10).getDataSourceLimit();
+        assertThat(limit.increment(11)).isTrue();
+        assertThat(limit.increment(11)).isFalse();
+        assertThat(limit.getMaxConcurrency()).isEqualTo(11);
+
+        assertThat(limit.decrease(0.5, 2)).isTrue();
+        assertThat(limit.getMaxConcurrency()).isEqualTo(5);
+        assertThat(limit.decrease(0.1, 2)).isTrue();
+        assertThat(limit.decrease(0.1, 2)).isFalse();
+        assertThat(limit.getMaxConcurrency()).isEqualTo(2);
+    }
+
+    @Test
+    public void slowStandInDatabase() throws Exception {
+        // database with capacity of 4 concurrent executions, each taking 2ms
+        final int capacity = 4;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        PreparedStatement ps = mock(PreparedStatement.class);
+        when(ps.executeUpdate()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                int concurrency = inFlight.incrementAndGet();
+                try {
+                    int max;
+                    while (concurrency > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, concurrency)) {
+                    }
+                    Thread.sleep(2 * Math.max(1, (concurrency + capacity - 1) / capacity));
+                    return 1;
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        });
+        Connection conn = mock(Connection.class);
+        when(conn.prepareStatement(anyString())).thenReturn(ps);
+        DataSource actual = mock(DataSource.class);
+        when(actual.getConnection()).thenReturn(conn);
+
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2);
+        limiter.setMaxLimit(32);
+        limiter.setTolerance(1.5);
+        limiter.setMaxWaitTime(10, TimeUnit.SECONDS);
+        final DataSource dataSource = ProxyDataSourceBuilder.create(actual).limitConcurrency(limiter).build();
+
+        final long end = System.currentTimeMillis() + 500;
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 32; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Connection conn = dataSource.getConnection();
+                        PreparedStatement ps = conn.prepareStatement("UPDATE emp SET name = ?");
+                        while (System.currentTimeMillis() < end) {
+                            ps.executeUpdate();
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(failures.get()).isEqualTo(0);
+        assertThat(limiter.getDecreaseCount()).isGreaterThan(0);
+        assertThat(limiter.getLimit()).isLessThan(32);
+        assertThat(limiter.getDataSourceLimit().getActiveCount()).isEqualTo(0);
+    }
+
+}
@@ -0,0 +1,262 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class AutoBatchingTest {
+
+    private static final String INSERT = "INSERT INTO emp (id, name) VALUES (?, ?)";
+
+    private DataSource rawDataSource;
+    private DataSource dataSource;
+    private List<ExecutionInfo> executions = new ArrayList<ExecutionInfo>();
+
+    @Before
+    public void setUp() throws Exception {
+        this.rawDataSource = TestUtils.getDataSourceWithData();
+        this.dataSource = ProxyDataSourceBuilder.create(this.rawDataSource).autoBatch(3)
+                .listener(new QueryExecutionListener() {
+                    @Override
+                    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                    }
+
+                    @Override
+                    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                        executions.add(execInfo);
+                    }
+                })
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.shutdown(this.rawDataSource);
+    }
+
+    @Test
+    public void isSingleRowInsert() {
+        assertThat(AutoBatching.isSingleRowInsert(INSERT)).isTrue();
+        assertThat(AutoBatching.isSingleRowInsert("insert into emp values (?, 'a,(b)')")).isTrue();
+        assertThat(AutoBatching.isSingleRowInsert("INSERT INTO emp VALUES (?, ?), (?, ?)")).isFalse();
+        assertThat(AutoBatching.isSingleRowInsert("INSERT INTO emp SELECT * FROM emp2")).isFalse();
+        assertThat(AutoBatching.isSingleRowInsert("INSERT INTO emp VALUES (?, ?) RETURNING id")).isFalse();
+        assertThat(AutoBatching.isSingleRowInsert("INSERT INTO emp VALUES (?, ?) ON CONFLICT DO NOTHING")).isFalse();
+        assertThat(AutoBatching.isSingleRowInsert("UPDATE emp SET name = ? WHERE id = ?")).isFalse();
+        assertThat(AutoBatching.isSingleRowInsert("INSERT IGNORE INTO emp VALUES (?, ?)")).isFalse();
+        assertThat(AutoBatching.isSingleRowInsert("INSERT OR IGNORE INTO emp VALUES (?, ?)")).isFalse();
+        assertThat(AutoBatching.isSingleRowInsert("insert or replace into emp values (?, ?)")).isFalse();
+    }
+
+    @Test
+    public void batchInTransaction() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        PreparedStatement ps = conn.prepareStatement(INSERT);
+        for (int i = 10; i < 17; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "emp" + i);
+            assertThat(ps.executeUpdate()).isEqualTo(1);
+        }
+
+        // flushed by size threshold
+        assertThat(this.executions).hasSize(2);
+        assertThat(this.executions.get(0).isBatch()).isTrue();
+        assertThat(this.executions.get(0).getBatchSize()).isEqualTo(3);
+        assertThat(this.executions.get(1).getBatchSize()).isEqualTo(3);
+
+        conn.commit();
+
+        assertThat(this.executions).hasSize(3);
+        assertThat(this.executions.get(2).getBatchSize()).isEqualTo(1);
+        assertThat(TestUtils.countTable(this.rawDataSource, "emp")).isEqualTo(9);
+
+        ps.close();
+        conn.close();
+    }
+
+    @Test
+    public void flushBeforeRead() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        PreparedStatement ps = conn.prepareStatement(INSERT);
+        ps.setInt(1, 10);
+        ps.setString(2, "emp10");
+        ps.executeUpdate();
+        ps.setInt(1, 11);
+        ps.executeUpdate();  // keeps previous name parameter
+
+        assertThat(this.executions).isEmpty();
+
+        ResultSet rs = conn.createStatement().executeQuery("SELECT count(*) FROM emp WHERE name = 'emp10'");
+        rs.next();
+        assertThat(rs.getInt(1)).isEqualTo(2);
+        assertThat(this.executions).hasSize(2);
+        assertThat(this.executions.get(0).getBatchSize()).isEqualTo(2);
+
+        conn.rollback();
+        conn.close();
+    }
+
+    @Test
+    public void flushOnClose() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        PreparedStatement ps = conn.prepareStatement(INSERT);
+        ps.setInt(1, 10);
+        ps.setString(2, "emp10");
+        ps.executeUpdate();
+        ps.close();
+
+        assertThat(this.executions).hasSize(1);
+        conn.commit();
+        conn.close();
+
+        assertThat(TestUtils.countTable(this.rawDataSource, "emp")).isEqualTo(3);
+    }
+
+    @Test
+    public void discardOnRollback() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        PreparedStatement ps = conn.prepareStatement(INSERT);
+        ps.setInt(1, 10);
+        ps.setString(2, "emp10");
+        ps.executeUpdate();
+        conn.rollback();
+
+        assertThat(this.executions).isEmpty();
+
+        // statement is still usable after rollback
+        ps.setInt(1, 11);
+        ps.executeUpdate();
+        conn.commit();
+        conn.close();
+
+        assertThat(this.executions).hasSize(1);
+        assertThat(this.executions.get(0).getBatchSize()).isEqualTo(1);
+        assertThat(TestUtils.countTable(this.rawDataSource, "emp")).isEqualTo(3);
+    }
+
+    @Test
+    public void errorReportedOnFlush() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        PreparedStatement ps = conn.prepareStatement(INSERT);
+        ps.setInt(1, 1);  // duplicate key
+        ps.setString(2, "dup");
+        assertThat(ps.executeUpdate()).isEqualTo(1);
+
+        try {
+            conn.commit();
+            fail("commit should fail");
+        } catch (SQLException e) {
+            // expected
+        }
+        conn.rollback();
+        conn.close();
+    }
+
+    @Test
+    public void noBatchInAutoCommit() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        PreparedStatement ps = conn.prepareStatement(INSERT);
+        ps.setInt(1, 10);
+        ps.setString(2, "emp10");
+        ps.executeUpdate();
+
+        assertThat(this.executions).hasSize(1);
+        assertThat(this.executions.get(0).isBatch()).isFalse();
+        conn.close();
+    }
+
+    @Test
+    public void noBatchForUpdate() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        PreparedStatement ps = conn.prepareStatement("UPDATE emp SET name = ? WHERE id = ?");
+        ps.setString(1, "baz");
+        ps.setInt(2, 1);
+        assertThat(ps.executeUpdate()).isEqualTo(1);
+        ps.setInt(2, 100);
+        assertThat(ps.executeUpdate()).isEqualTo(0);
+
+        assertThat(this.executions).hasSize(2);
+        conn.rollback();
+        conn.close();
+    }
+
+    @Test
+    public void noBatchForGeneratedKeys() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        PreparedStatement ps = conn.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS);
+        ps.setInt(1, 10);
+        ps.setString(2, "emp10");
+        ps.executeUpdate();
+        assertThat(this.executions).hasSize(1);
+        assertThat(this.executions.get(0).isBatch()).isFalse();
+
+        ps = conn.prepareStatement(INSERT, new int[]{1});
+        ps.setInt(1, 11);
+        ps.setString(2, "emp11");
+        ps.executeUpdate();
+        assertThat(this.executions).hasSize(2);
+        assertThat(this.executions.get(1).isBatch()).isFalse();
+
+        // statements without generated keys on the same connection are still buffered
+        ps = conn.prepareStatement(INSERT);
+        ps.setInt(1, 12);
+        ps.setString(2, "emp12");
+        ps.executeUpdate();
+        assertThat(this.executions).hasSize(2);
+
+        conn.rollback();
+        conn.close();
+    }
+
+    @Test
+    public void closeWhenFlushFailed() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        Connection rawConnection = (Connection) ((ProxyJdbcObject) conn).getTarget();
+        conn.setAutoCommit(false);
+        PreparedStatement ps = conn.prepareStatement(INSERT);
+        ps.setInt(1, 1);  // duplicate key
+        ps.setString(2, "dup");
+        ps.executeUpdate();
+
+        try {
+            conn.close();
+            fail("close should fail");
+        } catch (SQLException e) {
+            // expected
+        }
+
+        assertThat(conn.isClosed()).isTrue();
+        assertThat(rawConnection.isClosed()).isTrue();
+        ProxyConfig proxyConfig = ((ProxyDataSource) this.dataSource).getProxyConfig();
+        assertThat(proxyConfig.getConnectionIdManager().getOpenConnectionIds()).isEmpty();
+    }
+
+}
@@ -0,0 +1,194 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class BatchChunkPolicyTest {
+
+    private DataSource rawDataSource;
+    private List<Integer> chunkSizes = new ArrayList<Integer>();
+    private int completedSize;
+    private int completedChunks;
+
+    private BatchChunkPolicy policy = new BatchChunkPolicy(4) {
+        @Override
+        protected void onBatchCompleted(int size, int chunks, long elapsedTime) {
+            completedSize = size;
+            completedChunks = chunks;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        this.rawDataSource = TestUtils.getDataSourceWithData();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.shutdown(this.rawDataSource);
+    }
+
+    private DataSource createDataSource() {
+        return ProxyDataSourceBuilder.create(this.rawDataSource).splitBatch(this.policy)
+                .listener(new QueryExecutionListener() {
+                    @Override
+                    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                    }
+
+                    @Override
+                    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                        chunkSizes.add(execInfo.getBatchSize());
+                    }
+                })
+                .build();
+    }
+
+    @Test
+    public void preparedStatement() throws Exception {
+        Connection conn = createDataSource().getConnection();
+        conn.setAutoCommit(false);
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO emp (id, name) VALUES (?, ?)");
+        for (int i = 10; i < 20; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "emp" + i);
+            ps.addBatch();
+        }
+        assertThat(this.chunkSizes).containsExactly(4, 4);
+
+        int[] result = ps.executeBatch();
+
+        assertThat(result).hasSize(10).containsOnly(1);
+        assertThat(this.chunkSizes).containsExactly(4, 4, 2);
+        assertThat(this.completedSize).isEqualTo(10);
+        assertThat(this.completedChunks).isEqualTo(3);
+        conn.commit();
+        assertThat(TestUtils.countTable(this.rawDataSource, "emp")).isEqualTo(12);
+
+        // next batch starts over
+        ps.setInt(1, 20);
+        ps.setString(2, "emp20");
+        ps.addBatch();
+        assertThat(ps.executeBatch()).containsExactly(1);
+        conn.commit();
+        conn.close();
+    }
+
+    @Test
+    public void statement() throws Exception {
+        Connection conn = createDataSource().getConnection();
+        conn.setAutoCommit(false);
+        Statement stmt = conn.createStatement();
+        for (int i = 10; i < 18; i++) {
+            stmt.addBatch("INSERT INTO emp (id, name) VALUES (" + i + ", 'emp')");
+        }
+        int[] result = stmt.executeBatch();
+
+        // no entry left for the last chunk
+        assertThat(result).hasSize(8).containsOnly(1);
+        assertThat(this.chunkSizes).containsExactly(4, 4);
+        assertThat(this.completedChunks).isEqualTo(2);
+        conn.commit();
+        conn.close();
+    }
+
+    @Test
+    public void notChunkedInAutoCommit() throws Exception {
+        Connection conn = createDataSource().getConnection();
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO emp (id, name) VALUES (?, ?)");
+        for (int i = 10; i < 20; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "emp" + i);
+            ps.addBatch();
+        }
+        assertThat(this.chunkSizes).isEmpty();
+
+        // nothing has been committed, so clearBatch discards all entries
+        ps.clearBatch();
+        assertThat(TestUtils.countTable(this.rawDataSource, "emp")).isEqualTo(2);
+
+        ps.setInt(1, 10);
+        ps.setString(2, "emp10");
+        ps.addBatch();
+        assertThat(ps.executeBatch()).containsExactly(1);
+        assertThat(this.chunkSizes).containsExactly(1);
+        conn.close();
+    }
+
+    @Test
+    public void failedChunk() throws Exception {
+        Connection conn = createDataSource().getConnection();
+        conn.setAutoCommit(false);
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO emp (id, name) VALUES (?, ?)");
+        int[] ids = {10, 11, 12, 13, 14, 15, 1, 16};  // 1 is duplicate key
+        try {
+            for (int id : ids) {
+                ps.setInt(1, id);
+                ps.setString(2, "emp");
+                ps.addBatch();
+            }
+            fail("addBatch should fail");
+        } catch (BatchUpdateException e) {
+            assertThat(e.getUpdateCounts().length).isGreaterThanOrEqualTo(4);
+            assertThat(e.getUpdateCounts()[0]).isEqualTo(1);
+        }
+        conn.rollback();
+        conn.close();
+    }
+
+    @Test
+    public void adaptiveChunkSize() {
+        BatchChunkPolicy policy = new BatchChunkPolicy(100);
+        policy.setTargetChunkTime(100, TimeUnit.MILLISECONDS);
+        policy.setMinChunkSize(10);
+        policy.setMaxChunkSize(1000);
+
+        // twice slower than target
+        policy.onChunkExecuted(100, TimeUnit.MILLISECONDS.toNanos(200));
+        assertThat(policy.getChunkSize()).isEqualTo(75);
+
+        // partial chunk is ignored
+        policy.onChunkExecuted(10, TimeUnit.MILLISECONDS.toNanos(200));
+        assertThat(policy.getChunkSize()).isEqualTo(75);
+
+        // fast chunks grow up to max
+        for (int i = 0; i < 20; i++) {
+            policy.onChunkExecuted(policy.getChunkSize(), 1);
+        }
+        assertThat(policy.getChunkSize()).isEqualTo(1000);
+
+        // slow chunks shrink down to min
+        for (int i = 0; i < 20; i++) {
+            policy.onChunkExecuted(policy.getChunkSize(), TimeUnit.SECONDS.toNanos(10));
+        }
+        assertThat(policy.getChunkSize()).isEqualTo(10);
+    }
+
+    @Test
+    public void fixedChunkSize() {
+        BatchChunkPolicy policy = new BatchChunkPolicy(100);
+        policy.onChunkExecuted(100, TimeUnit.SECONDS.toNanos(10));
+        assertThat(policy.getChunkSize()).isEqualTo(100);
+    }
+
+}
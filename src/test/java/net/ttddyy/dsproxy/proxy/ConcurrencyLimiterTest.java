@@ -0,0 +1,207 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.QueryType;
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void acquireAndRelease() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        ExecutionInfo execInfo = new ExecutionInfo();
+
+        limiter.acquire(null, execInfo);
+        limiter.acquire(null, execInfo);
+        assertThat(limiter.getDataSourceLimit().getActiveCount()).isEqualTo(2);
+        assertThat(execInfo.getQueueWaitTime()).isEqualTo(0);
+
+        limiter.release(null);
+        limiter.release(null);
+        assertThat(limiter.getDataSourceLimit().getActiveCount()).isEqualTo(0);
+        assertThat(limiter.getDataSourceLimit().getAcquiredCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void rejectWhenQueueIsFull() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        limiter.setMaxQueueSize(0);
+        limiter.acquire(null, null);
+
+        try {
+            limiter.acquire(null, null);
+            fail("should be rejected");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertThat(e.getLimitName()).isEqualTo("datasource");
+        }
+        assertThat(limiter.getDataSourceLimit().getRejectedCount()).isEqualTo(1);
+        assertThat(limiter.getWaitingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void rejectOnTimeout() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        limiter.setMaxWaitTime(10, TimeUnit.MILLISECONDS);
+        limiter.acquire(null, null);
+
+        try {
+            limiter.acquire(null, null);
+            fail("should be rejected");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertThat((Throwable) e).isInstanceOf(SQLTransientException.class);
+        }
+        assertThat(limiter.getDataSourceLimit().getWaitedCount()).isEqualTo(1);
+        assertThat(limiter.getDataSourceLimit().getTotalWaitTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(10);
+    }
+
+    @Test
+    public void waitForPermit() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        limiter.setMaxWaitTime(10, TimeUnit.SECONDS);
+        limiter.acquire(null, null);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final ExecutionInfo execInfo = new ExecutionInfo();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    limiter.acquire(null, execInfo);
+                } catch (ConcurrencyLimitExceededException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        started.await();
+        while (limiter.getWaitingCount() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(20);
+        limiter.release(null);
+        thread.join(5000);
+
+        assertThat(execInfo.getQueueWaitTime()).isGreaterThanOrEqualTo(20);
+        assertThat(limiter.getDataSourceLimit().getActiveCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void subLimits() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10);
+        limiter.setMaxQueueSize(0);
+        limiter.setQueryTypeLimit(QueryType.SELECT, 2);
+        limiter.setFingerprintLimit("SELECT * FROM emp WHERE id = 1", 1);
+
+        ConcurrencyLimiter.Limit fingerprintLimit = limiter.getSubLimit("select * from emp where id = 2");
+        ConcurrencyLimiter.Limit selectLimit = limiter.getSubLimit("SELECT * FROM dept");
+        assertThat(fingerprintLimit.getMaxConcurrency()).isEqualTo(1);
+        assertThat(selectLimit.getName()).isEqualTo("SELECT");
+        assertThat(limiter.getSubLimit("INSERT INTO emp VALUES (1, 'foo')")).isNull();
+        assertThat(limiter.getSubLimits()).hasSize(2);
+
+        limiter.acquire(fingerprintLimit, null);
+        try {
+            limiter.acquire(fingerprintLimit, null);
+            fail("should be rejected");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertThat(e.getLimitName()).isEqualTo(fingerprintLimit.getName());
+        }
+
+        // other queries are not affected by the fingerprint limit
+        limiter.acquire(selectLimit, null);
+        assertThat(limiter.getDataSourceLimit().getActiveCount()).isEqualTo(2);
+
+        limiter.release(fingerprintLimit);
+        limiter.release(selectLimit);
+        assertThat(limiter.getDataSourceLimit().getActiveCount()).isEqualTo(0);
+        assertThat(fingerprintLimit.getActiveCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void releaseSubLimitWhenDataSourceLimitRejects() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        limiter.setMaxQueueSize(0);
+        limiter.setQueryTypeLimit(QueryType.SELECT, 5);
+        ConcurrencyLimiter.Limit selectLimit = limiter.getSubLimit("SELECT 1");
+
+        limiter.acquire(null, null);
+        try {
+            limiter.acquire(selectLimit, null);
+            fail("should be rejected");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertThat(e.getLimitName()).isEqualTo("datasource");
+        }
+        assertThat(selectLimit.getActiveCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void limitStatementExecution() throws Exception {
+        DataSource rawDataSource = TestUtils.getDataSourceWithData();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        limiter.setMaxQueueSize(0);
+        final List<ExecutionInfo> executions = new ArrayList<ExecutionInfo>();
+        DataSource dataSource = ProxyDataSourceBuilder.create(rawDataSource).limitConcurrency(limiter)
+                .listener(new QueryExecutionListener() {
+                    @Override
+                    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                    }
+
+                    @Override
+                    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                        executions.add(execInfo);
+                    }
+                })
+                .build();
+
+        Connection conn = dataSource.getConnection();
+        PreparedStatement ps = conn.prepareStatement("SELECT * FROM emp WHERE id = ?");
+        ps.setInt(1, 1);
+        ps.executeQuery().close();
+        assertThat(limiter.getDataSourceLimit().getActiveCount()).isEqualTo(0);
+
+        // another execution holds the permit
+        limiter.acquire(null, null);
+        try {
+            ps.executeQuery();
+            fail("should be rejected");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertThat(executions).hasSize(2);
+            assertThat(executions.get(1).isSuccess()).isFalse();
+            assertThat(executions.get(1).getThrowable()).isSameAs(e);
+        }
+        try {
+            conn.createStatement().executeQuery("SELECT * FROM emp");
+            fail("should be rejected");
+        } catch (ConcurrencyLimitExceededException e) {
+            // expected
+        }
+        limiter.release(null);
+
+        conn.createStatement().executeQuery("SELECT * FROM emp").close();
+        assertThat(limiter.getDataSourceLimit().getActiveCount()).isEqualTo(0);
+
+        conn.close();
+        TestUtils.shutdown(rawDataSource);
+    }
+
+}
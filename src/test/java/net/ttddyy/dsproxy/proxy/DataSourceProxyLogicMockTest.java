@@ -13,7 +13,8 @@ import java.lang.reflect.Proxy;
 import java.sql.Connection;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -165,7 +166,11 @@ public class DataSourceProxyLogicMockTest {
                 DataSource.class, executionContext.getMethod().getDeclaringClass());
         assertSame("getConnection", executionContext.getMethod().getName());
         assertSame(ds, executionContext.getTarget());
-        assertNull(executionContext.getConnectionInfo());
+
+        // same as ProxyDataSource, ConnectionInfo is available for getConnection
+        assertNotNull(executionContext.getConnectionInfo());
+        assertEquals(DS_NAME, executionContext.getConnectionInfo().getDataSourceName());
+        assertEquals(1L, executionContext.getConnectionInfo().getConnectionId());
     }
 
 }
@@ -3,6 +3,12 @@ package net.ttddyy.dsproxy.proxy;
 import org.junit.Test;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -48,4 +54,63 @@ public class DefaultConnectionIdManagerTest {
         assertThat(idManager.getOpenConnectionIds()).isEmpty();
 
     }
+
+    @Test
+    public void getOpenConnectionCount() {
+        DefaultConnectionIdManager idManager = new DefaultConnectionIdManager();
+
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(idManager.getId(null));
+        }
+        assertThat(idManager.getOpenConnectionCount()).isEqualTo(1000);
+
+        // close every other connection
+        for (int i = 0; i < ids.size(); i += 2) {
+            idManager.addClosedId(ids.get(i));
+        }
+        // closing unknown or already closed id does not change the count
+        idManager.addClosedId(ids.get(0));
+        idManager.addClosedId(99999L);
+
+        assertThat(idManager.getOpenConnectionCount()).isEqualTo(500);
+        assertThat(idManager.getOpenConnectionIds()).hasSize(500);
+        for (int i = 1; i < ids.size(); i += 2) {
+            assertThat(idManager.getOpenConnectionIds()).contains(ids.get(i));
+        }
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        final DefaultConnectionIdManager idManager = new DefaultConnectionIdManager();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        long lastId = 0;
+                        for (int j = 0; j < 10000; j++) {
+                            long id = idManager.getId(null);
+                            if (j % 10 != 0) {
+                                idManager.addClosedId(id);
+                            } else {
+                                lastId = id;
+                            }
+                        }
+                        return lastId;
+                    }
+                }));
+            }
+            for (Future<Long> future : futures) {
+                Long lastId = future.get();
+                assertThat(idManager.getOpenConnectionIds()).contains(lastId);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(idManager.getOpenConnectionCount()).isEqualTo(8000);
+        assertThat(idManager.getOpenConnectionIds()).hasSize(8000);
+    }
 }
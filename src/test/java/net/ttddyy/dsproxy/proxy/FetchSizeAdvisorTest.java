@@ -0,0 +1,136 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class FetchSizeAdvisorTest {
+
+    private DataSource jdbcDataSource;
+
+    @Before
+    public void setup() throws Exception {
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        TestUtils.shutdown(this.jdbcDataSource);
+    }
+
+    @Test
+    public void calculateFetchSize() {
+        FetchSizeAdvisor advisor = new FetchSizeAdvisor();
+        advisor.setMinSamples(3);
+        advisor.setMaxFetchSize(500);
+
+        // small lookups
+        for (int i = 0; i < 10; i++) {
+            advisor.record("select * from emp where id = " + i, 1);
+        }
+        assertThat(advisor.getRecommendedFetchSize("select * from emp where id = 100")).isEqualTo(2);
+
+        // big scan
+        for (int i = 0; i < 10; i++) {
+            advisor.record("select * from emp", 100000);
+        }
+        assertThat(advisor.getRecommendedFetchSize("select * from emp")).isEqualTo(500);
+
+        // mid range: 90 percentile of rows is in 32-63 bucket
+        for (int i = 0; i < 10; i++) {
+            advisor.record("select * from dept", i < 9 ? 40 : 300);
+        }
+        assertThat(advisor.getRecommendedFetchSize("select * from dept")).isEqualTo(64);
+
+        // not enough samples
+        advisor.record("select * from foo", 10);
+        assertThat(advisor.getRecommendedFetchSize("select * from foo")).isEqualTo(0);
+        assertThat(advisor.getRecommendedFetchSize("select * from unknown")).isEqualTo(0);
+    }
+
+    @Test
+    public void explain() {
+        FetchSizeAdvisor advisor = new FetchSizeAdvisor();
+        advisor.setMinSamples(1);
+        advisor.record("select * from emp where id = 1", 1);
+        advisor.record("select * from emp where id = 2", 3);
+        advisor.record("select * from dept", 10);
+
+        FetchSizeAdvisor.Advice advice = advisor.explain("SELECT * FROM emp WHERE id = 5");
+        assertThat(advice).isNotNull();
+        assertThat(advice.getFingerprint()).isEqualTo("select * from emp where id = ?");
+        assertThat(advice.getSampleCount()).isEqualTo(2);
+        assertThat(advice.getTotalRows()).isEqualTo(4);
+        assertThat(advice.getMaxRows()).isEqualTo(3);
+        assertThat(advice.getAverageRows()).isEqualTo(2.0);
+        assertThat(advice.getRecommendedFetchSize()).isEqualTo(4);
+
+        List<FetchSizeAdvisor.Advice> advices = advisor.getAdvices();
+        assertThat(advices).hasSize(2);
+        assertThat(advices.get(0).getFingerprint()).isEqualTo("select * from emp where id = ?");
+        assertThat(advisor.report()).contains("select * from dept");
+
+        assertThat(advisor.explain("select * from unknown")).isNull();
+    }
+
+    @Test
+    public void learnFromResultSet() throws Exception {
+        FetchSizeAdvisor advisor = new FetchSizeAdvisor();
+        advisor.setMinSamples(1);
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).fetchSizeAdvisor(advisor).build();
+
+        Connection conn = ds.getConnection();
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("select * from emp");
+        while (rs.next()) {
+        }
+
+        PreparedStatement ps = conn.prepareStatement("select * from emp where id = ?");
+        ps.setInt(1, 1);
+        rs = ps.executeQuery();
+        rs.next();
+        rs.close();
+        conn.close();
+
+        assertThat(advisor.explain("select * from emp").getTotalRows()).isEqualTo(2);
+        assertThat(advisor.explain("select * from emp where id = ?").getTotalRows()).isEqualTo(1);
+    }
+
+    @Test
+    public void autoApply() throws Exception {
+        FetchSizeAdvisor advisor = new FetchSizeAdvisor();
+        advisor.setMinSamples(1);
+        advisor.setAutoApply(true);
+        advisor.record("select * from emp", 50);
+
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).fetchSizeAdvisor(advisor).build();
+        Connection conn = ds.getConnection();
+
+        Statement stmt = conn.createStatement();
+        stmt.executeQuery("select * from emp").close();
+        assertThat(stmt.getFetchSize()).isEqualTo(64);
+
+        // explicitly specified fetch size is kept
+        PreparedStatement ps = conn.prepareStatement("select * from emp");
+        ps.setFetchSize(7);
+        ps.executeQuery().close();
+        assertThat(ps.getFetchSize()).isEqualTo(7);
+
+        conn.close();
+    }
+
+}
@@ -0,0 +1,190 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class LazyConnectionFactoryTest {
+
+    private DataSource actual;
+    private Connection connection;
+    private LazyConnectionFactory factory;
+    private DataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        this.connection = mock(Connection.class);
+        when(this.connection.getAutoCommit()).thenReturn(true);
+        when(this.connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_READ_COMMITTED);
+        when(this.connection.createStatement()).thenReturn(mock(Statement.class));
+        when(this.connection.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+        this.actual = mock(DataSource.class);
+        when(this.actual.getConnection()).thenReturn(this.connection);
+        when(this.actual.getConnection("user", "pass")).thenReturn(this.connection);
+
+        this.factory = new LazyConnectionFactory();
+        this.dataSource = ProxyDataSourceBuilder.create(this.actual).lazyConnection(this.factory).build();
+    }
+
+    @Test
+    public void unusedConnectionDoesNotBorrow() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        conn.setReadOnly(true);
+        assertThat(conn.getAutoCommit()).isFalse();
+        assertThat(conn.isReadOnly()).isTrue();
+        conn.commit();
+        conn.rollback();
+        assertThat((Object) conn.getWarnings()).isNull();
+        conn.close();
+        assertThat(conn.isClosed()).isTrue();
+
+        verify(this.actual, never()).getConnection();
+        assertThat(this.factory.getCreatedCount()).isEqualTo(1);
+        assertThat(this.factory.getBorrowedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void abortAndIsValidDoNotBorrow() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        assertThat(conn.isValid(1)).isTrue();
+        conn.abort(mock(Executor.class));
+        assertThat(conn.isClosed()).isTrue();
+        assertThat(conn.isValid(1)).isFalse();
+
+        verify(this.actual, never()).getConnection();
+        assertThat(this.factory.getBorrowedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void replaySettingsInOrderOfLastCalls() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setReadOnly(true);
+        conn.setAutoCommit(false);
+        conn.setReadOnly(false);
+        conn.createStatement();
+        conn.close();
+
+        InOrder inOrder = inOrder(this.connection);
+        inOrder.verify(this.connection).setAutoCommit(false);
+        inOrder.verify(this.connection).setReadOnly(false);
+        inOrder.verify(this.connection).createStatement();
+        verify(this.connection, never()).setReadOnly(true);
+    }
+
+    @Test
+    public void borrowOnStatementCreation() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        verify(this.actual, never()).getConnection();
+
+        Statement stmt = conn.createStatement();
+        assertThat(stmt).isNotNull();
+        conn.prepareStatement("SELECT 1");
+        conn.commit();
+        conn.close();
+
+        // recorded settings are replayed before the statement is created
+        InOrder inOrder = inOrder(this.actual, this.connection);
+        inOrder.verify(this.actual).getConnection();
+        inOrder.verify(this.connection).setAutoCommit(false);
+        inOrder.verify(this.connection).setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        inOrder.verify(this.connection).createStatement();
+        inOrder.verify(this.connection).prepareStatement("SELECT 1");
+        inOrder.verify(this.connection).commit();
+        inOrder.verify(this.connection).close();
+        assertThat(this.factory.getBorrowedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void borrowWithUsernameAndPassword() throws Exception {
+        Connection conn = this.dataSource.getConnection("user", "pass");
+        conn.prepareStatement("SELECT 1");
+        verify(this.actual).getConnection("user", "pass");
+        verify(this.actual, never()).getConnection();
+    }
+
+    @Test
+    public void defaultsFromFirstConnection() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        assertThat(conn.getAutoCommit()).isTrue();  // borrows to read the default
+        assertThat(this.factory.getBorrowedCount()).isEqualTo(1);
+        assertThat(this.factory.getDefaultTransactionIsolation()).isEqualTo(Connection.TRANSACTION_READ_COMMITTED);
+        conn.close();
+
+        conn = this.dataSource.getConnection();
+        assertThat(conn.getAutoCommit()).isTrue();
+        assertThat(conn.getTransactionIsolation()).isEqualTo(Connection.TRANSACTION_READ_COMMITTED);
+        conn.close();
+        assertThat(this.factory.getBorrowedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void configuredDefaults() throws Exception {
+        this.factory.setDefaultAutoCommit(true);
+        this.factory.setDefaultReadOnly(false);
+        Connection conn = this.dataSource.getConnection();
+        assertThat(conn.getAutoCommit()).isTrue();
+        assertThat(conn.isReadOnly()).isFalse();
+        conn.close();
+        assertThat(this.factory.getBorrowedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void closedConnection() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.close();
+        try {
+            conn.createStatement();
+            fail("SQLException should be thrown");
+        } catch (SQLException ex) {
+        }
+        verify(this.actual, never()).getConnection();
+    }
+
+    @Test
+    public void failedReplayReleasesConnection() throws Exception {
+        SQLException failure = new SQLException("not supported");
+        doThrow(failure).when(this.connection).setReadOnly(anyBoolean());
+
+        Connection conn = this.dataSource.getConnection();
+        conn.setReadOnly(true);
+        try {
+            conn.createStatement();
+            fail("SQLException should be thrown");
+        } catch (SQLException ex) {
+            assertThat((Throwable) ex).isSameAs(failure);
+        }
+        verify(this.connection).close();
+    }
+
+    @Test
+    public void extractNativeConnection() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        assertThat(NativeJdbcExtractUtils.getConnection(conn)).isSameAs(this.connection);
+    }
+
+}
@@ -0,0 +1,215 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class PreparedStatementCacheTest {
+
+    private Connection connection;
+    private List<PreparedStatement> prepared;
+    private PreparedStatementCache cache;
+    private DataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        this.prepared = new ArrayList<PreparedStatement>();
+        this.connection = mock(Connection.class);
+        when(this.connection.prepareStatement(anyString())).thenAnswer(new Answer<PreparedStatement>() {
+            @Override
+            public PreparedStatement answer(InvocationOnMock invocation) throws Throwable {
+                PreparedStatement ps = mock(PreparedStatement.class);
+                prepared.add(ps);
+                return ps;
+            }
+        });
+        DataSource actual = mock(DataSource.class);
+        when(actual.getConnection()).thenReturn(this.connection);
+
+        this.cache = new PreparedStatementCache(2);
+        this.dataSource = ProxyDataSourceBuilder.create(actual).preparedStatementCache(this.cache).build();
+    }
+
+    @Test
+    public void reuseClosedStatement() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        PreparedStatement ps = conn.prepareStatement("SELECT 1");
+        ps.setInt(1, 100);
+        ps.executeQuery();
+        ps.close();
+        assertThat(ps.isClosed()).isTrue();
+
+        PreparedStatement actual = this.prepared.get(0);
+        verify(actual, never()).close();
+        verify(actual).clearParameters();
+
+        PreparedStatement reused = conn.prepareStatement("SELECT 1");
+        assertThat(reused).isNotSameAs(ps);
+        reused.executeQuery();
+        verify(this.connection, times(1)).prepareStatement("SELECT 1");
+        verify(actual, times(2)).executeQuery();
+
+        assertThat(this.cache.getMissCount()).isEqualTo(1);
+        assertThat(this.cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void resetStatementOnRelease() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        PreparedStatement ps = conn.prepareStatement("SELECT 1");
+        PreparedStatement actual = this.prepared.get(0);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(actual.getResultSet()).thenReturn(resultSet);
+
+        ps.setMaxRows(10);
+        ps.setFetchSize(100);
+        ps.setQueryTimeout(5);
+        ps.close();
+
+        verify(resultSet).close();
+        verify(actual).setMaxRows(0);  // values at preparation
+        verify(actual).setFetchSize(0);
+        verify(actual).setQueryTimeout(0);
+        verify(actual, never()).close();
+    }
+
+    @Test
+    public void restoreValuesAtPreparation() throws Exception {
+        // e.g. driver or pool sets defaults to prepared statements
+        PreparedStatement actual = mock(PreparedStatement.class);
+        when(actual.getMaxRows()).thenReturn(1000);
+        when(actual.getFetchSize()).thenReturn(50);
+        when(actual.getQueryTimeout()).thenReturn(30);
+        when(this.connection.prepareStatement("SELECT 2")).thenReturn(actual);
+
+        Connection conn = this.dataSource.getConnection();
+        PreparedStatement ps = conn.prepareStatement("SELECT 2");
+        ps.setMaxRows(10);
+        ps.setFetchSize(100);
+        ps.setQueryTimeout(5);
+        ps.close();
+
+        verify(actual).setMaxRows(1000);
+        verify(actual).setFetchSize(50);
+        verify(actual).setQueryTimeout(30);
+        verify(actual, never()).close();
+    }
+
+    @Test
+    public void statementNotCachedWhenResetFailed() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        PreparedStatement ps = conn.prepareStatement("SELECT 1");
+        PreparedStatement actual = this.prepared.get(0);
+        when(actual.getResultSet()).thenThrow(new SQLException("closed"));
+        ps.close();
+
+        verify(actual).close();
+        conn.prepareStatement("SELECT 1");
+        assertThat(this.prepared).hasSize(2);
+    }
+
+    @Test
+    public void closedProxyCannotBeUsed() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        PreparedStatement ps = conn.prepareStatement("SELECT 1");
+        ps.close();
+        ps.close();  // no-op
+        try {
+            ps.executeQuery();
+            fail("SQLException should be thrown");
+        } catch (SQLException ex) {
+        }
+        verify(this.prepared.get(0), never()).executeQuery();
+    }
+
+    @Test
+    public void statementsInUseAreNotShared() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        PreparedStatement ps1 = conn.prepareStatement("SELECT 1");
+        PreparedStatement ps2 = conn.prepareStatement("SELECT 1");
+        assertThat(this.prepared).hasSize(2);
+
+        ps1.close();
+        ps2.close();  // one idle statement per key
+        verify(this.prepared.get(0), never()).close();
+        verify(this.prepared.get(1)).close();
+        assertThat(this.cache.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.prepareStatement("SELECT 1").close();
+        conn.prepareStatement("SELECT 2").close();
+        conn.prepareStatement("SELECT 1").close();  // SELECT 2 becomes the eldest
+        conn.prepareStatement("SELECT 3").close();
+
+        verify(this.prepared.get(0), never()).close();
+        verify(this.prepared.get(1)).close();
+        verify(this.prepared.get(2), never()).close();
+        assertThat(this.cache.getEvictionCount()).isEqualTo(1);
+        assertThat(this.cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void closeIdleStatementsOnConnectionClose() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.prepareStatement("SELECT 1").close();
+        PreparedStatement inUse = conn.prepareStatement("SELECT 2");
+        conn.close();
+
+        verify(this.prepared.get(0)).close();
+        verify(this.connection).close();
+
+        inUse.close();  // no longer cached
+        verify(this.prepared.get(1)).close();
+    }
+
+    @Test
+    public void cachePerConnection() throws Exception {
+        Connection conn1 = this.dataSource.getConnection();
+        conn1.prepareStatement("SELECT 1").close();
+        Connection conn2 = this.dataSource.getConnection();
+        conn2.prepareStatement("SELECT 1").close();
+
+        verify(this.connection, times(2)).prepareStatement("SELECT 1");
+        assertThat(this.cache.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void statementsWithArrayArgumentsAreNotCached() throws Exception {
+        when(this.connection.prepareStatement(anyString(), any(String[].class)))
+                .thenReturn(mock(PreparedStatement.class));
+        Connection conn = this.dataSource.getConnection();
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO emp VALUES (?)", new String[]{"id"});
+        PreparedStatement actual = (PreparedStatement) ((ProxyJdbcObject) ps).getTarget();
+        ps.close();
+        verify(actual).close();
+        assertThat(this.cache.getHitCount()).isEqualTo(0);
+        assertThat(this.cache.getMissCount()).isEqualTo(0);
+    }
+
+}
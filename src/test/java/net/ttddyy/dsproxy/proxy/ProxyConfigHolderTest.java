@@ -0,0 +1,180 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.ConnectionIdManager;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.listener.MethodExecutionContext;
+import net.ttddyy.dsproxy.listener.MethodExecutionListener;
+import net.ttddyy.dsproxy.listener.NoOpMethodExecutionListener;
+import net.ttddyy.dsproxy.listener.NoOpQueryExecutionListener;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class ProxyConfigHolderTest {
+
+    private DataSource jdbcDataSource;
+
+    @Before
+    public void setup() throws Exception {
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        TestUtils.shutdown(this.jdbcDataSource);
+    }
+
+    @Test
+    public void update() {
+        ProxyConfig initial = ProxyConfig.Builder.create().dataSourceName("foo").build();
+        assertThat(initial.getConfigHolder()).isNull();
+        assertThat(initial.getLatest()).isSameAs(initial);
+
+        ProxyConfigHolder holder = new ProxyConfigHolder(initial);
+        ProxyConfig first = holder.get();
+        assertThat(first.getConfigHolder()).isSameAs(holder);
+        assertThat(first.getDataSourceName()).isEqualTo("foo");
+        assertThat(holder.getVersion()).isEqualTo(1);
+
+        ProxyConfig second = holder.update(ProxyConfig.Builder.create().dataSourceName("bar").build());
+        assertThat(holder.getVersion()).isEqualTo(2);
+        assertThat(second.getVersion()).isEqualTo(2);
+        assertThat(first.getLatest()).isSameAs(second);
+        assertThat(second.getLatest()).isSameAs(second);
+
+        // stale expectation
+        assertThat(holder.compareAndUpdate(first, initial)).isFalse();
+        assertThat(holder.compareAndUpdate(second, initial)).isTrue();
+        assertThat(first.getLatest().getDataSourceName()).isEqualTo("foo");
+        assertThat(holder.getVersion()).isEqualTo(3);
+    }
+
+    @Test
+    public void applyToLiveConnection() throws Exception {
+        ProxyDataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).reloadableProxyConfig().build();
+
+        Connection conn = ds.getConnection();
+        Statement stmt = conn.createStatement();
+        stmt.executeQuery("SELECT * FROM emp").close();
+
+        // add listeners after the statement is created
+        final List<String> queries = new ArrayList<String>();
+        QueryExecutionListener queryListener = new NoOpQueryExecutionListener() {
+            @Override
+            public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                queries.add(queryInfoList.get(0).getQuery());
+            }
+        };
+        final List<String> methods = new ArrayList<String>();
+        MethodExecutionListener methodListener = new NoOpMethodExecutionListener() {
+            @Override
+            public void beforeMethod(MethodExecutionContext executionContext) {
+                methods.add(executionContext.getMethod().getName());
+            }
+        };
+        ds.setProxyConfig(ProxyConfig.Builder.create()
+                .queryListener(queryListener)
+                .methodListener(methodListener)
+                .resultSetProxyLogicFactory(new SimpleResultSetProxyLogicFactory())
+                .build());
+        assertThat(ds.getProxyConfig().getConfigHolder()).isNotNull();
+
+        ResultSet rs = stmt.executeQuery("SELECT id FROM emp");
+        assertThat(rs).isInstanceOf(ProxyJdbcObject.class);
+        rs.close();
+        assertThat(queries).containsExactly("SELECT id FROM emp");
+        assertThat(methods).containsExactly("executeQuery", "close");
+
+        // remove listeners
+        ds.setProxyConfig(ProxyConfig.Builder.create().build());
+        stmt.executeQuery("SELECT name FROM emp").close();
+        conn.close();
+        assertThat(queries).hasSize(1);
+        assertThat(methods).hasSize(2);
+    }
+
+    @Test
+    public void closeAfterReload() throws Exception {
+        ProxyDataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).reloadableProxyConfig().build();
+        ConnectionIdManager initialIdManager = ds.getConnectionIdManager();
+        Connection conn = ds.getConnection();
+        assertThat(initialIdManager.getOpenConnectionIds()).hasSize(1);
+
+        ds.setProxyConfig(ProxyConfig.Builder.create().build());
+        ConnectionIdManager reloadedIdManager = ds.getConnectionIdManager();
+        assertThat(reloadedIdManager).isNotSameAs(initialIdManager);
+
+        // closed id goes to the manager that issued it
+        conn.close();
+        assertThat(initialIdManager.getOpenConnectionIds()).isEmpty();
+        assertThat(reloadedIdManager.getOpenConnectionIds()).isEmpty();
+
+        conn = ds.getConnection();
+        assertThat(reloadedIdManager.getOpenConnectionIds()).hasSize(1);
+        conn.close();
+        assertThat(reloadedIdManager.getOpenConnectionIds()).isEmpty();
+    }
+
+    @Test
+    public void addListenerToReloadableDataSource() throws Exception {
+        ProxyDataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).reloadableProxyConfig().build();
+        Connection conn = ds.getConnection();
+
+        final List<String> queries = new ArrayList<String>();
+        ds.addListener(new NoOpQueryExecutionListener() {
+            @Override
+            public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                queries.add(queryInfoList.get(0).getQuery());
+            }
+        });
+
+        Statement stmt = conn.createStatement();
+        stmt.executeQuery("SELECT * FROM emp").close();
+        conn.close();
+        assertThat(queries).containsExactly("SELECT * FROM emp");
+    }
+
+    @Test
+    public void notReloadable() throws Exception {
+        ProxyDataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).build();
+        Connection conn = ds.getConnection();
+
+        final List<String> queries = new ArrayList<String>();
+        ds.addListener(new NoOpQueryExecutionListener() {
+            @Override
+            public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                queries.add(queryInfoList.get(0).getQuery());
+            }
+        });
+
+        // existing connection keeps its config
+        Statement stmt = conn.createStatement();
+        stmt.executeQuery("SELECT * FROM emp").close();
+        conn.close();
+        assertThat(queries).isEmpty();
+
+        conn = ds.getConnection();
+        stmt = conn.createStatement();
+        stmt.executeQuery("SELECT * FROM emp").close();
+        conn.close();
+        assertThat(queries).hasSize(1);
+    }
+
+}
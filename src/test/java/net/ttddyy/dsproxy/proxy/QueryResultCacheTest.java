@@ -0,0 +1,294 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class QueryResultCacheTest {
+
+    private DataSource jdbcDataSource;
+
+    @Before
+    public void setup() throws Exception {
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        TestUtils.shutdown(this.jdbcDataSource);
+    }
+
+    private String selectName(Connection conn, int id) throws Exception {
+        PreparedStatement ps = conn.prepareStatement("SELECT id, name FROM emp WHERE id = ?");
+        ps.setInt(1, id);
+        ResultSet rs = ps.executeQuery();
+        String name = rs.next() ? rs.getString("name") : null;
+        rs.close();
+        ps.close();
+        return name;
+    }
+
+    @Test
+    public void readThrough() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new DefaultQueryResultCachePolicy()
+                .cache("select id, name from emp where id = 1", 1, TimeUnit.MINUTES));
+        QueryExecutionListener listener = mock(QueryExecutionListener.class);
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).listener(listener).queryResultCache(cache).build();
+
+        Connection conn = ds.getConnection();
+        assertThat(selectName(conn, 1)).isEqualTo("foo");
+        assertThat(selectName(conn, 1)).isEqualTo("foo");
+        assertThat(selectName(conn, 2)).isEqualTo("bar");
+        assertThat(selectName(conn, 2)).isEqualTo("bar");
+
+        assertThat(cache.getMissCount()).isEqualTo(2);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        assertThat(cache.getSize()).isEqualTo(2);
+        verify(listener, times(2)).afterQuery(any(), anyList());
+
+        // modification through the proxy invalidates entries for the table
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate("UPDATE emp SET name = 'FOO' WHERE id = 1");
+        stmt.close();
+        assertThat(cache.getSize()).isEqualTo(0);
+        assertThat(cache.getInvalidationCount()).isEqualTo(2);
+
+        assertThat(selectName(conn, 1)).isEqualTo("FOO");
+        assertThat(cache.getMissCount()).isEqualTo(3);
+        conn.close();
+    }
+
+    @Test
+    public void replay() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new DefaultQueryResultCachePolicy()
+                .defaultTimeToLive(1, TimeUnit.MINUTES));
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).queryResultCache(cache).build();
+
+        Connection conn = ds.getConnection();
+        for (int i = 0; i < 2; i++) {
+            PreparedStatement ps = conn.prepareStatement("SELECT id, name FROM emp ORDER BY id");
+            ResultSet rs = ps.executeQuery();
+            assertThat(rs.getMetaData().getColumnCount()).isEqualTo(2);
+            assertThat(rs.getMetaData().getColumnLabel(2)).isEqualToIgnoringCase("name");
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.getInt(1)).isEqualTo(1);
+            assertThat(rs.getLong("id")).isEqualTo(1L);
+            assertThat(rs.getString(1)).isEqualTo("1");
+            assertThat(rs.wasNull()).isFalse();
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.getString("NAME")).isEqualTo("bar");
+            assertThat(rs.next()).isFalse();
+            rs.close();
+            assertThat(rs.isClosed()).isTrue();
+            ps.close();
+        }
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        conn.close();
+    }
+
+    @Test
+    public void detachedResultSet() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new DefaultQueryResultCachePolicy()
+                .defaultTimeToLive(1, TimeUnit.MINUTES));
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).queryResultCache(cache).build();
+
+        Connection conn = ds.getConnection();
+        Set<ResultSet> resultSets = new HashSet<ResultSet>();
+        for (int i = 0; i < 2; i++) {  // miss, then hit
+            PreparedStatement ps = conn.prepareStatement("SELECT id, name FROM emp ORDER BY id");
+            ResultSet rs = ps.executeQuery();
+
+            // object methods
+            assertThat(rs.hashCode()).isEqualTo(rs.hashCode());
+            assertThat(rs.equals(rs)).isTrue();
+            assertThat(rs.equals(null)).isFalse();
+            assertThat(resultSets.add(rs)).isTrue();
+            assertThat(resultSets.contains(rs)).isTrue();
+            assertThat(rs.toString()).isEqualTo("DetachedResultSet [rows=2]");
+
+            assertThat(rs.getStatement()).isSameAs(((ProxyJdbcObject) ps).getTarget());
+            assertThat(rs.findColumn("name")).isEqualTo(2);
+            assertThat(rs.findColumn("ID")).isEqualTo(1);
+            try {
+                rs.findColumn("unknown");
+                fail("SQLException is expected");
+            } catch (SQLException e) {
+            }
+
+            assertThat(rs.getType()).isEqualTo(ResultSet.TYPE_FORWARD_ONLY);
+            assertThat(rs.getConcurrency()).isEqualTo(ResultSet.CONCUR_READ_ONLY);
+            assertThat((Throwable) rs.getWarnings()).isNull();
+            rs.setFetchSize(10);
+            assertThat(rs.isBeforeFirst()).isTrue();
+            assertThat(rs.getRow()).isEqualTo(0);
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.isFirst()).isTrue();
+            assertThat(rs.getRow()).isEqualTo(1);
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.isLast()).isTrue();
+            assertThat(rs.next()).isFalse();
+            assertThat(rs.isAfterLast()).isTrue();
+            assertThat(rs.getRow()).isEqualTo(0);
+
+            // methods that need a live result set
+            try {
+                rs.absolute(1);
+                fail("SQLFeatureNotSupportedException is expected");
+            } catch (SQLFeatureNotSupportedException e) {
+            }
+            rs.close();
+            ps.close();
+        }
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(resultSets).hasSize(2);
+        conn.close();
+    }
+
+    @Test
+    public void fetchSizeAdvisorOnMiss() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new DefaultQueryResultCachePolicy()
+                .defaultTimeToLive(1, TimeUnit.MINUTES));
+        FetchSizeAdvisor advisor = new FetchSizeAdvisor();
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).queryResultCache(cache)
+                .fetchSizeAdvisor(advisor).build();
+
+        Connection conn = ds.getConnection();
+        selectName(conn, 1);
+        selectName(conn, 1);  // hit does not reach the database
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(advisor.explain("SELECT id, name FROM emp WHERE id = ?").getSampleCount()).isEqualTo(1);
+        conn.close();
+    }
+
+    @Test
+    public void eviction() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new DefaultQueryResultCachePolicy()
+                .defaultTimeToLive(1, TimeUnit.MINUTES));
+        cache.setMaxEntries(1);
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).queryResultCache(cache).build();
+
+        Connection conn = ds.getConnection();
+        selectName(conn, 1);
+        selectName(conn, 2);
+        assertThat(cache.getSize()).isEqualTo(1);
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+
+        cache.invalidateQuery("select id, name from emp where id = ?");
+        assertThat(cache.getSize()).isEqualTo(0);
+        conn.close();
+    }
+
+    @Test
+    public void expiration() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new DefaultQueryResultCachePolicy()
+                .defaultTimeToLive(1, TimeUnit.MILLISECONDS));
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).queryResultCache(cache).build();
+
+        Connection conn = ds.getConnection();
+        selectName(conn, 1);
+        Thread.sleep(10);
+        selectName(conn, 1);
+        assertThat(cache.getExpirationCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(0);
+        conn.close();
+    }
+
+    @Test
+    public void tooLargeResultIsStreamed() throws Exception {
+        QueryResultCache cache = new QueryResultCache(new DefaultQueryResultCachePolicy()
+                .defaultTimeToLive(1, TimeUnit.MINUTES));
+        cache.setMaxRowsPerEntry(1);
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).queryResultCache(cache).build();
+
+        Connection conn = ds.getConnection();
+        PreparedStatement ps = conn.prepareStatement("SELECT id, name FROM emp ORDER BY id");
+        ResultSet rs = ps.executeQuery();
+        ResultSet actual = (ResultSet) ((ProxyJdbcObject) rs).getTarget();
+        assertThat(rs.next()).isTrue();
+        assertThat(rs.getInt("id")).isEqualTo(1);
+        assertThat(rs.getString(2)).isEqualTo("foo");
+        assertThat(rs.next()).isTrue();  // replayed. reading stopped at this row.
+        assertThat(rs.getString("name")).isEqualTo("bar");
+        assertThat(rs.wasNull()).isFalse();
+        assertThat(rs.next()).isFalse();  // from the actual result set
+        assertThat(actual.isClosed()).isFalse();
+        rs.close();
+        assertThat(actual.isClosed()).isTrue();
+        ps.close();
+
+        assertThat(cache.getSize()).isEqualTo(0);
+        conn.close();
+    }
+
+    @Test
+    public void uncommittedModification() throws Exception {
+        Connection raw = this.jdbcDataSource.getConnection();
+        raw.createStatement().execute("SET DATABASE TRANSACTION CONTROL MVCC");  // read committed rows without lock
+        raw.close();
+
+        QueryResultCache cache = new QueryResultCache(new DefaultQueryResultCachePolicy()
+                .defaultTimeToLive(1, TimeUnit.MINUTES));
+        DataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).queryResultCache(cache).build();
+
+        Connection writer = ds.getConnection();
+        Connection reader = ds.getConnection();
+        writer.setAutoCommit(false);
+        Statement stmt = writer.createStatement();
+        stmt.executeUpdate("UPDATE emp SET name = 'FOO' WHERE id = 1");
+        stmt.close();
+
+        // uncommitted row is visible to the writer but not cached
+        assertThat(selectName(writer, 1)).isEqualTo("FOO");
+        assertThat(cache.getSize()).isEqualTo(0);
+
+        // other connections cache committed row
+        assertThat(selectName(reader, 1)).isEqualTo("foo");
+        assertThat(cache.getSize()).isEqualTo(1);
+        assertThat(selectName(writer, 1)).isEqualTo("FOO");  // the writer does not use the cache
+
+        writer.commit();
+        assertThat(cache.getSize()).isEqualTo(0);
+        assertThat(selectName(reader, 1)).isEqualTo("FOO");
+        assertThat(selectName(writer, 1)).isEqualTo("FOO");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+
+        // rolled back modification is not visible either
+        stmt = writer.createStatement();
+        stmt.executeUpdate("UPDATE emp SET name = 'BAZ' WHERE id = 1");
+        stmt.close();
+        assertThat(selectName(writer, 1)).isEqualTo("BAZ");
+        writer.rollback();
+        assertThat(selectName(reader, 1)).isEqualTo("FOO");
+        assertThat(selectName(writer, 1)).isEqualTo("FOO");
+        assertThat(cache.getHitCount()).isEqualTo(2);
+
+        writer.close();
+        reader.close();
+    }
+
+}
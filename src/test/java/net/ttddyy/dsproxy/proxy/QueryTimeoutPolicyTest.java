@@ -0,0 +1,272 @@
+package net.ttddyy.dsproxy.proxy;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryCount;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.QueryType;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.listener.QueryMetricsListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class QueryTimeoutPolicyTest {
+
+    private Connection connection;
+    private Statement statement;
+    private PreparedStatement preparedStatement;
+    private QueryTimeoutPolicy policy;
+    private QueryMetricsListener metricsListener;
+    private List<ExecutionInfo> executions;
+    private DataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        this.statement = mock(Statement.class);
+        this.preparedStatement = mock(PreparedStatement.class);
+        this.connection = mock(Connection.class);
+        when(this.connection.createStatement()).thenReturn(this.statement);
+        when(this.connection.prepareStatement(anyString())).thenReturn(this.preparedStatement);
+        DataSource actual = mock(DataSource.class);
+        when(actual.getConnection()).thenReturn(this.connection);
+
+        this.policy = new QueryTimeoutPolicy(30);
+        this.metricsListener = new QueryMetricsListener();
+        this.executions = new ArrayList<ExecutionInfo>();
+        this.dataSource = ProxyDataSourceBuilder.create(actual).name("ds").queryTimeout(this.policy)
+                .listener(this.metricsListener)
+                .listener(new QueryExecutionListener() {
+                    @Override
+                    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                    }
+
+                    @Override
+                    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                        executions.add(execInfo);
+                    }
+                })
+                .build();
+    }
+
+    @Test
+    public void resolveTimeout() {
+        this.policy.setQueryTypeTimeout(QueryType.SELECT, 10);
+        this.policy.setFingerprintTimeout("SELECT * FROM report WHERE year = 2000", 120);
+
+        assertThat(this.policy.getTimeout("SELECT * FROM report WHERE year = 2018")).isEqualTo(120);
+        assertThat(this.policy.getTimeout("SELECT * FROM emp")).isEqualTo(10);
+        assertThat(this.policy.getTimeout("UPDATE emp SET name = 'foo'")).isEqualTo(30);
+        assertThat(this.policy.getTimeout(null)).isEqualTo(30);
+    }
+
+    @Test
+    public void applyTimeoutToStatement() throws Exception {
+        this.policy.setQueryTypeTimeout(QueryType.SELECT, 10);
+
+        Statement stmt = this.dataSource.getConnection().createStatement();
+        stmt.executeQuery("SELECT * FROM emp");
+        stmt.executeQuery("SELECT * FROM emp");
+        stmt.executeUpdate("UPDATE emp SET name = 'foo'");
+
+        // applied only when changed
+        verify(this.statement, times(1)).setQueryTimeout(10);
+        verify(this.statement, times(1)).setQueryTimeout(30);
+    }
+
+    @Test
+    public void applyTimeoutToPreparedStatement() throws Exception {
+        this.policy.setFingerprintTimeout("SELECT * FROM emp WHERE id = ?", 5);
+
+        PreparedStatement ps = this.dataSource.getConnection().prepareStatement("SELECT * FROM emp WHERE id = ?");
+        ps.setInt(1, 1);
+        ps.executeQuery();
+        ps.setInt(1, 2);
+        ps.executeQuery();
+
+        verify(this.preparedStatement, times(1)).setQueryTimeout(5);
+    }
+
+    @Test
+    public void keepTimeoutSetByApplication() throws Exception {
+        Statement stmt = this.dataSource.getConnection().createStatement();
+        stmt.setQueryTimeout(0);
+        stmt.executeQuery("SELECT * FROM emp");
+
+        PreparedStatement ps = this.dataSource.getConnection().prepareStatement("SELECT * FROM emp");
+        ps.setQueryTimeout(60);
+        ps.executeQuery();
+
+        verify(this.statement, times(1)).setQueryTimeout(anyInt());
+        verify(this.preparedStatement, times(1)).setQueryTimeout(anyInt());
+        verify(this.preparedStatement, never()).setQueryTimeout(30);
+    }
+
+    @Test
+    public void reportTimeout() throws Exception {
+        when(this.preparedStatement.executeQuery()).thenThrow(new SQLTimeoutException("timeout"));
+
+        PreparedStatement ps = this.dataSource.getConnection().prepareStatement("SELECT * FROM emp");
+        try {
+            ps.executeQuery();
+            fail("should time out");
+        } catch (SQLTimeoutException e) {
+            // expected
+        }
+
+        assertThat(this.executions).hasSize(1);
+        assertThat(this.executions.get(0).isTimedOut()).isTrue();
+        assertThat(this.executions.get(0).isCancelled()).isFalse();
+        QueryCount count = this.metricsListener.getMetrics("ds").getQueryCount();
+        assertThat(count.getFailure()).isEqualTo(1);
+        assertThat(count.getTimeout()).isEqualTo(1);
+        assertThat(count.getCancel()).isEqualTo(0);
+    }
+
+    @Test
+    public void reportCancelByApplication() throws Exception {
+        final Statement stmt = this.dataSource.getConnection().createStatement();
+        when(this.statement.executeQuery(anyString())).thenAnswer(new Answer<ResultSet>() {
+            @Override
+            public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+                stmt.cancel();  // as if another thread cancelled it
+                throw new SQLException("cancelled");
+            }
+        });
+
+        try {
+            stmt.executeQuery("SELECT * FROM emp");
+            fail("should be cancelled");
+        } catch (SQLException e) {
+            // expected
+        }
+
+        verify(this.statement).cancel();
+        assertThat(this.executions.get(0).isCancelled()).isTrue();
+        assertThat(this.metricsListener.getMetrics("ds").getQueryCount().getCancel()).isEqualTo(1);
+
+        // flag is cleared for next execution
+        doThrow(new SQLException("failure")).when(this.statement).executeQuery(anyString());
+        try {
+            stmt.executeQuery("SELECT * FROM emp");
+            fail("should fail");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertThat(this.executions.get(1).isCancelled()).isFalse();
+        assertThat(this.executions.get(1).isTimedOut()).isFalse();
+    }
+
+    @Test
+    public void watchdogCancelsExecution() throws Exception {
+        this.policy.setDefaultTimeout(1);
+        this.policy.setWatchdogEnabled(true);
+        this.policy.setWatchdogGracePeriod(0, TimeUnit.MILLISECONDS);
+
+        // driver ignoring the query timeout
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        when(this.preparedStatement.executeUpdate()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                if (!cancelled.await(10, TimeUnit.SECONDS)) {
+                    return 1;
+                }
+                throw new SQLException("cancelled");
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                cancelled.countDown();
+                return null;
+            }
+        }).when(this.preparedStatement).cancel();
+
+        PreparedStatement ps = this.dataSource.getConnection().prepareStatement("UPDATE emp SET name = ?");
+        long start = System.currentTimeMillis();
+        try {
+            ps.executeUpdate();
+            fail("should be cancelled");
+        } catch (SQLException e) {
+            // expected
+        }
+
+        assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(1000).isLessThan(10000);
+        assertThat(this.policy.getCancelCount()).isEqualTo(1);
+        assertThat(this.policy.getWatchedCount()).isEqualTo(0);
+        assertThat(this.executions.get(0).isCancelled()).isTrue();
+        assertThat(this.metricsListener.getMetrics("ds").getQueryCount().getCancel()).isEqualTo(1);
+    }
+
+    @Test
+    public void watchdogIgnoresFinishedExecution() throws Exception {
+        this.policy.setWatchdogEnabled(true);
+
+        PreparedStatement ps = this.dataSource.getConnection().prepareStatement("UPDATE emp SET name = ?");
+        ps.executeUpdate();
+        assertThat(this.policy.getWatchedCount()).isEqualTo(0);
+
+        this.policy.checkTimeouts();
+        verify(this.preparedStatement, never()).cancel();
+    }
+
+    @Test
+    public void releasePermitWhenWatchFailed() throws Exception {
+        QueryTimeoutPolicy policy = new QueryTimeoutPolicy(30) {
+            @Override
+            public Watch watch(Statement statement, int timeout) {
+                throw new IllegalStateException("watchdog is not available");
+            }
+        };
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        DataSource actual = mock(DataSource.class);
+        when(actual.getConnection()).thenReturn(this.connection);
+        DataSource ds = ProxyDataSourceBuilder.create(actual).queryTimeout(policy).limitConcurrency(limiter).build();
+
+        Connection conn = ds.getConnection();
+        Statement stmt = conn.createStatement();
+        PreparedStatement ps = conn.prepareStatement("UPDATE emp SET name = ?");
+        for (int i = 0; i < 2; i++) {
+            try {
+                stmt.executeQuery("SELECT * FROM emp");
+                fail("IllegalStateException is expected");
+            } catch (IllegalStateException ex) {
+            }
+            try {
+                ps.executeUpdate();
+                fail("IllegalStateException is expected");
+            } catch (IllegalStateException ex) {
+            }
+        }
+        assertThat(limiter.getDataSourceLimit().getActiveCount()).isEqualTo(0);
+    }
+
+}
@@ -98,4 +98,27 @@ public class ProxyConfigBuilderTest {
 
 
     }
+
+    @Test
+    public void listenersAreCopiedOnBuild() {
+        QueryExecutionListener queryListener1 = mock(QueryExecutionListener.class);
+        QueryExecutionListener queryListener2 = mock(QueryExecutionListener.class);
+        MethodExecutionListener methodListener1 = mock(MethodExecutionListener.class);
+        MethodExecutionListener methodListener2 = mock(MethodExecutionListener.class);
+
+        ProxyConfig.Builder builder = ProxyConfig.Builder.create().queryListener(queryListener1).methodListener(methodListener1);
+        ProxyConfig proxyConfig = builder.build();
+
+        // modifying builder does not affect built config
+        builder.queryListener(queryListener2).methodListener(methodListener2);
+        assertThat(proxyConfig.getQueryListener().getListeners()).containsExactly(queryListener1);
+        assertThat(proxyConfig.getMethodListener().getListeners()).containsExactly(methodListener1);
+        assertThat(builder.build().getQueryListener().getListeners()).containsExactly(queryListener1, queryListener2);
+
+        // returned lists are copies
+        proxyConfig.getQueryListener().getListeners().add(queryListener2);
+        proxyConfig.getMethodListener().getListeners().add(methodListener2);
+        assertThat(proxyConfig.getQueryListener().getListeners()).containsExactly(queryListener1);
+        assertThat(proxyConfig.getMethodListener().getListeners()).containsExactly(methodListener1);
+    }
 }
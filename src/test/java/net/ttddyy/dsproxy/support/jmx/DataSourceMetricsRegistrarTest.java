@@ -0,0 +1,91 @@
+package net.ttddyy.dsproxy.support.jmx;
+
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class DataSourceMetricsRegistrarTest {
+
+    private DataSource jdbcDataSource;
+    private MBeanServer mBeanServer;
+    private DataSourceMetricsRegistrar registrar;
+
+    @Before
+    public void setup() throws Exception {
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+        this.mBeanServer = MBeanServerFactory.newMBeanServer();
+        this.registrar = new DataSourceMetricsRegistrar(this.mBeanServer, "test");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        this.registrar.unregisterAll();
+        TestUtils.shutdown(this.jdbcDataSource);
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        ProxyDataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).name("myDS")
+                .registerMetricsMBean(this.registrar).build();
+
+        ObjectName objectName = new ObjectName("test:type=DataSourceMetrics,name=\"myDS\"");
+        assertThat(this.mBeanServer.isRegistered(objectName)).isTrue();
+
+        Connection conn = ds.getConnection();
+        Statement stmt = conn.createStatement();
+        stmt.executeQuery("SELECT id FROM emp");
+        stmt.executeQuery("SELECT id FROM emp");
+        stmt.executeUpdate("UPDATE emp SET name = 'FOO' WHERE id = 1");
+
+        this.mBeanServer.invoke(objectName, "refresh", null, null);
+        assertThat(this.mBeanServer.getAttribute(objectName, "DataSourceName")).isEqualTo("myDS");
+        assertThat(this.mBeanServer.getAttribute(objectName, "Select")).isEqualTo(2L);
+        assertThat(this.mBeanServer.getAttribute(objectName, "Update")).isEqualTo(1L);
+        assertThat(this.mBeanServer.getAttribute(objectName, "Total")).isEqualTo(3L);
+        assertThat(this.mBeanServer.getAttribute(objectName, "Statement")).isEqualTo(3L);
+        assertThat(this.mBeanServer.getAttribute(objectName, "OpenConnectionCount")).isEqualTo(1);
+        assertThat((long[]) this.mBeanServer.getAttribute(objectName, "OpenConnectionIds")).hasSize(1);
+        assertThat((Long) this.mBeanServer.getAttribute(objectName, "Latency99thPercentile")).isGreaterThanOrEqualTo(0L);
+
+        conn.close();
+
+        // values come from the snapshot until it is refreshed
+        assertThat(this.mBeanServer.getAttribute(objectName, "OpenConnectionCount")).isEqualTo(1);
+        this.mBeanServer.invoke(objectName, "refresh", null, null);
+        assertThat(this.mBeanServer.getAttribute(objectName, "OpenConnectionCount")).isEqualTo(0);
+
+        this.mBeanServer.invoke(objectName, "reset", null, null);
+        assertThat(this.mBeanServer.getAttribute(objectName, "Total")).isEqualTo(0L);
+        assertThat(this.mBeanServer.getAttribute(objectName, "LatencyMax")).isEqualTo(0L);
+    }
+
+    @Test
+    public void unregister() throws Exception {
+        ProxyDataSourceBuilder.create(this.jdbcDataSource).name("myDS").registerMetricsMBean(this.registrar).build();
+        ObjectName objectName = this.registrar.getObjectName("myDS");
+        assertThat(this.mBeanServer.isRegistered(objectName)).isTrue();
+
+        // registering the same name replaces the existing one
+        ProxyDataSourceBuilder.create(this.jdbcDataSource).name("myDS").registerMetricsMBean(this.registrar).build();
+        assertThat(this.registrar.getRegisteredObjectNames()).containsExactly(objectName);
+
+        this.registrar.unregister("myDS");
+        assertThat(this.mBeanServer.isRegistered(objectName)).isFalse();
+    }
+
+}
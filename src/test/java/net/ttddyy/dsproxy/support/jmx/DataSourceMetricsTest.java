@@ -0,0 +1,30 @@
+package net.ttddyy.dsproxy.support.jmx;
+
+import net.ttddyy.dsproxy.listener.QueryMetrics;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class DataSourceMetricsTest {
+
+    @Test
+    public void latencyPercentiles() {
+        QueryMetrics queryMetrics = new QueryMetrics("myDS");
+        for (int i = 0; i < 98; i++) {
+            queryMetrics.getLatencyHistogram().record(1);
+        }
+        queryMetrics.getLatencyHistogram().record(100);
+        queryMetrics.getLatencyHistogram().record(1000);
+
+        DataSourceMetrics metrics = new DataSourceMetrics(queryMetrics, null);
+        assertThat(metrics.getLatency50thPercentile()).isEqualTo(1);
+        assertThat(metrics.getLatency95thPercentile()).isEqualTo(1);
+        assertThat(metrics.getLatency99thPercentile()).isEqualTo(127);  // upper bound of the bucket
+        assertThat(metrics.getLatencyMax()).isEqualTo(1000);
+        assertThat(metrics.getOpenConnectionCount()).isEqualTo(0);
+    }
+
+}
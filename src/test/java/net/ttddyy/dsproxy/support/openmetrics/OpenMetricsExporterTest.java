@@ -0,0 +1,124 @@
+package net.ttddyy.dsproxy.support.openmetrics;
+
+import net.ttddyy.dsproxy.QueryCount;
+import net.ttddyy.dsproxy.listener.QueryMetrics;
+import net.ttddyy.dsproxy.listener.QueryMetricsListener;
+import net.ttddyy.dsproxy.proxy.ConcurrencyLimiter;
+import net.ttddyy.dsproxy.proxy.DefaultConnectionIdManager;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.sql.Connection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class OpenMetricsExporterTest {
+
+    private QueryMetricsListener createListener() {
+        QueryMetricsListener listener = new QueryMetricsListener();
+        QueryMetrics metrics = listener.getOrCreateMetrics("my\"DS");
+        QueryCount count = metrics.getQueryCount();
+        count.incrementSelect();
+        count.incrementSelect();
+        count.incrementInsert();
+        count.incrementPrepared();
+        count.incrementSuccess();
+        count.incrementFailure();
+        metrics.getLatencyHistogram().record(0);
+        metrics.getLatencyHistogram().record(5);
+        metrics.getLatencyHistogram().record(1500);
+        return listener;
+    }
+
+    @Test
+    public void write() throws Exception {
+        DefaultConnectionIdManager connectionIdManager = new DefaultConnectionIdManager();
+        connectionIdManager.getId(mock(Connection.class));
+
+        OpenMetricsExporter exporter = new OpenMetricsExporter(createListener());
+        exporter.addConnectionIdManager("my\"DS", connectionIdManager);
+
+        StringWriter writer = new StringWriter();
+        exporter.write(writer);
+        String result = writer.toString();
+
+        assertThat(result).contains(
+                "# TYPE dsproxy_queries counter\n",
+                "dsproxy_queries_total{datasource=\"my\\\"DS\",type=\"select\"} 2\n",
+                "dsproxy_queries_total{datasource=\"my\\\"DS\",type=\"insert\"} 1\n",
+                "dsproxy_queries_total{datasource=\"my\\\"DS\",type=\"update\"} 0\n",
+                "dsproxy_statements_total{datasource=\"my\\\"DS\",type=\"prepared\"} 1\n",
+                "dsproxy_executions_total{datasource=\"my\\\"DS\",result=\"failure\"} 1\n",
+                "# TYPE dsproxy_query_duration_seconds histogram\n",
+                "# UNIT dsproxy_query_duration_seconds seconds\n",
+                "dsproxy_query_duration_seconds_bucket{datasource=\"my\\\"DS\",le=\"0.000\"} 1\n",
+                "dsproxy_query_duration_seconds_bucket{datasource=\"my\\\"DS\",le=\"0.007\"} 2\n",
+                "dsproxy_query_duration_seconds_bucket{datasource=\"my\\\"DS\",le=\"2.047\"} 3\n",
+                "dsproxy_query_duration_seconds_bucket{datasource=\"my\\\"DS\",le=\"+Inf\"} 3\n",
+                "dsproxy_query_duration_seconds_count{datasource=\"my\\\"DS\"} 3\n",
+                "dsproxy_query_duration_seconds_sum{datasource=\"my\\\"DS\"} 1.505\n",
+                "dsproxy_slow_queries_total{datasource=\"my\\\"DS\"} 0\n",
+                "# TYPE dsproxy_open_connections gauge\n",
+                "dsproxy_open_connections{datasource=\"my\\\"DS\"} 1\n"
+        );
+        // empty buckets are written as well
+        assertThat(result).contains("dsproxy_query_duration_seconds_bucket{datasource=\"my\\\"DS\",le=\"4.095\"} 3\n");
+        assertThat(result).endsWith("# EOF\n");
+    }
+
+    @Test
+    public void concurrencyLimiter() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(5);
+        limiter.acquire(null, null);
+
+        OpenMetricsExporter exporter = new OpenMetricsExporter(new QueryMetricsListener());
+        exporter.addConcurrencyLimiter("myDS", limiter);
+
+        StringWriter writer = new StringWriter();
+        exporter.write(writer);
+
+        assertThat(writer.toString()).contains(
+                "# TYPE dsproxy_concurrency_limit gauge\n",
+                "dsproxy_concurrency_limit{datasource=\"myDS\"} 5\n",
+                "dsproxy_concurrency_in_flight{datasource=\"myDS\"} 1\n",
+                "dsproxy_concurrency_waiting{datasource=\"myDS\"} 0\n",
+                "# TYPE dsproxy_concurrency_rejected counter\n",
+                "dsproxy_concurrency_rejected_total{datasource=\"myDS\"} 0\n"
+        );
+    }
+
+    @Test
+    public void httpServer() throws Exception {
+        OpenMetricsExporter exporter = new OpenMetricsExporter(createListener());
+        OpenMetricsHttpServer server = new OpenMetricsHttpServer(exporter, new InetSocketAddress("localhost", 0));
+        server.start();
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/metrics");
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            assertThat(conn.getResponseCode()).isEqualTo(200);
+            assertThat(conn.getContentType()).isEqualTo(OpenMetricsExporter.CONTENT_TYPE);
+
+            InputStream in = conn.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            in.close();
+            assertThat(out.toString("UTF-8")).contains("dsproxy_queries_total").endsWith("# EOF\n");
+        } finally {
+            server.stop();
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+package net.ttddyy.dsproxy.support.routing;
+
+import net.ttddyy.dsproxy.TestUtils;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class ReadWriteRoutingDataSourceTest {
+
+    private static final String SELECT = "SELECT name FROM emp WHERE id = 1";
+
+    private DataSource primary;
+    private DataSource replica0;
+    private DataSource replica1;
+    private ReadWriteRoutingDataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        this.primary = createDatabase("primary");
+        this.replica0 = createDatabase("replica0");
+        this.replica1 = createDatabase("replica1");
+        this.dataSource = new ReadWriteRoutingDataSource(this.primary, Arrays.asList(this.replica0, this.replica1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.shutdown(this.primary);
+        TestUtils.shutdown(this.replica0);
+        TestUtils.shutdown(this.replica1);
+    }
+
+    // each database has a row whose name is the database name
+    private static DataSource createDatabase(String name) throws Exception {
+        JDBCDataSource dataSource = new JDBCDataSource();
+        dataSource.setDatabase("jdbc:hsqldb:mem:" + name);
+        dataSource.setUser("sa");
+        Connection conn = dataSource.getConnection();
+        Statement stmt = conn.createStatement();
+        stmt.execute("create table emp ( id integer primary key, name varchar(10) );");
+        stmt.execute("insert into emp ( id, name )values (1, '" + name + "');");
+        conn.close();
+        return dataSource;
+    }
+
+    private static String selectName(Connection conn) throws Exception {
+        PreparedStatement ps = conn.prepareStatement(SELECT);
+        ResultSet rs = ps.executeQuery();
+        rs.next();
+        String name = rs.getString(1);
+        ps.close();
+        return name;
+    }
+
+    private static String selectName(DataSource dataSource) throws Exception {
+        Connection conn = dataSource.getConnection();
+        try {
+            return selectName(conn);
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void updateName(Connection conn, String name) throws Exception {
+        PreparedStatement ps = conn.prepareStatement("UPDATE emp SET name = ? WHERE id = 1");
+        ps.setString(1, name);
+        ps.executeUpdate();
+        ps.close();
+    }
+
+    @Test
+    public void routeReadToReplica() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        assertThat(selectName(conn)).startsWith("replica");
+        conn.close();
+
+        assertThat(this.dataSource.getPrimaryConnectionCount()).isEqualTo(0);
+        Replica replica = this.dataSource.getReplicas().get(0);
+        Replica other = this.dataSource.getReplicas().get(1);
+        assertThat(replica.getTotalConnectionCount() + other.getTotalConnectionCount()).isEqualTo(1);
+        assertThat(replica.getExecutionCount() + other.getExecutionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void routeWriteToPrimary() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        updateName(conn, "updated");
+        conn.close();
+
+        assertThat(selectName(this.primary)).isEqualTo("updated");
+        assertThat(selectName(this.replica0)).isEqualTo("replica0");
+        assertThat(selectName(this.replica1)).isEqualTo("replica1");
+    }
+
+    @Test
+    public void readOnlyTransactionDoesNotTouchPrimary() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        assertThat(conn.getAutoCommit()).isFalse();
+        String first = selectName(conn);
+        String second = selectName(conn);
+        conn.commit();
+        conn.close();
+
+        assertThat(first).startsWith("replica").isEqualTo(second);  // same replica in a transaction
+        assertThat(this.dataSource.getPrimaryConnectionCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void readAfterWriteInTransactionGoesToPrimary() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        assertThat(selectName(conn)).startsWith("replica");
+
+        updateName(conn, "updated");
+        assertThat(selectName(conn)).isEqualTo("updated");  // sees own uncommitted write
+        conn.commit();
+
+        // new transaction starts reading from replica
+        assertThat(selectName(conn)).startsWith("replica");
+        conn.close();
+
+        assertThat(selectName(this.primary)).isEqualTo("updated");
+        assertThat(this.dataSource.getPrimaryConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void readAfterWriteInAutoCommitGoesToReplica() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        updateName(conn, "updated");
+        assertThat(selectName(conn)).startsWith("replica");
+        conn.close();
+    }
+
+    @Test
+    public void rollbackOnPrimary() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        updateName(conn, "updated");
+        conn.rollback();
+        conn.close();
+
+        assertThat(selectName(this.primary)).isEqualTo("primary");
+    }
+
+    @Test
+    public void readOnlyConnectionGoesToReplica() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setReadOnly(true);
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery(SELECT);
+        rs.next();
+        assertThat(rs.getString(1)).startsWith("replica");
+        assertThat(stmt.getConnection().isReadOnly()).isTrue();  // setting is replayed
+        conn.close();
+
+        assertThat(this.dataSource.getPrimaryConnectionCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void statementWithoutQueryGoesToPrimary() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery(SELECT);
+        rs.next();
+        assertThat(rs.getString(1)).isEqualTo("primary");
+        conn.close();
+    }
+
+    @Test
+    public void unusedConnectionDoesNotBorrow() throws Exception {
+        Connection conn = this.dataSource.getConnection();
+        conn.setAutoCommit(false);
+        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        assertThat(conn.getTransactionIsolation()).isEqualTo(Connection.TRANSACTION_SERIALIZABLE);
+        conn.commit();
+        conn.close();
+        assertThat(conn.isClosed()).isTrue();
+
+        assertThat(this.dataSource.getPrimaryConnectionCount()).isEqualTo(0);
+        assertThat(this.dataSource.getReplicas().get(0).getTotalConnectionCount()).isEqualTo(0);
+        assertThat(this.dataSource.getReplicas().get(1).getTotalConnectionCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void defaultsFromPrimary() throws Exception {
+        Connection physical = mock(Connection.class);
+        when(physical.getAutoCommit()).thenReturn(false);
+        when(physical.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+        DataSource primary = mock(DataSource.class);
+        when(primary.getConnection()).thenReturn(physical);
+        ReadWriteRoutingDataSource dataSource = new ReadWriteRoutingDataSource(primary, Arrays.asList(this.replica0));
+
+        Connection conn = dataSource.getConnection();
+        assertThat(conn.getAutoCommit()).isFalse();  // borrows the primary to read the default
+        assertThat(conn.isReadOnly()).isFalse();
+        conn.prepareStatement("UPDATE emp SET name = 'foo' WHERE id = 1");
+
+        // in a transaction after a write, reads stay on the primary
+        conn.prepareStatement(SELECT);
+        verify(physical).prepareStatement(SELECT);
+        conn.close();
+        assertThat(dataSource.getPrimaryConnectionCount()).isEqualTo(1);
+        assertThat(dataSource.getReplicas().get(0).getTotalConnectionCount()).isEqualTo(0);
+
+        // defaults are known once learned
+        conn = dataSource.getConnection();
+        assertThat(conn.getAutoCommit()).isFalse();
+        conn.close();
+        assertThat(dataSource.getPrimaryConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void balanceConnections() throws Exception {
+        Connection conn1 = this.dataSource.getConnection();
+        Connection conn2 = this.dataSource.getConnection();
+        assertThat(selectName(conn1)).isNotEqualTo(selectName(conn2));
+        conn1.close();
+        conn2.close();
+    }
+
+    @Test
+    public void skipLaggingReplica() throws Exception {
+        final Replica lagging = this.dataSource.getReplicas().get(0);
+        this.dataSource.setReplicaLagPolicy(new ReplicaLagPolicy() {
+            @Override
+            public boolean isAvailable(Replica replica) {
+                return replica != lagging;
+            }
+        });
+        for (int i = 0; i < 4; i++) {
+            assertThat(selectName(this.dataSource)).isEqualTo("replica1");
+        }
+
+        // all replicas behind
+        this.dataSource.setReplicaLagPolicy(new ReplicaLagPolicy() {
+            @Override
+            public boolean isAvailable(Replica replica) {
+                return false;
+            }
+        });
+        assertThat(selectName(this.dataSource)).isEqualTo("primary");
+    }
+
+    @Test
+    public void keepLaggingReplicaConnectionUntilClose() throws Exception {
+        final String[] lagging = new String[1];
+        this.dataSource.setReplicaLagPolicy(new ReplicaLagPolicy() {
+            @Override
+            public boolean isAvailable(Replica replica) {
+                return !replica.getName().equals(lagging[0]);
+            }
+        });
+
+        Connection conn = this.dataSource.getConnection();
+        PreparedStatement ps = conn.prepareStatement(SELECT);
+        ResultSet rs = ps.executeQuery();
+        Connection replicaConnection = ps.getConnection();
+
+        // the replica falls behind while its result set is still open
+        Replica first = this.dataSource.getReplicas().get(0).getTotalConnectionCount() == 1
+                ? this.dataSource.getReplicas().get(0) : this.dataSource.getReplicas().get(1);
+        lagging[0] = first.getName();
+        PreparedStatement other = conn.prepareStatement(SELECT);
+        assertThat(other.getConnection()).isNotSameAs(replicaConnection);
+        assertThat(replicaConnection.isClosed()).isFalse();
+        assertThat(rs.next()).isTrue();
+        assertThat(rs.getString(1)).startsWith("replica");
+
+        // only the first replica is available again. the kept connection is reused.
+        final String available = first.getName();
+        this.dataSource.setReplicaLagPolicy(new ReplicaLagPolicy() {
+            @Override
+            public boolean isAvailable(Replica replica) {
+                return replica.getName().equals(available);
+            }
+        });
+        assertThat(conn.prepareStatement(SELECT).getConnection()).isSameAs(replicaConnection);
+        assertThat(first.getTotalConnectionCount()).isEqualTo(1);
+
+        conn.close();
+        assertThat(replicaConnection.isClosed()).isTrue();
+        assertThat(other.getConnection().isClosed()).isTrue();
+    }
+
+    @Test
+    public void latencyWeightedSelector() {
+        Replica fast = this.dataSource.getReplicas().get(0);
+        Replica slow = this.dataSource.getReplicas().get(1);
+        fast.recordLatency(1);
+        slow.recordLatency(10);
+
+        LatencyWeightedReplicaSelector selector = new LatencyWeightedReplicaSelector();
+        for (int i = 0; i < 10; i++) {
+            assertThat(selector.select(this.dataSource.getReplicas())).isSameAs(fast);
+        }
+    }
+
+    @Test
+    public void isReadQuery() {
+        assertThat(this.dataSource.isReadQuery("SELECT * FROM emp")).isTrue();
+        assertThat(this.dataSource.isReadQuery("select * from emp for update")).isFalse();
+        assertThat(this.dataSource.isReadQuery("SELECT * FROM emp FOR SHARE")).isFalse();
+        assertThat(this.dataSource.isReadQuery("UPDATE emp SET name = 'foo'")).isFalse();
+    }
+
+}
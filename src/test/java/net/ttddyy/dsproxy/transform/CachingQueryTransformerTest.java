@@ -0,0 +1,150 @@
+package net.ttddyy.dsproxy.transform;
+
+import net.ttddyy.dsproxy.TestUtils;
+import net.ttddyy.dsproxy.proxy.ProxyConfig;
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Tadaya Tsuyukubo
+ */
+public class CachingQueryTransformerTest {
+
+    private DataSource jdbcDataSource;
+    private List<TransformInfo> transformInfos = new ArrayList<TransformInfo>();
+
+    private class CommentingTransformer implements DeterministicQueryTransformer {
+        @Override
+        public String transformQuery(TransformInfo transformInfo) {
+            transformInfos.add(transformInfo);
+            return "/* tenant */ " + transformInfo.getQuery();
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        this.jdbcDataSource = TestUtils.getDataSourceWithData();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        TestUtils.shutdown(this.jdbcDataSource);
+    }
+
+    @Test
+    public void cache() {
+        CachingQueryTransformer transformer = new CachingQueryTransformer(new CommentingTransformer());
+
+        String result = transformer.transformQuery(new TransformInfo(Statement.class, "myDS", "SELECT 1", false, 0));
+        assertThat(result).isEqualTo("/* tenant */ SELECT 1");
+        assertThat(transformer.getMissCount()).isEqualTo(1);
+        assertThat(transformer.getHitCount()).isEqualTo(0);
+
+        result = transformer.transformQuery(new TransformInfo(Statement.class, "myDS", "SELECT 1", false, 0));
+        assertThat(result).isEqualTo("/* tenant */ SELECT 1");
+        assertThat(transformer.getHitCount()).isEqualTo(1);
+        assertThat(this.transformInfos).hasSize(1);
+
+        // different key
+        transformer.transformQuery(new TransformInfo(PreparedStatement.class, "myDS", "SELECT 1", false, 0));
+        transformer.transformQuery(new TransformInfo(Statement.class, "otherDS", "SELECT 1", false, 0));
+        transformer.transformQuery(new TransformInfo(Statement.class, "myDS", "SELECT 1", true, 0));
+        assertThat(transformer.getMissCount()).isEqualTo(4);
+        assertThat(transformer.getSize()).isEqualTo(4);
+
+        // count is not part of the key
+        transformer.transformQuery(new TransformInfo(Statement.class, "myDS", "SELECT 1", true, 5));
+        assertThat(transformer.getHitCount()).isEqualTo(2);
+
+        transformer.clear();
+        assertThat(transformer.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void bounded() {
+        CachingQueryTransformer transformer = new CachingQueryTransformer(new CommentingTransformer(), 3);
+        for (int i = 0; i < 10; i++) {
+            transformer.transformQuery(new TransformInfo(Statement.class, "myDS", "SELECT " + i, false, 0));
+        }
+        assertThat(transformer.getSize()).isEqualTo(3);
+        assertThat(transformer.getMissCount()).isEqualTo(10);
+
+        // the most recently added query is always cached
+        assertThat(transformer.getCachedQuery(Statement.class, "myDS", "SELECT 9", false)).isEqualTo("/* tenant */ SELECT 9");
+    }
+
+    @Test
+    public void getCachedQuery() {
+        CachingQueryTransformer transformer = new CachingQueryTransformer(new CommentingTransformer());
+        assertThat(transformer.getCachedQuery(Statement.class, "myDS", "SELECT 1", false)).isNull();
+
+        transformer.transformQuery(new TransformInfo(Statement.class, "myDS", "SELECT 1", false, 0));
+        transformer.transformQuery(new TransformInfo(PreparedStatement.class, null, "SELECT 1", false, 0));
+        assertThat(transformer.getCachedQuery(Statement.class, "myDS", "SELECT 1", false)).isEqualTo("/* tenant */ SELECT 1");
+        assertThat(transformer.getCachedQuery(PreparedStatement.class, null, "SELECT 1", false)).isEqualTo("/* tenant */ SELECT 1");
+        assertThat(transformer.getCachedQuery(Statement.class, "myDS", "SELECT 1", true)).isNull();
+        assertThat(transformer.getCachedQuery(PreparedStatement.class, "myDS", "SELECT 1", false)).isNull();
+        assertThat(transformer.getHitCount()).isEqualTo(2);
+        assertThat(this.transformInfos).hasSize(2);
+    }
+
+    @Test
+    public void wrappedByProxyConfig() {
+        ProxyConfig proxyConfig = ProxyConfig.Builder.create().queryTransformer(new CommentingTransformer()).build();
+        assertThat(proxyConfig.getQueryTransformer()).isInstanceOf(CachingQueryTransformer.class);
+
+        // not wrapped twice
+        ProxyConfig copied = ProxyConfig.Builder.from(proxyConfig).build();
+        assertThat(copied.getQueryTransformer()).isSameAs(proxyConfig.getQueryTransformer());
+
+        // non deterministic transformer is used as is
+        QueryTransformer transformer = new QueryTransformer() {
+            @Override
+            public String transformQuery(TransformInfo transformInfo) {
+                return transformInfo.getQuery();
+            }
+        };
+        proxyConfig = ProxyConfig.Builder.create().queryTransformer(transformer).build();
+        assertThat(proxyConfig.getQueryTransformer()).isSameAs(transformer);
+    }
+
+    @Test
+    public void statement() throws Exception {
+        ProxyDataSource ds = ProxyDataSourceBuilder.create(this.jdbcDataSource).name("myDS")
+                .queryTransformer(new CommentingTransformer()).build();
+        CachingQueryTransformer transformer = (CachingQueryTransformer) ds.getProxyConfig().getQueryTransformer();
+
+        Connection conn = ds.getConnection();
+        Statement stmt = conn.createStatement();
+        stmt.executeQuery("SELECT * FROM emp");
+        stmt.executeQuery("SELECT * FROM emp");
+        conn.prepareStatement("SELECT * FROM emp WHERE id = ?").close();
+        conn.prepareStatement("SELECT * FROM emp WHERE id = ?").close();
+        assertThat(this.transformInfos).hasSize(2);
+        assertThat(transformer.getHitCount()).isEqualTo(2);
+
+        // repeated addBatch reuses previous result without looking up the cache
+        stmt.addBatch("UPDATE emp SET name = 'foo'");
+        stmt.addBatch("UPDATE emp SET name = 'foo'");
+        stmt.addBatch("UPDATE emp SET name = 'foo'");
+        stmt.executeBatch();
+        conn.close();
+        assertThat(this.transformInfos).hasSize(3);
+        assertThat(this.transformInfos.get(2).isBatch()).isTrue();
+        assertThat(transformer.getHitCount()).isEqualTo(2);
+        assertThat(transformer.getMissCount()).isEqualTo(3);
+    }
+
+}
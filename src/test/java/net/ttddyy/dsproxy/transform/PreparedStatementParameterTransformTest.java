@@ -18,11 +18,13 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.isA;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.only;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -232,4 +234,72 @@ public class PreparedStatementParameterTransformTest {
 
     }
 
+    @Test
+    public void replaceParamRebindsOnlyChangedParameter() throws Exception {
+        ParameterTransformer paramTransformer = new ParameterTransformer() {
+            @Override
+            public void transformParameters(ParameterReplacer replacer, TransformInfo transformInfo) {
+                replacer.setString(2, "masked");
+            }
+        };
+        ProxyConfig proxyConfig = ProxyConfig.Builder.create().parameterTransformer(paramTransformer).build();
+
+        PreparedStatement ps = mock(PreparedStatement.class);
+        PreparedStatement proxy = new JdkJdbcProxyFactory().createPreparedStatement(ps, "UPDATE foo SET name = ? WHERE id = ?", new ConnectionInfo(), null, proxyConfig);
+        proxy.setInt(1, 1);
+        proxy.setString(2, "secret");
+        proxy.executeUpdate();
+
+        verify(ps).setInt(1, 1);
+        verify(ps).setString(2, "secret");
+        verify(ps).setString(2, "masked");
+        verify(ps, never()).clearParameters();
+    }
+
+    @Test
+    public void selectiveParameterTransformer() throws Exception {
+        final AtomicInteger applicableCount = new AtomicInteger();
+        final AtomicInteger transformCount = new AtomicInteger();
+        SelectiveParameterTransformer paramTransformer = new SelectiveParameterTransformer() {
+            @Override
+            public boolean isApplicable(String query) {
+                applicableCount.incrementAndGet();
+                return query.contains("AND");
+            }
+
+            @Override
+            public void transformParameters(ParameterReplacer replacer, TransformInfo transformInfo) {
+                transformCount.incrementAndGet();
+                replacer.setInt(2, 2);
+            }
+        };
+
+        Connection connection = getProxyConnection(paramTransformer);
+
+        // not applicable
+        PreparedStatement ps = connection.prepareStatement("SELECT id, name FROM foo WHERE id = ?");
+        ps.setInt(1, 1);
+        ps.executeQuery();
+        ps.executeQuery();
+
+        assertThat(applicableCount.get()).isEqualTo(1);
+        assertThat(transformCount.get()).isEqualTo(0);
+
+        // applicable
+        ps = connection.prepareStatement("SELECT id, name FROM foo WHERE id = ? AND id = ?");
+        ps.setInt(1, 1);
+        ps.setInt(2, 1);
+        ResultSet rs = ps.executeQuery();
+        assertThat(rs.next()).isFalse();
+
+        ps.setInt(1, 2);
+        ps.setInt(2, 1);
+        rs = ps.executeQuery();
+        assertThat(rs.next()).isTrue();
+        assertThat(rs.getString(2)).isEqualTo("bar");
+
+        assertThat(applicableCount.get()).isEqualTo(2);
+        assertThat(transformCount.get()).isEqualTo(2);
+    }
+
 }